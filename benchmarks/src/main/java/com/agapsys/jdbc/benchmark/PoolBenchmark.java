@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc.benchmark;
+
+import com.agapsys.jdbc.DataSourceFactory;
+import com.agapsys.jdbc.PoolEngine;
+import com.agapsys.jdbc.PoolSettings;
+import com.agapsys.jdbc.PooledDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Borrow/return throughput of pools created by {@link DataSourceFactory}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+	// INSTANCE SCOPE ==========================================================
+	/** Maximum number of connections in the pool. */
+	@Param({"8", "64"})
+	public int maxConnections;
+	
+	/** Pool engine. */
+	@Param({"DBCP", "NATIVE"})
+	public PoolEngine engine;
+	
+	private PooledDataSource dataSource;
+	
+	@Setup
+	public void setUp() throws ClassNotFoundException {
+		PoolSettings settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:pool_benchmark;DB_CLOSE_DELAY=-1");
+		settings.setMaxConnections(maxConnections);
+		settings.setMaxIdleConnections(maxConnections);
+		settings.setMinIdleConnections(maxConnections);
+		settings.setMaxWaitMillis(60000);
+		settings.setWarmUp(true);
+		settings.setPoolEngine(engine);
+		
+		dataSource = DataSourceFactory.getDataSource(settings);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		dataSource.close();
+	}
+	
+	private Connection borrowAndReturn() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		connection.close();
+		return connection;
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public Connection threads01() throws SQLException {
+		return borrowAndReturn();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public Connection threads04() throws SQLException {
+		return borrowAndReturn();
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public Connection threads16() throws SQLException {
+		return borrowAndReturn();
+	}
+	
+	@Benchmark
+	@Threads(64)
+	public Connection threads64() throws SQLException {
+		return borrowAndReturn();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc.benchmark;
+
+import com.agapsys.jdbc.SqlErrorType;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of {@link SqlErrorType#getInstance(SQLException)}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlErrorTypeBenchmark {
+	// CLASS SCOPE =============================================================
+	/** SQL states of common errors (integrity violations, connection failures, data errors, etc). */
+	private static final String[] SQL_STATES = {"23505", "23503", "08001", "08006", "22001", "22012", "0A000", "25P02", "2D000", "40001"};
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final SQLException[] errors = new SQLException[SQL_STATES.length];
+	
+	{
+		for (int i = 0; i < SQL_STATES.length; i++)
+			errors[i] = new SQLException("Benchmark error", SQL_STATES[i]);
+	}
+	
+	/** Classifies each error of a fixed set (cost per operation is the cost of classifying all errors in the set). */
+	@Benchmark
+	public void classify(Blackhole blackhole) {
+		for (SQLException error : errors)
+			blackhole.consume(SqlErrorType.getInstance(error));
+	}
+	// =========================================================================
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc.benchmark;
+
+import com.agapsys.jdbc.SqlRunner;
+import com.agapsys.jdbc.SqlScript;
+import com.agapsys.jdbc.SqlTokenizer;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing ({@link SqlTokenizer}) and execution ({@link SqlRunner}) of SQL scripts.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlRunnerBenchmark {
+	// CLASS SCOPE =============================================================
+	/** Builds a script with given number of INSERT statements mixing comments and quoted literals. */
+	private static String buildScript(int statements) {
+		StringBuilder sb = new StringBuilder(statements * 80);
+		
+		for (int i = 0; i < statements; i++) {
+			if (i % 100 == 0)
+				sb.append("-- Block ").append(i / 100).append('\n');
+			
+			sb.append("INSERT INTO benchmark (id, name) VALUES (").append(i).append(", 'name; ").append(i).append(" ''quoted''');\n");
+		}
+		
+		return sb.toString();
+	}
+	
+	/** In-memory database where the script is executed. */
+	@State(Scope.Thread)
+	public static class Database {
+		/** Maximum number of statements per batch. */
+		@Param({"1", "100"})
+		public int batchSize;
+		
+		private Connection connection;
+		
+		@Setup
+		public void setUp() throws SQLException {
+			connection = DriverManager.getConnection("jdbc:h2:mem:");
+			
+			try (Statement stmt = connection.createStatement()) {
+				stmt.execute("CREATE TABLE benchmark (id INT, name VARCHAR(64))");
+			}
+		}
+		
+		@Setup(Level.Iteration)
+		public void truncate() throws SQLException {
+			try (Statement stmt = connection.createStatement()) {
+				stmt.execute("TRUNCATE TABLE benchmark");
+			}
+			
+			connection.commit();
+		}
+		
+		@TearDown
+		public void tearDown() throws SQLException {
+			connection.close();
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Number of statements in the script ("100" is about 5 KB, "100000" is about 5 MB). */
+	@Param({"100", "100000"})
+	public int statements;
+	
+	private String script;
+	
+	@Setup
+	public void setUp() {
+		script = buildScript(statements);
+	}
+	
+	/** Tokenizes the script without executing it. */
+	@Benchmark
+	public long parse() throws IOException {
+		long count = 0;
+		
+		try (SqlTokenizer tokenizer = SqlTokenizer.forString(script)) {
+			while (tokenizer.next() != null)
+				count++;
+		}
+		
+		return count;
+	}
+	
+	/** Tokenizes and executes the script. */
+	@Benchmark
+	public List<int[]> execute(Database database) throws SQLException, IOException {
+		return SqlRunner.run(database.connection, SqlScript.fromString("benchmark", script), database.batchSize, null);
+	}
+	// =========================================================================
+}
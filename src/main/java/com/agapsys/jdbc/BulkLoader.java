@@ -0,0 +1,540 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Loads delimited files (CSV, TSV, etc.) into a database table.
+ * Files are streamed through NIO channels (files are never loaded entirely
+ * into memory) and rows are inserted through batched prepared statements.
+ * Files can be split into byte-range partitions which are loaded in
+ * parallel, each one using its own connection obtained from a data source
+ * (e.g. {@link DataSourceFactory#getDataSource(PoolSettings)}).
+ * <p>Values are bound according to the types of the target columns. An
+ * empty unquoted field is loaded as NULL, while an empty quoted field is
+ * loaded as an empty string. Blank lines are ignored, except when loading a
+ * single column, where they are loaded as NULL values.</p>
+ * <p>Partitions are aligned to line boundaries, so parallel loads require
+ * that quoted fields do not contain line breaks. Each partition commits its
+ * own work, so a failed load may leave other partitions loaded.</p>
+ * <p>Supported charsets are the ones compatible with ASCII (e.g. UTF-8 and ISO-8859-1).</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class BulkLoader {
+	// CLASS SCOPE =============================================================
+	public static final int DEFAULT_BATCH_SIZE  = 1000;
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+	
+	/** Load result. */
+	public static class Result {
+		private final long[]          partitionRows;
+		private final List<Exception> errors;
+		private final long            elapsedNanos;
+		
+		private Result(long[] partitionRows, List<Exception> errors, long elapsedNanos) {
+			this.partitionRows = partitionRows;
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+		}
+		
+		/** Returns the total number of committed rows. */
+		public long getRows() {
+			long rows = 0;
+			for (long partition : partitionRows)
+				rows += partition;
+			
+			return rows;
+		}
+		
+		/** Returns the number of rows committed by each partition (a failed partition may have committed some batches). */
+		public long[] getPartitionRows() {
+			return Arrays.copyOf(partitionRows, partitionRows.length);
+		}
+		
+		/** Returns the errors raised by failed partitions (an empty list if all partitions were successfully loaded). */
+		public List<Exception> getErrors() {
+			return errors;
+		}
+		
+		/** Returns a boolean indicating if all partitions were successfully loaded. */
+		public boolean isSuccessful() {
+			return errors.isEmpty();
+		}
+		
+		/** Returns the time spent (in milliseconds) to load the file. */
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d rows in %d ms (%d partitions, %d errors)", getRows(), getElapsedMillis(), partitionRows.length, errors.size());
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final DataSource dataSource;
+	private final String     tableName;
+	private final String[]   columns;
+	
+	private byte    delimiter   = ',';
+	private byte    quote       = '"';
+	private boolean header      = false;
+	private int     batchSize   = DEFAULT_BATCH_SIZE;
+	private int     parallelism = 1;
+	private int     bufferSize  = DEFAULT_BUFFER_SIZE;
+	private Charset charset     = Charset.forName("UTF-8");
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source used to obtain connections
+	 * @param tableName target table
+	 * @param columns target columns (in the same order of the fields in the file)
+	 * @throws IllegalArgumentException if dataSource == null || tableName == null || tableName.isEmpty() || columns is empty
+	 */
+	public BulkLoader(DataSource dataSource, String tableName, String...columns) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null dataSource");
+		
+		if (tableName == null || tableName.isEmpty())
+			throw new IllegalArgumentException("Null/Empty table name");
+		
+		if (columns == null || columns.length == 0)
+			throw new IllegalArgumentException("Null/Empty columns");
+		
+		for (String column : columns) {
+			if (column == null || column.isEmpty())
+				throw new IllegalArgumentException("Null/Empty column");
+		}
+		
+		this.dataSource = dataSource;
+		this.tableName = tableName;
+		this.columns = columns.clone();
+	}
+	
+	/** Returns field delimiter. */
+	public char getDelimiter() {
+		return (char) delimiter;
+	}
+	/** Sets field delimiter (default: ','). Use '\t' for TSV files. */
+	public void setDelimiter(char delimiter) {
+		if (delimiter > 127 || delimiter == LF || delimiter == CR)
+			throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+		
+		this.delimiter = (byte) delimiter;
+	}
+
+	/** Returns quote character. */
+	public char getQuote() {
+		return (char) quote;
+	}
+	/** Sets quote character (default: '"'). Inside quoted fields, the quote character is escaped by doubling it. */
+	public void setQuote(char quote) {
+		if (quote > 127 || quote == LF || quote == CR)
+			throw new IllegalArgumentException("Invalid quote: " + quote);
+		
+		this.quote = (byte) quote;
+	}
+
+	/** Returns a boolean indicating if the first line of the file is a header (which is not loaded). */
+	public boolean isHeader() {
+		return header;
+	}
+	/** Defines if the first line of the file is a header (which is not loaded). */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/** Returns the number of rows sent to the database per batch. Each batch is committed. */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/** Sets the number of rows sent to the database per batch. Each batch is committed. */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		
+		this.batchSize = batchSize;
+	}
+
+	/** Returns the number of partitions loaded in parallel. */
+	public int getParallelism() {
+		return parallelism;
+	}
+	/** Sets the number of partitions loaded in parallel (each partition uses a connection). */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		
+		this.parallelism = parallelism;
+	}
+
+	/** Returns the size (in bytes) of the read buffer used by each partition. */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/** Sets the size (in bytes) of the read buffer used by each partition. */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1024)
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		
+		this.bufferSize = bufferSize;
+	}
+
+	/** Returns file charset. */
+	public Charset getCharset() {
+		return charset;
+	}
+	/** Sets file charset (default: UTF-8). Charset must be ASCII-compatible. */
+	public void setCharset(Charset charset) {
+		if (charset == null)
+			throw new IllegalArgumentException("Missing charset");
+		
+		byte[] ascii = "\n\r,;\t\"|".getBytes(charset);
+		if (!Arrays.equals(ascii, new byte[] {'\n', '\r', ',', ';', '\t', '"', '|'}))
+			throw new IllegalArgumentException("Charset is not ASCII-compatible: " + charset);
+		
+		this.charset = charset;
+	}
+	
+	private String getInsertSql() {
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+		
+		for (int i = 0; i < columns.length; i++)
+			sb.append(i == 0 ? "" : ", ").append(columns[i]);
+		
+		sb.append(") VALUES (");
+		
+		for (int i = 0; i < columns.length; i++)
+			sb.append(i == 0 ? "?" : ", ?");
+		
+		return sb.append(")").toString();
+	}
+	
+	/** Returns the SQL types of target columns. */
+	private int[] getColumnTypes(Connection connection) throws SQLException {
+		StringBuilder sb = new StringBuilder("SELECT ");
+		for (int i = 0; i < columns.length; i++)
+			sb.append(i == 0 ? "" : ", ").append(columns[i]);
+		
+		sb.append(" FROM ").append(tableName).append(" WHERE 1 = 0");
+		
+		try (Statement stmt = connection.createStatement()) {
+			ResultSetMetaData metaData = stmt.executeQuery(sb.toString()).getMetaData();
+			int[] types = new int[columns.length];
+			
+			for (int i = 0; i < types.length; i++)
+				types[i] = metaData.getColumnType(i + 1);
+			
+			return types;
+		}
+	}
+	
+	/** Returns the position of the first record starting at or after given position. */
+	private long findRecordStart(FileChannel channel, long position) throws IOException {
+		if (position == 0)
+			return 0;
+		
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long current = position - 1; // <-- A record starts at 'position' if previous byte is a line feed
+		
+		while (true) {
+			buffer.clear();
+			int read = channel.read(buffer, current);
+			if (read <= 0)
+				return channel.size();
+			
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				if (buffer.get() == LF)
+					return current + buffer.position();
+			}
+			
+			current += read;
+		}
+	}
+	
+	/** Returns partition boundaries (partition i covers [boundaries[i], boundaries[i + 1]) ). */
+	private long[] getBoundaries(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long start = header ? findRecordStart(channel, 1) : 0; // <-- Skips the first line
+		
+		int partitions = (int) Math.max(1, Math.min(parallelism, (size - start) / bufferSize + 1));
+		long[] boundaries = new long[partitions + 1];
+		
+		boundaries[0] = start;
+		for (int i = 1; i < partitions; i++)
+			boundaries[i] = Math.max(boundaries[i - 1], findRecordStart(channel, start + (size - start) * i / partitions));
+		
+		boundaries[partitions] = size;
+		return boundaries;
+	}
+	
+	/** Loads a range of the file. */
+	private class PartitionTask implements Callable<Long> {
+		private final FileChannel channel;
+		private final long        start;
+		private final long        end;
+		private final String      sql;
+		
+		private final List<String> fields = new ArrayList<>();
+		private byte[] field = new byte[256];
+		private int    fieldLength = 0;
+		private long   rows = 0;
+		private long   committedRows = 0;
+
+		public PartitionTask(FileChannel channel, long start, long end, String sql) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.sql = sql;
+		}
+		
+		private void append(byte b) {
+			if (fieldLength == field.length)
+				field = Arrays.copyOf(field, field.length * 2);
+			
+			field[fieldLength++] = b;
+		}
+		
+		private void endField(boolean quoted) {
+			if (fieldLength == 0 && !quoted)
+				fields.add(null);
+			else
+				fields.add(new String(field, 0, fieldLength, charset));
+			
+			fieldLength = 0;
+		}
+		
+		/**
+		 * Binds current record.
+		 * @param blank defines if record has no bytes between its line breaks (a blank line)
+		 */
+		private void endRecord(PreparedStatement stmt, int[] types, long position, boolean blank) throws SQLException, IOException {
+			if (blank && columns.length > 1) {
+				fields.clear(); // <-- In single-column files a blank line is a NULL value
+				return;
+			}
+			
+			if (fields.size() != columns.length)
+				throw new IOException(String.format("Invalid record before position %d: expected %d fields, found %d", position, columns.length, fields.size()));
+			
+			for (int i = 0; i < types.length; i++) {
+				String value = fields.get(i);
+				
+				if (value == null)
+					stmt.setNull(i + 1, types[i]);
+				else
+					stmt.setObject(i + 1, value, types[i]);
+			}
+			
+			fields.clear();
+			stmt.addBatch();
+			rows++;
+			
+			if (rows % batchSize == 0)
+				commit(stmt);
+		}
+		
+		private void commit(PreparedStatement stmt) throws SQLException {
+			stmt.executeBatch();
+			stmt.getConnection().commit();
+			committedRows = rows;
+		}
+		
+		@Override
+		public Long call() throws SQLException, IOException {
+			try (Connection connection = dataSource.getConnection()) {
+				boolean autoCommit = connection.getAutoCommit();
+				if (autoCommit)
+					connection.setAutoCommit(false);
+				
+				try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+					load(stmt, getColumnTypes(connection));
+					commit(stmt);
+				} catch (SQLException | IOException | RuntimeException ex) {
+					connection.rollback();
+					throw ex;
+				} finally {
+					if (autoCommit)
+						connection.setAutoCommit(true);
+				}
+			}
+			
+			return rows;
+		}
+		
+		private void load(PreparedStatement stmt, int[] types) throws SQLException, IOException {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+			long position = start;
+			
+			boolean quoted  = false; // <-- Current field is quoted
+			boolean inQuote = false; // <-- Inside quotes
+			boolean pendingQuote = false; // <-- A quote was found inside quotes (it may be an escaped quote or the closing quote)
+			boolean pendingRecord = false;
+			
+			while (position < end) {
+				buffer.clear();
+				if (end - position < buffer.capacity())
+					buffer.limit((int) (end - position));
+				
+				int read = channel.read(buffer, position);
+				if (read < 0)
+					break;
+				
+				buffer.flip();
+				
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					
+					if (pendingQuote) {
+						pendingQuote = false;
+						
+						if (b == quote) {
+							append(b); // <-- Escaped quote
+							continue;
+						}
+						
+						inQuote = false;
+					}
+					
+					if (inQuote) {
+						if (b == quote)
+							pendingQuote = true;
+						else
+							append(b);
+						
+						continue;
+					}
+					
+					pendingRecord = true;
+					
+					if (b == delimiter) {
+						endField(quoted);
+						quoted = false;
+					} else if (b == LF) {
+						if (fieldLength > 0 && field[fieldLength - 1] == CR && !quoted)
+							fieldLength--;
+						
+						boolean blank = fields.isEmpty() && fieldLength == 0 && !quoted;
+						endField(quoted);
+						endRecord(stmt, types, position + buffer.position(), blank);
+						quoted = false;
+						pendingRecord = false;
+					} else if (b == quote && fieldLength == 0 && !quoted) {
+						quoted = true;
+						inQuote = true;
+					} else if (b != CR || !quoted) {
+						append(b); // <-- A carriage return after a closing quote is ignored
+					}
+				}
+				
+				position += read;
+			}
+			
+			if (inQuote && !pendingQuote)
+				throw new IOException(String.format("Unterminated quoted field before position %d", end));
+			
+			if (pendingRecord) {
+				if (fieldLength > 0 && field[fieldLength - 1] == CR && !quoted)
+					fieldLength--;
+				
+				boolean blank = fields.isEmpty() && fieldLength == 0 && !quoted;
+				endField(quoted);
+				endRecord(stmt, types, end, blank);
+			}
+		}
+	}
+	
+	/**
+	 * Loads a file.
+	 * @param file file to be loaded
+	 * @return load result
+	 * @throws FileNotFoundException if given file does not exist
+	 * @throws IOException if there was an I/O error while reading file
+	 * @throws InterruptedException if current thread was interrupted while waiting for partitions to be loaded
+	 * @throws IllegalArgumentException if file == null
+	 */
+	public Result load(File file) throws FileNotFoundException, IOException, InterruptedException, IllegalArgumentException {
+		if (file == null)
+			throw new IllegalArgumentException("Null file");
+		
+		if (!file.exists())
+			throw new FileNotFoundException(String.format("File not found: %s", file.getAbsolutePath()));
+		
+		long startTime = System.nanoTime();
+		
+		try (FileChannel channel = new FileInputStream(file).getChannel()) {
+			long[] boundaries = getBoundaries(channel);
+			String sql = getInsertSql();
+			
+			List<PartitionTask> tasks = new ArrayList<>();
+			for (int i = 0; i < boundaries.length - 1; i++)
+				tasks.add(new PartitionTask(channel, boundaries[i], boundaries[i + 1], sql));
+			
+			long[] partitionRows = new long[tasks.size()];
+			List<Exception> errors = new ArrayList<>();
+			ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+			
+			try {
+				List<Future<Long>> futures = executor.invokeAll(tasks);
+				
+				for (int i = 0; i < futures.size(); i++) {
+					try {
+						futures.get(i).get();
+					} catch (ExecutionException ex) {
+						errors.add(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+					}
+					
+					partitionRows[i] = tasks.get(i).committedRows;
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+			
+			return new Result(partitionRows, Collections.unmodifiableList(errors), System.nanoTime() - startTime);
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the rows of a query.
+ * Values are stored in a single array (row after row) as returned by
+ * {@link ResultSet#getObject(int)}; LOBs are materialized as byte arrays
+ * (BLOBs) and strings (CLOBs). Mutable values (e.g. dates and byte arrays)
+ * are shared by all readers and must not be modified.
+ * @see QueryCache
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public final class CachedResult {
+	// CLASS SCOPE =============================================================
+	private static Object readValue(ResultSet rs, int column) throws SQLException {
+		Object value = rs.getObject(column);
+		
+		if (value instanceof Blob) {
+			Blob blob = (Blob) value;
+			return blob.getBytes(1, (int) blob.length());
+		}
+		
+		if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			return clob.getSubString(1, (int) clob.length());
+		}
+		
+		return value;
+	}
+	
+	/** Reads the remaining rows of given result set. */
+	static CachedResult read(ResultSet rs) throws SQLException {
+		ResultSetMetaData metadata = rs.getMetaData();
+		int columnCount = metadata.getColumnCount();
+		
+		String[] labels = new String[columnCount];
+		for (int i = 0; i < columnCount; i++)
+			labels[i] = metadata.getColumnLabel(i + 1);
+		
+		List<Object> values = new ArrayList<>();
+		int rowCount = 0;
+		
+		while (rs.next()) {
+			rowCount++;
+			
+			for (int i = 1; i <= columnCount; i++)
+				values.add(readValue(rs, i));
+		}
+		
+		return new CachedResult(labels, values.toArray(), rowCount);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String[] labels;
+	private final Object[] values;
+	private final int      rowCount;
+	
+	private CachedResult(String[] labels, Object[] values, int rowCount) {
+		this.labels = labels;
+		this.values = values;
+		this.rowCount = rowCount;
+	}
+	
+	/** Returns the number of rows. */
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/** Returns the number of columns. */
+	public int getColumnCount() {
+		return labels.length;
+	}
+	
+	/**
+	 * Returns the label of a column.
+	 * @param column column index (starting at 0)
+	 * @throws IndexOutOfBoundsException if column is out of range
+	 */
+	public String getColumnLabel(int column) throws IndexOutOfBoundsException {
+		return labels[column];
+	}
+	
+	/**
+	 * Returns the index of a column by its label (case-insensitive).
+	 * @return column index (starting at 0), or -1 if there is no column with given label
+	 */
+	public int getColumnIndex(String label) {
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i].equalsIgnoreCase(label))
+				return i;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Returns a value.
+	 * @param row row index (starting at 0)
+	 * @param column column index (starting at 0)
+	 * @throws IndexOutOfBoundsException if row or column is out of range
+	 */
+	public Object getObject(int row, int column) throws IndexOutOfBoundsException {
+		if (row < 0 || row >= rowCount)
+			throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rowCount);
+		
+		if (column < 0 || column >= labels.length)
+			throw new IndexOutOfBoundsException("Column: " + column + ", columns: " + labels.length);
+		
+		return values[row * labels.length + column];
+	}
+	
+	/**
+	 * Returns a value.
+	 * @param row row index (starting at 0)
+	 * @param label column label (case-insensitive)
+	 * @throws IndexOutOfBoundsException if row is out of range
+	 * @throws IllegalArgumentException if there is no column with given label
+	 */
+	public Object getObject(int row, String label) throws IndexOutOfBoundsException, IllegalArgumentException {
+		int column = getColumnIndex(label);
+		if (column < 0)
+			throw new IllegalArgumentException("Unknown column: " + label);
+		
+		return getObject(row, column);
+	}
+	
+	/**
+	 * Returns a copy of the values of a row.
+	 * @param row row index (starting at 0)
+	 * @throws IndexOutOfBoundsException if row is out of range
+	 */
+	public Object[] getRow(int row) throws IndexOutOfBoundsException {
+		if (row < 0 || row >= rowCount)
+			throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rowCount);
+		
+		int start = row * labels.length;
+		return Arrays.copyOfRange(values, start, start + labels.length);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s, rows: %d", Arrays.toString(labels), rowCount);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Storage of script checkpoints used by resumable script executions.
+ * @see SqlRunner#run(Connection, SqlScript, int, CommitPolicy)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface CheckpointStore {
+	/**
+	 * Returns the last checkpoint saved for given script or null if there is no checkpoint.
+	 * @param connection connection used to run the script
+	 * @param scriptName script name
+	 * @throws SQLException if there was a database error
+	 * @throws IOException if there was an I/O error
+	 */
+	public ScriptCheckpoint load(Connection connection, String scriptName) throws SQLException, IOException;
+	
+	/**
+	 * Saves a checkpoint for given script.
+	 * @param connection connection used to run the script
+	 * @param scriptName script name
+	 * @param checkpoint checkpoint to be saved
+	 * @throws SQLException if there was a database error
+	 * @throws IOException if there was an I/O error
+	 */
+	public void save(Connection connection, String scriptName, ScriptCheckpoint checkpoint) throws SQLException, IOException;
+	
+	/**
+	 * Removes the checkpoint of given script (called when the script finishes).
+	 * @param connection connection used to run the script
+	 * @param scriptName script name
+	 * @throws SQLException if there was a database error
+	 * @throws IOException if there was an I/O error
+	 */
+	public void clear(Connection connection, String scriptName) throws SQLException, IOException;
+	
+	/**
+	 * Returns a boolean indicating if checkpoints are stored within the transaction of the script.
+	 * Transactional stores are updated before each commit (so checkpoint and work are committed together),
+	 * while non-transactional ones are updated after each commit.
+	 */
+	public boolean isTransactional();
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker guarding an endpoint.
+ * The breaker opens after a number of consecutive failures, rejecting requests
+ * while it is open. Once the open interval elapses, a single trial request is
+ * allowed (half-open state): a success closes the breaker and a failure opens
+ * it again.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class CircuitBreaker {
+	// CLASS SCOPE =============================================================
+	public static final int  DEFAULT_FAILURE_THRESHOLD = 1;
+	public static final long DEFAULT_OPEN_MILLIS       = 5000;
+	
+	/** Circuit breaker state. */
+	public static enum State {
+		/** Requests are allowed. */
+		CLOSED,
+		
+		/** Requests are rejected. */
+		OPEN,
+		
+		/** A single trial request is allowed. */
+		HALF_OPEN;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final int  failureThreshold;
+	private final long openNanos;
+	
+	private final AtomicReference<State> state     = new AtomicReference<>(State.CLOSED);
+	private final AtomicInteger          failures  = new AtomicInteger();
+	private final AtomicLong             changedAt = new AtomicLong();
+	
+	/**
+	 * Constructor.
+	 * @param failureThreshold number of consecutive failures which opens the breaker
+	 * @param openMillis time (in milliseconds) the breaker stays open before a trial request is allowed
+	 * @throws IllegalArgumentException if failureThreshold &lt; 1 || openMillis &lt; 0
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis) throws IllegalArgumentException {
+		if (failureThreshold < 1)
+			throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+		
+		if (openMillis < 0)
+			throw new IllegalArgumentException("Invalid open interval: " + openMillis);
+		
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+	}
+	
+	/** Constructor using default values. */
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+	}
+	
+	/** Returns the current state. */
+	public State getState() {
+		return state.get();
+	}
+	
+	/**
+	 * Returns a boolean indicating if a request is allowed.
+	 * When the breaker is not closed, at most one trial request is allowed per open interval.
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		
+		if (current == State.CLOSED)
+			return true;
+		
+		long now = System.nanoTime();
+		long since = changedAt.get();
+		
+		if (now - since < openNanos || !changedAt.compareAndSet(since, now))
+			return false;
+		
+		// A trial which did not report its outcome does not block the breaker beyond an open interval
+		state.compareAndSet(State.OPEN, State.HALF_OPEN);
+		return true;
+	}
+	
+	/** Records a successful request, closing the breaker. */
+	public void onSuccess() {
+		failures.set(0);
+		state.set(State.CLOSED);
+	}
+	
+	/** Records a failed request, opening the breaker if the failure threshold is reached (or if the breaker is half-open). */
+	public void onFailure() {
+		if (state.get() != State.CLOSED || failures.incrementAndGet() >= failureThreshold) {
+			failures.set(0);
+			changedAt.set(System.nanoTime());
+			state.set(State.OPEN);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return state.get().name();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rows of a query stored column by column.
+ * @see ColumnarQuery
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public final class ColumnBatch {
+	private final List<ColumnVector>        columns;
+	private final Map<String, ColumnVector> columnsByLabel = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	
+	private int rowCount = 0;
+	
+	/**
+	 * Constructor.
+	 * @param metadata metadata of the result set which will be read into the batch
+	 * @param capacity initial capacity of the columns
+	 * @param offHeap defines if values are stored off-heap
+	 */
+	ColumnBatch(ResultSetMetaData metadata, int capacity, boolean offHeap) throws SQLException {
+		int columnCount = metadata.getColumnCount();
+		List<ColumnVector> columnList = new ArrayList<>(columnCount);
+		
+		for (int i = 1; i <= columnCount; i++) {
+			int sqlType = metadata.getColumnType(i);
+			ColumnType type = ColumnType.forSqlType(sqlType, metadata.getPrecision(i), metadata.getScale(i));
+			ColumnVector column = new ColumnVector(metadata.getColumnLabel(i), type, sqlType, capacity, offHeap);
+			
+			columnList.add(column);
+			
+			if (!columnsByLabel.containsKey(column.getName()))
+				columnsByLabel.put(column.getName(), column);
+		}
+		
+		this.columns = Collections.unmodifiableList(columnList);
+	}
+	
+	/** Appends the current row of given result set. */
+	void read(ResultSet rs) throws SQLException {
+		for (int i = 0; i < columns.size(); i++)
+			columns.get(i).read(rs, i + 1);
+		
+		rowCount++;
+	}
+	
+	/** Removes all rows, keeping allocated capacity. */
+	void clear() {
+		for (ColumnVector column : columns)
+			column.clear();
+		
+		rowCount = 0;
+	}
+	
+	/** Returns the number of rows. */
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/** Returns the number of columns. */
+	public int getColumnCount() {
+		return columns.size();
+	}
+	
+	/** Returns the columns, in query order. */
+	public List<ColumnVector> getColumns() {
+		return columns;
+	}
+	
+	/**
+	 * Returns a column.
+	 * @param index column index (starting at 0)
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public ColumnVector getColumn(int index) throws IndexOutOfBoundsException {
+		return columns.get(index);
+	}
+	
+	/**
+	 * Returns a column by its label (case-insensitive).
+	 * @return the column, or null if there is no column with given label
+	 */
+	public ColumnVector getColumn(String label) {
+		return columnsByLabel.get(label);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s, rows: %d", columns, rowCount);
+	}
+}
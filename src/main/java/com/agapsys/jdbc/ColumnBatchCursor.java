@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the rows of a query in fixed-size column batches.
+ * The same {@link ColumnBatch} instance is refilled on each call to
+ * {@link #next()}, so memory usage is bounded by the batch size regardless
+ * of the size of the result. A batch is valid until the next call.
+ * <p>Iterator methods throw {@link JdbcException} wrapping database errors.</p>
+ * @see ColumnarQuery#open(String, Object...)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ColumnBatchCursor implements Iterator<ColumnBatch>, AutoCloseable {
+	private final RowCursor<ColumnBatch> rows;
+	private final ColumnBatch            batch;
+	private final int                    batchSize;
+
+	ColumnBatchCursor(RowCursor<ColumnBatch> rows, ColumnBatch batch, int batchSize) {
+		this.rows = rows;
+		this.batch = batch;
+		this.batchSize = batchSize;
+	}
+	
+	/** Returns the number of rows read so far. */
+	public long getRowCount() {
+		return rows.getRowCount();
+	}
+	
+	@Override
+	public boolean hasNext() throws JdbcException {
+		return rows.hasNext();
+	}
+
+	/**
+	 * Reads the next batch of rows.
+	 * @return the batch of this cursor, refilled with up to batch size rows
+	 * @throws NoSuchElementException if there are no more rows
+	 * @throws JdbcException if there is an error reading rows
+	 */
+	@Override
+	public ColumnBatch next() throws NoSuchElementException, JdbcException {
+		if (!rows.hasNext())
+			throw new NoSuchElementException();
+		
+		batch.clear();
+		
+		do {
+			rows.next();
+		} while (batch.getRowCount() < batchSize && rows.hasNext());
+		
+		return batch;
+	}
+
+	/**
+	 * Throws {@link UnsupportedOperationException}.
+	 * @throws UnsupportedOperationException batches cannot be removed
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * Releases database resources.
+	 * @see RowCursor#close()
+	 */
+	@Override
+	public void close() throws JdbcException {
+		rows.close();
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Types;
+
+/**
+ * Type of a {@link ColumnVector}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public enum ColumnType {
+	/** 32-bit integers (also used for booleans: 1 for true, 0 for false). */
+	INT(4),
+	
+	/** 64-bit integers (also used for dates and timestamps, as milliseconds since the epoch). */
+	LONG(8),
+	
+	/** Double-precision floating-point numbers. */
+	DOUBLE(8),
+	
+	/** Dictionary-encoded strings. Values are stored as 32-bit dictionary codes. */
+	STRING(4);
+	
+	// CLASS SCOPE =============================================================
+	/**
+	 * Returns the column type used to store values of given SQL type.
+	 * @param sqlType SQL type (see {@link Types})
+	 * @param precision column precision
+	 * @param scale column scale
+	 */
+	static ColumnType forSqlType(int sqlType, int precision, int scale) {
+		switch (sqlType) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return INT;
+			
+		case Types.BIGINT:
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return LONG;
+			
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return scale == 0 && precision > 0 && precision <= 18 ? LONG : DOUBLE;
+			
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return DOUBLE;
+			
+		default:
+			return STRING;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	final int width;
+	
+	private ColumnType(int width) {
+		this.width = width;
+	}
+	// =========================================================================
+}
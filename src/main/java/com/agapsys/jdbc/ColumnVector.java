@@ -0,0 +1,334 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable column of primitive values with a null bitmap.
+ * Values are stored in primitive arrays or, for off-heap vectors, in a direct
+ * {@link ByteBuffer}, so that reading a column does not allocate an object per
+ * value. Strings are dictionary-encoded: each distinct value is stored once.
+ * @see ColumnarQuery
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public final class ColumnVector {
+	// CLASS SCOPE =============================================================
+	private static final int MIN_CAPACITY = 64;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String     name;
+	private final ColumnType type;
+	private final int        sqlType;
+	private final boolean    offHeap;
+	
+	private int        size = 0;
+	private int        capacity;
+	private long[]     nulls;
+	private int[]      ints;
+	private long[]     longs;
+	private double[]   doubles;
+	private ByteBuffer buffer;
+	
+	private final Map<String, Integer> dictionaryCodes;
+	private final List<String>         dictionary;
+	
+	/**
+	 * Constructor.
+	 * @param name column name
+	 * @param type column type
+	 * @param sqlType SQL type of the column (see {@link Types})
+	 * @param capacity initial capacity
+	 * @param offHeap defines if values are stored in a direct byte buffer
+	 */
+	ColumnVector(String name, ColumnType type, int sqlType, int capacity, boolean offHeap) {
+		this.name = name;
+		this.type = type;
+		this.sqlType = sqlType;
+		this.offHeap = offHeap;
+		this.capacity = 0;
+		
+		if (type == ColumnType.STRING) {
+			dictionaryCodes = new HashMap<>();
+			dictionary = new ArrayList<>();
+		} else {
+			dictionaryCodes = null;
+			dictionary = null;
+		}
+		
+		grow(Math.max(capacity, MIN_CAPACITY));
+	}
+	
+	private void grow(int newCapacity) {
+		if (offHeap) {
+			ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity * type.width).order(ByteOrder.nativeOrder());
+			
+			if (buffer != null) {
+				ByteBuffer src = buffer.duplicate();
+				src.position(0);
+				src.limit(size * type.width);
+				newBuffer.put(src);
+				newBuffer.clear();
+			}
+			
+			buffer = newBuffer;
+		} else {
+			switch (type) {
+			case LONG:
+				longs = longs == null ? new long[newCapacity] : Arrays.copyOf(longs, newCapacity);
+				break;
+				
+			case DOUBLE:
+				doubles = doubles == null ? new double[newCapacity] : Arrays.copyOf(doubles, newCapacity);
+				break;
+				
+			default:
+				ints = ints == null ? new int[newCapacity] : Arrays.copyOf(ints, newCapacity);
+				break;
+			}
+		}
+		
+		int words = (newCapacity + 63) >>> 6;
+		nulls = nulls == null ? new long[words] : Arrays.copyOf(nulls, words);
+		capacity = newCapacity;
+	}
+	
+	/** Appends the value of given column of the current row of a result set. */
+	void read(ResultSet rs, int column) throws SQLException {
+		if (size == capacity)
+			grow(capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE - 8 : capacity * 2);
+		
+		int index = size;
+		boolean isNull;
+		
+		switch (type) {
+		case INT: {
+			int value = (sqlType == Types.BIT || sqlType == Types.BOOLEAN) ? (rs.getBoolean(column) ? 1 : 0) : rs.getInt(column);
+			isNull = rs.wasNull();
+			
+			if (offHeap) {
+				buffer.putInt(index << 2, value);
+			} else {
+				ints[index] = value;
+			}
+			break;
+		}
+			
+		case LONG: {
+			long value;
+			
+			if (sqlType == Types.DATE || sqlType == Types.TIME || sqlType == Types.TIMESTAMP) {
+				Timestamp timestamp = rs.getTimestamp(column);
+				isNull = timestamp == null;
+				value = isNull ? 0 : timestamp.getTime();
+			} else {
+				value = rs.getLong(column);
+				isNull = rs.wasNull();
+			}
+			
+			if (offHeap) {
+				buffer.putLong(index << 3, value);
+			} else {
+				longs[index] = value;
+			}
+			break;
+		}
+			
+		case DOUBLE: {
+			double value = rs.getDouble(column);
+			isNull = rs.wasNull();
+			
+			if (offHeap) {
+				buffer.putDouble(index << 3, value);
+			} else {
+				doubles[index] = value;
+			}
+			break;
+		}
+			
+		default: {
+			String value = rs.getString(column);
+			isNull = value == null;
+			int code = isNull ? -1 : encode(value);
+			
+			if (offHeap) {
+				buffer.putInt(index << 2, code);
+			} else {
+				ints[index] = code;
+			}
+			break;
+		}
+		}
+		
+		if (isNull)
+			nulls[index >>> 6] |= 1L << index;
+		
+		size++;
+	}
+	
+	private int encode(String value) {
+		Integer code = dictionaryCodes.get(value);
+		
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.add(value);
+			dictionaryCodes.put(value, code);
+		}
+		
+		return code;
+	}
+	
+	/** Removes all values (and dictionary entries), keeping allocated capacity. */
+	void clear() {
+		Arrays.fill(nulls, 0, ((size + 63) >>> 6), 0L);
+		size = 0;
+		
+		if (dictionary != null) {
+			dictionary.clear();
+			dictionaryCodes.clear();
+		}
+	}
+	
+	private void checkIndex(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+	
+	/** Returns the column name. */
+	public String getName() {
+		return name;
+	}
+	
+	/** Returns the column type. */
+	public ColumnType getType() {
+		return type;
+	}
+	
+	/** Returns a boolean indicating if values are stored off-heap. */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	
+	/** Returns the number of values. */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns a boolean indicating if the value at given index is null.
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public boolean isNull(int index) throws IndexOutOfBoundsException {
+		checkIndex(index);
+		return (nulls[index >>> 6] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Returns the value at given index of an {@linkplain ColumnType#INT INT} column (null values are returned as zero).
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 * @throws UnsupportedOperationException if this is not an INT column
+	 */
+	public int getInt(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+		if (type != ColumnType.INT)
+			throw new UnsupportedOperationException("Not an INT column: " + name);
+		
+		checkIndex(index);
+		return offHeap ? buffer.getInt(index << 2) : ints[index];
+	}
+	
+	/**
+	 * Returns the value at given index of an {@linkplain ColumnType#INT INT} or {@linkplain ColumnType#LONG LONG} column (null values are returned as zero).
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 * @throws UnsupportedOperationException if this is neither an INT nor a LONG column
+	 */
+	public long getLong(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+		if (type == ColumnType.INT)
+			return getInt(index);
+		
+		if (type != ColumnType.LONG)
+			throw new UnsupportedOperationException("Not a LONG column: " + name);
+		
+		checkIndex(index);
+		return offHeap ? buffer.getLong(index << 3) : longs[index];
+	}
+	
+	/**
+	 * Returns the value at given index of a numeric column (null values are returned as zero).
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 * @throws UnsupportedOperationException if this is a STRING column
+	 */
+	public double getDouble(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+		if (type != ColumnType.DOUBLE)
+			return getLong(index);
+		
+		checkIndex(index);
+		return offHeap ? buffer.getDouble(index << 3) : doubles[index];
+	}
+	
+	/**
+	 * Returns the dictionary code of the value at given index of a {@linkplain ColumnType#STRING STRING} column.
+	 * @return dictionary code (see {@link #getDictionary()}), or -1 if the value is null
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 * @throws UnsupportedOperationException if this is not a STRING column
+	 */
+	public int getCode(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+		if (type != ColumnType.STRING)
+			throw new UnsupportedOperationException("Not a STRING column: " + name);
+		
+		checkIndex(index);
+		return offHeap ? buffer.getInt(index << 2) : ints[index];
+	}
+	
+	/**
+	 * Returns the value at given index of a {@linkplain ColumnType#STRING STRING} column.
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 * @throws UnsupportedOperationException if this is not a STRING column
+	 */
+	public String getString(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+		int code = getCode(index);
+		return code < 0 ? null : dictionary.get(code);
+	}
+	
+	/**
+	 * Returns the distinct values of a {@linkplain ColumnType#STRING STRING} column, indexed by dictionary code.
+	 * @throws UnsupportedOperationException if this is not a STRING column
+	 */
+	public List<String> getDictionary() throws UnsupportedOperationException {
+		if (type != ColumnType.STRING)
+			throw new UnsupportedOperationException("Not a STRING column: " + name);
+		
+		return Collections.unmodifiableList(dictionary);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s %s[%d]", name, type, size);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Columnar fetch mode for analytical queries.
+ * Rows are read into primitive {@link ColumnVector column vectors}, without
+ * allocating an object per numeric value. Vectors may be kept off-heap (in
+ * direct byte buffers) and results bigger than memory can be processed in
+ * fixed-size batches through {@link #open(String, Object...)}.
+ * <p>Connections are handled as in {@link StreamingQuery}.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ColumnarQuery {
+	// CLASS SCOPE =============================================================
+	public static final int DEFAULT_BATCH_SIZE = 65536;
+	
+	/** Appends rows to a batch. */
+	private static class BatchReader implements RowMapper<ColumnBatch> {
+		private ColumnBatch batch;
+		
+		@Override
+		public ColumnBatch map(ResultSet rs, long rowNumber) throws SQLException {
+			batch.read(rs);
+			return batch;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final StreamingQuery query;
+	
+	private volatile int     batchSize = DEFAULT_BATCH_SIZE;
+	private volatile boolean offHeap   = false;
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source providing connections
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public ColumnarQuery(DataSource dataSource) throws IllegalArgumentException {
+		this.query = new StreamingQuery(dataSource);
+	}
+	
+	/** Returns the number of rows fetched from the database per round trip. */
+	public int getFetchSize() {
+		return query.getFetchSize();
+	}
+	/**
+	 * Sets the number of rows fetched from the database per round trip (passed to the driver as a hint).
+	 * @throws IllegalArgumentException if fetchSize &lt; 1
+	 */
+	public void setFetchSize(int fetchSize) throws IllegalArgumentException {
+		query.setFetchSize(fetchSize);
+	}
+	
+	/** Returns the maximum number of rows of batches returned by cursors (also used as initial capacity of fetched columns). */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * Sets the maximum number of rows of batches returned by cursors (also used as initial capacity of fetched columns).
+	 * @throws IllegalArgumentException if batchSize &lt; 1
+	 */
+	public void setBatchSize(int batchSize) throws IllegalArgumentException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		
+		this.batchSize = batchSize;
+	}
+	
+	/** Returns a boolean indicating if column values are stored off-heap. */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	/** Defines if column values are stored off-heap, in direct byte buffers. */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+	
+	/**
+	 * Executes a query and reads all of its rows.
+	 * @param sql query
+	 * @param params query parameters
+	 * @return all rows of the query
+	 * @throws SQLException if there is an error executing the query or reading its rows
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty()
+	 */
+	public ColumnBatch fetch(String sql, Object...params) throws SQLException, IllegalArgumentException {
+		BatchReader reader = new BatchReader();
+		
+		try (RowCursor<ColumnBatch> rows = openRows(sql, params, reader, batchSize)) {
+			while (rows.hasNext())
+				rows.next();
+			
+			return reader.batch;
+		} catch (JdbcException ex) {
+			if (ex.getSQLException() != null)
+				throw ex.getSQLException();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Executes a query and returns a cursor over its rows in batches of at most {@linkplain #getBatchSize() batch size} rows.
+	 * Returned cursor must be closed if it is not fully consumed (e.g. using a try-with-resources statement).
+	 * @param sql query
+	 * @param params query parameters
+	 * @return cursor over batches of rows
+	 * @throws SQLException if the query could not be executed
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty()
+	 */
+	public ColumnBatchCursor open(String sql, Object...params) throws SQLException, IllegalArgumentException {
+		int size = batchSize;
+		BatchReader reader = new BatchReader();
+		RowCursor<ColumnBatch> rows = openRows(sql, params, reader, size);
+		return new ColumnBatchCursor(rows, reader.batch, size);
+	}
+	
+	/** Opens a row cursor whose rows are appended to a new batch of given reader. */
+	private RowCursor<ColumnBatch> openRows(String sql, Object[] params, BatchReader reader, int capacity) throws SQLException {
+		RowCursor<ColumnBatch> rows = query.open(sql, reader, params);
+		
+		try {
+			reader.batch = new ColumnBatch(rows.getResultSet().getMetaData(), capacity, offHeap);
+		} catch (SQLException | RuntimeException ex) {
+			try {
+				rows.close();
+			} catch (JdbcException e) {
+				ex.addSuppressed(e.getCause());
+			}
+			
+			throw ex;
+		}
+		
+		return rows;
+	}
+	// =========================================================================
+}
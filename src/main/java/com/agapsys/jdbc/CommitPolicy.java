@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Defines how a script execution commits its work.
+ * Instead of a single commit at the end of the script, work is committed
+ * every given number of statements and/or characters, so long scripts do
+ * not build a huge transaction. When a {@link CheckpointStore} is given,
+ * the position of each commit is recorded and a re-run of a failed script
+ * resumes from the last checkpoint.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class CommitPolicy {
+	private final int             statementInterval;
+	private final long            charInterval;
+	private final CheckpointStore checkpointStore;
+
+	/**
+	 * Constructor.
+	 * @param statementInterval number of statements between commits (0 to disable)
+	 * @param charInterval number of script characters between commits (0 to disable)
+	 * @param checkpointStore store used to record checkpoints (null to disable resumable executions)
+	 * @throws IllegalArgumentException if statementInterval &lt; 0 || charInterval &lt; 0
+	 */
+	public CommitPolicy(int statementInterval, long charInterval, CheckpointStore checkpointStore) throws IllegalArgumentException {
+		if (statementInterval < 0)
+			throw new IllegalArgumentException("Invalid statement interval: " + statementInterval);
+		
+		if (charInterval < 0)
+			throw new IllegalArgumentException("Invalid char interval: " + charInterval);
+		
+		this.statementInterval = statementInterval;
+		this.charInterval = charInterval;
+		this.checkpointStore = checkpointStore;
+	}
+
+	/** Returns the number of statements between commits (0 if disabled). */
+	public int getStatementInterval() {
+		return statementInterval;
+	}
+
+	/** Returns the number of script characters between commits (0 if disabled). */
+	public long getCharInterval() {
+		return charInterval;
+	}
+
+	/** Returns the store used to record checkpoints (null if resumable executions are disabled). */
+	public CheckpointStore getCheckpointStore() {
+		return checkpointStore;
+	}
+	
+	/**
+	 * Returns a boolean indicating if a commit is due.
+	 * @param statements statements executed since last commit
+	 * @param chars characters consumed since last commit
+	 */
+	boolean isCommitDue(long statements, long chars) {
+		return (statementInterval > 0 && statements >= statementInterval) || (charInterval > 0 && chars >= charInterval);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Callback of an asynchronous connection acquisition.
+ * Callbacks are called by the thread which completes the acquisition
+ * (usually a thread returning a connection to the pool), so they shall
+ * return quickly, handing long-running work to an executor.
+ * @see ConnectionFuture#addCallback(ConnectionCallback)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface ConnectionCallback {
+	/** 
+	 * Called when a connection is acquired. 
+	 * The callback is responsible for closing given connection.
+	 */
+	public void onConnection(Connection connection);
+	
+	/** Called when a connection could not be acquired (e.g. timeout, database error or cancellation). */
+	public void onError(SQLException error);
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of an asynchronous connection acquisition.
+ * Waiting for the result ({@link #get()}) parks the calling thread without
+ * holding monitors, and {@linkplain #addCallback(ConnectionCallback)
+ * callbacks} allow the result to be consumed without waiting at all.
+ * A future which is cancelled after the connection is acquired returns
+ * the connection to the pool.
+ * @see PooledDataSource#getConnectionAsync()
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ConnectionFuture implements Future<Connection> {
+	// CLASS SCOPE =============================================================
+	private static final int STATE_PENDING    = 0;
+	private static final int STATE_COMPLETING = 1;
+	private static final int STATE_DONE       = 2;
+	private static final int STATE_CANCELLED  = 3;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final AtomicInteger             state     = new AtomicInteger(STATE_PENDING);
+	private final CountDownLatch            latch     = new CountDownLatch(1);
+	private final Queue<ConnectionCallback> callbacks = new ConcurrentLinkedQueue<>();
+	
+	private volatile Connection   connection;
+	private volatile SQLException error;
+	private volatile Future<?>    timeout;
+	
+	ConnectionFuture() {}
+	
+	/** Sets the task which fails this future on timeout. The task is cancelled when this future completes. */
+	void setTimeout(Future<?> timeout) {
+		this.timeout = timeout;
+		
+		if (isDone())
+			timeout.cancel(false);
+	}
+	
+	private boolean finish(Connection connection, SQLException error, int finalState) {
+		if (!state.compareAndSet(STATE_PENDING, STATE_COMPLETING))
+			return false;
+		
+		this.connection = connection;
+		this.error = error;
+		state.set(finalState);
+		latch.countDown();
+		
+		Future<?> timeoutTask = timeout;
+		if (timeoutTask != null)
+			timeoutTask.cancel(false);
+		
+		runCallbacks();
+		return true;
+	}
+	
+	/**
+	 * Completes this future with given connection.
+	 * @return false if this future was already completed (caller is responsible for closing given connection)
+	 */
+	boolean complete(Connection connection) {
+		return finish(connection, null, STATE_DONE);
+	}
+	
+	/** Fails this future. Returns false if this future was already completed. */
+	boolean fail(SQLException error) {
+		return finish(null, error, STATE_DONE);
+	}
+	
+	/** Each callback is removed from the queue by exactly one thread, so it is called only once. */
+	private void runCallbacks() {
+		ConnectionCallback callback;
+		
+		while ((callback = callbacks.poll()) != null) {
+			try {
+				if (connection != null) {
+					callback.onConnection(connection);
+				} else {
+					callback.onError(error);
+				}
+			} catch (RuntimeException ignore) {
+				// Callback errors must not reach the completing thread (which may be returning an unrelated connection)
+			}
+		}
+	}
+	
+	/**
+	 * Adds a callback to be called when this future completes.
+	 * If the future is already completed, the callback is called immediately by the calling thread.
+	 * Only one callback should consume the connection. Runtime exceptions thrown by callbacks are ignored.
+	 * @param callback callback
+	 * @return this future
+	 * @throws IllegalArgumentException if callback == null
+	 */
+	public ConnectionFuture addCallback(ConnectionCallback callback) throws IllegalArgumentException {
+		if (callback == null)
+			throw new IllegalArgumentException("Null callback");
+		
+		callbacks.add(callback);
+		
+		if (isDone())
+			runCallbacks();
+		
+		return this;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, new SQLException("Connection acquisition was cancelled", new CancellationException()), STATE_CANCELLED);
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state.get() == STATE_CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state.get() >= STATE_DONE;
+	}
+	
+	private Connection getResult() throws ExecutionException {
+		if (state.get() == STATE_CANCELLED)
+			throw new CancellationException();
+		
+		if (error != null)
+			throw new ExecutionException(error);
+		
+		return connection;
+	}
+
+	@Override
+	public Connection get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public Connection get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException();
+		
+		return getResult();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report of a pooled connection held longer than the leak threshold or reclaimed after the abandoned timeout.
+ * @see LeakListener
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ConnectionLeak {
+	// INSTANCE SCOPE ==========================================================
+	private final long                holdNanos;
+	private final String              threadName;
+	private final Throwable           borrowSite;
+	private final StackTraceElement[] holderStackTrace;
+	private final boolean             reclaimed;
+	
+	ConnectionLeak(long holdNanos, String threadName, Throwable borrowSite, StackTraceElement[] holderStackTrace, boolean reclaimed) {
+		this.holdNanos = holdNanos;
+		this.threadName = threadName;
+		this.borrowSite = borrowSite;
+		this.holderStackTrace = holderStackTrace;
+		this.reclaimed = reclaimed;
+	}
+	
+	/** Returns the time (in milliseconds) the connection has been held. */
+	public long getHoldMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(holdNanos);
+	}
+	
+	/** Returns the name of the thread which borrowed the connection. */
+	public String getThreadName() {
+		return threadName;
+	}
+	
+	/** Returns the stack trace of the borrow, or null if the borrow was not sampled (see {@link PoolSettings#getLeakSampleRate()}). */
+	public Throwable getBorrowSite() {
+		return borrowSite;
+	}
+	
+	/** Returns the stack trace of the borrowing thread when the leak was detected (empty if the thread has terminated). */
+	public StackTraceElement[] getHolderStackTrace() {
+		return holderStackTrace.clone();
+	}
+	
+	/** Returns a boolean indicating if the connection was reclaimed by the pool. */
+	public boolean isReclaimed() {
+		return reclaimed;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(reclaimed ? "Abandoned connection reclaimed" : "Connection leak detected").append(": held for ").append(getHoldMillis()).append(" ms by thread \"").append(threadName).append('"');
+		
+		if (borrowSite != null) {
+			sb.append(", borrowed at:");
+			for (StackTraceElement element : borrowSite.getStackTrace())
+				sb.append("\n\tat ").append(element);
+		} else if (holderStackTrace.length > 0) {
+			sb.append(", holder is at:");
+			for (StackTraceElement element : holderStackTrace)
+				sb.append("\n\tat ").append(element);
+		}
+		
+		return sb.toString();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool engine behind a {@link PooledDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+abstract class ConnectionPool {
+	// CLASS SCOPE =============================================================
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String        prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/** Returns a thread factory which creates daemon threads named with given prefix. */
+	static ThreadFactory newThreadFactory(String prefix) {
+		return new DaemonThreadFactory(prefix);
+	}
+	
+	private static class AsyncExecutorHolder {
+		private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(newThreadFactory("jdbc-async-acquisition-"));
+	}
+	
+	/** Returns the shared executor (backed by daemon threads) used for background work of asynchronous acquisitions. */
+	static Executor getAsyncExecutor() {
+		return AsyncExecutorHolder.EXECUTOR;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/**
+	 * Borrows a connection, waiting up to the maximum waiting time if the pool is exhausted.
+	 * Returned connection goes back to the pool when it is closed.
+	 * @throws SQLException if a connection could not be obtained
+	 */
+	public abstract Connection getConnection() throws SQLException;
+	
+	/**
+	 * Borrows a connection asynchronously, completing given future.
+	 * Default implementation performs a blocking acquisition in a shared pool of daemon threads.
+	 */
+	public void getConnectionAsync(final ConnectionFuture future) {
+		getAsyncExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone())
+					return;
+				
+				Connection connection;
+				
+				try {
+					connection = getConnection();
+				} catch (SQLException ex) {
+					future.fail(ex);
+					return;
+				} catch (RuntimeException ex) {
+					future.fail(new SQLException(ex));
+					return;
+				}
+				
+				if (!future.complete(connection)) {
+					try {
+						connection.close();
+					} catch (SQLException ignore) {}
+				}
+			}
+		});
+	}
+	
+	/** 
+	 * Opens a connection and adds it to the pool as an idle connection. 
+	 * @throws Exception if the connection could not be opened or the pool is full
+	 */
+	public abstract void addConnection() throws Exception;
+	
+	/** Returns the number of borrowed connections. */
+	public abstract int getActiveConnections();
+	
+	/** Returns the number of idle connections. */
+	public abstract int getIdleConnections();
+	
+	/** Returns the number of threads waiting for a connection. */
+	public abstract int getWaiters();
+	
+	/** Returns the maximum number of connections. */
+	public abstract int getMaxConnections();
+	
+	/** 
+	 * Sets the maximum number of connections.
+	 * When the maximum is reduced, excess idle connections are closed and excess active connections are closed when returned to the pool.
+	 */
+	public abstract void setMaxConnections(int maxConnections);
+	
+	/** Returns the maximum number of idle connections (a negative value means no limit). */
+	public abstract int getMaxIdleConnections();
+	
+	/** Sets the maximum number of idle connections (a negative value means no limit). */
+	public abstract void setMaxIdleConnections(int maxIdleConnections);
+	
+	/** Returns the minimum number of idle connections. */
+	public abstract int getMinIdleConnections();
+	
+	/** Sets the minimum number of idle connections. */
+	public abstract void setMinIdleConnections(int minIdleConnections);
+	
+	/** Closes all idle connections (e.g. when the database becomes unreachable). Active connections are not affected. */
+	public abstract void evictIdleConnections();
+	
+	/** Closes the pool and all idle connections. Active connections are closed when returned to the pool. */
+	public abstract void close();
+	// =========================================================================
+}
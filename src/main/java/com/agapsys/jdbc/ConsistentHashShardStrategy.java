@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Consistent hashing strategy.
+ * Each shard owns a number of points (virtual nodes) on a hash ring and a
+ * key belongs to the shard owning the first point at or after the hash of
+ * the key. Ring points depend only on shard indexes, so adding a shard
+ * moves only the keys taken by the new shard.
+ * <p>Integer numbers are hashed by value (so {@code 42} and {@code 42L}
+ * map to the same shard), byte arrays by content, and other keys by their
+ * {@link Object#hashCode()}, which must be stable across processes (e.g.
+ * strings and UUIDs).</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ConsistentHashShardStrategy implements ShardStrategy {
+	// CLASS SCOPE =============================================================
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+	
+	/** Finalization step of MurmurHash3 (spreads bits of the hash). */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	private static long hash(Object key) {
+		long h;
+		
+		if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+			h = ((Number) key).longValue();
+		} else if (key instanceof byte[]) {
+			h = Arrays.hashCode((byte[]) key);
+		} else {
+			h = key.hashCode();
+		}
+		
+		return mix(h);
+	}
+	
+	/** Hash ring of a number of shards. */
+	private static class Ring {
+		private final long[] points;
+		private final int[]  shards;
+		
+		public Ring(int shardCount, int virtualNodes) {
+			long[] entries = new long[shardCount * virtualNodes];
+			int[] owners = new int[entries.length];
+			
+			// Points are sorted along with their owners
+			long[][] pairs = new long[entries.length][];
+			for (int shard = 0, i = 0; shard < shardCount; shard++) {
+				for (int node = 0; node < virtualNodes; node++, i++)
+					pairs[i] = new long[] {mix(((long) shard << 32) | node), shard};
+			}
+			
+			Arrays.sort(pairs, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					return Long.compare(a[0], b[0]);
+				}
+			});
+			
+			for (int i = 0; i < pairs.length; i++) {
+				entries[i] = pairs[i][0];
+				owners[i] = (int) pairs[i][1];
+			}
+			
+			this.points = entries;
+			this.shards = owners;
+		}
+		
+		public int getShard(long hash) {
+			int index = Arrays.binarySearch(points, hash);
+			
+			if (index < 0)
+				index = -index - 1;
+			
+			return shards[index == points.length ? 0 : index];
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final int                         virtualNodes;
+	private final ConcurrentMap<Integer, Ring> rings = new ConcurrentHashMap<>();
+	
+	/** Constructor. Uses default number of virtual nodes per shard. */
+	public ConsistentHashShardStrategy() {
+		this(DEFAULT_VIRTUAL_NODES);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param virtualNodes number of points of each shard in the hash ring (more points give a more even distribution)
+	 * @throws IllegalArgumentException if virtualNodes &lt; 1
+	 */
+	public ConsistentHashShardStrategy(int virtualNodes) throws IllegalArgumentException {
+		if (virtualNodes < 1)
+			throw new IllegalArgumentException("Invalid virtual nodes: " + virtualNodes);
+		
+		this.virtualNodes = virtualNodes;
+	}
+	
+	/** Returns the number of points of each shard in the hash ring. */
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	@Override
+	public int getShard(Object key, int shardCount) throws IllegalArgumentException {
+		if (key == null)
+			throw new IllegalArgumentException("Null key");
+		
+		if (shardCount < 1)
+			throw new IllegalArgumentException("Invalid shard count: " + shardCount);
+		
+		Ring ring = rings.get(shardCount);
+		if (ring == null) {
+			ring = new Ring(shardCount, virtualNodes);
+			Ring previous = rings.putIfAbsent(shardCount, ring);
+			if (previous != null)
+				ring = previous;
+		}
+		
+		return ring.getShard(hash(key));
+	}
+	// =========================================================================
+}
@@ -16,11 +16,9 @@
 
 package com.agapsys.jdbc;
 
-import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.dbcp2.PoolableConnection;
-import org.apache.commons.dbcp2.PoolableConnectionFactory;
-import org.apache.commons.dbcp2.PoolingDataSource;
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
@@ -30,34 +28,107 @@ import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
  */
 public class DataSourceFactory {
 	// CLASS SCOPE =============================================================
+	/**
+	 * Returns a data source which uses a pool of connections.
+	 * Connection settings (driver, URI and credentials) of given settings are ignored.
+	 * @param connectionFactory factory used to create connections
+	 * @param settings pool settings
+	 * @throws IllegalArgumentException if connectionFactory == null || settings == null || adaptive sizing is enabled with invalid bounds || leak detection is enabled with an invalid sample rate || statement pooling is enabled for the NATIVE engine
+	 * @throws IllegalStateException if a pool name is defined and pool metrics could not be registered in the platform MBean server
+	 */
+	public static PooledDataSource getDataSource(ConnectionFactory connectionFactory, PoolSettings settings) throws IllegalArgumentException, IllegalStateException {
+		if (connectionFactory == null)
+			throw new IllegalArgumentException("Null connection factory");
+		
+		if (settings == null)
+			throw new IllegalArgumentException("Null settings");
+		
+		if (settings.getPoolEngine() == PoolEngine.NATIVE && settings.isPoolStatements())
+			throw new IllegalArgumentException("Statement pooling is not supported by the NATIVE pool engine");
+		
+		PoolMetrics metrics = new PoolMetrics();
+		StatementCacheStats statementCacheStats;
+		ConnectionPool connectionPool;
+		
+		LeakDetector leakDetector = null;
+		if (settings.getLeakThresholdMillis() > 0 || settings.getAbandonedTimeoutMillis() > 0)
+			leakDetector = new LeakDetector(metrics, settings.getLeakThresholdMillis(), settings.getAbandonedTimeoutMillis(), settings.getLeakSampleRate());
+		
+		switch (settings.getPoolEngine()) {
+		case NATIVE:
+			statementCacheStats = new StatementCacheStats();
+			connectionPool = new NativeConnectionPool(connectionFactory, settings, metrics, leakDetector);
+			break;
+			
+		default:
+			PooledConnectionFactory poolableConnectionFactory = new PooledConnectionFactory(connectionFactory, settings, metrics, leakDetector);
+			poolableConnectionFactory.setMaxConnLifetimeMillis(settings.getMaxConnectionLifetimeMillis());
+
+			GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+				poolConfig.setMaxTotal(settings.getMaxConnections());
+				poolConfig.setMaxIdle(settings.getMaxIdleConnections());
+				poolConfig.setMinIdle(settings.getMinIdleConnections());
+				poolConfig.setMaxWaitMillis(settings.getMaxWaitMillis());
+				poolConfig.setBlockWhenExhausted(true);
+				poolConfig.setLifo(settings.isLifo());
+				poolConfig.setTimeBetweenEvictionRunsMillis(settings.getEvictionIntervalMillis());
+				poolConfig.setSoftMinEvictableIdleTimeMillis(settings.getSoftMinEvictableIdleMillis());
+			GenericObjectPool<PoolableConnection> genericPool = new GenericObjectPool<>(poolableConnectionFactory, poolConfig);
+			poolableConnectionFactory.setPool(genericPool);
+			
+			statementCacheStats = poolableConnectionFactory.getStatementCacheStats();
+			connectionPool = new DbcpConnectionPool(genericPool);
+			break;
+		}
+		
+		PooledDataSource dataSource = new PooledDataSource(settings.getPoolEngine(), connectionPool, metrics, statementCacheStats, leakDetector);
+		
+		String poolName = settings.getPoolName();
+		if (poolName != null && !poolName.trim().isEmpty()) {
+			try {
+				dataSource.registerMetrics(poolName);
+			} catch (IllegalStateException ex) {
+				dataSource.close();
+				throw ex;
+			}
+		}
+		
+		if (settings.getAdaptiveMaxConnections() > 0) {
+			try {
+				dataSource.enableAdaptiveSizing(settings.getAdaptiveMinConnections(), settings.getAdaptiveMaxConnections(), settings.getAdaptiveIntervalMillis());
+			} catch (IllegalArgumentException ex) {
+				dataSource.close();
+				throw ex;
+			}
+		}
+		
+		if (settings.isWarmUp())
+			dataSource.warmUp(); // <-- Best effort: connections which could not be opened will be created on demand
+		
+		return dataSource;
+	}
+	
     /**
 	 * Returns a data source which uses a pool of connections.
 	 * @param connectionFactory factory used to create connections
 	 * @param maxConnections maximum number of connections in the pool
 	 * @param maxIdleConnections maximum number of idle connections in the pool
-	 * @param maxWaitMillis timeout (in milliseconds) in oder to obtain a connection from the pool before an error is raised
+	 * @param maxWaitMillis timeout (in milliseconds) in oder to obtain a connection from the pool before an error is raised.
+	 * Values greater than {@link Integer#MAX_VALUE} are clamped to it and negative values wait indefinitely
 	 * @throws IllegalArgumentException if connectionFactory == null
 	 */
-	public static DataSource getDataSource(
+	public static PooledDataSource getDataSource(
 		ConnectionFactory connectionFactory,
 		int maxConnections, 
 		int maxIdleConnections, 
 		long maxWaitMillis
 	) throws IllegalArgumentException { 
-		if (connectionFactory == null)
-			throw new IllegalArgumentException("Null connection factory");
+		PoolSettings settings = new PoolSettings() {};
+		settings.setMaxConnections(maxConnections);
+		settings.setMaxIdleConnections(maxIdleConnections);
+		settings.setMaxWaitMillis(maxWaitMillis > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(maxWaitMillis, -1));
 		
-		PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
-		GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
-			poolConfig.setMaxIdle(maxIdleConnections);
-			poolConfig.setMaxWaitMillis(maxWaitMillis);
-			poolConfig.setBlockWhenExhausted(true);
-			poolConfig.setMaxTotal(maxIdleConnections);	
-		ObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<>(poolableConnectionFactory, poolConfig);
-		poolableConnectionFactory.setPool(connectionPool);
-		
-        PoolingDataSource<PoolableConnection> dataSource = new PoolingDataSource<>(connectionPool);
-        return dataSource;
+		return getDataSource(connectionFactory, settings);
 	}
 	
 	/**
@@ -71,7 +142,7 @@ public class DataSourceFactory {
 	 * @param maxWaitMillis timeout (in milliseconds) in oder to obtain a connection from the pool before an error is raised
 	 * @throws ClassNotFoundException if a class with given class name was not found
 	 */
-	public static DataSource getDataSource(
+	public static PooledDataSource getDataSource(
 		String driverClassName, 
 		String uri, 
 		String username, 
@@ -89,16 +160,178 @@ public class DataSourceFactory {
 		);
     }
 	
-	public static DataSource getDataSource(PoolSettings dbSettings) throws ClassNotFoundException {
-		return getDataSource(
-			dbSettings.getDriverClass(), 
-			dbSettings.getUri(),
-			dbSettings.getUsername(),
-			dbSettings.getPassword(), 
-			dbSettings.getMaxConnections(), 
-			dbSettings.getMaxIdleConnections(), 
-			dbSettings.getMaxWaitMillis()
-		);
+	/**
+	 * Returns a pool of JDBC connections configured by given settings.
+	 * @param dbSettings connection and pool settings
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 */
+	public static PooledDataSource getDataSource(PoolSettings dbSettings) throws ClassNotFoundException {
+		return getDataSource(newConnectionFactory(dbSettings), dbSettings);
+	}
+	
+	/** Returns the connection factory defined by given settings, reporting a missing driver class as {@link ClassNotFoundException}. */
+	private static ConnectionFactory newConnectionFactory(PoolSettings dbSettings) throws ClassNotFoundException {
+		try {
+			return new ConnectionFactory(
+				dbSettings.getDriverClass(), 
+				dbSettings.getUri(),
+				dbSettings.getUsername(),
+				dbSettings.getPassword()
+			);
+		} catch (RuntimeException ex) {
+			if (ex.getCause() instanceof ClassNotFoundException)
+				throw (ClassNotFoundException) ex.getCause();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns a read/write-splitting data source.
+	 * @param primarySettings connection and pool settings of the primary database
+	 * @param replicaSettings connection and pool settings of read replicas (replica weights are given by {@link PoolSettings#getWeight()})
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if primarySettings == null || replicaSettings == null || replicaSettings contains null elements or non-positive weights
+	 */
+	public static RoutingDataSource getRoutingDataSource(PoolSettings primarySettings, List<PoolSettings> replicaSettings) throws ClassNotFoundException, IllegalArgumentException {
+		if (primarySettings == null)
+			throw new IllegalArgumentException("Null primary settings");
+		
+		if (replicaSettings == null)
+			throw new IllegalArgumentException("Null replica settings");
+		
+		List<Integer> weights = new ArrayList<>(replicaSettings.size());
+		for (PoolSettings settings : replicaSettings) {
+			if (settings == null)
+				throw new IllegalArgumentException("Null replica settings");
+			
+			if (settings.getWeight() <= 0)
+				throw new IllegalArgumentException("Invalid replica weight: " + settings.getWeight());
+			
+			weights.add(settings.getWeight());
+		}
+		
+		List<PooledDataSource> dataSources = new ArrayList<>(replicaSettings.size() + 1);
+		
+		try {
+			for (PoolSettings settings : replicaSettings)
+				dataSources.add(getDataSource(settings));
+			
+			PooledDataSource primary = getDataSource(primarySettings);
+			return new RoutingDataSource(primary, dataSources, weights);
+		} catch (ClassNotFoundException | RuntimeException ex) {
+			for (PooledDataSource dataSource : dataSources)
+				dataSource.close();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns a failover data source across given endpoints using default circuit breaker and health probe settings.
+	 * @param endpointSettings connection and pool settings of the endpoints, in order of preference
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if endpointSettings == null || endpointSettings.isEmpty() || endpointSettings contains null elements
+	 */
+	public static FailoverDataSource getFailoverDataSource(List<PoolSettings> endpointSettings) throws ClassNotFoundException, IllegalArgumentException {
+		return getFailoverDataSource(endpointSettings, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS, FailoverDataSource.DEFAULT_PROBE_INTERVAL_MILLIS);
+	}
+	
+	/**
+	 * Returns a failover data source across given endpoints.
+	 * @param endpointSettings connection and pool settings of the endpoints, in order of preference
+	 * @param failureThreshold number of consecutive connection failures which opens the circuit breaker of an endpoint
+	 * @param openMillis time (in milliseconds) a circuit breaker stays open before a trial request is allowed
+	 * @param probeIntervalMillis interval (in milliseconds) between health probes. A non-positive value disables probes.
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if endpointSettings == null || endpointSettings.isEmpty() || endpointSettings contains null elements || failureThreshold &lt; 1 || openMillis &lt; 0
+	 */
+	public static FailoverDataSource getFailoverDataSource(List<PoolSettings> endpointSettings, int failureThreshold, long openMillis, long probeIntervalMillis) throws ClassNotFoundException, IllegalArgumentException {
+		if (endpointSettings == null || endpointSettings.isEmpty())
+			throw new IllegalArgumentException("Null/Empty endpoint settings");
+		
+		for (PoolSettings settings : endpointSettings) {
+			if (settings == null)
+				throw new IllegalArgumentException("Null endpoint settings");
+		}
+		
+		new CircuitBreaker(failureThreshold, openMillis); // <-- Validates breaker arguments before pools are created
+		
+		List<ConnectionFactory> connectionFactories = new ArrayList<>(endpointSettings.size());
+		List<PooledDataSource>  dataSources         = new ArrayList<>(endpointSettings.size());
+		
+		try {
+			for (PoolSettings settings : endpointSettings) {
+				ConnectionFactory connectionFactory = newConnectionFactory(settings);
+				connectionFactories.add(connectionFactory);
+				dataSources.add(getDataSource(connectionFactory, settings));
+			}
+			
+			return new FailoverDataSource(connectionFactories, dataSources, failureThreshold, openMillis, probeIntervalMillis);
+		} catch (ClassNotFoundException | RuntimeException ex) {
+			for (PooledDataSource dataSource : dataSources)
+				dataSource.close();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns a sharded data source which maps shard keys to shards by consistent hashing.
+	 * @param shardSettings connection and pool settings of the shards, in shard order
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if shardSettings == null || shardSettings.isEmpty() || shardSettings contains null elements
+	 */
+	public static ShardedDataSource getShardedDataSource(List<PoolSettings> shardSettings) throws ClassNotFoundException, IllegalArgumentException {
+		return getShardedDataSource(shardSettings, new ConsistentHashShardStrategy());
+	}
+	
+	/**
+	 * Returns a sharded data source.
+	 * @param shardSettings connection and pool settings of the shards, in shard order
+	 * @param strategy strategy which maps shard keys to shards
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if shardSettings == null || shardSettings.isEmpty() || shardSettings contains null elements || strategy == null
+	 */
+	public static ShardedDataSource getShardedDataSource(List<PoolSettings> shardSettings, ShardStrategy strategy) throws ClassNotFoundException, IllegalArgumentException {
+		if (shardSettings == null || shardSettings.isEmpty())
+			throw new IllegalArgumentException("Null/Empty shard settings");
+		
+		for (PoolSettings settings : shardSettings) {
+			if (settings == null)
+				throw new IllegalArgumentException("Null shard settings");
+		}
+		
+		if (strategy == null)
+			throw new IllegalArgumentException("Null strategy");
+		
+		List<PooledDataSource> dataSources = new ArrayList<>(shardSettings.size());
+		
+		try {
+			for (PoolSettings settings : shardSettings)
+				dataSources.add(getDataSource(settings));
+			
+			return new ShardedDataSource(dataSources, strategy);
+		} catch (ClassNotFoundException | RuntimeException ex) {
+			for (PooledDataSource dataSource : dataSources)
+				dataSource.close();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns a pool of JDBC connections configured by given settings whose connections are traced by given tracer.
+	 * @param dbSettings connection and pool settings
+	 * @param tracer statement tracer
+	 * @throws ClassNotFoundException if a class with given class name was not found
+	 * @throws IllegalArgumentException if tracer == null
+	 */
+	public static TracingDataSource getTracingDataSource(PoolSettings dbSettings, StatementTracer tracer) throws ClassNotFoundException, IllegalArgumentException {
+		if (tracer == null)
+			throw new IllegalArgumentException("Null tracer");
+		
+		return new TracingDataSource(getDataSource(dbSettings), tracer);
 	}
 	
 	// INSTANCE SCOPE ==========================================================
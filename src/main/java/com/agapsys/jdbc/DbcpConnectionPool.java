@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * Connection pool backed by Apache Commons DBCP/Pool.
+ * @see PoolEngine#DBCP
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class DbcpConnectionPool extends ConnectionPool {
+	// INSTANCE SCOPE ==========================================================
+	private final GenericObjectPool<PoolableConnection> pool;
+	private final PoolingDataSource<PoolableConnection> dataSource;
+	
+	public DbcpConnectionPool(GenericObjectPool<PoolableConnection> pool) {
+		this.pool = pool;
+		this.dataSource = new PoolingDataSource<>(pool);
+	}
+
+	/** 
+	 * Closes idle connections while the pool holds more connections than its maximum.
+	 * Excess borrowed connections are closed when returned ({@link PooledConnectionFactory#passivateObject(org.apache.commons.pool2.PooledObject)}).
+	 */
+	private void trim() {
+		while (pool.getNumActive() + pool.getNumIdle() > pool.getMaxTotal()) {
+			PoolableConnection connection;
+			
+			try {
+				connection = pool.borrowObject(0); // <-- Pool is full: an idle connection is returned without creating a new one
+			} catch (Exception ex) {
+				return; // <-- No idle connection: active ones are closed when returned
+			}
+			
+			try {
+				pool.invalidateObject(connection);
+			} catch (Exception ignore) {}
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+	@Override
+	public void addConnection() throws Exception {
+		pool.addObject();
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return pool.getNumActive();
+	}
+
+	@Override
+	public int getIdleConnections() {
+		return pool.getNumIdle();
+	}
+
+	@Override
+	public int getWaiters() {
+		return pool.getNumWaiters();
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return pool.getMaxTotal();
+	}
+
+	@Override
+	public void setMaxConnections(int maxConnections) {
+		pool.setMaxTotal(maxConnections);
+		
+		if (pool.getNumActive() + pool.getNumIdle() > maxConnections) {
+			trim();
+			return;
+		}
+		
+		// Waiters are blocked on the idle queue: new slots are filled by idle connections handed to them
+		int slots = Math.min(pool.getNumWaiters(), maxConnections - pool.getNumActive() - pool.getNumIdle());
+		for (int i = 0; i < slots; i++) {
+			getAsyncExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pool.addObject();
+					} catch (Exception ignore) {
+						// Waiters will time out or get a returned connection
+					}
+				}
+			});
+		}
+	}
+
+	@Override
+	public int getMaxIdleConnections() {
+		return pool.getMaxIdle();
+	}
+
+	@Override
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		pool.setMaxIdle(maxIdleConnections);
+	}
+
+	@Override
+	public int getMinIdleConnections() {
+		return pool.getMinIdle();
+	}
+
+	@Override
+	public void setMinIdleConnections(int minIdleConnections) {
+		pool.setMinIdle(minIdleConnections);
+	}
+
+	@Override
+	public void evictIdleConnections() {
+		pool.clear();
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+	// =========================================================================
+}
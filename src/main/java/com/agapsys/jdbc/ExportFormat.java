@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * File format produced by {@link ResultSetExporter}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public enum ExportFormat {
+	/**
+	 * Comma-separated values (RFC 4180) encoded in UTF-8, with an optional header line.
+	 * Binary values are written in hexadecimal and null values as empty fields.
+	 */
+	CSV,
+	
+	/**
+	 * Compact length-prefixed binary format.
+	 * <p>The file starts with a header: the magic bytes {@code AJDX}, a version
+	 * byte (1), the number of columns and, for each column, its kind and its
+	 * label. Rows follow, each one as a sequence of column values.</p>
+	 * <p>Counts and lengths are unsigned variable-length integers (7 bits per
+	 * byte, least significant group first). Strings are a length followed by
+	 * UTF-8 bytes. Each value is a length {@code n + 1} followed by
+	 * {@code n} bytes; a length of zero denotes a null value. Value bytes
+	 * depend on the column kind:</p>
+	 * <ul>
+	 * <li>{@code 1} (integer): 8-byte big-endian two's complement</li>
+	 * <li>{@code 2} (boolean): 1 byte (0 or 1)</li>
+	 * <li>{@code 3} (floating point): 8-byte big-endian IEEE 754 double</li>
+	 * <li>{@code 4} (temporal): 8-byte big-endian milliseconds since the epoch</li>
+	 * <li>{@code 5} (binary): raw bytes</li>
+	 * <li>{@code 6} (text): UTF-8 bytes</li>
+	 * </ul>
+	 */
+	BINARY;
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Failover data source across an ordered list of endpoints.
+ * Connections are served by the first endpoint whose circuit breaker allows
+ * requests. A breaker opens when its endpoint fails with a
+ * {@linkplain SqlErrorType#CONNECTION_EXCEPTION connection exception} or when
+ * a background health probe fails, so that requests go to the next endpoint
+ * (or fail fast, if there is none) instead of waiting for a dead host. Idle
+ * connections of an endpoint are closed when its breaker opens, and a trial
+ * request only closes the breaker if its connection is valid.
+ * @see DataSourceFactory#getFailoverDataSource(List)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class FailoverDataSource implements DataSource, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	public static final long DEFAULT_PROBE_INTERVAL_MILLIS = 1000;
+	public static final int  DEFAULT_PROBE_TIMEOUT_SECONDS = 2;
+	
+	/** Returns a boolean indicating if given error (or one of its causes) is a connection exception. */
+	static boolean isConnectionException(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException && SqlErrorType.getInstance((SQLException) cause) == SqlErrorType.CONNECTION_EXCEPTION)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/** Endpoint. */
+	private static class Endpoint {
+		private final ConnectionFactory connectionFactory;
+		private final PooledDataSource  dataSource;
+		private final CircuitBreaker    breaker;
+		private final AtomicBoolean     probing = new AtomicBoolean();
+
+		public Endpoint(ConnectionFactory connectionFactory, PooledDataSource dataSource, CircuitBreaker breaker) {
+			this.connectionFactory = connectionFactory;
+			this.dataSource = dataSource;
+			this.breaker = breaker;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final List<Endpoint>           endpoints;
+	private final ScheduledExecutorService probeScheduler;
+	
+	private volatile int probeTimeoutSeconds = DEFAULT_PROBE_TIMEOUT_SECONDS;
+	
+	private PrintWriter logWriter;
+	
+	/**
+	 * Constructor.
+	 * @param connectionFactories factories used by health probes (in the same order of data sources)
+	 * @param dataSources data sources of the endpoints, in order of preference
+	 * @param failureThreshold number of consecutive connection failures which opens the circuit breaker of an endpoint
+	 * @param openMillis time (in milliseconds) a circuit breaker stays open before a trial request is allowed
+	 * @param probeIntervalMillis interval (in milliseconds) between health probes. A non-positive value disables probes.
+	 */
+	FailoverDataSource(List<ConnectionFactory> connectionFactories, List<PooledDataSource> dataSources, int failureThreshold, long openMillis, long probeIntervalMillis) {
+		List<Endpoint> endpointList = new ArrayList<>(dataSources.size());
+		for (int i = 0; i < dataSources.size(); i++)
+			endpointList.add(new Endpoint(connectionFactories.get(i), dataSources.get(i), new CircuitBreaker(failureThreshold, openMillis)));
+		
+		this.endpoints = Collections.unmodifiableList(endpointList);
+		
+		if (probeIntervalMillis > 0) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, ConnectionPool.newThreadFactory("jdbc-health-probe-"));
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					for (Endpoint endpoint : endpoints)
+						probe(endpoint);
+				}
+			}, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+			
+			this.probeScheduler = scheduler;
+		} else {
+			this.probeScheduler = null;
+		}
+	}
+	
+	/** Checks the health of given endpoint in background using a dedicated connection. */
+	private void probe(final Endpoint endpoint) {
+		if (!endpoint.probing.compareAndSet(false, true))
+			return; // <-- Previous probe is still running (unresponsive host)
+		
+		ConnectionPool.getAsyncExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean healthy;
+				
+				try (Connection connection = endpoint.connectionFactory.createConnection()) {
+					healthy = connection != null && connection.isValid(probeTimeoutSeconds);
+				} catch (SQLException | RuntimeException ex) {
+					healthy = false;
+				} finally {
+					endpoint.probing.set(false);
+				}
+				
+				if (healthy) {
+					endpoint.breaker.onSuccess();
+				} else {
+					onFailure(endpoint);
+				}
+			}
+		});
+	}
+	
+	/** Records a failure of given endpoint. Idle connections of the endpoint are closed if its circuit breaker is open. */
+	private static void onFailure(Endpoint endpoint) {
+		endpoint.breaker.onFailure();
+		
+		if (endpoint.breaker.getState() == CircuitBreaker.State.OPEN)
+			endpoint.dataSource.evictIdleConnections(); // <-- Stale connections would be served when the breaker allows a trial
+	}
+	
+	/** Returns the data sources of the endpoints, in order of preference. */
+	public List<PooledDataSource> getEndpoints() {
+		List<PooledDataSource> list = new ArrayList<>(endpoints.size());
+		for (Endpoint endpoint : endpoints)
+			list.add(endpoint.dataSource);
+		
+		return list;
+	}
+	
+	/**
+	 * Returns the circuit breaker of an endpoint.
+	 * @param index endpoint index
+	 * @throws IndexOutOfBoundsException if index is out of range
+	 */
+	public CircuitBreaker getCircuitBreaker(int index) throws IndexOutOfBoundsException {
+		return endpoints.get(index).breaker;
+	}
+	
+	/** Returns the timeout (in seconds) of health probe validations. */
+	public int getProbeTimeoutSeconds() {
+		return probeTimeoutSeconds;
+	}
+	/** Sets the timeout (in seconds) of health probe validations. */
+	public void setProbeTimeoutSeconds(int seconds) {
+		this.probeTimeoutSeconds = Math.max(0, seconds);
+	}
+	
+	/**
+	 * Returns a connection from the first endpoint whose circuit breaker allows requests.
+	 * Trial requests of half-open breakers are validated (see {@link #getProbeTimeoutSeconds()}) before the breaker is closed.
+	 * @throws SQLException if no endpoint could provide a connection. If all circuit breakers are open, fails immediately with SQL state {@code 08001}.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		SQLException lastError = null;
+		
+		for (Endpoint endpoint : endpoints) {
+			if (!endpoint.breaker.allowRequest())
+				continue;
+			
+			try {
+				Connection connection = endpoint.dataSource.getConnection();
+				
+				if (endpoint.breaker.getState() != CircuitBreaker.State.CLOSED) {
+					// A pooled connection does not prove that the endpoint has recovered...
+					boolean valid;
+					
+					try {
+						valid = connection.isValid(probeTimeoutSeconds);
+					} catch (SQLException | RuntimeException ex) {
+						valid = false;
+					}
+					
+					if (!valid) {
+						connection.close();
+						onFailure(endpoint);
+						lastError = new SQLException("Connection validation failed", "08006");
+						continue;
+					}
+				}
+				
+				endpoint.breaker.onSuccess();
+				return connection;
+			} catch (SQLException ex) {
+				if (!isConnectionException(ex))
+					throw ex; // <-- Endpoint is reachable (e.g. pool is exhausted)
+				
+				onFailure(endpoint);
+				lastError = ex;
+			}
+		}
+		
+		if (lastError != null)
+			throw new SQLException("Cannot get a connection, all endpoints failed", "08001", lastError);
+		
+		throw new SQLException("Cannot get a connection, no endpoint available", "08001");
+	}
+	
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException pooled connections share the credentials of the pools
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connections cannot be obtained with other credentials");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException login timeout is not supported
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Login timeout is not supported.");
+	}
+
+	/** Returns 0 (login timeout is not supported). */
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+	
+	/** Stops health probes and closes the pools of all endpoints. */
+	@Override
+	public void close() {
+		if (probeScheduler != null)
+			probeScheduler.shutdownNow();
+		
+		for (Endpoint endpoint : endpoints)
+			endpoint.dataSource.close();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.Properties;
+
+/**
+ * Checkpoint store which keeps each checkpoint in a local file.
+ * Files are replaced atomically, but since they are written after each
+ * commit, a crash between a commit and the file update causes the
+ * statements executed after previous checkpoint to be executed again.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class FileCheckpointStore implements CheckpointStore {
+	// CLASS SCOPE =============================================================
+	private static final String FILE_EXTENSION  = ".checkpoint";
+	private static final String KEY_ORDINAL     = "statementOrdinal";
+	private static final String KEY_OFFSET      = "offset";
+	private static final String KEY_CHECKSUM    = "scriptChecksum";
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final File directory;
+	
+	/**
+	 * Constructor.
+	 * @param directory directory where checkpoint files will be stored
+	 * @throws IllegalArgumentException if directory == null
+	 */
+	public FileCheckpointStore(File directory) throws IllegalArgumentException {
+		if (directory == null)
+			throw new IllegalArgumentException("Null directory");
+		
+		this.directory = directory;
+	}
+	
+	/** Returns the directory where checkpoint files are stored. */
+	public File getDirectory() {
+		return directory;
+	}
+	
+	private File getFile(String scriptName) {
+		if (scriptName == null || scriptName.isEmpty())
+			throw new IllegalArgumentException("Null/Empty script name");
+		
+		return new File(directory, scriptName.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_EXTENSION);
+	}
+	
+	@Override
+	public ScriptCheckpoint load(Connection connection, String scriptName) throws IOException {
+		File file = getFile(scriptName);
+		if (!file.exists())
+			return null;
+		
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		
+		try {
+			String checksum = properties.getProperty(KEY_CHECKSUM);
+			return new ScriptCheckpoint(Long.parseLong(properties.getProperty(KEY_ORDINAL)), Long.parseLong(properties.getProperty(KEY_OFFSET)), checksum == null ? ScriptCheckpoint.UNKNOWN_CHECKSUM : Long.parseLong(checksum));
+		} catch (NumberFormatException ex) {
+			throw new IOException(String.format("Invalid checkpoint file: %s", file.getAbsolutePath()), ex);
+		}
+	}
+
+	@Override
+	public void save(Connection connection, String scriptName, ScriptCheckpoint checkpoint) throws IOException {
+		File file = getFile(scriptName);
+		
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException(String.format("Cannot create directory: %s", directory.getAbsolutePath()));
+		
+		Properties properties = new Properties();
+		properties.setProperty(KEY_ORDINAL, "" + checkpoint.getStatementOrdinal());
+		properties.setProperty(KEY_OFFSET, "" + checkpoint.getOffset());
+		properties.setProperty(KEY_CHECKSUM, "" + checkpoint.getScriptChecksum());
+		
+		File tmpFile = new File(directory, file.getName() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmpFile)) {
+			properties.store(out, scriptName);
+		}
+		
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void clear(Connection connection, String scriptName) throws IOException {
+		Files.deleteIfExists(getFile(scriptName).toPath());
+	}
+
+	@Override
+	public boolean isTransactional() {
+		return false;
+	}
+	// =========================================================================
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator over the rows of a query executed on several shards in parallel.
+ * Each shard streams its rows into a bounded buffer, so producers are paced
+ * by the consumer; rows are returned in arrival order (rows of different
+ * shards are interleaved). If a shard fails, the cursor is closed and the
+ * error is thrown by the iterator.
+ * <p>Iterator methods throw {@link JdbcException} wrapping database errors.
+ * The cursor must be closed if it is not fully consumed (e.g. using a
+ * try-with-resources statement): until then, each shard which has not
+ * finished holds a connection and a thread. As a safety net, producers also
+ * stop if the cursor is garbage collected without being closed.</p>
+ * @param <T> row type
+ * @see ShardedDataSource#gather(String, RowMapper, Object...)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class GatherCursor<T> implements Iterator<T>, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	/** Marks the end of the rows of a shard. */
+	private static final Object END = new Object();
+	
+	/** Placeholder of null rows. */
+	private static final Object NULL_ROW = new Object();
+	
+	/** Maximum time a producer waits for buffer space before checking if the cursor was closed. */
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+	
+	private static class Failure {
+		private final Throwable error; // <-- RuntimeException or Error
+
+		public Failure(Throwable error) {
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Buffer filled by shard producers.
+	 * Producers reference the buffer but not the cursor, so that an abandoned cursor can be garbage collected.
+	 */
+	static final class Buffer<T> {
+		private final BlockingQueue<Object>           queue;
+		private final WeakReference<GatherCursor<T>> cursor;
+		
+		private volatile boolean closed = false;
+
+		private Buffer(int bufferSize, GatherCursor<T> cursor) {
+			this.queue = new ArrayBlockingQueue<>(bufferSize);
+			this.cursor = new WeakReference<>(cursor);
+		}
+		
+		/** Returns a boolean indicating if the cursor was closed or garbage collected (producers shall stop). */
+		boolean isClosed() {
+			if (!closed && cursor.get() == null)
+				close(); // <-- Cursor was abandoned
+			
+			return closed;
+		}
+		
+		private void close() {
+			closed = true;
+			queue.clear();
+		}
+		
+		private boolean offer(Object item) {
+			try {
+				while (!isClosed()) {
+					if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+						return true;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Adds a row produced by a shard. Blocks while the buffer is full.
+		 * @return false if the cursor was closed (producer shall stop)
+		 */
+		boolean add(T row) {
+			return offer(row == null ? NULL_ROW : row);
+		}
+		
+		/** Signals that a shard produced all its rows. */
+		void finish() {
+			offer(END);
+		}
+		
+		/** Signals that a shard failed. Errors are thrown as is by the iterator. */
+		void fail(Throwable error) {
+			Throwable uncheckedError;
+			
+			if (error instanceof RuntimeException || error instanceof Error) {
+				uncheckedError = error;
+			} else if (error instanceof SQLException) {
+				uncheckedError = new JdbcException((SQLException) error);
+			} else {
+				uncheckedError = new RuntimeException(error);
+			}
+			
+			offer(new Failure(uncheckedError));
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final Buffer<T> buffer;
+	
+	private int    pendingShards; // <-- Accessed only by the consumer
+	private Object next     = null;
+	private long   rowCount = 0;
+	
+	/**
+	 * Constructor.
+	 * @param shardCount number of producing shards
+	 * @param bufferSize maximum number of buffered rows
+	 */
+	GatherCursor(int shardCount, int bufferSize) {
+		this.buffer = new Buffer<>(bufferSize, this);
+		this.pendingShards = shardCount;
+	}
+	
+	/** Returns the buffer which shall be filled by shard producers. */
+	Buffer<T> getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null) {
+			if (buffer.closed || pendingShards == 0)
+				return false;
+			
+			Object item;
+			
+			try {
+				item = buffer.queue.take();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new JdbcException("Interrupted while waiting for rows");
+			}
+			
+			if (item == END) {
+				pendingShards--;
+			} else if (item instanceof Failure) {
+				close();
+				
+				Throwable error = ((Failure) item).error;
+				if (error instanceof Error)
+					throw (Error) error;
+				
+				throw (RuntimeException) error;
+			} else {
+				next = item;
+			}
+		}
+		
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		Object row = next;
+		next = null;
+		rowCount++;
+		return row == NULL_ROW ? null : (T) row;
+	}
+
+	/**
+	 * Throws {@link UnsupportedOperationException}.
+	 * @throws UnsupportedOperationException cursors are read-only
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/** Returns the number of rows returned so far. */
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	/** Returns a boolean indicating if the cursor is closed. */
+	public boolean isClosed() {
+		return buffer.closed;
+	}
+	
+	/** Stops all shards and discards buffered rows. */
+	@Override
+	public void close() {
+		next = null;
+		buffer.close();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source whose connections invalidate the results of a {@link QueryCache}
+ * when they execute write statements.
+ * Statements executed with {@code executeQuery} and {@code execute} calls which
+ * return a result set are reads; any other execution is a write of the table
+ * returned by {@link SqlTables#getWrittenTable(String)} (or of all tables, if it
+ * cannot be determined). Written tables are invalidated after each execution
+ * and, if the connection is not in auto-commit mode, again when the transaction
+ * finishes.
+ * @see QueryCache#getDataSource()
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class InvalidatingDataSource implements DataSource {
+	// CLASS SCOPE =============================================================
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+	
+	/** Handles JDBC wrapper and {@linkplain Object} methods. Returns given handler if given method is not handled. */
+	private static Object invokeCommon(InvocationHandler handler, Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			if (method.getParameterTypes().length == 1)
+				return proxy == args[0];
+			break;
+			
+		case "hashCode":
+			if (method.getParameterTypes().length == 0)
+				return System.identityHashCode(proxy);
+			break;
+			
+		case "unwrap":
+			if (((Class<?>) args[0]).isInstance(proxy))
+				return proxy;
+			break;
+			
+		case "isWrapperFor":
+			if (((Class<?>) args[0]).isInstance(proxy))
+				return true;
+			break;
+		}
+		
+		return handler;
+	}
+	
+	private static <T> T newProxy(Class<T> iface, InvocationHandler handler) {
+		return iface.cast(Proxy.newProxyInstance(InvalidatingDataSource.class.getClassLoader(), new Class<?>[] {iface}, handler));
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Handler of connection proxies. */
+	private class ConnectionHandler implements InvocationHandler {
+		private final Connection target;
+		
+		/** Tables written by the transaction in progress (null element means "any table"). */
+		private final Set<String> pendingTables = new HashSet<>();
+
+		public ConnectionHandler(Connection target) {
+			this.target = target;
+		}
+		
+		/** Invalidates the table written by given statement. */
+		private void onWrite(String sql) {
+			String table = SqlTables.getWrittenTable(sql);
+			cache.invalidateTable(table);
+			
+			boolean autoCommit;
+			
+			try {
+				autoCommit = target.getAutoCommit();
+			} catch (SQLException ex) {
+				autoCommit = false; // <-- Invalidates again when the connection is closed
+			}
+			
+			if (!autoCommit)
+				pendingTables.add(table);
+		}
+		
+		/** Invalidates the tables written by the finished transaction. */
+		private void onCompletion() {
+			for (String table : pendingTables)
+				cache.invalidateTable(table);
+			
+			pendingTables.clear();
+		}
+
+		private boolean finishesTransaction(Method method, Object[] args) {
+			switch (method.getName()) {
+			case "rollback":
+				return args == null || args.length == 0; // <-- Rollback to a savepoint does not finish the transaction
+				
+			case "setAutoCommit":
+				return Boolean.TRUE.equals(args[0]);
+				
+			default:
+				return true;
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeCommon(this, proxy, method, args);
+			if (result != this)
+				return result;
+			
+			switch (method.getName()) {
+			case "createStatement":
+				return newProxy(method.getReturnType(), new StatementHandler(this, invokeTarget(target, method, args), (Connection) proxy, null));
+				
+			case "prepareStatement":
+			case "prepareCall":
+				return newProxy(method.getReturnType(), new StatementHandler(this, invokeTarget(target, method, args), (Connection) proxy, (String) args[0]));
+				
+			case "commit":
+			case "rollback":
+			case "setAutoCommit":
+			case "close":
+				try {
+					return invokeTarget(target, method, args);
+				} finally {
+					if (!pendingTables.isEmpty() && finishesTransaction(method, args))
+						onCompletion();
+				}
+				
+			default:
+				return invokeTarget(target, method, args);
+			}
+		}
+	}
+	
+	/** Handler of statement proxies. */
+	private class StatementHandler implements InvocationHandler {
+		private final ConnectionHandler connectionHandler;
+		private final Object            target;
+		private final Connection        connection;
+		private final String            preparedSql;
+		
+		private List<String> batch;
+
+		public StatementHandler(ConnectionHandler connectionHandler, Object target, Connection connection, String preparedSql) {
+			this.connectionHandler = connectionHandler;
+			this.target = target;
+			this.connection = connection;
+			this.preparedSql = preparedSql;
+		}
+		
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			
+			if (name.equals("executeQuery"))
+				return invokeTarget(target, method, args);
+			
+			boolean isBatch = name.equals("executeBatch") || name.equals("executeLargeBatch");
+			boolean isWrite = true;
+			
+			try {
+				Object result = invokeTarget(target, method, args);
+				
+				if (name.equals("execute") && Boolean.TRUE.equals(result))
+					isWrite = false; // <-- Statement returned a result set
+				
+				return result;
+			} finally {
+				if (isBatch) {
+					if (batch != null) {
+						for (String sql : batch)
+							connectionHandler.onWrite(sql);
+						
+						batch = null;
+					} else {
+						connectionHandler.onWrite(preparedSql);
+					}
+				} else if (isWrite) {
+					connectionHandler.onWrite(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql);
+				}
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeCommon(this, proxy, method, args);
+			if (result != this)
+				return result;
+			
+			String name = method.getName();
+			
+			if (name.startsWith("execute"))
+				return execute(method, args);
+			
+			switch (name) {
+			case "addBatch":
+				result = invokeTarget(target, method, args);
+				
+				if (args != null && args.length == 1) {
+					if (batch == null)
+						batch = new ArrayList<>();
+					
+					batch.add((String) args[0]);
+				}
+				
+				return result;
+				
+			case "clearBatch":
+				batch = null;
+				return invokeTarget(target, method, args);
+				
+			case "getConnection":
+				return connection;
+				
+			default:
+				return invokeTarget(target, method, args);
+			}
+		}
+	}
+	
+	private final DataSource delegate;
+	private final QueryCache cache;
+	
+	/**
+	 * Constructor.
+	 * @param delegate data source providing connections
+	 * @param cache cache invalidated by the connections of this data source
+	 */
+	InvalidatingDataSource(DataSource delegate, QueryCache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+	
+	private Connection wrap(Connection connection) {
+		return newProxy(Connection.class, new ConnectionHandler(connection));
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(delegate.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(delegate.getConnection(username, password));
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		if (iface.isInstance(delegate))
+			return iface.cast(delegate);
+		
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+	}
+	// =========================================================================
+}
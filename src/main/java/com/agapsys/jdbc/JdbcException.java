@@ -21,45 +21,98 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 /**
- * SQLException wrapper
+ * SQLException wrapper.
+ * Except for the deprecated constructors (which roll back and close given
+ * connection), instances have no side effects on connections: rolling back
+ * and closing connections is a responsibility of the code which borrowed them
+ * (see {@link TransactionExecutor}).
  * @author Leandro Oliveira (leandro@agapsys.com)
  */
 public class JdbcException extends RuntimeException {
-	private void closeConnection (Connection connection) throws IllegalArgumentException {
+	/** 
+	 * Rolls back pending work of given connection and closes it. 
+	 * Errors are added to this exception as suppressed exceptions.
+	 */
+	private void closeConnection(Connection connection) throws IllegalArgumentException {
 		if (connection == null)
-			throw new IllegalArgumentException("connection == null");
+			throw new IllegalArgumentException("Null connection");
 		
 		try {
 			if (!connection.getAutoCommit()) {
 				connection.rollback();
 				connection.setAutoCommit(true);
 			}
-
+		} catch (SQLException ex) {
+			addSuppressed(ex);
+		}
+		
+		try {
 			connection.close();
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+		} catch (SQLException ex) {
+			addSuppressed(ex);
 		}
 	}
 	
-	public JdbcException(String errorMsg, Connection connection) throws IllegalArgumentException {
+	public JdbcException(String errorMsg) {
 		super(errorMsg);
-		closeConnection(connection);
 	}
 	
-	public JdbcException(SQLException cause, Connection connection) throws IllegalArgumentException{
+	public JdbcException(SQLException cause) {
 		super(cause);
+	}
+	
+	public JdbcException(String errorMsg, SQLException cause) {
+		super(errorMsg, cause);
+	}
+	
+	/** 
+	 * Rolls back pending work of given connection and closes it.
+	 * @deprecated Connection handling was moved to {@link TransactionExecutor}. Use {@link #JdbcException(String)} instead.
+	 * @throws IllegalArgumentException if connection == null
+	 */
+	@Deprecated
+	public JdbcException(String errorMsg, Connection connection) throws IllegalArgumentException {
+		this(errorMsg);
 		closeConnection(connection);
 	}
 	
+	/** 
+	 * Rolls back pending work of given connection and closes it.
+	 * @deprecated Connection handling was moved to {@link TransactionExecutor}. Use {@link #JdbcException(SQLException)} instead.
+	 * @throws IllegalArgumentException if connection == null
+	 */
+	@Deprecated
+	public JdbcException(SQLException cause, Connection connection) throws IllegalArgumentException {
+		this(cause);
+		closeConnection(connection);
+	}
+	
+	/** 
+	 * Rolls back pending work of the connection of given result set and closes it.
+	 * @deprecated Connection handling was moved to {@link TransactionExecutor}. Use {@link #JdbcException(SQLException)} instead.
+	 * @throws IllegalArgumentException if rs == null
+	 */
+	@Deprecated
 	public JdbcException(SQLException cause, ResultSet rs) throws IllegalArgumentException {
-		super(cause);
+		this(cause);
+		
 		if (rs == null)
-			throw new IllegalArgumentException("rs == null");
+			throw new IllegalArgumentException("Null rs");
+		
+		Connection connection;
 		
 		try {
-			closeConnection(rs.getStatement().getConnection());
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+			connection = rs.getStatement().getConnection();
+		} catch (SQLException ex) {
+			addSuppressed(ex);
+			return;
 		}
+		
+		closeConnection(connection);
+	}
+	
+	/** Returns the wrapped SQLException, or null if this exception does not wrap one. */
+	public SQLException getSQLException() {
+		return getCause() instanceof SQLException ? (SQLException) getCause() : null;
 	}
 }
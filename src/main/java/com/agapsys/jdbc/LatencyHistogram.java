@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram.
+ * Values are recorded in log-linear buckets (8 buckets per power of two),
+ * so percentiles are reported with a relative error below 12.5% while
+ * recording costs a couple of atomic increments.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class LatencyHistogram {
+	// CLASS SCOPE =============================================================
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS         = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private static int getBucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/** Returns the highest value which is recorded in given bucket. */
+	private static long getUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		
+		int shift = bucket / SUB_BUCKETS - 1;
+		int subBucket = bucket % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong      count   = new AtomicLong();
+	private final AtomicLong      total   = new AtomicLong();
+	private final AtomicLong      max     = new AtomicLong();
+	
+	/**
+	 * Records a value.
+	 * @param nanos latency in nanoseconds (negative values are recorded as zero)
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		
+		buckets.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		
+		long currentMax;
+		while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos));
+	}
+	
+	/** Returns the number of recorded values. */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/** Returns the highest recorded value (in nanoseconds). */
+	public long getMaxNanos() {
+		return max.get();
+	}
+	
+	/** Returns the mean of recorded values (in nanoseconds). */
+	public double getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+	
+	/**
+	 * Returns given percentile (in nanoseconds).
+	 * @param percentile percentile (e.g. 99 for p99)
+	 * @throws IllegalArgumentException if percentile &lt; 0 || percentile &gt; 100
+	 */
+	public long getPercentileNanos(double percentile) throws IllegalArgumentException {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			n += snapshot[i];
+		}
+		
+		if (n == 0)
+			return 0;
+		
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long cumulative = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= target)
+				return Math.min(getUpperBound(i), max.get());
+		}
+		
+		return max.get();
+	}
+	
+	/**
+	 * Returns given percentile (in milliseconds).
+	 * @param percentile percentile (e.g. 99 for p99)
+	 */
+	public double getPercentileMillis(double percentile) {
+		return (double) getPercentileNanos(percentile) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count: %d, p50: %.3f ms, p99: %.3f ms, max: %.3f ms", getCount(), getPercentileMillis(50), getPercentileMillis(99), (double) getMaxNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+	}
+	// =========================================================================
+}
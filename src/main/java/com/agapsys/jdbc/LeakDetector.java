@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects borrowed connections which are not returned to the pool.
+ * Pool engines register each borrow with the time it was borrowed, which
+ * costs a timestamp and a concurrent set update. The stack trace of the
+ * borrow is captured only for a sampled fraction of borrows; for other
+ * borrows, the current stack of the borrowing thread is captured when the
+ * leak is detected. A background thread periodically reports connections
+ * held longer than the leak threshold and reclaims connections held longer
+ * than the abandoned timeout by aborting them.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class LeakDetector {
+	// CLASS SCOPE =============================================================
+	/** Minimum interval between scans of borrowed connections. */
+	private static final long MIN_SCAN_INTERVAL_MILLIS = 10;
+	
+	private static final StackTraceElement[] EMPTY_STACK_TRACE = new StackTraceElement[0];
+	
+	/** Executor which runs tasks in calling thread, so connections are aborted before they are returned to the pool. */
+	static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
+	/** Borrowed connection which can be reclaimed by the pool. */
+	interface Reclaimable {
+		/** Aborts the physical connection and releases its pool slot, if given borrow is still current. */
+		public void reclaim(Borrow borrow);
+	}
+	
+	/** Borrow of a pooled connection. */
+	static final class Borrow {
+		private final Reclaimable connection;
+		private final long        borrowedAtNanos;
+		private final Thread      thread;
+		private final Throwable   site;
+		
+		private boolean reported = false; // <-- Accessed only by the detection thread
+
+		private Borrow(Reclaimable connection, long borrowedAtNanos, Thread thread, Throwable site) {
+			this.connection = connection;
+			this.borrowedAtNanos = borrowedAtNanos;
+			this.thread = thread;
+			this.site = site;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final PoolMetrics                 metrics;
+	private final long                        thresholdNanos;
+	private final long                        abandonedTimeoutNanos;
+	private final double                      sampleRate;
+	private final Set<Borrow>                 borrows = Collections.newSetFromMap(new ConcurrentHashMap<Borrow, Boolean>());
+	private final ScheduledThreadPoolExecutor scheduler;
+	
+	/**
+	 * Constructor.
+	 * @param metrics metrics which receive leak reports
+	 * @param thresholdMillis hold time (in milliseconds) above which a connection is reported as leaked. A non-positive value disables reports.
+	 * @param abandonedTimeoutMillis hold time (in milliseconds) above which a connection is reclaimed. A non-positive value disables reclaiming.
+	 * @param sampleRate fraction of borrows whose stack trace is captured
+	 * @throws IllegalArgumentException if both thresholdMillis and abandonedTimeoutMillis are non-positive || sampleRate &lt; 0 || sampleRate &gt; 1
+	 */
+	LeakDetector(PoolMetrics metrics, long thresholdMillis, long abandonedTimeoutMillis, double sampleRate) throws IllegalArgumentException {
+		if (thresholdMillis <= 0 && abandonedTimeoutMillis <= 0)
+			throw new IllegalArgumentException("Leak detection is disabled");
+		
+		if (!(sampleRate >= 0 && sampleRate <= 1))
+			throw new IllegalArgumentException("Invalid leak sample rate: " + sampleRate);
+		
+		this.metrics = metrics;
+		this.thresholdNanos = thresholdMillis <= 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.abandonedTimeoutNanos = abandonedTimeoutMillis <= 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(abandonedTimeoutMillis);
+		this.sampleRate = sampleRate;
+		
+		long intervalMillis;
+		if (thresholdMillis > 0 && abandonedTimeoutMillis > 0) {
+			intervalMillis = Math.min(thresholdMillis, abandonedTimeoutMillis) / 2;
+		} else {
+			intervalMillis = Math.max(thresholdMillis, abandonedTimeoutMillis) / 2;
+		}
+		
+		intervalMillis = Math.max(MIN_SCAN_INTERVAL_MILLIS, intervalMillis);
+		
+		this.scheduler = new ScheduledThreadPoolExecutor(1, ConnectionPool.newThreadFactory("jdbc-leak-detector-"));
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				} catch (RuntimeException ignore) {
+					// Keeps scanning (e.g. a listener failed)
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Registers a borrow. Called by the borrowing thread.
+	 * @param connection borrowed connection
+	 * @param borrowedAtNanos time ({@link System#nanoTime()}) the connection was borrowed
+	 * @return borrow which shall be passed to {@link #onReturn(Borrow)} when the connection is returned
+	 */
+	Borrow onBorrow(Reclaimable connection, long borrowedAtNanos) {
+		Thread thread = Thread.currentThread();
+		Throwable site = null;
+		
+		if (sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate))
+			site = new Throwable("Connection borrowed by thread \"" + thread.getName() + "\"");
+		
+		Borrow borrow = new Borrow(connection, borrowedAtNanos, thread, site);
+		borrows.add(borrow);
+		return borrow;
+	}
+	
+	/** Unregisters a borrow (null is ignored). */
+	void onReturn(Borrow borrow) {
+		if (borrow != null)
+			borrows.remove(borrow);
+	}
+	
+	private ConnectionLeak newLeak(Borrow borrow, long holdNanos, boolean reclaimed) {
+		StackTraceElement[] holderStackTrace = borrow.thread.isAlive() ? borrow.thread.getStackTrace() : EMPTY_STACK_TRACE;
+		return new ConnectionLeak(holdNanos, borrow.thread.getName(), borrow.site, holderStackTrace, reclaimed);
+	}
+	
+	/** Reports leaked connections and reclaims abandoned ones. */
+	void scan() {
+		long now = System.nanoTime();
+		
+		for (Borrow borrow : borrows) {
+			long holdNanos = now - borrow.borrowedAtNanos;
+			
+			if (abandonedTimeoutNanos > 0 && holdNanos > abandonedTimeoutNanos) {
+				if (!borrows.remove(borrow))
+					continue; // <-- Returned concurrently
+				
+				ConnectionLeak leak = newLeak(borrow, holdNanos, true);
+				borrow.connection.reclaim(borrow);
+				metrics.onLeak(leak);
+			} else if (thresholdNanos > 0 && holdNanos > thresholdNanos && !borrow.reported) {
+				borrow.reported = true;
+				metrics.onLeak(newLeak(borrow, holdNanos, false));
+			}
+		}
+	}
+	
+	/** Stops leak detection. */
+	void close() {
+		scheduler.shutdownNow();
+		borrows.clear();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Listener of connection leaks.
+ * Listener methods are called by the leak detection thread.
+ * @see PooledDataSource#addLeakListener(LeakListener)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface LeakListener {
+	/**
+	 * Called when a borrowed connection exceeds the leak threshold ({@link PoolSettings#getLeakThresholdMillis()})
+	 * and when it is reclaimed after the abandoned timeout ({@link PoolSettings#getAbandonedTimeoutMillis()}).
+	 */
+	public void onLeak(ConnectionLeak leak);
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned schema migration.
+ * Migration files are named {@code V<version>__<description>.sql}, where
+ * version components are separated by dots or underscores (e.g.
+ * {@code V1_2__create_tables.sql}). Migrations which do not depend on
+ * other migrations may be marked as independent by the suffix
+ * {@code .independent.sql}. Consecutive independent migrations are applied in
+ * parallel.
+ * @see SchemaMigrator
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class Migration implements Comparable<Migration> {
+	// CLASS SCOPE =============================================================
+	private static final Pattern FILENAME_PATTERN = Pattern.compile("^V([0-9]+(?:[._][0-9]+)*)__(.+?)(\\.independent)?\\.sql$");
+	
+	private static int[] parseVersion(String version) throws IllegalArgumentException {
+		if (version == null || version.isEmpty())
+			throw new IllegalArgumentException("Null/Empty version");
+		
+		String[] tokens = version.split("[._]");
+		int[] components = new int[tokens.length];
+		
+		try {
+			for (int i = 0; i < tokens.length; i++)
+				components[i] = Integer.parseInt(tokens[i]);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid version: " + version);
+		}
+		
+		return components;
+	}
+	
+	private static Migration fromFilename(String filename, SqlScript script) throws IllegalArgumentException {
+		Matcher matcher = FILENAME_PATTERN.matcher(filename);
+		if (!matcher.matches())
+			throw new IllegalArgumentException("Invalid migration filename: " + filename);
+		
+		String version = matcher.group(1).replace('_', '.');
+		String description = matcher.group(2).replace('_', ' ');
+		
+		return new Migration(version, description, script, matcher.group(3) != null);
+	}
+	
+	/**
+	 * Returns a migration stored in an embedded file.
+	 * @param pkg package which contains the file
+	 * @param sqlFilename name of the embedded file (see naming convention in class documentation)
+	 * @param charset file charset
+	 * @throws IllegalArgumentException if file name does not follow naming convention
+	 */
+	public static Migration fromResource(String pkg, String sqlFilename, Charset charset) throws IllegalArgumentException {
+		return fromFilename(sqlFilename, SqlScript.fromResource(pkg, sqlFilename, charset));
+	}
+	
+	/**
+	 * Returns all migrations stored in a directory, sorted by version.
+	 * Files which do not follow the naming convention are ignored.
+	 * @param directory directory containing migration files
+	 * @param charset files charset
+	 * @throws IOException if given directory cannot be read
+	 * @throws IllegalArgumentException if directory == null
+	 */
+	public static List<Migration> fromDirectory(File directory, Charset charset) throws IOException, IllegalArgumentException {
+		if (directory == null)
+			throw new IllegalArgumentException("Null directory");
+		
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException(String.format("Cannot read directory: %s", directory.getAbsolutePath()));
+		
+		List<Migration> migrations = new ArrayList<>();
+		for (File file : files) {
+			if (file.isFile() && FILENAME_PATTERN.matcher(file.getName()).matches())
+				migrations.add(fromFilename(file.getName(), SqlScript.fromFile(file, charset)));
+		}
+		
+		Collections.sort(migrations);
+		return migrations;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String    version;
+	private final int[]     versionComponents;
+	private final String    description;
+	private final SqlScript script;
+	private final boolean   independent;
+	
+	/**
+	 * Constructor.
+	 * @param version migration version (numeric components separated by dots, e.g. "1.2")
+	 * @param description migration description
+	 * @param script migration script
+	 * @param independent defines if migration does not depend on other migrations and can be applied in parallel
+	 * @throws IllegalArgumentException if version is invalid or script == null
+	 */
+	public Migration(String version, String description, SqlScript script, boolean independent) throws IllegalArgumentException {
+		this.versionComponents = parseVersion(version);
+		
+		if (script == null)
+			throw new IllegalArgumentException("Null script");
+		
+		this.version = version;
+		this.description = description == null ? "" : description;
+		this.script = script;
+		this.independent = independent;
+	}
+
+	/** Returns migration version. */
+	public String getVersion() {
+		return version;
+	}
+
+	/** Returns migration description. */
+	public String getDescription() {
+		return description;
+	}
+
+	/** Returns migration script. */
+	public SqlScript getScript() {
+		return script;
+	}
+
+	/** Returns a boolean indicating if migration can be applied in parallel with other independent migrations. */
+	public boolean isIndependent() {
+		return independent;
+	}
+	
+	/**
+	 * Returns the checksum of migration statements.
+	 * Checksum ignores comments and whitespace around statements.
+	 * @param backslashEscapes defines if backslash escapes quotes inside string literals
+	 * @throws IOException if there was an I/O error while reading the script
+	 */
+	public long getChecksum(boolean backslashEscapes) throws IOException {
+		CRC32 crc = new CRC32();
+		
+		try (SqlTokenizer tokenizer = script.openTokenizer(backslashEscapes)) {
+			String statement;
+			while ((statement = tokenizer.next()) != null) {
+				byte[] bytes = statement.getBytes("UTF-8");
+				crc.update(bytes, 0, bytes.length);
+				crc.update(';');
+			}
+		}
+		
+		return crc.getValue();
+	}
+
+	@Override
+	public int compareTo(Migration o) {
+		int length = Math.max(versionComponents.length, o.versionComponents.length);
+		
+		for (int i = 0; i < length; i++) {
+			int a = i < versionComponents.length ? versionComponents[i] : 0;
+			int b = i < o.versionComponents.length ? o.versionComponents[i] : 0;
+			
+			if (a != b)
+				return a < b ? -1 : 1;
+		}
+		
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("V%s (%s)", version, description);
+	}
+	// =========================================================================
+}
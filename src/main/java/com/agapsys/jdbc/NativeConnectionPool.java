@@ -0,0 +1,705 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.dbcp2.DelegatingConnection;
+
+/**
+ * Built-in lock-free connection pool.
+ * A borrowing thread looks for an idle connection in the following order:
+ * <ol>
+ *   <li>connections it returned recently (thread-affine reuse);</li>
+ *   <li>the shared list of connections, claimed by compare-and-set;</li>
+ *   <li>a new connection, if the pool is not full;</li>
+ *   <li>a connection handed off directly by a returning thread.</li>
+ * </ol>
+ * Asynchronous acquisitions never block: pending acquisitions are queued
+ * and completed by returning threads (or by the background creation of a
+ * connection), and fail when the maximum waiting time elapses.
+ * @see PoolEngine#NATIVE
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class NativeConnectionPool extends ConnectionPool {
+	// CLASS SCOPE =============================================================
+	private static final int STATE_IDLE    = 0;
+	private static final int STATE_IN_USE  = 1;
+	private static final int STATE_REMOVED = 2;
+	
+	/** Maximum number of connections remembered by each thread. */
+	private static final int MAX_THREAD_ENTRIES = 16;
+	
+	/** Maximum time a waiter is parked before looking for idle connections and free slots again. */
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	
+	/** Maximum time a returning thread waits for a blocked borrower to take its connection. */
+	private static final long HANDOFF_TIMEOUT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	
+	private static class Entry {
+		private final Connection connection;
+		private final long       createdAtNanos = System.nanoTime();
+		private final boolean    readOnly;
+		private final int        transactionIsolation;
+		
+		private volatile long borrowedAtNanos;
+		
+		/** Defines if read-only flag or transaction isolation were changed by current borrower. */
+		private boolean stateChanged;
+		
+		volatile int state; // <-- Not private: accessed through a field updater
+
+		public Entry(Connection connection, int state, boolean readOnly, int transactionIsolation) {
+			this.connection = connection;
+			this.state = state;
+			this.readOnly = readOnly;
+			this.transactionIsolation = transactionIsolation;
+		}
+	}
+	
+	/** Per-thread state. */
+	private static class ThreadState {
+		/** Entries recently returned by the thread (replaced by an empty list when the pool is closed). */
+		private volatile List<Entry> entries = new ArrayList<>(MAX_THREAD_ENTRIES);
+		
+		/** Entries released by callbacks while the thread is making entries idle. */
+		private final ArrayDeque<Entry> deferred = new ArrayDeque<>();
+		
+		private boolean releasing;
+	}
+	
+	private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+	
+	/** Restores default state of a connection being returned to the pool. */
+	private static boolean reset(Entry entry) {
+		Connection connection = entry.connection;
+		
+		try {
+			if (connection.isClosed())
+				return false;
+			
+			if (!connection.getAutoCommit()) {
+				if (!connection.isReadOnly())
+					connection.rollback();
+				
+				connection.setAutoCommit(true);
+			}
+			
+			if (entry.stateChanged) {
+				if (connection.isReadOnly() != entry.readOnly)
+					connection.setReadOnly(entry.readOnly);
+				
+				if (connection.getTransactionIsolation() != entry.transactionIsolation)
+					connection.setTransactionIsolation(entry.transactionIsolation);
+				
+				entry.stateChanged = false;
+			}
+			
+			connection.clearWarnings();
+			return true;
+		} catch (SQLException ex) {
+			return false;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Connection handed to a borrower. It returns the pooled connection when closed. */
+	private class PooledConnection extends DelegatingConnection<Connection> implements LeakDetector.Reclaimable {
+		private final Entry         entry;
+		private final AtomicBoolean returned = new AtomicBoolean();
+		
+		private LeakDetector.Borrow borrow;
+
+		public PooledConnection(Entry entry) {
+			super(entry.connection);
+			this.entry = entry;
+		}
+
+		@Override
+		public Connection getDelegate() {
+			return null; // <-- Access to the underlying connection is not allowed
+		}
+
+		@Override
+		public Connection getInnermostDelegate() {
+			return null; // <-- Access to the underlying connection is not allowed
+		}
+
+		@Override
+		public void setReadOnly(boolean readOnly) throws SQLException {
+			entry.stateChanged = true;
+			super.setReadOnly(readOnly);
+		}
+
+		@Override
+		public void setTransactionIsolation(int level) throws SQLException {
+			entry.stateChanged = true;
+			super.setTransactionIsolation(level);
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if (!returned.compareAndSet(false, true))
+				return;
+			
+			if (leakDetector != null)
+				leakDetector.onReturn(borrow);
+			
+			try {
+				passivate();
+			} finally {
+				setClosedInternal(true);
+				release(entry);
+			}
+		}
+
+		@Override
+		public void reclaim(LeakDetector.Borrow borrow) {
+			if (!returned.compareAndSet(false, true))
+				return;
+			
+			try {
+				entry.connection.abort(LeakDetector.DIRECT_EXECUTOR);
+			} catch (SQLException | RuntimeException | AbstractMethodError ex) {
+				try {
+					entry.connection.close();
+				} catch (SQLException ignore) {}
+			}
+			
+			try {
+				passivate();
+			} catch (SQLException ignore) {
+			} finally {
+				setClosedInternal(true);
+				release(entry); // <-- Connection is closed: it is destroyed and its slot is released
+			}
+		}
+	}
+	
+	private final ConnectionFactory connectionFactory;
+	private final PoolMetrics       metrics;
+	private final LeakDetector      leakDetector;
+	private final long              maxWaitNanos;
+	private final long              maxLifetimeNanos;
+	
+	private final List<Entry>             entries  = new CopyOnWriteArrayList<>();
+	private final SynchronousQueue<Entry> handoff  = new SynchronousQueue<>(true);
+	private final AtomicInteger           total    = new AtomicInteger();
+	private final AtomicInteger           active   = new AtomicInteger();
+	private final AtomicInteger           waiters  = new AtomicInteger();
+	
+	private final Queue<ConnectionFuture>                   asyncWaiters     = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger                             pendingAsync     = new AtomicInteger();
+	private final AtomicReference<ScheduledExecutorService> timeoutScheduler = new AtomicReference<>();
+	
+	/** States of the threads which used the pool (states of terminated threads are discarded). */
+	private final Set<ThreadState> threadStates = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ThreadState, Boolean>()));
+	
+	private final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			ThreadState state = new ThreadState();
+			threadStates.add(state);
+			return state;
+		}
+	};
+	
+	private volatile int     maxConnections;
+	private volatile int     maxIdleConnections;
+	private volatile int     minIdleConnections;
+	private volatile boolean closed = false;
+	
+	/**
+	 * Constructor.
+	 * @param connectionFactory factory used to create connections
+	 * @param settings pool settings
+	 * @param metrics pool metrics
+	 * @param leakDetector detector of leaked connections (null disables leak detection)
+	 */
+	public NativeConnectionPool(ConnectionFactory connectionFactory, PoolSettings settings, PoolMetrics metrics, LeakDetector leakDetector) {
+		this.connectionFactory = connectionFactory;
+		this.metrics = metrics;
+		this.leakDetector = leakDetector;
+		this.maxConnections = settings.getMaxConnections();
+		this.maxIdleConnections = settings.getMaxIdleConnections();
+		this.minIdleConnections = settings.getMinIdleConnections();
+		this.maxWaitNanos = settings.getMaxWaitMillis() < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(settings.getMaxWaitMillis());
+		this.maxLifetimeNanos = settings.getMaxConnectionLifetimeMillis() <= 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(settings.getMaxConnectionLifetimeMillis());
+	}
+	
+	private boolean isExpired(Entry entry) {
+		return maxLifetimeNanos > 0 && System.nanoTime() - entry.createdAtNanos > maxLifetimeNanos;
+	}
+	
+	/** Opens a new connection if the pool is not full. Returns null if the pool is full. */
+	private Entry create(int state) throws SQLException {
+		while (true) {
+			int count = total.get();
+			if (count >= maxConnections)
+				return null;
+			
+			if (total.compareAndSet(count, count + 1))
+				break;
+		}
+		
+		Connection connection;
+		boolean readOnly;
+		int transactionIsolation;
+		
+		try {
+			connection = connectionFactory.createConnection();
+			if (connection == null)
+				throw new SQLException("Connection factory returned null");
+			
+			// Initial state restored when the connection is returned...
+			try {
+				readOnly = connection.isReadOnly();
+				transactionIsolation = connection.getTransactionIsolation();
+			} catch (SQLException | RuntimeException ex) {
+				try {
+					connection.close();
+				} catch (SQLException ignore) {}
+				
+				throw ex;
+			}
+		} catch (SQLException | RuntimeException ex) {
+			total.decrementAndGet();
+			metrics.onCreateFailure(ex);
+			throw ex;
+		}
+		
+		Entry entry = new Entry(connection, state, readOnly, transactionIsolation);
+		entries.add(entry);
+		metrics.onCreate();
+		return entry;
+	}
+	
+	private void destroy(Entry entry) {
+		STATE.set(entry, STATE_REMOVED);
+		
+		if (entries.remove(entry)) {
+			total.decrementAndGet();
+			metrics.onDestroy();
+		}
+		
+		try {
+			entry.connection.close();
+		} catch (SQLException ignore) {}
+	}
+	
+	/** Claims an idle entry. Entries whose lifetime has expired are destroyed. */
+	private boolean acquire(Entry entry) {
+		if (!STATE.compareAndSet(entry, STATE_IDLE, STATE_IN_USE))
+			return false;
+		
+		if (isExpired(entry)) {
+			destroy(entry);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private Entry claimIdle() {
+		for (Entry entry : entries) {
+			if (acquire(entry))
+				return entry;
+		}
+		
+		return null;
+	}
+	
+	private Entry borrow() throws SQLException {
+		List<Entry> localEntries = threadState.get().entries;
+		for (int i = localEntries.size() - 1; i >= 0; i--) {
+			Entry entry = localEntries.remove(i);
+			if (acquire(entry))
+				return entry;
+		}
+		
+		long start = System.nanoTime();
+		
+		try {
+			while (true) {
+				if (closed)
+					throw new SQLException("Pool is closed");
+				
+				Entry entry = claimIdle();
+				if (entry != null)
+					return entry;
+				
+				entry = create(STATE_IN_USE);
+				if (entry != null)
+					return entry;
+				
+				long remaining = maxWaitNanos < 0 ? MAX_PARK_NANOS : maxWaitNanos - (System.nanoTime() - start);
+				if (remaining <= 0)
+					throw new SQLException("Cannot get a connection, pool error Timeout waiting for idle object");
+				
+				waiters.incrementAndGet();
+				
+				try {
+					// Entries released before this thread became a waiter are still idle, otherwise they are handed off
+					entry = claimIdle();
+					if (entry != null)
+						return entry;
+					
+					entry = handoff.poll(Math.min(remaining, MAX_PARK_NANOS), TimeUnit.NANOSECONDS);
+					if (entry != null && acquire(entry))
+						return entry;
+				} finally {
+					waiters.decrementAndGet();
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", ex);
+		}
+	}
+	
+	private void release(Entry entry) {
+		active.decrementAndGet();
+		metrics.onReturn(System.nanoTime() - entry.borrowedAtNanos);
+		
+		if (closed || isExpired(entry) || !reset(entry) || total.get() > maxConnections || (maxIdleConnections >= 0 && waiters.get() == 0 && getIdleConnections() > maxIdleConnections)) {
+			destroy(entry);
+			return;
+		}
+		
+		makeIdle(entry);
+	}
+	
+	/** 
+	 * Makes an entry claimed by calling thread available to other borrowers.
+	 * Entries released by callbacks of acquisitions completed here are processed
+	 * after the current one, so nested releases do not grow the stack.
+	 */
+	private void makeIdle(Entry entry) {
+		ThreadState state = threadState.get();
+		
+		if (state.releasing) {
+			state.deferred.add(entry);
+			return;
+		}
+		
+		state.releasing = true;
+		try {
+			makeIdle(entry, state);
+			
+			while ((entry = state.deferred.poll()) != null)
+				makeIdle(entry, state);
+		} finally {
+			state.releasing = false;
+		}
+	}
+	
+	private void makeIdle(Entry entry, ThreadState state) {
+		STATE.set(entry, STATE_IDLE);
+		
+		if (closed) { // <-- Pool was closed while the entry was being released
+			if (STATE.compareAndSet(entry, STATE_IDLE, STATE_REMOVED))
+				destroy(entry);
+			
+			return;
+		}
+		
+		// Pending asynchronous acquisitions are served first. Entry is marked as idle before checking them, so an acquisition queued concurrently finds it.
+		while (pendingAsync.get() > 0 && acquire(entry)) {
+			if (dispatchAsync(entry))
+				return;
+			
+			STATE.set(entry, STATE_IDLE);
+		}
+		
+		// A blocked borrower gets the entry directly. Otherwise, the entry remains idle and is found by the next lookup of the borrower.
+		if (waiters.get() > 0) {
+			try {
+				if (handoff.offer(entry, HANDOFF_TIMEOUT_NANOS, TimeUnit.NANOSECONDS))
+					return;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			
+			if (entry.state != STATE_IDLE)
+				return; // <-- Claimed by another borrower
+		}
+		
+		List<Entry> localEntries = state.entries;
+		if (localEntries.size() < MAX_THREAD_ENTRIES) {
+			localEntries.add(entry);
+			
+			if (closed) // <-- Pool was closed concurrently: its entries shall not be retained by the thread
+				localEntries.clear();
+		}
+	}
+	
+	private PooledConnection lend(Entry entry) {
+		active.incrementAndGet();
+		entry.borrowedAtNanos = System.nanoTime();
+		
+		PooledConnection connection = new PooledConnection(entry);
+		if (leakDetector != null)
+			connection.borrow = leakDetector.onBorrow(connection, entry.borrowedAtNanos);
+		
+		return connection;
+	}
+	
+	/**
+	 * Hands an entry claimed by calling thread to the oldest pending asynchronous acquisition.
+	 * @return false if there is no pending acquisition (entry remains claimed by calling thread)
+	 */
+	private boolean dispatchAsync(Entry entry) {
+		ConnectionFuture future;
+		
+		while ((future = asyncWaiters.poll()) != null) {
+			pendingAsync.decrementAndGet();
+			
+			if (future.isDone())
+				continue;
+			
+			PooledConnection connection = lend(entry);
+			if (future.complete(connection))
+				return true;
+			
+			// Acquisition was cancelled or timed out concurrently
+			active.decrementAndGet();
+			if (leakDetector != null)
+				leakDetector.onReturn(connection.borrow);
+		}
+		
+		return false;
+	}
+	
+	/** Fails the oldest pending asynchronous acquisition. */
+	private void failAsync(SQLException error) {
+		ConnectionFuture future;
+		
+		while ((future = asyncWaiters.poll()) != null) {
+			pendingAsync.decrementAndGet();
+			
+			if (future.fail(error))
+				return;
+		}
+	}
+	
+	private ScheduledExecutorService getTimeoutScheduler() {
+		ScheduledExecutorService scheduler = timeoutScheduler.get();
+		
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor newScheduler = new ScheduledThreadPoolExecutor(1, newThreadFactory("jdbc-async-timeout-"));
+			newScheduler.setRemoveOnCancelPolicy(true);
+			
+			if (timeoutScheduler.compareAndSet(null, newScheduler)) {
+				scheduler = newScheduler;
+			} else {
+				newScheduler.shutdown();
+				scheduler = timeoutScheduler.get();
+			}
+		}
+		
+		return scheduler;
+	}
+	
+	/** Opens a connection in background for pending asynchronous acquisitions. */
+	private void createAsync() {
+		getAsyncExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Entry entry = create(STATE_IN_USE);
+					
+					if (entry != null && !dispatchAsync(entry))
+						makeIdle(entry);
+				} catch (SQLException | RuntimeException ex) {
+					failAsync(ex instanceof SQLException ? (SQLException) ex : new SQLException(ex));
+				}
+			}
+		});
+	}
+
+	@Override
+	public void getConnectionAsync(final ConnectionFuture future) {
+		if (closed) {
+			future.fail(new SQLException("Pool is closed"));
+			return;
+		}
+		
+		Entry entry = claimIdle();
+		if (entry != null) {
+			PooledConnection connection = lend(entry);
+			if (!future.complete(connection)) {
+				try {
+					connection.close();
+				} catch (SQLException ignore) {}
+			}
+			
+			return;
+		}
+		
+		asyncWaiters.add(future);
+		pendingAsync.incrementAndGet();
+		
+		if (maxWaitNanos >= 0) {
+			future.setTimeout(getTimeoutScheduler().schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (asyncWaiters.remove(future))
+						pendingAsync.decrementAndGet();
+					
+					future.fail(new SQLException("Cannot get a connection, pool error Timeout waiting for idle object"));
+				}
+			}, maxWaitNanos, TimeUnit.NANOSECONDS));
+		}
+		
+		// Entries released before the acquisition was queued are still idle, otherwise they are dispatched by releasing threads
+		entry = claimIdle();
+		if (entry != null) {
+			if (!dispatchAsync(entry))
+				makeIdle(entry);
+		} else if (total.get() < maxConnections) {
+			createAsync();
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return lend(borrow());
+	}
+
+	@Override
+	public void addConnection() throws Exception {
+		if (closed)
+			throw new IllegalStateException("Pool is closed");
+		
+		if (create(STATE_IDLE) == null)
+			throw new IllegalStateException("Pool is full");
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return active.get();
+	}
+
+	@Override
+	public int getIdleConnections() {
+		return Math.max(0, entries.size() - active.get());
+	}
+
+	@Override
+	public int getWaiters() {
+		return waiters.get() + pendingAsync.get();
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/** Closes idle connections exceeding pool limits. */
+	private void trim() {
+		int maxIdle = maxIdleConnections;
+		
+		while (total.get() > maxConnections || (maxIdle >= 0 && getIdleConnections() > maxIdle)) {
+			Entry entry = claimIdle();
+			if (entry == null)
+				return;
+			
+			destroy(entry);
+		}
+	}
+
+	@Override
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		trim();
+		
+		// Blocked waiters look for free slots periodically, while pending asynchronous acquisitions are served by new connections
+		int slots = Math.min(pendingAsync.get(), maxConnections - total.get());
+		for (int i = 0; i < slots && !closed; i++)
+			createAsync();
+	}
+
+	@Override
+	public int getMaxIdleConnections() {
+		return maxIdleConnections;
+	}
+
+	@Override
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		this.maxIdleConnections = maxIdleConnections;
+		trim();
+	}
+
+	@Override
+	public int getMinIdleConnections() {
+		return minIdleConnections;
+	}
+
+	@Override
+	public void setMinIdleConnections(int minIdleConnections) {
+		this.minIdleConnections = minIdleConnections;
+	}
+
+	@Override
+	public void evictIdleConnections() {
+		for (Entry entry : entries) {
+			if (STATE.compareAndSet(entry, STATE_IDLE, STATE_REMOVED))
+				destroy(entry);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		evictIdleConnections();
+		
+		SQLException error = new SQLException("Pool is closed");
+		while (pendingAsync.get() > 0 && !asyncWaiters.isEmpty())
+			failAsync(error);
+		
+		ScheduledExecutorService scheduler = timeoutScheduler.get();
+		if (scheduler != null)
+			scheduler.shutdownNow();
+		
+		// Threads shall not retain closed connections...
+		synchronized (threadStates) {
+			for (ThreadState state : threadStates)
+				state.entries = new ArrayList<>(0);
+			
+			threadStates.clear();
+		}
+	}
+	// =========================================================================
+}
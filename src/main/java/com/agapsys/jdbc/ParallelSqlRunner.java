@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Runs several SQL scripts concurrently.
+ * Each script is executed in its own transaction using a connection obtained
+ * from a data source (e.g. {@link DataSourceFactory#getDataSource(PoolSettings)}).
+ * The number of scripts running at the same time (and therefore the number of
+ * borrowed connections) is bounded.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ParallelSqlRunner {
+	// CLASS SCOPE =============================================================
+	/** Execution result of a script. */
+	public static class ScriptResult {
+		private final SqlScript script;
+		private final long      elapsedNanos;
+		private final Exception error;
+		
+		private ScriptResult(SqlScript script, long elapsedNanos, Exception error) {
+			this.script = script;
+			this.elapsedNanos = elapsedNanos;
+			this.error = error;
+		}
+		
+		/** Returns the executed script. */
+		public SqlScript getScript() {
+			return script;
+		}
+		
+		/** Returns the time spent (in milliseconds) to run the script, including connection acquisition. */
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+		
+		/** Returns the error raised while running the script or null if script was successfully executed. */
+		public Exception getError() {
+			return error;
+		}
+		
+		/** Returns a boolean indicating if script was successfully executed. */
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %s (%d ms)", script.getName(), isSuccessful() ? "OK" : error.toString(), getElapsedMillis());
+		}
+	}
+	
+	private static class ScriptTask implements Callable<ScriptResult> {
+		private final DataSource dataSource;
+		private final SqlScript  script;
+		private final int        batchSize;
+
+		public ScriptTask(DataSource dataSource, SqlScript script, int batchSize) {
+			this.dataSource = dataSource;
+			this.script = script;
+			this.batchSize = batchSize;
+		}
+		
+		@Override
+		public ScriptResult call() {
+			long start = System.nanoTime();
+			Exception error = null;
+			
+			try (Connection connection = dataSource.getConnection()) {
+				try {
+					script.run(connection, batchSize);
+				} catch (Exception ex) {
+					if (!connection.getAutoCommit())
+						connection.rollback();
+					
+					throw ex;
+				}
+			} catch (Exception ex) {
+				error = ex;
+			}
+			
+			return new ScriptResult(script, System.nanoTime() - start, error);
+		}
+	}
+	
+	/**
+	 * Runs given scripts concurrently.
+	 * A failing script does not prevent the others from being executed.
+	 * @param dataSource data source used to obtain connections
+	 * @param scripts scripts to be executed
+	 * @param maxConnections maximum number of scripts running at the same time
+	 * @param batchSize maximum number of statements per batch (1 disables batching)
+	 * @return execution results in the same order as given scripts
+	 * @throws InterruptedException if current thread was interrupted while waiting for scripts to finish
+	 * @throws IllegalArgumentException if dataSource == null || scripts == null || maxConnections &lt; 1 || batchSize &lt; 1
+	 */
+	public static List<ScriptResult> run(DataSource dataSource, Collection<SqlScript> scripts, int maxConnections, int batchSize) throws InterruptedException, IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null dataSource");
+		
+		if (scripts == null)
+			throw new IllegalArgumentException("Null scripts");
+		
+		if (maxConnections < 1)
+			throw new IllegalArgumentException("Invalid maxConnections: " + maxConnections);
+		
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		
+		if (scripts.isEmpty())
+			return Collections.emptyList();
+		
+		List<ScriptTask> tasks = new ArrayList<>(scripts.size());
+		for (SqlScript script : scripts) {
+			if (script == null)
+				throw new IllegalArgumentException("Null script");
+			
+			tasks.add(new ScriptTask(dataSource, script, batchSize));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConnections, tasks.size()));
+		try {
+			List<ScriptResult> results = new ArrayList<>(tasks.size());
+			
+			for (Future<ScriptResult> future : executor.invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException ex) {
+					throw new RuntimeException(ex.getCause()); // <-- ScriptTask does not throw exceptions
+				}
+			}
+			
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Returns the failed results among given ones.
+	 * @param results results returned by {@link ParallelSqlRunner#run(DataSource, Collection, int, int)}
+	 */
+	public static List<ScriptResult> getFailures(List<ScriptResult> results) {
+		List<ScriptResult> failures = new LinkedList<>();
+		
+		for (ScriptResult result : results) {
+			if (!result.isSuccessful())
+				failures.add(result);
+		}
+		
+		return failures;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private ParallelSqlRunner() {} // Prevents instantiation
+	// =========================================================================
+}
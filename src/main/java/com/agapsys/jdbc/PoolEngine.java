@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Connection pool engines which can be used by {@link DataSourceFactory}.
+ * @see PoolSettings#getPoolEngine()
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public enum PoolEngine {
+	/** Apache Commons DBCP/Pool engine. */
+	DBCP,
+	
+	/**
+	 * Built-in lock-free engine.
+	 * Connections are reused preferably by the thread which returned them,
+	 * otherwise they are taken from a shared lock-free list or handed off
+	 * directly from a returning thread to a waiting one. Eviction
+	 * ({@link PoolSettings#getEvictionIntervalMillis()}), idle ordering
+	 * ({@link PoolSettings#isLifo()}) and prepared statement cache size are
+	 * ignored by this engine, and pools which enable prepared statement pooling
+	 * ({@link PoolSettings#isPoolStatements()}) are rejected.
+	 */
+	NATIVE;
+}
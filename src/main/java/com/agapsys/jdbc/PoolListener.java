@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Listener of connection pool events.
+ * Listener methods are called by the threads which use the pool, so they
+ * shall return quickly.
+ * @see PooledDataSource#addListener(PoolListener)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface PoolListener {
+	/**
+	 * Called when a connection is borrowed from the pool.
+	 * @param waitNanos time spent waiting for the connection
+	 */
+	public void onBorrow(long waitNanos);
+	
+	/**
+	 * Called when a connection is returned to the pool.
+	 * @param holdNanos time elapsed since the connection was borrowed
+	 */
+	public void onReturn(long holdNanos);
+	
+	/** Called when the pool fails to provide a connection (e.g. timeout or database error). */
+	public void onBorrowFailure(Exception error);
+	
+	/** Called when a physical connection is created. */
+	public void onCreate();
+	
+	/** Called when a physical connection could not be created. */
+	public void onCreateFailure(Exception error);
+	
+	/** Called when a physical connection is closed. */
+	public void onDestroy();
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a connection pool created by {@link DataSourceFactory}.
+ * Gauges are read from the pool when requested, while counters and
+ * histograms are updated without locks by the threads using the pool.
+ * Registered {@linkplain PoolListener listeners} are notified of the same
+ * events.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PoolMetrics implements PoolMetricsMXBean {
+	// CLASS SCOPE =============================================================
+	private static double toMillis(long nanos) {
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+	private final LatencyHistogram holdTime   = new LatencyHistogram();
+	
+	private final AtomicLong created        = new AtomicLong();
+	private final AtomicLong destroyed      = new AtomicLong();
+	private final AtomicLong createFailures = new AtomicLong();
+	private final AtomicLong borrowFailures = new AtomicLong();
+	private final AtomicLong leaked         = new AtomicLong();
+	private final AtomicLong reclaimed      = new AtomicLong();
+	
+	private final List<PoolListener> listeners     = new CopyOnWriteArrayList<>();
+	private final List<LeakListener> leakListeners = new CopyOnWriteArrayList<>();
+	
+	private ConnectionPool pool;
+	
+	void setPool(ConnectionPool pool) {
+		this.pool = pool;
+	}
+	
+	void addListener(PoolListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("Null listener");
+		
+		listeners.add(listener);
+	}
+	
+	void removeListener(PoolListener listener) {
+		listeners.remove(listener);
+	}
+	
+	void addLeakListener(LeakListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("Null listener");
+		
+		leakListeners.add(listener);
+	}
+	
+	void removeLeakListener(LeakListener listener) {
+		leakListeners.remove(listener);
+	}
+	
+	void onBorrow(long waitNanos) {
+		borrowWait.record(waitNanos);
+		
+		for (PoolListener listener : listeners)
+			listener.onBorrow(waitNanos);
+	}
+	
+	void onReturn(long holdNanos) {
+		holdTime.record(holdNanos);
+		
+		for (PoolListener listener : listeners)
+			listener.onReturn(holdNanos);
+	}
+	
+	void onBorrowFailure(Exception error) {
+		borrowFailures.incrementAndGet();
+		
+		for (PoolListener listener : listeners)
+			listener.onBorrowFailure(error);
+	}
+	
+	void onCreate() {
+		created.incrementAndGet();
+		
+		for (PoolListener listener : listeners)
+			listener.onCreate();
+	}
+	
+	void onCreateFailure(Exception error) {
+		createFailures.incrementAndGet();
+		
+		for (PoolListener listener : listeners)
+			listener.onCreateFailure(error);
+	}
+	
+	void onDestroy() {
+		destroyed.incrementAndGet();
+		
+		for (PoolListener listener : listeners)
+			listener.onDestroy();
+	}
+	
+	void onLeak(ConnectionLeak leak) {
+		if (leak.isReclaimed()) {
+			reclaimed.incrementAndGet();
+		} else {
+			leaked.incrementAndGet();
+		}
+		
+		for (LeakListener listener : leakListeners)
+			listener.onLeak(leak);
+	}
+	
+	/** Returns the histogram of the time spent waiting for connections. */
+	public LatencyHistogram getBorrowWaitHistogram() {
+		return borrowWait;
+	}
+	
+	/** Returns the histogram of the time connections are held by borrowers. */
+	public LatencyHistogram getHoldTimeHistogram() {
+		return holdTime;
+	}
+
+	@Override
+	public int getActiveConnections() {
+		return pool.getActiveConnections();
+	}
+
+	@Override
+	public int getIdleConnections() {
+		return pool.getIdleConnections();
+	}
+
+	@Override
+	public int getWaiters() {
+		return pool.getWaiters();
+	}
+
+	@Override
+	public int getMaxConnections() {
+		return pool.getMaxConnections();
+	}
+
+	@Override
+	public long getCreatedConnections() {
+		return created.get();
+	}
+
+	@Override
+	public long getDestroyedConnections() {
+		return destroyed.get();
+	}
+
+	@Override
+	public long getCreateFailures() {
+		return createFailures.get();
+	}
+
+	@Override
+	public long getBorrowFailures() {
+		return borrowFailures.get();
+	}
+
+	@Override
+	public long getLeakedConnections() {
+		return leaked.get();
+	}
+
+	@Override
+	public long getReclaimedConnections() {
+		return reclaimed.get();
+	}
+
+	@Override
+	public long getBorrowCount() {
+		return borrowWait.getCount();
+	}
+
+	@Override
+	public double getBorrowWaitP50Millis() {
+		return borrowWait.getPercentileMillis(50);
+	}
+
+	@Override
+	public double getBorrowWaitP99Millis() {
+		return borrowWait.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getBorrowWaitMaxMillis() {
+		return toMillis(borrowWait.getMaxNanos());
+	}
+
+	@Override
+	public double getHoldTimeP50Millis() {
+		return holdTime.getPercentileMillis(50);
+	}
+
+	@Override
+	public double getHoldTimeP99Millis() {
+		return holdTime.getPercentileMillis(99);
+	}
+
+	@Override
+	public double getHoldTimeMaxMillis() {
+		return toMillis(holdTime.getMaxNanos());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("active: %d, idle: %d, waiters: %d, created: %d, destroyed: %d, borrow wait: [%s], hold time: [%s]", getActiveConnections(), getIdleConnections(), getWaiters(), getCreatedConnections(), getDestroyedConnections(), borrowWait, holdTime);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * JMX view of the metrics of a connection pool.
+ * Times are expressed in milliseconds.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface PoolMetricsMXBean {
+	public int getActiveConnections();
+	public int getIdleConnections();
+	public int getWaiters();
+	public int getMaxConnections();
+	
+	public long getCreatedConnections();
+	public long getDestroyedConnections();
+	public long getCreateFailures();
+	public long getBorrowFailures();
+	public long getLeakedConnections();
+	public long getReclaimedConnections();
+	
+	public long getBorrowCount();
+	public double getBorrowWaitP50Millis();
+	public double getBorrowWaitP99Millis();
+	public double getBorrowWaitMaxMillis();
+	
+	public double getHoldTimeP50Millis();
+	public double getHoldTimeP99Millis();
+	public double getHoldTimeMaxMillis();
+}
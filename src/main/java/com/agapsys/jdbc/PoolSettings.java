@@ -16,6 +16,7 @@
 
 package com.agapsys.jdbc;
 
+import java.util.Locale;
 import java.util.Properties;
 
 /**
@@ -32,10 +33,51 @@ public abstract class PoolSettings {
 	public static final String KEY_MAX_IDLE_CONNECTIONS = "com.agapsys.jdbc.poolMaxIdleConnections";
 	public static final String KEY_MAX_WAIT_MILLIS      = "com.agapsys.jdbc.poolMaxWaitMillis";	
 	
+	public static final String KEY_MIN_IDLE_CONNECTIONS              = "com.agapsys.jdbc.poolMinIdleConnections";
+	public static final String KEY_EVICTION_INTERVAL_MILLIS          = "com.agapsys.jdbc.poolEvictionIntervalMillis";
+	public static final String KEY_SOFT_MIN_EVICTABLE_IDLE_MILLIS    = "com.agapsys.jdbc.poolSoftMinEvictableIdleMillis";
+	public static final String KEY_LIFO                              = "com.agapsys.jdbc.poolLifo";
+	public static final String KEY_MAX_CONNECTION_LIFETIME_MILLIS    = "com.agapsys.jdbc.poolMaxConnectionLifetimeMillis";
+	public static final String KEY_WARM_UP                           = "com.agapsys.jdbc.poolWarmUp";
+	public static final String KEY_POOL_NAME                         = "com.agapsys.jdbc.poolName";
+	public static final String KEY_POOL_ENGINE                       = "com.agapsys.jdbc.poolEngine";
+	public static final String KEY_WEIGHT                            = "com.agapsys.jdbc.poolWeight";
+	public static final String KEY_ADAPTIVE_MIN_CONNECTIONS          = "com.agapsys.jdbc.poolAdaptiveMinConnections";
+	public static final String KEY_ADAPTIVE_MAX_CONNECTIONS          = "com.agapsys.jdbc.poolAdaptiveMaxConnections";
+	public static final String KEY_ADAPTIVE_INTERVAL_MILLIS          = "com.agapsys.jdbc.poolAdaptiveIntervalMillis";
+	public static final String KEY_LEAK_THRESHOLD_MILLIS             = "com.agapsys.jdbc.poolLeakThresholdMillis";
+	public static final String KEY_LEAK_SAMPLE_RATE                  = "com.agapsys.jdbc.poolLeakSampleRate";
+	public static final String KEY_ABANDONED_TIMEOUT_MILLIS          = "com.agapsys.jdbc.poolAbandonedTimeoutMillis";
+	
+	public static final String KEY_POOL_STATEMENTS                    = "com.agapsys.jdbc.poolStatements";
+	public static final String KEY_MAX_OPEN_STATEMENTS                = "com.agapsys.jdbc.poolMaxOpenStatements";
+	public static final String KEY_STATEMENT_EVICTION_INTERVAL_MILLIS = "com.agapsys.jdbc.poolStatementEvictionIntervalMillis";
+	public static final String KEY_STATEMENT_MIN_IDLE_MILLIS          = "com.agapsys.jdbc.poolStatementMinEvictableIdleMillis";
+	
 	public static final int DEFAULT_MAX_CONNECTIONS       = 10;
 	public static final int DEFAULT_MAX_IDDLE_CONNECTIONS = 5;
 	public static final int DEFAULT_MAX_WAIT_MILLLIS      = 5000;
 	
+	public static final int     DEFAULT_MIN_IDLE_CONNECTIONS           = 0;
+	public static final long    DEFAULT_EVICTION_INTERVAL_MILLIS       = -1;
+	public static final long    DEFAULT_SOFT_MIN_EVICTABLE_IDLE_MILLIS = -1;
+	public static final boolean DEFAULT_LIFO                           = true;
+	public static final long    DEFAULT_MAX_CONNECTION_LIFETIME_MILLIS = -1;
+	public static final boolean DEFAULT_WARM_UP                        = false;
+	public static final PoolEngine DEFAULT_POOL_ENGINE                 = PoolEngine.DBCP;
+	public static final int        DEFAULT_WEIGHT                      = 1;
+	public static final int        DEFAULT_ADAPTIVE_MIN_CONNECTIONS    = 1;
+	public static final int        DEFAULT_ADAPTIVE_MAX_CONNECTIONS    = -1;
+	public static final long       DEFAULT_ADAPTIVE_INTERVAL_MILLIS    = PoolSizeController.DEFAULT_INTERVAL_MILLIS;
+	public static final long       DEFAULT_LEAK_THRESHOLD_MILLIS       = -1;
+	public static final double     DEFAULT_LEAK_SAMPLE_RATE            = 0.01;
+	public static final long       DEFAULT_ABANDONED_TIMEOUT_MILLIS    = -1;
+	
+	public static final boolean DEFAULT_POOL_STATEMENTS                    = false;
+	public static final int     DEFAULT_MAX_OPEN_STATEMENTS                = 50;
+	public static final long    DEFAULT_STATEMENT_EVICTION_INTERVAL_MILLIS = -1;
+	public static final long    DEFAULT_STATEMENT_MIN_IDLE_MILLIS          = 30 * 60 * 1000;
+	
 	// INSTANCE SCOPE ==========================================================
 	private final Properties properties;
 	
@@ -135,4 +177,234 @@ public abstract class PoolSettings {
 	public void setMaxWaitMillis(int waitMillis) {
 		setProperty(KEY_MAX_WAIT_MILLIS, waitMillis);
 	}
+	
+	/** 
+	 * Returns the minimum number of idle connections kept in the connection pool (connections are created by the evictor, see {@link PoolSettings#getEvictionIntervalMillis()}).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_MIN_IDLE_CONNECTIONS}
+	 */
+	public int getMinIdleConnections() {
+		return Integer.parseInt(properties.getProperty(KEY_MIN_IDLE_CONNECTIONS, "" + DEFAULT_MIN_IDLE_CONNECTIONS));
+	}
+	/** Sets the minimum number of idle connections kept in the connection pool. */
+	public void setMinIdleConnections(int connections) {
+		setProperty(KEY_MIN_IDLE_CONNECTIONS, connections);
+	}
+	
+	/** 
+	 * Returns the interval (in milliseconds) between runs of the idle connection evictor (a non-positive value disables the evictor).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_EVICTION_INTERVAL_MILLIS}
+	 */
+	public long getEvictionIntervalMillis() {
+		return Long.parseLong(properties.getProperty(KEY_EVICTION_INTERVAL_MILLIS, "" + DEFAULT_EVICTION_INTERVAL_MILLIS));
+	}
+	/** Sets the interval (in milliseconds) between runs of the idle connection evictor (a non-positive value disables the evictor). */
+	public void setEvictionIntervalMillis(long intervalMillis) {
+		setProperty(KEY_EVICTION_INTERVAL_MILLIS, intervalMillis);
+	}
+	
+	/** 
+	 * Returns the minimum time (in milliseconds) a connection may sit idle before it is eligible for eviction, provided that at least the minimum number of idle connections remain in the pool (a non-positive value disables this rule).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_SOFT_MIN_EVICTABLE_IDLE_MILLIS}
+	 */
+	public long getSoftMinEvictableIdleMillis() {
+		return Long.parseLong(properties.getProperty(KEY_SOFT_MIN_EVICTABLE_IDLE_MILLIS, "" + DEFAULT_SOFT_MIN_EVICTABLE_IDLE_MILLIS));
+	}
+	/** Sets the minimum time (in milliseconds) a connection may sit idle before it is eligible for eviction, provided that at least the minimum number of idle connections remain in the pool. */
+	public void setSoftMinEvictableIdleMillis(long idleMillis) {
+		setProperty(KEY_SOFT_MIN_EVICTABLE_IDLE_MILLIS, idleMillis);
+	}
+	
+	/** 
+	 * Returns a boolean indicating if idle connections are borrowed in last-in-first-out order (otherwise, first-in-first-out order is used).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_LIFO}
+	 */
+	public boolean isLifo() {
+		return Boolean.parseBoolean(properties.getProperty(KEY_LIFO, "" + DEFAULT_LIFO));
+	}
+	/** Defines if idle connections are borrowed in last-in-first-out order (otherwise, first-in-first-out order is used). */
+	public void setLifo(boolean lifo) {
+		setProperty(KEY_LIFO, lifo);
+	}
+	
+	/** 
+	 * Returns the maximum lifetime (in milliseconds) of a connection. Older connections are closed instead of being reused (a non-positive value means infinite lifetime).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_MAX_CONNECTION_LIFETIME_MILLIS}
+	 */
+	public long getMaxConnectionLifetimeMillis() {
+		return Long.parseLong(properties.getProperty(KEY_MAX_CONNECTION_LIFETIME_MILLIS, "" + DEFAULT_MAX_CONNECTION_LIFETIME_MILLIS));
+	}
+	/** Sets the maximum lifetime (in milliseconds) of a connection (a non-positive value means infinite lifetime). */
+	public void setMaxConnectionLifetimeMillis(long lifetimeMillis) {
+		setProperty(KEY_MAX_CONNECTION_LIFETIME_MILLIS, lifetimeMillis);
+	}
+	
+	/** 
+	 * Returns a boolean indicating if the minimum number of idle connections shall be opened when the pool is created.
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_WARM_UP}
+	 */
+	public boolean isWarmUp() {
+		return Boolean.parseBoolean(properties.getProperty(KEY_WARM_UP, "" + DEFAULT_WARM_UP));
+	}
+	/** Defines if the minimum number of idle connections shall be opened when the pool is created. */
+	public void setWarmUp(boolean warmUp) {
+		setProperty(KEY_WARM_UP, warmUp);
+	}
+	
+	/** 
+	 * Returns the engine of the connection pool (setting value is the name of a {@link PoolEngine} constant, case insensitive).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_POOL_ENGINE}
+	 * @throws IllegalArgumentException if setting value is not a valid engine name
+	 */
+	public PoolEngine getPoolEngine() throws IllegalArgumentException {
+		String engine = properties.getProperty(KEY_POOL_ENGINE, null);
+		return engine == null ? DEFAULT_POOL_ENGINE : PoolEngine.valueOf(engine.trim().toUpperCase(Locale.ENGLISH));
+	}
+	/** Sets the engine of the connection pool. */
+	public void setPoolEngine(PoolEngine engine) {
+		setProperty(KEY_POOL_ENGINE, engine);
+	}
+	
+	/** 
+	 * Returns the weight of the pool when it is used as a read replica by a {@link RoutingDataSource} (replicas with higher weights receive proportionally more reads).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_WEIGHT}
+	 */
+	public int getWeight() {
+		return Integer.parseInt(properties.getProperty(KEY_WEIGHT, "" + DEFAULT_WEIGHT));
+	}
+	/** Sets the weight of the pool when it is used as a read replica by a {@link RoutingDataSource}. */
+	public void setWeight(int weight) {
+		setProperty(KEY_WEIGHT, weight);
+	}
+	
+	/** 
+	 * Returns the lower bound of the maximum number of connections when adaptive sizing is enabled (see {@link #getAdaptiveMaxConnections()}).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_ADAPTIVE_MIN_CONNECTIONS}
+	 */
+	public int getAdaptiveMinConnections() {
+		return Integer.parseInt(properties.getProperty(KEY_ADAPTIVE_MIN_CONNECTIONS, "" + DEFAULT_ADAPTIVE_MIN_CONNECTIONS));
+	}
+	/** Sets the lower bound of the maximum number of connections when adaptive sizing is enabled. */
+	public void setAdaptiveMinConnections(int connections) {
+		setProperty(KEY_ADAPTIVE_MIN_CONNECTIONS, connections);
+	}
+	
+	/** 
+	 * Returns the upper bound of the maximum number of connections when adaptive sizing is enabled (a non-positive value disables adaptive sizing, see {@link PoolSizeController}).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_ADAPTIVE_MAX_CONNECTIONS}
+	 */
+	public int getAdaptiveMaxConnections() {
+		return Integer.parseInt(properties.getProperty(KEY_ADAPTIVE_MAX_CONNECTIONS, "" + DEFAULT_ADAPTIVE_MAX_CONNECTIONS));
+	}
+	/** Sets the upper bound of the maximum number of connections when adaptive sizing is enabled (a non-positive value disables adaptive sizing). */
+	public void setAdaptiveMaxConnections(int connections) {
+		setProperty(KEY_ADAPTIVE_MAX_CONNECTIONS, connections);
+	}
+	
+	/** 
+	 * Returns the interval (in milliseconds) between adjustments of adaptive sizing.
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_ADAPTIVE_INTERVAL_MILLIS}
+	 */
+	public long getAdaptiveIntervalMillis() {
+		return Long.parseLong(properties.getProperty(KEY_ADAPTIVE_INTERVAL_MILLIS, "" + DEFAULT_ADAPTIVE_INTERVAL_MILLIS));
+	}
+	/** Sets the interval (in milliseconds) between adjustments of adaptive sizing. */
+	public void setAdaptiveIntervalMillis(long intervalMillis) {
+		setProperty(KEY_ADAPTIVE_INTERVAL_MILLIS, intervalMillis);
+	}
+	
+	/** 
+	 * Returns the hold time (in milliseconds) above which a borrowed connection is reported as leaked (a non-positive value disables leak reports, see {@link PooledDataSource#addLeakListener(LeakListener)}).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_LEAK_THRESHOLD_MILLIS}
+	 */
+	public long getLeakThresholdMillis() {
+		return Long.parseLong(properties.getProperty(KEY_LEAK_THRESHOLD_MILLIS, "" + DEFAULT_LEAK_THRESHOLD_MILLIS));
+	}
+	/** Sets the hold time (in milliseconds) above which a borrowed connection is reported as leaked (a non-positive value disables leak reports). */
+	public void setLeakThresholdMillis(long thresholdMillis) {
+		setProperty(KEY_LEAK_THRESHOLD_MILLIS, thresholdMillis);
+	}
+	
+	/** 
+	 * Returns the fraction (between 0 and 1) of borrows whose stack trace is captured when leak detection is enabled.
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_LEAK_SAMPLE_RATE}
+	 */
+	public double getLeakSampleRate() {
+		return Double.parseDouble(properties.getProperty(KEY_LEAK_SAMPLE_RATE, "" + DEFAULT_LEAK_SAMPLE_RATE));
+	}
+	/** Sets the fraction (between 0 and 1) of borrows whose stack trace is captured when leak detection is enabled. */
+	public void setLeakSampleRate(double sampleRate) {
+		setProperty(KEY_LEAK_SAMPLE_RATE, sampleRate);
+	}
+	
+	/** 
+	 * Returns the hold time (in milliseconds) above which a borrowed connection is aborted and its pool slot is reclaimed (a non-positive value disables reclaiming).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_ABANDONED_TIMEOUT_MILLIS}
+	 */
+	public long getAbandonedTimeoutMillis() {
+		return Long.parseLong(properties.getProperty(KEY_ABANDONED_TIMEOUT_MILLIS, "" + DEFAULT_ABANDONED_TIMEOUT_MILLIS));
+	}
+	/** Sets the hold time (in milliseconds) above which a borrowed connection is aborted and its pool slot is reclaimed (a non-positive value disables reclaiming). */
+	public void setAbandonedTimeoutMillis(long timeoutMillis) {
+		setProperty(KEY_ABANDONED_TIMEOUT_MILLIS, timeoutMillis);
+	}
+	
+	/** 
+	 * Returns the name under which pool metrics are registered in the platform MBean server ({@code com.agapsys.jdbc:type=PoolMetrics,name=<poolName>}).
+	 * If this setting is not defined, returns null and metrics are not registered.
+	 */
+	public String getPoolName() {
+		return properties.getProperty(KEY_POOL_NAME, null);
+	}
+	/** Sets the name under which pool metrics are registered in the platform MBean server (null disables the registration). */
+	public void setPoolName(String poolName) {
+		setProperty(KEY_POOL_NAME, poolName);
+	}
+	
+	/** 
+	 * Returns a boolean indicating if prepared statements are cached by pooled connections. 
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_POOL_STATEMENTS}
+	 */
+	public boolean isPoolStatements() {
+		return Boolean.parseBoolean(properties.getProperty(KEY_POOL_STATEMENTS, "" + DEFAULT_POOL_STATEMENTS));
+	}
+	/** Defines if prepared statements are cached by pooled connections. */
+	public void setPoolStatements(boolean poolStatements) {
+		setProperty(KEY_POOL_STATEMENTS, poolStatements);
+	}
+	
+	/** 
+	 * Returns the maximum number of cached prepared statements per connection. When the limit is reached, least recently used idle statements are closed.
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_MAX_OPEN_STATEMENTS}
+	 */
+	public int getMaxOpenStatements() {
+		return Integer.parseInt(properties.getProperty(KEY_MAX_OPEN_STATEMENTS, "" + DEFAULT_MAX_OPEN_STATEMENTS));
+	}
+	/** Sets the maximum number of cached prepared statements per connection. */
+	public void setMaxOpenStatements(int maxOpenStatements) {
+		setProperty(KEY_MAX_OPEN_STATEMENTS, maxOpenStatements);
+	}
+	
+	/** 
+	 * Returns the interval (in milliseconds) between runs of the evictor of idle cached statements (a non-positive value disables the evictor).
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_STATEMENT_EVICTION_INTERVAL_MILLIS}
+	 */
+	public long getStatementEvictionIntervalMillis() {
+		return Long.parseLong(properties.getProperty(KEY_STATEMENT_EVICTION_INTERVAL_MILLIS, "" + DEFAULT_STATEMENT_EVICTION_INTERVAL_MILLIS));
+	}
+	/** Sets the interval (in milliseconds) between runs of the evictor of idle cached statements (a non-positive value disables the evictor). */
+	public void setStatementEvictionIntervalMillis(long intervalMillis) {
+		setProperty(KEY_STATEMENT_EVICTION_INTERVAL_MILLIS, intervalMillis);
+	}
+	
+	/** 
+	 * Returns the minimum time (in milliseconds) a cached statement may sit idle before it is eligible for eviction.
+	 * If this setting is not defined, return {@linkplain PoolSettings#DEFAULT_STATEMENT_MIN_IDLE_MILLIS}
+	 */
+	public long getStatementMinEvictableIdleMillis() {
+		return Long.parseLong(properties.getProperty(KEY_STATEMENT_MIN_IDLE_MILLIS, "" + DEFAULT_STATEMENT_MIN_IDLE_MILLIS));
+	}
+	/** Sets the minimum time (in milliseconds) a cached statement may sit idle before it is eligible for eviction. */
+	public void setStatementMinEvictableIdleMillis(long idleMillis) {
+		setProperty(KEY_STATEMENT_MIN_IDLE_MILLIS, idleMillis);
+	}
 }
\ No newline at end of file
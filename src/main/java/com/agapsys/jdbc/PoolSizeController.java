@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adjusts the size of a pool to the observed load.
+ * At each interval, the controller evaluates borrows which happened during
+ * the interval:
+ * <ul>
+ *   <li>if connections could not be created (database errors), the maximum
+ *   number of connections is reduced by a quarter;</li>
+ *   <li>if borrowers waited (pending waiters, timeouts or a fraction of slow
+ *   borrows) while the pool was nearly full, the maximum number of
+ *   connections is increased by a quarter;</li>
+ *   <li>if borrowers waited while the pool had free slots (i.e. they waited
+ *   for connections to be opened), the minimum number of idle connections
+ *   is increased and idle connections are opened in advance;</li>
+ *   <li>if the pool stays underutilized for a number of consecutive
+ *   intervals, both limits are reduced gradually.</li>
+ * </ul>
+ * The maximum number of connections is kept within configured bounds.
+ * Peak utilization is sampled by the controller thread several times per
+ * interval, so that borrows do not query pool state.
+ * @see PooledDataSource#enableAdaptiveSizing(int, int, long)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PoolSizeController implements AutoCloseable {
+	// CLASS SCOPE =============================================================
+	public static final long DEFAULT_INTERVAL_MILLIS    = 5000;
+	public static final long DEFAULT_TARGET_WAIT_MILLIS = 10;
+	public static final int  DEFAULT_SHRINK_INTERVALS   = 6;
+	
+	/** Fraction of slow borrows in an interval which indicates that borrowers are waiting. */
+	private static final double SLOW_BORROW_FRACTION = 0.05;
+	
+	/** Utilization (peak active / maximum) above which the pool is considered full. */
+	private static final double HIGH_UTILIZATION = 0.9;
+	
+	/** Utilization (peak active / maximum) below which the pool is considered underutilized. */
+	private static final double LOW_UTILIZATION = 0.5;
+	
+	/** Number of samples of active connections taken per interval. */
+	private static final int SAMPLES_PER_INTERVAL = 10;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Collects borrow statistics of the current interval. */
+	private class Listener implements PoolListener {
+		@Override
+		public void onBorrow(long waitNanos) {
+			borrows.incrementAndGet();
+			
+			if (waitNanos > targetWaitNanos)
+				slowBorrows.incrementAndGet();
+		}
+
+		@Override
+		public void onReturn(long holdNanos) {}
+
+		@Override
+		public void onBorrowFailure(Exception error) {
+			borrowFailures.incrementAndGet();
+		}
+
+		@Override
+		public void onCreate() {}
+
+		@Override
+		public void onCreateFailure(Exception error) {
+			createFailures.incrementAndGet();
+		}
+
+		@Override
+		public void onDestroy() {}
+	}
+	
+	private final PooledDataSource             dataSource;
+	private final int                          minConnections;
+	private final int                          maxConnections;
+	private final Listener                     listener  = new Listener();
+	private final ScheduledThreadPoolExecutor  scheduler;
+	
+	private final AtomicLong borrows        = new AtomicLong();
+	private final AtomicLong slowBorrows    = new AtomicLong();
+	private final AtomicLong borrowFailures = new AtomicLong();
+	private final AtomicLong createFailures = new AtomicLong();
+	
+	private volatile long targetWaitNanos       = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TARGET_WAIT_MILLIS);
+	private volatile int  shrinkIntervals       = DEFAULT_SHRINK_INTERVALS;
+	private volatile int  maxMinIdleConnections;
+	
+	private int underutilizedIntervals = 0; // <-- Accessed only by the scheduler thread
+	private int peakActive             = 0; // <-- Accessed only by the scheduler thread
+	private int samples                = 0; // <-- Accessed only by the scheduler thread
+	
+	/**
+	 * Constructor.
+	 * The maximum number of connections of the pool is brought into given bounds and adjusted periodically.
+	 * @param dataSource controlled data source
+	 * @param minConnections lower bound of the maximum number of connections
+	 * @param maxConnections upper bound of the maximum number of connections
+	 * @param intervalMillis interval (in milliseconds) between adjustments. A non-positive value disables periodic adjustments.
+	 * @throws IllegalArgumentException if dataSource == null || minConnections &lt; 1 || maxConnections &lt; minConnections
+	 */
+	PoolSizeController(PooledDataSource dataSource, int minConnections, int maxConnections, long intervalMillis) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null data source");
+		
+		if (minConnections < 1)
+			throw new IllegalArgumentException("Invalid min connections: " + minConnections);
+		
+		if (maxConnections < minConnections)
+			throw new IllegalArgumentException("Invalid max connections: " + maxConnections);
+		
+		this.dataSource = dataSource;
+		this.minConnections = minConnections;
+		this.maxConnections = maxConnections;
+		this.maxMinIdleConnections = minConnections;
+		
+		int current = dataSource.getMaxConnections();
+		if (current < minConnections || current > maxConnections)
+			dataSource.setMaxConnections(Math.max(minConnections, Math.min(maxConnections, current)));
+		
+		dataSource.addListener(listener);
+		
+		if (intervalMillis > 0) {
+			long samplingMillis = Math.max(1, intervalMillis / SAMPLES_PER_INTERVAL);
+			
+			scheduler = new ScheduledThreadPoolExecutor(1, ConnectionPool.newThreadFactory("jdbc-pool-sizing-"));
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sample();
+						
+						if (samples >= SAMPLES_PER_INTERVAL)
+							adjust();
+					} catch (RuntimeException ignore) {
+						// Keeps adjusting in next intervals (e.g. pool was closed concurrently)
+					}
+				}
+			}, samplingMillis, samplingMillis, TimeUnit.MILLISECONDS);
+		} else {
+			scheduler = null;
+		}
+	}
+	
+	/** Returns the lower bound of the maximum number of connections. */
+	public int getMinConnections() {
+		return minConnections;
+	}
+	
+	/** Returns the upper bound of the maximum number of connections. */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+	
+	/** Returns the borrow waiting time (in milliseconds) above which a borrow is considered slow. */
+	public long getTargetWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(targetWaitNanos);
+	}
+	/**
+	 * Sets the borrow waiting time (in milliseconds) above which a borrow is considered slow.
+	 * @throws IllegalArgumentException if targetWaitMillis &lt; 0
+	 */
+	public void setTargetWaitMillis(long targetWaitMillis) throws IllegalArgumentException {
+		if (targetWaitMillis < 0)
+			throw new IllegalArgumentException("Invalid target wait millis: " + targetWaitMillis);
+		
+		this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis);
+	}
+	
+	/** Returns the number of consecutive underutilized intervals after which pool limits are reduced. */
+	public int getShrinkIntervals() {
+		return shrinkIntervals;
+	}
+	/**
+	 * Sets the number of consecutive underutilized intervals after which pool limits are reduced.
+	 * @throws IllegalArgumentException if shrinkIntervals &lt; 1
+	 */
+	public void setShrinkIntervals(int shrinkIntervals) throws IllegalArgumentException {
+		if (shrinkIntervals < 1)
+			throw new IllegalArgumentException("Invalid shrink intervals: " + shrinkIntervals);
+		
+		this.shrinkIntervals = shrinkIntervals;
+	}
+	
+	/** Returns the upper bound of the minimum number of idle connections (defaults to the lower bound of the maximum number of connections). */
+	public int getMaxMinIdleConnections() {
+		return maxMinIdleConnections;
+	}
+	/**
+	 * Sets the upper bound of the minimum number of idle connections (zero disables the adjustment of idle connections).
+	 * @throws IllegalArgumentException if maxMinIdleConnections &lt; 0
+	 */
+	public void setMaxMinIdleConnections(int maxMinIdleConnections) throws IllegalArgumentException {
+		if (maxMinIdleConnections < 0)
+			throw new IllegalArgumentException("Invalid max min idle connections: " + maxMinIdleConnections);
+		
+		this.maxMinIdleConnections = maxMinIdleConnections;
+	}
+	
+	/** Samples the number of active connections. */
+	void sample() {
+		peakActive = Math.max(peakActive, dataSource.getMetrics().getActiveConnections());
+		samples++;
+	}
+	
+	/** Evaluates the statistics of the elapsed interval and adjusts pool limits. */
+	void adjust() {
+		long intervalBorrows        = borrows.getAndSet(0);
+		long intervalSlowBorrows    = slowBorrows.getAndSet(0);
+		long intervalBorrowFailures = borrowFailures.getAndSet(0);
+		long intervalCreateFailures = createFailures.getAndSet(0);
+		
+		PoolMetrics metrics = dataSource.getMetrics();
+		int active = metrics.getActiveConnections();
+		int peak = Math.max(peakActive, active);
+		
+		peakActive = active;
+		samples = 0;
+		int max = dataSource.getMaxConnections();
+		int minIdle = dataSource.getMinIdleConnections();
+		
+		if (intervalCreateFailures > 0) {
+			// Database is failing or overloaded: backs off
+			underutilizedIntervals = 0;
+			setLimits(max - Math.max(1, max / 4), minIdle);
+			return;
+		}
+		
+		boolean waiting = intervalBorrowFailures > 0 || metrics.getWaiters() > 0 || (intervalBorrows > 0 && intervalSlowBorrows >= intervalBorrows * SLOW_BORROW_FRACTION);
+		
+		if (waiting) {
+			underutilizedIntervals = 0;
+			
+			if (peak >= max * HIGH_UTILIZATION) {
+				setLimits(max + Math.max(1, max / 4), minIdle);
+			} else if (minIdle < maxMinIdleConnections) {
+				setLimits(max, minIdle + 1);
+				dataSource.warmUp();
+			}
+			
+			return;
+		}
+		
+		if (peak < max * LOW_UTILIZATION) {
+			if (++underutilizedIntervals >= shrinkIntervals) {
+				underutilizedIntervals = 0;
+				setLimits(Math.max(peak + 1, max - Math.max(1, max / 8)), minIdle - 1);
+			}
+		} else {
+			underutilizedIntervals = 0;
+		}
+	}
+	
+	private void setLimits(int max, int minIdle) {
+		max = Math.max(minConnections, Math.min(maxConnections, max));
+		minIdle = Math.max(0, Math.min(Math.min(maxMinIdleConnections, max), minIdle));
+		
+		if (max != dataSource.getMaxConnections())
+			dataSource.setMaxConnections(max);
+		
+		if (minIdle != dataSource.getMinIdleConnections())
+			dataSource.setMinIdleConnections(minIdle);
+	}
+	
+	/** Stops adjusting the pool. Current pool limits are kept. */
+	@Override
+	public void close() {
+		if (scheduler != null)
+			scheduler.shutdownNow();
+		
+		dataSource.removeListener(listener);
+		dataSource.onSizeControllerClosed(this);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.apache.commons.dbcp2.DelegatingPreparedStatement;
+import org.apache.commons.dbcp2.PStmtKey;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.dbcp2.PoolingConnection;
+import org.apache.commons.pool2.KeyedObjectPool;
+import org.apache.commons.pool2.KeyedPooledObjectFactory;
+import org.apache.commons.pool2.ObjectPool;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * Factory of pooled connections used by {@link DataSourceFactory}.
+ * When prepared statement pooling is enabled, each connection gets its own
+ * statement pool whose hits and misses are counted.
+ * Connection lifecycle events (creation, destruction, borrow and return)
+ * are reported to pool {@linkplain PoolMetrics metrics}. Connections
+ * returned while the pool holds more connections than its maximum are
+ * closed.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class PooledConnectionFactory extends PoolableConnectionFactory {
+	// CLASS SCOPE =============================================================
+	/** Statement factory which counts statement pool requests and misses. */
+	private static class CountingStatementFactory implements KeyedPooledObjectFactory<PStmtKey, DelegatingPreparedStatement> {
+		private final PoolingConnection   delegate;
+		private final StatementCacheStats stats;
+
+		public CountingStatementFactory(PoolingConnection delegate, StatementCacheStats stats) {
+			this.delegate = delegate;
+			this.stats = stats;
+		}
+		
+		@Override
+		public PooledObject<DelegatingPreparedStatement> makeObject(PStmtKey key) throws Exception {
+			stats.countMiss();
+			return delegate.makeObject(key);
+		}
+
+		@Override
+		public void destroyObject(PStmtKey key, PooledObject<DelegatingPreparedStatement> p) throws Exception {
+			delegate.destroyObject(key, p);
+		}
+
+		@Override
+		public boolean validateObject(PStmtKey key, PooledObject<DelegatingPreparedStatement> p) {
+			return delegate.validateObject(key, p);
+		}
+
+		@Override
+		public void activateObject(PStmtKey key, PooledObject<DelegatingPreparedStatement> p) throws Exception {
+			stats.countRequest();
+			delegate.activateObject(key, p);
+		}
+
+		@Override
+		public void passivateObject(PStmtKey key, PooledObject<DelegatingPreparedStatement> p) throws Exception {
+			delegate.passivateObject(key, p);
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Pooled connection wrapper which keeps the time its connection was borrowed. */
+	private class TrackedObject extends DefaultPooledObject<PoolableConnection> implements LeakDetector.Reclaimable {
+		private volatile long                borrowedAtNanos;
+		private volatile LeakDetector.Borrow borrow;
+		
+		public TrackedObject(PoolableConnection connection) {
+			super(connection);
+		}
+
+		/** 
+		 * Synchronized with {@link PoolableConnection#close()} (a synchronized method), so the connection
+		 * cannot be returned (and borrowed again) while it is being reclaimed. The pooled connection is
+		 * invalidated instead of returned, so a late close by the holder does not affect later borrowers.
+		 */
+		@Override
+		public void reclaim(LeakDetector.Borrow borrow) {
+			PoolableConnection connection = getObject();
+			
+			synchronized (connection) {
+				if (this.borrow != borrow)
+					return; // <-- Connection was returned concurrently
+				
+				Connection physicalConnection = connection.getInnermostDelegateInternal();
+				
+				try {
+					physicalConnection.abort(LeakDetector.DIRECT_EXECUTOR);
+				} catch (SQLException | RuntimeException | AbstractMethodError ex) {
+					try {
+						physicalConnection.close();
+					} catch (SQLException ignore) {}
+				}
+				
+				long borrowedAtNanos = this.borrowedAtNanos;
+				this.borrowedAtNanos = 0;
+				this.borrow = null;
+				metrics.onReturn(System.nanoTime() - borrowedAtNanos);
+				
+				try {
+					getPool().invalidateObject(connection); // <-- Pooled connection is destroyed (even if the driver does not abort connections) and its slot is released
+				} catch (Exception ignore) {}
+			}
+		}
+	}
+	
+	private final PoolSettings        settings;
+	private final StatementCacheStats statementCacheStats = new StatementCacheStats();
+	private final PoolMetrics         metrics;
+	private final LeakDetector        leakDetector;
+	
+	/**
+	 * Constructor.
+	 * @param connectionFactory factory used to create connections
+	 * @param settings pool settings
+	 * @param metrics pool metrics
+	 * @param leakDetector detector of leaked connections (null disables leak detection)
+	 */
+	public PooledConnectionFactory(ConnectionFactory connectionFactory, PoolSettings settings, PoolMetrics metrics, LeakDetector leakDetector) {
+		super(connectionFactory, null);
+		this.settings = settings;
+		this.metrics = metrics;
+		this.leakDetector = leakDetector;
+	}
+	
+	/** Returns prepared statement cache counters. */
+	public StatementCacheStats getStatementCacheStats() {
+		return statementCacheStats;
+	}
+	
+	private KeyedObjectPool<PStmtKey, DelegatingPreparedStatement> createStatementPool(PoolingConnection connection) {
+		GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+		config.setMaxTotalPerKey(-1);
+		config.setBlockWhenExhausted(false);
+		config.setMaxWaitMillis(0);
+		config.setMaxIdlePerKey(1);
+		config.setMaxTotal(settings.getMaxOpenStatements());
+		config.setTimeBetweenEvictionRunsMillis(settings.getStatementEvictionIntervalMillis());
+		config.setMinEvictableIdleTimeMillis(settings.getStatementMinEvictableIdleMillis());
+		config.setJmxEnabled(false);
+		
+		return new GenericKeyedObjectPool<>(new CountingStatementFactory(connection, statementCacheStats), config);
+	}
+
+	/** 
+	 * Creates a connection through {@link PoolableConnectionFactory#makeObject()}.
+	 * When statement pooling is enabled, the created connection delegates to a
+	 * {@link PoolingConnection} whose statement pool counts hits and misses.
+	 */
+	@Override
+	public PooledObject<PoolableConnection> makeObject() throws Exception {
+		PoolableConnection connection;
+		
+		try {
+			connection = super.makeObject().getObject();
+			
+			if (settings.isPoolStatements()) {
+				PoolingConnection poolingConnection = new PoolingConnection(connection.getDelegate());
+				poolingConnection.setStatementPool(createStatementPool(poolingConnection));
+				poolingConnection.setCacheState(getCacheState());
+				connection.setDelegate(poolingConnection);
+			}
+		} catch (Exception ex) {
+			metrics.onCreateFailure(ex);
+			throw ex;
+		}
+		
+		metrics.onCreate();
+		return new TrackedObject(connection);
+	}
+
+	@Override
+	public void destroyObject(PooledObject<PoolableConnection> p) throws Exception {
+		if (leakDetector != null)
+			leakDetector.onReturn(((TrackedObject) p).borrow); // <-- Borrowed connections are destroyed when invalidated
+		
+		try {
+			super.destroyObject(p);
+		} finally {
+			metrics.onDestroy();
+		}
+	}
+
+	@Override
+	public void activateObject(PooledObject<PoolableConnection> p) throws Exception {
+		super.activateObject(p);
+		
+		TrackedObject connection = (TrackedObject) p;
+		connection.borrowedAtNanos = System.nanoTime();
+		
+		if (leakDetector != null)
+			connection.borrow = leakDetector.onBorrow(connection, connection.borrowedAtNanos);
+	}
+
+	/** Returns a boolean indicating if the pool holds more connections than its maximum (e.g. after the maximum was reduced). */
+	private boolean isPoolOversized() {
+		ObjectPool<PoolableConnection> pool = getPool();
+		
+		if (!(pool instanceof GenericObjectPool))
+			return false;
+		
+		GenericObjectPool<PoolableConnection> genericPool = (GenericObjectPool<PoolableConnection>) pool;
+		int maxTotal = genericPool.getMaxTotal();
+		return maxTotal >= 0 && genericPool.getNumActive() + genericPool.getNumIdle() > maxTotal;
+	}
+
+	/** 
+	 * Passivates a returned connection.
+	 * @throws SQLException if the pool is oversized: the pool destroys connections whose passivation fails
+	 */
+	@Override
+	public void passivateObject(PooledObject<PoolableConnection> p) throws Exception {
+		TrackedObject connection = (TrackedObject) p;
+		long borrowedAtNanos = connection.borrowedAtNanos;
+		
+		if (borrowedAtNanos != 0) { // <-- Connections added to the pool without being borrowed are also passivated
+			connection.borrowedAtNanos = 0;
+			metrics.onReturn(System.nanoTime() - borrowedAtNanos);
+			
+			if (leakDetector != null) {
+				leakDetector.onReturn(connection.borrow);
+				connection.borrow = null;
+			}
+			
+			if (isPoolOversized())
+				throw new SQLException("Pool exceeds its maximum number of connections");
+		}
+		
+		super.passivateObject(p);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+/**
+ * Data source backed by a connection pool created by {@link DataSourceFactory}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	private static final int MAX_WARM_UP_THREADS = 16;
+	
+	private static final String JMX_DOMAIN = "com.agapsys.jdbc";
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final PoolEngine          engine;
+	private final ConnectionPool      pool;
+	private final PoolMetrics         metrics;
+	private final StatementCacheStats statementCacheStats;
+	private final LeakDetector        leakDetector;
+	
+	private final Lock jmxLock = new ReentrantLock();
+	
+	private final AtomicReference<PoolSizeController> sizeController = new AtomicReference<>();
+	
+	private ObjectName  jmxName;
+	private PrintWriter logWriter;
+	
+	PooledDataSource(PoolEngine engine, ConnectionPool pool, PoolMetrics metrics, StatementCacheStats statementCacheStats, LeakDetector leakDetector) {
+		this.engine = engine;
+		this.pool = pool;
+		this.metrics = metrics;
+		this.statementCacheStats = statementCacheStats;
+		this.leakDetector = leakDetector;
+		this.metrics.setPool(pool);
+	}
+	
+	/** Returns the engine of the connection pool. */
+	public PoolEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * Registers pool metrics in the platform MBean server.
+	 * @param poolName name used in the JMX object name
+	 * @throws IllegalArgumentException if poolName == null || poolName.trim().isEmpty()
+	 * @throws IllegalStateException if metrics could not be registered
+	 */
+	void registerMetrics(String poolName) throws IllegalArgumentException, IllegalStateException {
+		if (poolName == null || poolName.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty pool name");
+		
+		jmxLock.lock();
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=PoolMetrics,name=" + ObjectName.quote(poolName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			jmxName = name;
+		} catch (JMException ex) {
+			throw new IllegalStateException("Cannot register pool metrics: " + poolName, ex);
+		} finally {
+			jmxLock.unlock();
+		}
+	}
+	
+	/** Returns pool metrics. */
+	public PoolMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/** Adds a listener of pool events. */
+	public void addListener(PoolListener listener) {
+		metrics.addListener(listener);
+	}
+	
+	/** Removes a listener of pool events. */
+	public void removeListener(PoolListener listener) {
+		metrics.removeListener(listener);
+	}
+	
+	/** 
+	 * Adds a listener of connection leaks.
+	 * Leaks are detected only if a leak threshold or an abandoned timeout is defined in pool settings
+	 * (see {@link PoolSettings#getLeakThresholdMillis()} and {@link PoolSettings#getAbandonedTimeoutMillis()}).
+	 */
+	public void addLeakListener(LeakListener listener) {
+		metrics.addLeakListener(listener);
+	}
+	
+	/** Removes a listener of connection leaks. */
+	public void removeLeakListener(LeakListener listener) {
+		metrics.removeLeakListener(listener);
+	}
+	
+	/** Returns a boolean indicating if borrowed connections are tracked for leaks. */
+	public boolean isLeakDetectionEnabled() {
+		return leakDetector != null;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection connection;
+		
+		try {
+			connection = pool.getConnection();
+		} catch (SQLException | RuntimeException ex) {
+			metrics.onBorrowFailure(ex);
+			throw ex;
+		}
+		
+		metrics.onBorrow(System.nanoTime() - start);
+		return connection;
+	}
+	
+	/**
+	 * Borrows a connection asynchronously.
+	 * The acquisition fails if a connection is not available within the maximum waiting time ({@link PoolSettings#getMaxWaitMillis()}),
+	 * and cancelling returned future abandons the acquisition.
+	 * With {@linkplain PoolEngine#NATIVE native} engine, no thread is blocked while the acquisition is pending;
+	 * other engines perform a blocking acquisition in a shared pool of daemon threads.
+	 * @return the future result of the acquisition
+	 */
+	public ConnectionFuture getConnectionAsync() {
+		final long start = System.nanoTime();
+		ConnectionFuture future = new ConnectionFuture();
+		
+		future.addCallback(new ConnectionCallback() {
+			@Override
+			public void onConnection(Connection connection) {
+				metrics.onBorrow(System.nanoTime() - start);
+			}
+
+			@Override
+			public void onError(SQLException error) {
+				metrics.onBorrowFailure(error);
+			}
+		});
+		
+		pool.getConnectionAsync(future);
+		return future;
+	}
+	
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException pooled connections share the credentials of the pool
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connections cannot be obtained with other credentials");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException login timeout is not supported
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Login timeout is not supported.");
+	}
+
+	/** Returns 0 (login timeout is not supported). */
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+	
+	/** Returns the maximum number of connections. */
+	public int getMaxConnections() {
+		return pool.getMaxConnections();
+	}
+	/**
+	 * Sets the maximum number of connections.
+	 * When the maximum is reduced, excess idle connections are closed immediately and excess borrowed connections are closed when returned.
+	 * @throws IllegalArgumentException if maxConnections &lt; 1
+	 */
+	public void setMaxConnections(int maxConnections) throws IllegalArgumentException {
+		if (maxConnections < 1)
+			throw new IllegalArgumentException("Invalid max connections: " + maxConnections);
+		
+		pool.setMaxConnections(maxConnections);
+	}
+	
+	/** Returns the maximum number of idle connections (a negative value means no limit). */
+	public int getMaxIdleConnections() {
+		return pool.getMaxIdleConnections();
+	}
+	/** Sets the maximum number of idle connections (a negative value means no limit). Excess idle connections are closed. */
+	public void setMaxIdleConnections(int maxIdleConnections) {
+		pool.setMaxIdleConnections(maxIdleConnections);
+	}
+	
+	/** Returns the minimum number of idle connections. */
+	public int getMinIdleConnections() {
+		return pool.getMinIdleConnections();
+	}
+	/**
+	 * Sets the minimum number of idle connections.
+	 * Missing connections are opened by {@link #warmUp()} or by the evictor (see {@link PoolSettings#getEvictionIntervalMillis()}).
+	 * @throws IllegalArgumentException if minIdleConnections &lt; 0
+	 */
+	public void setMinIdleConnections(int minIdleConnections) throws IllegalArgumentException {
+		if (minIdleConnections < 0)
+			throw new IllegalArgumentException("Invalid min idle connections: " + minIdleConnections);
+		
+		pool.setMinIdleConnections(minIdleConnections);
+	}
+	
+	/**
+	 * Enables the adaptive sizing of the pool, replacing any previous controller.
+	 * @param minConnections lower bound of the maximum number of connections
+	 * @param maxConnections upper bound of the maximum number of connections
+	 * @param intervalMillis interval (in milliseconds) between adjustments
+	 * @return the controller which adjusts the pool. Closing it disables adaptive sizing.
+	 * @throws IllegalArgumentException if minConnections &lt; 1 || maxConnections &lt; minConnections
+	 * @see PoolSizeController
+	 */
+	public PoolSizeController enableAdaptiveSizing(int minConnections, int maxConnections, long intervalMillis) throws IllegalArgumentException {
+		PoolSizeController controller = new PoolSizeController(this, minConnections, maxConnections, intervalMillis);
+		PoolSizeController previous = sizeController.getAndSet(controller);
+		
+		if (previous != null)
+			previous.close();
+		
+		return controller;
+	}
+	
+	/** Closes all idle connections (e.g. when the database becomes unreachable). Borrowed connections are not affected. */
+	public void evictIdleConnections() {
+		pool.evictIdleConnections();
+	}
+	
+	/** Returns the controller which adjusts the size of the pool, or null if adaptive sizing is disabled. */
+	public PoolSizeController getSizeController() {
+		return sizeController.get();
+	}
+	
+	void onSizeControllerClosed(PoolSizeController controller) {
+		sizeController.compareAndSet(controller, null);
+	}
+	
+	/** Returns prepared statement cache counters (all counters are zero if statement pooling is disabled). */
+	public StatementCacheStats getStatementCacheStats() {
+		return statementCacheStats;
+	}
+	
+	/**
+	 * Opens, in parallel, the connections required to reach the minimum number of idle connections.
+	 * @return the number of opened connections
+	 */
+	public int warmUp() {
+		int idle = pool.getIdleConnections();
+		int missing = Math.min(pool.getMinIdleConnections() - idle, pool.getMaxConnections() - pool.getActiveConnections() - idle);
+		
+		if (missing <= 0)
+			return 0;
+		
+		List<Callable<Boolean>> tasks = new ArrayList<>(missing);
+		for (int i = 0; i < missing; i++) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					pool.addConnection();
+					return true;
+				}
+			});
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(missing, MAX_WARM_UP_THREADS));
+		int opened = 0;
+		
+		try {
+			for (Future<Boolean> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+					opened++;
+				} catch (ExecutionException ex) {
+					// Connection could not be opened: it will be created on demand
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		return opened;
+	}
+	
+	/** Closes the pool and all idle connections. Active connections are closed when returned to the pool. */
+	@Override
+	public void close() {
+		PoolSizeController controller = sizeController.getAndSet(null);
+		if (controller != null)
+			controller.close();
+		
+		pool.close();
+		
+		if (leakDetector != null)
+			leakDetector.close();
+		
+		jmxLock.lock();
+		try {
+			if (jmxName != null) {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				
+				try {
+					server.unregisterMBean(jmxName);
+				} catch (JMException ignore) {}
+				
+				jmxName = null;
+			}
+		} finally {
+			jmxLock.unlock();
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.sql.DataSource;
+
+/**
+ * Opt-in cache of query results.
+ * Results are cached as immutable {@link CachedResult snapshots}, keyed by SQL
+ * and bound parameters, so that cache hits do not touch the connection pool.
+ * Cache hits do not lock: entries are evicted in approximate LRU order when
+ * the cache is full and expire after a time-to-live. Concurrent misses on the
+ * same key are coalesced: the query is executed once and its result is shared
+ * by all callers.
+ * <p>Entries are invalidated by the names of the tables read by their queries
+ * (FROM and JOIN clauses) when {@link #invalidate(String)} is called and when
+ * writes are executed either through {@link #execute(String, Object...)} or
+ * through the connections of {@link #getDataSource()}. Library components
+ * which write (e.g. {@link SqlRunner}, {@link BulkLoader},
+ * {@link TransactionExecutor} and {@link TracingDataSource}) invalidate the
+ * cache when they are given connections of that data source; writes executed
+ * through other connections are not detected. Writes executed in a
+ * transaction invalidate entries again when the transaction finishes. Queries
+ * executed inside a transaction bypass the cache.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class QueryCache {
+	// CLASS SCOPE =============================================================
+	public static final int  DEFAULT_MAX_ENTRIES = 1000;
+	public static final long DEFAULT_TTL_MILLIS  = 60000;
+	public static final int  DEFAULT_MAX_ROWS    = 10000;
+	
+	/** Access times are updated at most once per this interval, so that hot entries are not written on every hit. */
+	private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	/** Fraction of the maximum number of entries which is evicted beyond the limit, so that eviction runs once per many insertions. */
+	private static final int EVICTION_SLACK_DIVISOR = 16;
+	
+	/** Cache key. */
+	private static final class Key {
+		private final String   sql;
+		private final Object[] params;
+		private final int      hash;
+
+		public Key(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params == null ? new Object[0] : params.clone();
+			this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			
+			if (!(obj instanceof Key))
+				return false;
+			
+			Key other = (Key) obj;
+			return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+		}
+	}
+	
+	/** Cache entry. */
+	private static final class Entry {
+		private final CachedResult result;
+		private final Set<String>  tables;
+		private final long         expiresAtNanos;
+		
+		private volatile long accessedAtNanos;
+
+		public Entry(CachedResult result, Set<String> tables, long expiresAtNanos, long accessedAtNanos) {
+			this.result = result;
+			this.tables = tables;
+			this.expiresAtNanos = expiresAtNanos;
+			this.accessedAtNanos = accessedAtNanos;
+		}
+	}
+	
+	/** Entry considered for eviction (access time is captured, so that it does not change while candidates are sorted). */
+	private static final class Candidate {
+		private final Key   key;
+		private final Entry entry;
+		private final long  accessedAtNanos;
+
+		public Candidate(Key key, Entry entry) {
+			this.key = key;
+			this.entry = entry;
+			this.accessedAtNanos = entry.accessedAtNanos;
+		}
+	}
+	
+	/** Orders candidates by ascending access time. */
+	private static final Comparator<Candidate> LEAST_RECENTLY_USED = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate o1, Candidate o2) {
+			return Long.compare(o1.accessedAtNanos - o2.accessedAtNanos, 0);
+		}
+	};
+	
+	/** Sets the value of given key to given sequence, unless it is already greater. */
+	private static void raise(ConcurrentMap<String, Long> map, String key, long sequence) {
+		Long current = map.putIfAbsent(key, sequence);
+		
+		while (current != null && current < sequence && !map.replace(key, current, sequence))
+			current = map.get(key);
+	}
+	
+	private static void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
+		if (params != null) {
+			for (int i = 0; i < params.length; i++)
+				stmt.setObject(i + 1, params[i]);
+		}
+	}
+	
+	private static CachedResult load(Connection connection, String sql, Object[] params) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			setParameters(stmt, params);
+			
+			try (ResultSet rs = stmt.executeQuery()) {
+				return CachedResult.read(rs);
+			}
+		}
+	}
+	
+	private static int executeUpdate(Connection connection, String sql, Object[] params) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+			setParameters(stmt, params);
+			return stmt.executeUpdate();
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final DataSource dataSource;
+	private final DataSource invalidatingDataSource;
+	
+	private final ConcurrentMap<Key, Entry>                    entries = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Key, FutureTask<CachedResult>> loading = new ConcurrentHashMap<>();
+	
+	private final Lock evictionLock = new ReentrantLock(); // <-- Held only while evicting (never by lookups)
+	
+	/** Invalidation sequence: loads started before an invalidation of one of their tables are not stored. */
+	private final AtomicLong                  invalidationSequence = new AtomicLong();
+	private final ConcurrentMap<String, Long> tableInvalidations   = new ConcurrentHashMap<>();
+	
+	private final AtomicLong lastFullInvalidation = new AtomicLong();
+	
+	private final AtomicLong hits   = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	private volatile int  maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile long ttlNanos   = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+	private volatile int  maxRows    = DEFAULT_MAX_ROWS;
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source providing connections for cache misses and writes
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public QueryCache(DataSource dataSource) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null data source");
+		
+		this.dataSource = dataSource;
+		this.invalidatingDataSource = new InvalidatingDataSource(dataSource, this);
+	}
+	
+	/**
+	 * Returns a view of the data source of this cache whose connections invalidate cached results when they execute writes.
+	 * Write through this data source (or through components using it) to keep cached results consistent.
+	 */
+	public DataSource getDataSource() {
+		return invalidatingDataSource;
+	}
+	
+	/** Returns the maximum number of cached results. */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	/**
+	 * Sets the maximum number of cached results.
+	 * When the cache is full, expired entries and the least recently used ones are evicted (access times have a resolution of one millisecond).
+	 * @throws IllegalArgumentException if maxEntries &lt; 1
+	 */
+	public void setMaxEntries(int maxEntries) throws IllegalArgumentException {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Invalid max entries: " + maxEntries);
+		
+		this.maxEntries = maxEntries;
+		evict();
+	}
+	
+	/** Returns the time-to-live (in milliseconds) of cached results. */
+	public long getTtlMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+	}
+	/**
+	 * Sets the time-to-live (in milliseconds) of cached results.
+	 * @throws IllegalArgumentException if ttlMillis &lt; 1
+	 */
+	public void setTtlMillis(long ttlMillis) throws IllegalArgumentException {
+		if (ttlMillis < 1)
+			throw new IllegalArgumentException("Invalid TTL: " + ttlMillis);
+		
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+	
+	/** Returns the maximum number of rows of a cached result. */
+	public int getMaxRows() {
+		return maxRows;
+	}
+	/**
+	 * Sets the maximum number of rows of a cached result. Bigger results are returned but not cached.
+	 * @throws IllegalArgumentException if maxRows &lt; 0
+	 */
+	public void setMaxRows(int maxRows) throws IllegalArgumentException {
+		if (maxRows < 0)
+			throw new IllegalArgumentException("Invalid max rows: " + maxRows);
+		
+		this.maxRows = maxRows;
+	}
+	
+	/** Returns the number of cached results (including expired ones not yet evicted). */
+	public int size() {
+		return entries.size();
+	}
+	
+	/** Returns the number of queries served by the cache. */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/** Returns the number of queries not served by the cache (including queries executed inside transactions). */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	private CachedResult get(Key key) {
+		Entry entry = entries.get(key);
+		
+		if (entry == null)
+			return null;
+		
+		long now = System.nanoTime();
+		
+		if (now - entry.expiresAtNanos >= 0) {
+			entries.remove(key, entry);
+			return null;
+		}
+		
+		if (now - entry.accessedAtNanos >= ACCESS_RESOLUTION_NANOS)
+			entry.accessedAtNanos = now;
+		
+		return entry.result;
+	}
+	
+	/** Returns a boolean indicating if given entry was invalidated after given sequence. */
+	private boolean isInvalidated(Entry entry, long loadSequence) {
+		if (lastFullInvalidation.get() > loadSequence)
+			return true;
+		
+		for (String table : entry.tables) {
+			Long invalidatedAt = tableInvalidations.get(table);
+			if (invalidatedAt != null && invalidatedAt > loadSequence)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private void put(Key key, Entry entry, long loadSequence) {
+		if (isInvalidated(entry, loadSequence))
+			return; // <-- Result may be stale
+		
+		entries.put(key, entry);
+		
+		if (isInvalidated(entry, loadSequence)) { // <-- Invalidated while being stored
+			entries.remove(key, entry);
+			return;
+		}
+		
+		if (entries.size() > maxEntries)
+			evict();
+	}
+	
+	/**
+	 * Evicts expired entries and, if the cache is still full, the least recently used ones.
+	 * Entries are evicted down to slightly below the maximum, so that the cost of sorting is shared by many insertions.
+	 * If another thread is evicting entries, returns immediately.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock())
+			return;
+		
+		try {
+			int max = maxEntries;
+			if (entries.size() <= max)
+				return;
+			
+			long now = System.nanoTime();
+			List<Candidate> candidates = new ArrayList<>(entries.size());
+			
+			for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+				if (now - mapEntry.getValue().expiresAtNanos >= 0) {
+					entries.remove(mapEntry.getKey(), mapEntry.getValue());
+				} else {
+					candidates.add(new Candidate(mapEntry.getKey(), mapEntry.getValue()));
+				}
+			}
+			
+			int target = max - max / EVICTION_SLACK_DIVISOR;
+			if (entries.size() <= target)
+				return;
+			
+			Collections.sort(candidates, LEAST_RECENTLY_USED);
+			
+			Iterator<Candidate> iterator = candidates.iterator();
+			while (entries.size() > target && iterator.hasNext()) {
+				Candidate candidate = iterator.next();
+				entries.remove(candidate.key, candidate.entry);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the result of a query, executing it only if it is not cached.
+	 * @param sql query
+	 * @param params query parameters
+	 * @return query result
+	 * @throws SQLException if the query is not cached and could not be executed
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty()
+	 */
+	public CachedResult query(final String sql, final Object...params) throws SQLException, IllegalArgumentException {
+		if (sql == null || sql.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty sql");
+		
+		Connection transactionConnection = getTransactionConnection();
+		if (transactionConnection != null) {
+			misses.incrementAndGet();
+			return load(transactionConnection, sql, params); // <-- Transaction may see uncommitted data
+		}
+		
+		final Key key = new Key(sql, params);
+		CachedResult result = get(key);
+		
+		if (result != null) {
+			hits.incrementAndGet();
+			return result;
+		}
+		
+		misses.incrementAndGet();
+		
+		FutureTask<CachedResult> task = new FutureTask<>(new Callable<CachedResult>() {
+			@Override
+			public CachedResult call() throws Exception {
+				long loadSequence = invalidationSequence.get();
+				CachedResult loaded;
+				
+				try (Connection connection = dataSource.getConnection()) {
+					loaded = load(connection, sql, key.params);
+				}
+				
+				if (loaded.getRowCount() <= maxRows) {
+					long now = System.nanoTime();
+					put(key, new Entry(loaded, SqlTables.getReadTables(sql), now + ttlNanos, now), loadSequence);
+				}
+				
+				return loaded;
+			}
+		});
+		
+		FutureTask<CachedResult> pending = loading.putIfAbsent(key, task);
+		
+		if (pending == null) {
+			pending = task;
+			
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+		}
+		
+		try {
+			return pending.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for query result", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			
+			if (cause instanceof SQLException)
+				throw (SQLException) cause;
+			
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			
+			if (cause instanceof Error)
+				throw (Error) cause;
+			
+			throw new SQLException(cause);
+		}
+	}
+	
+	/**
+	 * Executes a write statement and invalidates cached results which read the written table.
+	 * If the written table cannot be determined, all cached results are invalidated.
+	 * If a transaction is in progress in the current thread ({@link TransactionExecutor}), the statement joins it and results are invalidated again when it finishes.
+	 * @param sql write statement (INSERT, UPDATE, DELETE, MERGE, etc.)
+	 * @param params statement parameters
+	 * @return the number of affected rows
+	 * @throws SQLException if the statement could not be executed
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty()
+	 */
+	public int execute(String sql, Object...params) throws SQLException, IllegalArgumentException {
+		if (sql == null || sql.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty sql");
+		
+		final String table = SqlTables.getWrittenTable(sql);
+		Connection transactionConnection = getTransactionConnection();
+		int count;
+		
+		try {
+			if (transactionConnection != null) {
+				count = executeUpdate(transactionConnection, sql, params);
+			} else {
+				try (Connection connection = dataSource.getConnection()) {
+					count = executeUpdate(connection, sql, params);
+				}
+			}
+		} finally {
+			invalidateTable(table);
+		}
+		
+		if (transactionConnection != null) {
+			Runnable callback = new Runnable() {
+				@Override
+				public void run() {
+					invalidateTable(table);
+				}
+			};
+			
+			if (!TransactionExecutor.runAfterCompletion(dataSource, callback))
+				TransactionExecutor.runAfterCompletion(invalidatingDataSource, callback);
+		}
+		
+		return count;
+	}
+	
+	/** Returns the connection of the transaction in progress in the current thread for the data source of this cache (or its invalidating view), or null. */
+	private Connection getTransactionConnection() {
+		Connection connection = TransactionExecutor.getCurrentConnection(dataSource);
+		return connection != null ? connection : TransactionExecutor.getCurrentConnection(invalidatingDataSource);
+	}
+	
+	/** Invalidates cached results which read given table, or all cached results if table is null. */
+	void invalidateTable(String table) {
+		if (table == null) {
+			invalidateAll();
+		} else {
+			invalidate(table);
+		}
+	}
+	
+	/**
+	 * Invalidates cached results which read given table.
+	 * @param table table name (case-insensitive, without schema)
+	 * @throws IllegalArgumentException if table == null || table.trim().isEmpty()
+	 */
+	public void invalidate(String table) throws IllegalArgumentException {
+		if (table == null || table.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty table");
+		
+		String name = table.trim().toUpperCase(Locale.ENGLISH);
+		raise(tableInvalidations, name, invalidationSequence.incrementAndGet());
+		
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().tables.contains(name))
+				iterator.remove();
+		}
+	}
+	
+	/** Invalidates all cached results. */
+	public void invalidateAll() {
+		long sequence = invalidationSequence.incrementAndGet();
+		long current = lastFullInvalidation.get();
+		
+		while (current < sequence && !lastFullInvalidation.compareAndSet(current, sequence))
+			current = lastFullInvalidation.get();
+		
+		entries.clear();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Range map strategy.
+ * Each range is defined by its lower bound (inclusive) and extends up to
+ * the lower bound of the next range. Keys below the first range cannot be
+ * mapped.
+ * @param <K> key type
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RangeShardStrategy<K extends Comparable<? super K>> implements ShardStrategy {
+	// INSTANCE SCOPE ==========================================================
+	private final NavigableMap<K, Integer> ranges = new ConcurrentSkipListMap<>();
+	private final Class<K>                 keyClass;
+	
+	/**
+	 * Constructor.
+	 * @param keyClass class of shard keys
+	 * @throws IllegalArgumentException if keyClass == null
+	 */
+	public RangeShardStrategy(Class<K> keyClass) throws IllegalArgumentException {
+		if (keyClass == null)
+			throw new IllegalArgumentException("Null key class");
+		
+		this.keyClass = keyClass;
+	}
+	
+	/**
+	 * Maps a range of keys to a shard, replacing the mapping of a range with the same lower bound.
+	 * @param lowerBound lowest key (inclusive) of the range
+	 * @param shard index of the shard holding the range
+	 * @throws IllegalArgumentException if lowerBound == null || shard &lt; 0
+	 */
+	public void addRange(K lowerBound, int shard) throws IllegalArgumentException {
+		if (lowerBound == null)
+			throw new IllegalArgumentException("Null lower bound");
+		
+		if (shard < 0)
+			throw new IllegalArgumentException("Invalid shard: " + shard);
+		
+		ranges.put(lowerBound, shard);
+	}
+
+	@Override
+	public int getShard(Object key, int shardCount) throws IllegalArgumentException {
+		if (key == null)
+			throw new IllegalArgumentException("Null key");
+		
+		if (!keyClass.isInstance(key))
+			throw new IllegalArgumentException("Invalid key type: " + key.getClass().getName());
+		
+		Map.Entry<K, Integer> range = ranges.floorEntry(keyClass.cast(key));
+		if (range == null)
+			throw new IllegalArgumentException("Key out of range: " + key);
+		
+		int shard = range.getValue();
+		if (shard >= shardCount)
+			throw new IllegalArgumentException("Key is mapped to a missing shard: " + shard);
+		
+		return shard;
+	}
+	// =========================================================================
+}
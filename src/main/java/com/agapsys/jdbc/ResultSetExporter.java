@@ -0,0 +1,746 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+
+/**
+ * Streams result sets into byte channels.
+ * Rows are encoded into a reusable direct buffer which is written to the
+ * channel whenever it fills up. The encoder does not allocate objects per
+ * value: integers, booleans and binary values are encoded directly and text
+ * is encoded to UTF-8 character by character (only objects returned by the
+ * driver, such as strings, are allocated).
+ * <p>Exports from a data source may be split by key range across several
+ * connections, whose parts are concatenated with zero-copy transfers.</p>
+ * @see ExportFormat
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ResultSetExporter {
+	// CLASS SCOPE =============================================================
+	public static final int          DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	public static final ExportFormat DEFAULT_FORMAT      = ExportFormat.CSV;
+	
+	private static final byte[]  MAGIC          = {'A', 'J', 'D', 'X'};
+	private static final byte    VERSION        = 1;
+	private static final byte[]  HEX_DIGITS     = "0123456789abcdef".getBytes();
+	private static final byte[]  LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes();
+	private static final Pattern IDENTIFIER     = Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_$]*(\\.[\\p{L}_][\\p{L}\\p{N}_$]*)*");
+	
+	/** Mapper of cursors whose result sets are read directly by the encoder. */
+	private static final RowMapper<Void> NO_MAPPER = new RowMapper<Void>() {
+		@Override
+		public Void map(ResultSet rs, long rowNumber) throws SQLException {
+			return null;
+		}
+	};
+	
+	private static final byte KIND_INTEGER  = 1;
+	private static final byte KIND_BOOLEAN  = 2;
+	private static final byte KIND_DOUBLE   = 3;
+	private static final byte KIND_TEMPORAL = 4;
+	private static final byte KIND_BINARY   = 5;
+	private static final byte KIND_TEXT     = 6;
+	
+	private static byte getKind(int sqlType) {
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return KIND_INTEGER;
+			
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return KIND_BOOLEAN;
+			
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return KIND_DOUBLE;
+			
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return KIND_TEMPORAL;
+			
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return KIND_BINARY;
+			
+		default:
+			return KIND_TEXT;
+		}
+	}
+	
+	/** Returns the number of UTF-8 bytes of given string. */
+	private static int getUtf8Length(String value) {
+		int length = 0;
+		
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		
+		return length;
+	}
+	
+	/** Encodes rows into a channel. */
+	private static class Encoder {
+		private final ByteBuffer          buffer;
+		private final WritableByteChannel channel;
+		private final ExportFormat        format;
+		private final char                delimiter;
+		
+		private byte[] kinds;
+		
+		public Encoder(WritableByteChannel channel, ExportFormat format, char delimiter, int bufferSize) {
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+			this.channel = channel;
+			this.format = format;
+			this.delimiter = delimiter;
+		}
+		
+		public void setColumns(ResultSetMetaData metadata) throws SQLException {
+			kinds = new byte[metadata.getColumnCount()];
+			for (int i = 0; i < kinds.length; i++)
+				kinds[i] = getKind(metadata.getColumnType(i + 1));
+		}
+		
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			
+			buffer.clear();
+		}
+		
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+		
+		private void put(byte b) throws IOException {
+			ensure(1);
+			buffer.put(b);
+		}
+		
+		private void put(byte[] bytes) throws IOException {
+			int offset = 0;
+			
+			while (offset < bytes.length) {
+				ensure(1);
+				int count = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, count);
+				offset += count;
+			}
+		}
+		
+		private void putVarint(long value) throws IOException {
+			ensure(10);
+			
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			
+			buffer.put((byte) value);
+		}
+		
+		private void putDecimal(long value) throws IOException {
+			if (value == Long.MIN_VALUE) {
+				put(LONG_MIN_VALUE);
+				return;
+			}
+			
+			ensure(20);
+			
+			if (value < 0) {
+				buffer.put((byte) '-');
+				value = -value;
+			}
+			
+			int start = buffer.position();
+			
+			do {
+				buffer.put((byte) ('0' + value % 10));
+				value /= 10;
+			} while (value != 0);
+			
+			// Digits were written in reverse order
+			for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+				byte tmp = buffer.get(i);
+				buffer.put(i, buffer.get(j));
+				buffer.put(j, tmp);
+			}
+		}
+		
+		private void putUtf8(String value, boolean escapeQuotes) throws IOException {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				ensure(4);
+				
+				if (c < 0x80) {
+					if (escapeQuotes && c == '"')
+						buffer.put((byte) '"');
+					
+					buffer.put((byte) c);
+				} else if (c < 0x800) {
+					buffer.put((byte) (0xC0 | (c >> 6)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					buffer.put((byte) (0xF0 | (codePoint >> 18)));
+					buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+				} else if (Character.isSurrogate(c)) {
+					buffer.put((byte) '?'); // <-- Unpaired surrogate
+				} else {
+					buffer.put((byte) (0xE0 | (c >> 12)));
+					buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+		
+		private void putCsvText(String value) throws IOException {
+			boolean quote = false;
+			
+			for (int i = 0; i < value.length() && !quote; i++) {
+				char c = value.charAt(i);
+				quote = c == delimiter || c == '"' || c == '\r' || c == '\n';
+			}
+			
+			if (quote) {
+				put((byte) '"');
+				putUtf8(value, true);
+				put((byte) '"');
+			} else {
+				putUtf8(value, false);
+			}
+		}
+		
+		public void writeHeader(ResultSetMetaData metadata) throws SQLException, IOException {
+			int columnCount = metadata.getColumnCount();
+			
+			if (format == ExportFormat.BINARY) {
+				put(MAGIC);
+				put(VERSION);
+				putVarint(columnCount);
+				
+				for (int i = 1; i <= columnCount; i++) {
+					String label = metadata.getColumnLabel(i);
+					put(getKind(metadata.getColumnType(i)));
+					putVarint(getUtf8Length(label));
+					putUtf8(label, false);
+				}
+			} else {
+				for (int i = 1; i <= columnCount; i++) {
+					if (i > 1)
+						put((byte) delimiter);
+					
+					putCsvText(metadata.getColumnLabel(i));
+				}
+				
+				put((byte) '\r');
+				put((byte) '\n');
+			}
+		}
+		
+		private void writeCsvRow(ResultSet rs) throws SQLException, IOException {
+			for (int i = 0; i < kinds.length; i++) {
+				int column = i + 1;
+				
+				if (i > 0)
+					put((byte) delimiter);
+				
+				switch (kinds[i]) {
+				case KIND_INTEGER: {
+					long value = rs.getLong(column);
+					if (!rs.wasNull())
+						putDecimal(value);
+					break;
+				}
+					
+				case KIND_BOOLEAN: {
+					boolean value = rs.getBoolean(column);
+					if (!rs.wasNull())
+						putUtf8(value ? "true" : "false", false);
+					break;
+				}
+					
+				case KIND_BINARY: {
+					byte[] value = rs.getBytes(column);
+					if (value != null) {
+						for (byte b : value) {
+							ensure(2);
+							buffer.put(HEX_DIGITS[(b >> 4) & 0xF]);
+							buffer.put(HEX_DIGITS[b & 0xF]);
+						}
+					}
+					break;
+				}
+					
+				default: {
+					String value = rs.getString(column);
+					if (value != null)
+						putCsvText(value);
+					break;
+				}
+				}
+			}
+			
+			put((byte) '\r');
+			put((byte) '\n');
+		}
+		
+		private void writeBinaryRow(ResultSet rs) throws SQLException, IOException {
+			for (int i = 0; i < kinds.length; i++) {
+				int column = i + 1;
+				
+				switch (kinds[i]) {
+				case KIND_INTEGER: {
+					long value = rs.getLong(column);
+					if (rs.wasNull()) {
+						put((byte) 0);
+					} else {
+						ensure(9);
+						buffer.put((byte) 9);
+						buffer.putLong(value);
+					}
+					break;
+				}
+					
+				case KIND_BOOLEAN: {
+					boolean value = rs.getBoolean(column);
+					if (rs.wasNull()) {
+						put((byte) 0);
+					} else {
+						ensure(2);
+						buffer.put((byte) 2);
+						buffer.put((byte) (value ? 1 : 0));
+					}
+					break;
+				}
+					
+				case KIND_DOUBLE: {
+					double value = rs.getDouble(column);
+					if (rs.wasNull()) {
+						put((byte) 0);
+					} else {
+						ensure(9);
+						buffer.put((byte) 9);
+						buffer.putDouble(value);
+					}
+					break;
+				}
+					
+				case KIND_TEMPORAL: {
+					Timestamp value = rs.getTimestamp(column);
+					if (value == null) {
+						put((byte) 0);
+					} else {
+						ensure(9);
+						buffer.put((byte) 9);
+						buffer.putLong(value.getTime());
+					}
+					break;
+				}
+					
+				case KIND_BINARY: {
+					byte[] value = rs.getBytes(column);
+					if (value == null) {
+						put((byte) 0);
+					} else {
+						putVarint(value.length + 1L);
+						put(value);
+					}
+					break;
+				}
+					
+				default: {
+					String value = rs.getString(column);
+					if (value == null) {
+						put((byte) 0);
+					} else {
+						putVarint(getUtf8Length(value) + 1L);
+						putUtf8(value, false);
+					}
+					break;
+				}
+				}
+			}
+		}
+		
+		/** Encodes all remaining rows of given result set, returning the number of rows. */
+		public long writeRows(ResultSet rs) throws SQLException, IOException {
+			long count = 0;
+			
+			if (format == ExportFormat.BINARY) {
+				while (rs.next()) {
+					writeBinaryRow(rs);
+					count++;
+				}
+			} else {
+				while (rs.next()) {
+					writeCsvRow(rs);
+					count++;
+				}
+			}
+			
+			return count;
+		}
+		
+		public void close() throws IOException {
+			flush();
+		}
+	}
+	
+	/**
+	 * Splits a key range into ranges of (nearly) equal width.
+	 * Bounds are computed with {@link BigInteger}, since the number of keys may exceed {@code Long.MAX_VALUE}.
+	 * @param minKey lowest key
+	 * @param maxKey highest key (maxKey &gt;= minKey)
+	 * @param parallelism maximum number of ranges
+	 * @return the lower bound of each range, in ascending order. There are min(parallelism, maxKey - minKey + 1) ranges, so none of them is empty.
+	 */
+	static long[] splitKeyRange(long minKey, long maxKey, int parallelism) {
+		BigInteger min = BigInteger.valueOf(minKey);
+		BigInteger keyCount = BigInteger.valueOf(maxKey).subtract(min).add(BigInteger.ONE);
+		int parts = keyCount.compareTo(BigInteger.valueOf(parallelism)) < 0 ? keyCount.intValue() : parallelism;
+		
+		long[] lowerBounds = new long[parts];
+		for (int i = 0; i < parts; i++)
+			lowerBounds[i] = min.add(keyCount.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(parts))).longValue();
+		
+		return lowerBounds;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final StreamingQuery query;
+	
+	private volatile ExportFormat format     = DEFAULT_FORMAT;
+	private volatile int          bufferSize = DEFAULT_BUFFER_SIZE;
+	private volatile boolean      header     = true;
+	private volatile char         delimiter  = ',';
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source providing connections for exports of queries
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public ResultSetExporter(DataSource dataSource) throws IllegalArgumentException {
+		this.query = new StreamingQuery(dataSource);
+	}
+	
+	/** Returns the file format. */
+	public ExportFormat getFormat() {
+		return format;
+	}
+	/**
+	 * Sets the file format.
+	 * @throws IllegalArgumentException if format == null
+	 */
+	public void setFormat(ExportFormat format) throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("Null format");
+		
+		this.format = format;
+	}
+	
+	/** Returns the size (in bytes) of the encoding buffer. */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	/**
+	 * Sets the size (in bytes) of the encoding buffer.
+	 * @throws IllegalArgumentException if bufferSize &lt; 64
+	 */
+	public void setBufferSize(int bufferSize) throws IllegalArgumentException {
+		if (bufferSize < 64)
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		
+		this.bufferSize = bufferSize;
+	}
+	
+	/** Returns a boolean indicating if CSV exports start with a header line (binary exports always contain a header). */
+	public boolean isHeader() {
+		return header;
+	}
+	/** Defines if CSV exports start with a header line. */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+	
+	/** Returns the CSV field delimiter. */
+	public char getDelimiter() {
+		return delimiter;
+	}
+	/**
+	 * Sets the CSV field delimiter.
+	 * @throws IllegalArgumentException if delimiter is a quote, a line break or a non-ASCII character
+	 */
+	public void setDelimiter(char delimiter) throws IllegalArgumentException {
+		if (delimiter == '"' || delimiter == '\r' || delimiter == '\n' || delimiter >= 0x80)
+			throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+		
+		this.delimiter = delimiter;
+	}
+	
+	/** Returns the number of rows fetched from the database per round trip. */
+	public int getFetchSize() {
+		return query.getFetchSize();
+	}
+	/**
+	 * Sets the number of rows fetched from the database per round trip.
+	 * @throws IllegalArgumentException if fetchSize &lt; 1
+	 */
+	public void setFetchSize(int fetchSize) throws IllegalArgumentException {
+		query.setFetchSize(fetchSize);
+	}
+	
+	private boolean isHeaderWritten() {
+		return header || format == ExportFormat.BINARY;
+	}
+	
+	/**
+	 * Exports the remaining rows of a result set. Result set is not closed.
+	 * @param rs result set
+	 * @param channel destination channel. Channel is not closed.
+	 * @return the number of exported rows
+	 * @throws SQLException if there is an error reading the result set
+	 * @throws IOException if there is an error writing to the channel
+	 * @throws IllegalArgumentException if rs == null || channel == null
+	 */
+	public long export(ResultSet rs, WritableByteChannel channel) throws SQLException, IOException, IllegalArgumentException {
+		if (rs == null)
+			throw new IllegalArgumentException("Null result set");
+		
+		if (channel == null)
+			throw new IllegalArgumentException("Null channel");
+		
+		return export(rs, channel, isHeaderWritten());
+	}
+	
+	private long export(ResultSet rs, WritableByteChannel channel, boolean writeHeader) throws SQLException, IOException {
+		Encoder encoder = new Encoder(channel, format, delimiter, bufferSize);
+		ResultSetMetaData metadata = rs.getMetaData();
+		encoder.setColumns(metadata);
+		
+		if (writeHeader)
+			encoder.writeHeader(metadata);
+		
+		long count = encoder.writeRows(rs);
+		encoder.close();
+		return count;
+	}
+	
+	/**
+	 * Executes a query and exports its rows.
+	 * The query is executed as in {@link StreamingQuery}.
+	 * @param sql query
+	 * @param channel destination channel. Channel is not closed.
+	 * @param params query parameters
+	 * @return the number of exported rows
+	 * @throws SQLException if there is an error executing the query or reading its rows
+	 * @throws IOException if there is an error writing to the channel
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty() || channel == null
+	 */
+	public long export(String sql, WritableByteChannel channel, Object...params) throws SQLException, IOException, IllegalArgumentException {
+		if (channel == null)
+			throw new IllegalArgumentException("Null channel");
+		
+		return export(sql, channel, isHeaderWritten(), params);
+	}
+	
+	private long export(String sql, WritableByteChannel channel, boolean writeHeader, Object...params) throws SQLException, IOException {
+		try (RowCursor<Void> rows = query.open(sql, NO_MAPPER, params)) {
+			return export(rows.getResultSet(), channel, writeHeader);
+		} catch (JdbcException ex) {
+			if (ex.getSQLException() != null)
+				throw ex.getSQLException();
+			
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Exports the rows of a query in parallel, splitting them by ranges of an integer key.
+	 * The key range is split into up to {@code parallelism} ranges of (nearly) equal width. Each range is exported by its own connection into a temporary file and parts are transferred to the destination channel, in key order.
+	 * Rows are exported in ascending key order: since the query is used as a derived table, its own ORDER BY clause (if any) is not honored. Rows whose keys are null are not exported.
+	 * @param sql query (used as a derived table)
+	 * @param keyColumn name of an integer column of the query used to split rows
+	 * @param parallelism maximum number of concurrent connections
+	 * @param channel destination channel. Channel is not closed.
+	 * @param params query parameters
+	 * @return the number of exported rows
+	 * @throws SQLException if there is an error executing the query or reading its rows
+	 * @throws IOException if there is an error writing to the channel or to temporary files
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty() || keyColumn is not a valid identifier || parallelism &lt; 1 || channel == null
+	 */
+	public long exportParallel(String sql, String keyColumn, int parallelism, WritableByteChannel channel, final Object...params) throws SQLException, IOException, IllegalArgumentException {
+		if (sql == null || sql.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty sql");
+		
+		if (keyColumn == null || !IDENTIFIER.matcher(keyColumn).matches())
+			throw new IllegalArgumentException("Invalid key column: " + keyColumn);
+		
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		
+		if (channel == null)
+			throw new IllegalArgumentException("Null channel");
+		
+		String derived = "(" + sql + ") export_source";
+		
+		// Header and key range
+		long minKey, maxKey;
+		boolean empty;
+		
+		try (RowCursor<Void> rows = query.open("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + derived, NO_MAPPER, params)) {
+			ResultSet rs = rows.getResultSet();
+			rs.next();
+			minKey = rs.getLong(1);
+			empty = rs.wasNull();
+			maxKey = rs.getLong(2);
+		}
+		
+		if (isHeaderWritten()) {
+			try (RowCursor<Void> rows = query.open("SELECT * FROM " + derived + " WHERE 1 = 0", NO_MAPPER, params)) {
+				Encoder encoder = new Encoder(channel, format, delimiter, 64 * 1024);
+				encoder.writeHeader(rows.getResultSet().getMetaData());
+				encoder.close();
+			}
+		}
+		
+		if (empty)
+			return 0;
+		
+		// Ranges: [lower, upper] (both inclusive)
+		final long[] lowerBounds = splitKeyRange(minKey, maxKey, parallelism);
+		int parts = lowerBounds.length;
+		
+		final String partSql = "SELECT * FROM " + derived + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " <= ? ORDER BY " + keyColumn;
+		List<Path> files = new ArrayList<>(parts);
+		ExecutorService executor = Executors.newFixedThreadPool(parts, ConnectionPool.newThreadFactory("jdbc-export-"));
+		
+		try {
+			List<Future<Long>> futures = new ArrayList<>(parts);
+			
+			for (int i = 0; i < parts; i++) {
+				final long lower = lowerBounds[i];
+				final long upper = i == parts - 1 ? maxKey : lowerBounds[i + 1] - 1;
+				final Path file = Files.createTempFile("jdbc-export-", ".part");
+				files.add(file);
+				
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						Object[] partParams = new Object[(params == null ? 0 : params.length) + 2];
+						if (params != null)
+							System.arraycopy(params, 0, partParams, 0, params.length);
+						
+						partParams[partParams.length - 2] = lower;
+						partParams[partParams.length - 1] = upper;
+						
+						try (FileChannel partChannel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+							return export(partSql, partChannel, false, partParams);
+						}
+					}
+				}));
+			}
+			
+			long count = 0;
+			
+			for (int i = 0; i < parts; i++) {
+				try {
+					count += futures.get(i).get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while exporting", ex);
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					
+					if (cause instanceof SQLException)
+						throw (SQLException) cause;
+					
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					
+					throw new IOException(cause);
+				}
+				
+				try (FileChannel partChannel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+					long size = partChannel.size();
+					long position = 0;
+					
+					while (position < size)
+						position += partChannel.transferTo(position, size - position, channel);
+				}
+			}
+			
+			return count;
+		} finally {
+			executor.shutdownNow();
+			
+			for (Path file : files) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException ignore) {}
+			}
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+/**
+ * Executes units of work, retrying them on transient errors.
+ * Each attempt runs on a new connection. Failed attempts are rolled back and,
+ * if the error is {@linkplain SqlErrorType#isTransient(SQLException) transient}
+ * (e.g. a deadlock or a serialization failure), the work is retried after an
+ * exponential backoff with full jitter, so that concurrent transactions which
+ * aborted each other do not collide again.
+ * <p>Connection errors (SQL state class 08 or {@link SQLRecoverableException})
+ * raised while the work is executed are retried only if the work is declared
+ * idempotent: the connection may have been lost after the work was committed,
+ * and a retry would apply it twice. Errors obtaining a connection are always
+ * retried if transient.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RetryExecutor {
+	// CLASS SCOPE =============================================================
+	public static final int  DEFAULT_MAX_ATTEMPTS         = 5;
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 10;
+	public static final long DEFAULT_MAX_DELAY_MILLIS     = 1000;
+	
+	private static void rollback(Connection connection, SQLException error) {
+		try {
+			if (!connection.getAutoCommit())
+				connection.rollback();
+		} catch (SQLException ex) {
+			error.addSuppressed(ex);
+		}
+	}
+	
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException ignore) {}
+	}
+	
+	/** Returns a boolean indicating if given error (or one of its causes) is a connection error, after which the outcome of the work is unknown. */
+	static boolean isConnectionError(SQLException error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLRecoverableException || cause instanceof SQLNonTransientConnectionException || cause instanceof SQLTransientConnectionException)
+				return true;
+		}
+		
+		return FailoverDataSource.isConnectionException(error);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final AtomicLong retries = new AtomicLong();
+	
+	private volatile int  maxAttempts        = DEFAULT_MAX_ATTEMPTS;
+	private volatile long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+	private volatile long maxDelayMillis     = DEFAULT_MAX_DELAY_MILLIS;
+	
+	/** Returns the maximum number of attempts (including the first one) of a unit of work. */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	/**
+	 * Sets the maximum number of attempts (including the first one) of a unit of work.
+	 * @throws IllegalArgumentException if maxAttempts &lt; 1
+	 */
+	public void setMaxAttempts(int maxAttempts) throws IllegalArgumentException {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+		
+		this.maxAttempts = maxAttempts;
+	}
+	
+	/** Returns the upper bound (in milliseconds) of the delay before the first retry. */
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+	/**
+	 * Sets the upper bound (in milliseconds) of the delay before the first retry. Bound is doubled on each retry.
+	 * @throws IllegalArgumentException if initialDelayMillis &lt; 0
+	 */
+	public void setInitialDelayMillis(long initialDelayMillis) throws IllegalArgumentException {
+		if (initialDelayMillis < 0)
+			throw new IllegalArgumentException("Invalid initial delay: " + initialDelayMillis);
+		
+		this.initialDelayMillis = initialDelayMillis;
+	}
+	
+	/** Returns the maximum delay (in milliseconds) between attempts. */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+	/**
+	 * Sets the maximum delay (in milliseconds) between attempts.
+	 * @throws IllegalArgumentException if maxDelayMillis &lt; 0
+	 */
+	public void setMaxDelayMillis(long maxDelayMillis) throws IllegalArgumentException {
+		if (maxDelayMillis < 0)
+			throw new IllegalArgumentException("Invalid max delay: " + maxDelayMillis);
+		
+		this.maxDelayMillis = maxDelayMillis;
+	}
+	
+	/** Returns the total number of retries performed by this executor. */
+	public long getRetries() {
+		return retries.get();
+	}
+	
+	/** Returns the delay (in milliseconds) before the retry following given failed attempt. */
+	long getBackoffMillis(int attempt) {
+		long max = maxDelayMillis;
+		long bound = initialDelayMillis;
+		
+		for (int i = 1; i < attempt && bound < max; i++)
+			bound <<= 1;
+		
+		bound = Math.min(bound, max);
+		return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+	
+	/**
+	 * Executes given non-idempotent work on a connection obtained from given data source, retrying it on transient errors.
+	 * Connection errors raised by the work are not retried.
+	 * If the work leaves the connection in manual-commit mode, the work is responsible for committing it.
+	 * @param dataSource data source providing a connection for each attempt
+	 * @param work unit of work
+	 * @return the result of the work
+	 * @throws SQLException the error of the last attempt, if the work does not succeed
+	 * @throws IllegalArgumentException if dataSource == null || work == null
+	 */
+	public <T> T execute(DataSource dataSource, SqlWork<T> work) throws SQLException, IllegalArgumentException {
+		return execute(dataSource, work, false);
+	}
+	
+	/**
+	 * Executes given work on a connection obtained from given data source, retrying it on transient errors.
+	 * If the work leaves the connection in manual-commit mode, the work is responsible for committing it.
+	 * @param dataSource data source providing a connection for each attempt
+	 * @param work unit of work
+	 * @param idempotent defines if the work can be applied more than once. Connection errors raised by the work are retried only for idempotent work.
+	 * @return the result of the work
+	 * @throws SQLException the error of the last attempt, if the work does not succeed
+	 * @throws IllegalArgumentException if dataSource == null || work == null
+	 */
+	public <T> T execute(DataSource dataSource, SqlWork<T> work, boolean idempotent) throws SQLException, IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null data source");
+		
+		if (work == null)
+			throw new IllegalArgumentException("Null work");
+		
+		for (int attempt = 1;; attempt++) {
+			SQLException error;
+			Connection connection = null;
+			
+			try {
+				connection = dataSource.getConnection();
+				return work.execute(connection);
+			} catch (SQLException ex) {
+				error = ex;
+				
+				if (connection != null)
+					rollback(connection, ex);
+			} finally {
+				if (connection != null)
+					close(connection);
+			}
+			
+			if (attempt >= maxAttempts || !SqlErrorType.isTransient(error))
+				throw error;
+			
+			if (connection != null && !idempotent && isConnectionError(error))
+				throw error; // <-- Work may have been applied
+			
+			retries.incrementAndGet();
+			
+			try {
+				Thread.sleep(getBackoffMillis(attempt));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw error;
+			}
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Read/write-splitting data source.
+ * Connections are acquired lazily, on their first use: connections marked as
+ * read-only ({@code setReadOnly(true)}) before that are served by a replica,
+ * while other connections are served by the primary. Connections with an
+ * explicit read intent are obtained through {@link #getReadConnection()}.
+ * <p>Each read is sent to the available replica with the lowest number of
+ * outstanding connections relative to its {@linkplain PoolSettings#getWeight()
+ * weight}. A replica which fails to provide a connection is skipped by the
+ * acquisition and, if the failure is a connection exception (SQL state class
+ * 08), by all acquisitions during a retry interval; if no replica is
+ * available, reads are served by the primary.</p>
+ * @see DataSourceFactory#getRoutingDataSource(PoolSettings, List)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	public static final long DEFAULT_REPLICA_RETRY_MILLIS = 5000;
+	
+	/** Read replica. */
+	private static class Replica {
+		private final PooledDataSource dataSource;
+		private final int              weight;
+		private final AtomicInteger    outstanding = new AtomicInteger();
+		
+		private volatile long    unavailableUntilNanos;
+		private volatile boolean unavailable = false;
+
+		public Replica(PooledDataSource dataSource, int weight) {
+			this.dataSource = dataSource;
+			this.weight = weight;
+		}
+		
+		public boolean isAvailable(long nowNanos) {
+			return !unavailable || nowNanos - unavailableUntilNanos >= 0;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** Handler of lazily acquired connections. */
+	private class RoutingConnectionHandler implements InvocationHandler {
+		private final AtomicBoolean released = new AtomicBoolean();
+		
+		private boolean readOnly;
+		private Boolean autoCommit;
+		private Integer transactionIsolation;
+		private boolean closed;
+		
+		private Connection target;
+		private Replica    replica;
+		
+		// State of the target before it was changed through this connection (null if unchanged)
+		private Boolean initialReadOnly;
+		private Boolean initialAutoCommit;
+		private Integer initialTransactionIsolation;
+
+		public RoutingConnectionHandler(boolean readOnly) {
+			this.readOnly = readOnly;
+		}
+		
+		private void acquire() throws SQLException {
+			if (closed)
+				throw new SQLException("Connection is closed");
+			
+			Connection connection = null;
+			
+			if (readOnly) {
+				List<Replica> failed = null;
+				
+				for (Replica candidate; (candidate = chooseReplica(failed)) != null;) {
+					candidate.outstanding.incrementAndGet();
+					
+					try {
+						connection = candidate.dataSource.getConnection();
+						candidate.unavailable = false;
+						replica = candidate;
+						break;
+					} catch (SQLException | RuntimeException ex) {
+						candidate.outstanding.decrementAndGet();
+						
+						if (FailoverDataSource.isConnectionException(ex)) {
+							candidate.unavailableUntilNanos = System.nanoTime() + replicaRetryNanos;
+							candidate.unavailable = true;
+						} // <-- Otherwise, replica is reachable (e.g. its pool is exhausted): it is only skipped by this acquisition
+						
+						if (failed == null)
+							failed = new ArrayList<>(replicas.size());
+						
+						failed.add(candidate);
+					}
+				}
+			}
+			
+			if (connection == null)
+				connection = primary.getConnection();
+			
+			try {
+				if (readOnly) {
+					saveState(connection, "setReadOnly");
+					connection.setReadOnly(true);
+				}
+				
+				if (autoCommit != null) {
+					saveState(connection, "setAutoCommit");
+					connection.setAutoCommit(autoCommit);
+				}
+				
+				if (transactionIsolation != null) {
+					saveState(connection, "setTransactionIsolation");
+					connection.setTransactionIsolation(transactionIsolation);
+				}
+			} catch (SQLException ex) {
+				try {
+					restoreState(connection);
+				} catch (SQLException ignore) {}
+				
+				release();
+				connection.close();
+				throw ex;
+			}
+			
+			target = connection;
+		}
+		
+		/** Records the state of given connection which will be changed by given method (pooled connections are returned in their original state). */
+		private void saveState(Connection connection, String methodName) throws SQLException {
+			switch (methodName) {
+			case "setReadOnly":
+				if (initialReadOnly == null)
+					initialReadOnly = connection.isReadOnly();
+				
+				break;
+				
+			case "setAutoCommit":
+				if (initialAutoCommit == null)
+					initialAutoCommit = connection.getAutoCommit();
+				
+				break;
+				
+			case "setTransactionIsolation":
+				if (initialTransactionIsolation == null)
+					initialTransactionIsolation = connection.getTransactionIsolation();
+				
+				break;
+			}
+		}
+		
+		/** Restores the state recorded by {@link #saveState(Connection, String)}. */
+		private void restoreState(Connection connection) throws SQLException {
+			if (initialAutoCommit != null && connection.getAutoCommit() != initialAutoCommit) {
+				if (!connection.getAutoCommit())
+					connection.rollback(); // <-- Uncommitted work is discarded as the pools do
+				
+				connection.setAutoCommit(initialAutoCommit);
+			}
+			
+			if (initialReadOnly != null && connection.isReadOnly() != initialReadOnly)
+				connection.setReadOnly(initialReadOnly);
+			
+			if (initialTransactionIsolation != null && connection.getTransactionIsolation() != initialTransactionIsolation)
+				connection.setTransactionIsolation(initialTransactionIsolation);
+		}
+		
+		private void release() {
+			if (replica != null && released.compareAndSet(false, true))
+				replica.outstanding.decrementAndGet();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+				
+			case "hashCode":
+				return System.identityHashCode(proxy);
+				
+			case "toString":
+				return "RoutingConnection[" + (target == null ? "not acquired" : target.toString()) + "]";
+			}
+			
+			if (target == null) {
+				switch (method.getName()) {
+				case "setReadOnly":
+					readOnly = (Boolean) args[0];
+					return null;
+					
+				case "isReadOnly":
+					return readOnly;
+					
+				case "setAutoCommit":
+					autoCommit = (Boolean) args[0];
+					return null;
+					
+				case "setTransactionIsolation":
+					transactionIsolation = (Integer) args[0];
+					return null;
+					
+				case "close":
+					closed = true;
+					return null;
+					
+				case "isClosed":
+					return closed;
+				}
+				
+				acquire();
+			}
+			
+			boolean closing = method.getName().equals("close");
+			
+			try {
+				if (closing) {
+					if (!closed) {
+						closed = true;
+						restoreState(target);
+					}
+				} else {
+					saveState(target, method.getName());
+				}
+				
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			} finally {
+				if (closing) {
+					release();
+					
+					if (!target.isClosed())
+						target.close(); // <-- Returns the connection even if its state could not be restored
+				}
+			}
+		}
+	}
+	
+	private final PooledDataSource primary;
+	private final List<Replica>    replicas;
+	
+	private volatile long replicaRetryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REPLICA_RETRY_MILLIS);
+	
+	private PrintWriter logWriter;
+	
+	/**
+	 * Constructor.
+	 * @param primary data source of the primary database
+	 * @param replicas data sources of read replicas
+	 * @param weights weights of the replicas (in the same order)
+	 */
+	RoutingDataSource(PooledDataSource primary, List<PooledDataSource> replicas, List<Integer> weights) {
+		this.primary = primary;
+		
+		List<Replica> replicaList = new ArrayList<>(replicas.size());
+		for (int i = 0; i < replicas.size(); i++)
+			replicaList.add(new Replica(replicas.get(i), weights.get(i)));
+		
+		this.replicas = Collections.unmodifiableList(replicaList);
+	}
+	
+	/** Returns the data source of the primary database. */
+	public PooledDataSource getPrimary() {
+		return primary;
+	}
+	
+	/** Returns the data sources of read replicas. */
+	public List<PooledDataSource> getReplicas() {
+		List<PooledDataSource> list = new ArrayList<>(replicas.size());
+		for (Replica replica : replicas)
+			list.add(replica.dataSource);
+		
+		return list;
+	}
+	
+	/** Returns the time (in milliseconds) a replica which failed to connect is skipped. */
+	public long getReplicaRetryMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(replicaRetryNanos);
+	}
+	/** Sets the time (in milliseconds) a replica which failed to connect is skipped. */
+	public void setReplicaRetryMillis(long retryMillis) {
+		this.replicaRetryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, retryMillis));
+	}
+	
+	/** Returns the available replica with the lowest weighted number of outstanding connections, or null if there is no available replica. */
+	private Replica chooseReplica(List<Replica> excluded) {
+		int count = replicas.size();
+		if (count == 0)
+			return null;
+		
+		long now = System.nanoTime();
+		int start = count == 1 ? 0 : ThreadLocalRandom.current().nextInt(count); // <-- Random start breaks ties evenly
+		
+		Replica best = null;
+		double bestLoad = Double.MAX_VALUE;
+		
+		for (int i = 0; i < count; i++) {
+			Replica replica = replicas.get((start + i) % count);
+			
+			if (!replica.isAvailable(now) || (excluded != null && excluded.contains(replica)))
+				continue;
+			
+			double load = (replica.outstanding.get() + 1.0) / replica.weight;
+			if (load < bestLoad) {
+				best = replica;
+				bestLoad = load;
+			}
+		}
+		
+		return best;
+	}
+	
+	private Connection newConnection(boolean readOnly) {
+		return (Connection) Proxy.newProxyInstance(RoutingDataSource.class.getClassLoader(), new Class<?>[] {Connection.class}, new RoutingConnectionHandler(readOnly));
+	}
+	
+	/**
+	 * Returns a connection which is acquired on its first use.
+	 * If the connection is marked as read-only before that, it is served by a replica.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return newConnection(false);
+	}
+	
+	/**
+	 * Returns a read-only connection served by a replica (or by the primary, if no replica is available).
+	 * Connection is acquired immediately.
+	 * @throws SQLException if a connection could not be obtained
+	 */
+	public Connection getReadConnection() throws SQLException {
+		Connection connection = newConnection(true);
+		connection.getAutoCommit(); // <-- Forces the acquisition
+		return connection;
+	}
+	
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException pooled connections share the credentials of the pools
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connections cannot be obtained with other credentials");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException login timeout is not supported
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Login timeout is not supported.");
+	}
+
+	/** Returns 0 (login timeout is not supported). */
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+	
+	/** Closes the primary and all replica pools. */
+	@Override
+	public void close() {
+		for (Replica replica : replicas)
+			replica.dataSource.close();
+		
+		primary.close();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily evaluated iterator over the rows of a query.
+ * Rows are fetched from the database as they are consumed, so only the
+ * rows of the current fetch are kept in memory. The cursor releases its
+ * result set, statement and connection (if owned) when the last row is
+ * consumed, when an error happens or when it is closed.
+ * <p>Iterator methods throw {@link JdbcException} wrapping database errors.</p>
+ * @param <T> row type
+ * @see StreamingQuery
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RowCursor<T> implements Iterator<T>, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	/** Returns the first error of a sequence, keeping subsequent ones as suppressed errors. */
+	private static SQLException addError(SQLException first, SQLException next) {
+		if (first == null)
+			return next;
+		
+		first.addSuppressed(next);
+		return first;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final Connection   connection;
+	private final boolean      ownsConnection;
+	private final Statement    statement;
+	private final ResultSet    resultSet;
+	private final RowMapper<T> mapper;
+	private final boolean      cancelOnClose;
+	
+	private boolean hasRow   = false;
+	private boolean finished = false;
+	private boolean closed   = false;
+	private long    rowCount = 0;
+	
+	/**
+	 * Constructor.
+	 * @param connection connection used by the query
+	 * @param ownsConnection defines if the connection shall be rolled back and closed when the cursor is closed
+	 * @param statement statement which produced the result set
+	 * @param resultSet result set
+	 * @param mapper row mapper
+	 * @param cancelOnClose defines if the query is cancelled when the cursor is closed before all rows are consumed
+	 */
+	RowCursor(Connection connection, boolean ownsConnection, Statement statement, ResultSet resultSet, RowMapper<T> mapper, boolean cancelOnClose) {
+		this.connection = connection;
+		this.ownsConnection = ownsConnection;
+		this.statement = statement;
+		this.resultSet = resultSet;
+		this.mapper = mapper;
+		this.cancelOnClose = cancelOnClose;
+	}
+	
+	/** Returns the result set traversed by this cursor. */
+	ResultSet getResultSet() {
+		return resultSet;
+	}
+	
+	/** Returns the number of rows consumed so far. */
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	/** Returns a boolean indicating if this cursor was closed (either explicitly or because all rows were consumed). */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	@Override
+	public boolean hasNext() throws JdbcException {
+		if (hasRow)
+			return true;
+		
+		if (finished)
+			return false;
+		
+		try {
+			hasRow = resultSet.next();
+		} catch (SQLException ex) {
+			closeOnError(ex);
+			throw new JdbcException(ex);
+		}
+		
+		if (!hasRow) {
+			finished = true;
+			close();
+		}
+		
+		return hasRow;
+	}
+
+	@Override
+	public T next() throws JdbcException, NoSuchElementException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		hasRow = false;
+		rowCount++;
+		
+		try {
+			return mapper.map(resultSet, rowCount);
+		} catch (SQLException ex) {
+			closeOnError(ex);
+			throw new JdbcException(ex);
+		} catch (RuntimeException ex) {
+			closeOnError(ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Throws {@link UnsupportedOperationException}.
+	 * @throws UnsupportedOperationException rows cannot be removed
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	private void closeOnError(Throwable error) {
+		try {
+			close();
+		} catch (JdbcException ex) {
+			error.addSuppressed(ex.getCause());
+		}
+	}
+	
+	/**
+	 * Releases the result set, the statement and, if owned by the cursor, the connection.
+	 * If enabled (see {@link StreamingQuery#setCancelOnClose(boolean)}), closing a cursor before consuming all rows
+	 * cancels the query ({@link Statement#cancel()}). Calling this method on a closed cursor has no effect.
+	 * @throws JdbcException if there is an error releasing resources
+	 */
+	@Override
+	public void close() throws JdbcException {
+		if (closed)
+			return;
+		
+		boolean rowsRemain = !finished;
+		
+		closed = true;
+		finished = true;
+		hasRow = false;
+		
+		SQLException error = null;
+		
+		if (rowsRemain && cancelOnClose) {
+			try {
+				statement.cancel();
+			} catch (SQLException ignore) {
+				// Best effort: drivers which do not support cancellation read the remaining rows
+			}
+		}
+		
+		try {
+			resultSet.close();
+		} catch (SQLException ex) {
+			error = ex;
+		}
+		
+		try {
+			statement.close();
+		} catch (SQLException ex) {
+			error = addError(error, ex);
+		}
+		
+		if (ownsConnection) {
+			try {
+				if (!connection.getAutoCommit())
+					connection.rollback(); // <-- Query is read-only: ends the transaction opened for cursor-based fetching
+			} catch (SQLException ex) {
+				error = addError(error, ex);
+			}
+			
+			try {
+				connection.close();
+			} catch (SQLException ex) {
+				error = addError(error, ex);
+			}
+		}
+		
+		if (error != null)
+			throw new JdbcException(error);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ * @param <T> row type
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface RowMapper<T> {
+	/**
+	 * Maps the current row.
+	 * @param rs result set positioned at the row. Mapper shall not move the cursor.
+	 * @param rowNumber row number (starting at 1)
+	 * @return mapped row
+	 * @throws SQLException if there is an error reading the row
+	 */
+	public T map(ResultSet rs, long rowNumber) throws SQLException;
+}
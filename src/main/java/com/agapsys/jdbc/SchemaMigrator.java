@@ -0,0 +1,535 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Versioned schema migration engine.
+ * Applied migrations are recorded in a history table. On startup, a single
+ * query on that table detects if there is something to apply, so nodes
+ * with an up-to-date schema do not execute any script nor take any lock.
+ * When there are pending migrations, a lock table elects one node to
+ * apply them while the others wait for the lock to be released. The node
+ * holding the lock refreshes it periodically while migrations run and checks
+ * that it still owns the lock before applying each migration.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SchemaMigrator {
+	// CLASS SCOPE =============================================================
+	public static final String DEFAULT_HISTORY_TABLE     = "schema_migration_history";
+	public static final String DEFAULT_LOCK_TABLE        = "schema_migration_lock";
+	public static final long   DEFAULT_LOCK_WAIT_MILLIS  = 10 * 60 * 1000;
+	public static final long   DEFAULT_STALE_LOCK_MILLIS = 30 * 60 * 1000;
+	public static final long   DEFAULT_POLL_MILLIS       = 500;
+	
+	/** Exception thrown when migrations cannot be applied. */
+	public static class MigrationException extends RuntimeException {
+		private MigrationException(String message) {
+			super(message);
+		}
+		
+		private MigrationException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+	
+	/** Checksums recorded for an applied migration. */
+	private static class HistoryEntry {
+		private final long checksum;
+		private final long contentChecksum;
+		
+		public HistoryEntry(long checksum, long contentChecksum) {
+			this.checksum = checksum;
+			this.contentChecksum = contentChecksum;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	/** 
+	 * Script of a migration which records the migration in the history table
+	 * within its own transaction (used when migrations are applied in parallel).
+	 */
+	private class RecordingScript extends SqlScript {
+		private final Migration migration;
+		private final long      checksum;
+		private final long      contentChecksum;
+		
+		public RecordingScript(Migration migration, long checksum, long contentChecksum) {
+			super(migration.getScript().getName());
+			this.migration = migration;
+			this.checksum = checksum;
+			this.contentChecksum = contentChecksum;
+		}
+
+		@Override
+		public SqlTokenizer openTokenizer(boolean backslashEscapes) throws IOException {
+			return migration.getScript().openTokenizer(backslashEscapes);
+		}
+
+		@Override
+		public List<int[]> run(Connection connection, int batchSize) throws SQLException, IOException {
+			return SqlRunner.runBeforeCommit(connection, this, batchSize, newRecordWork(migration, checksum, contentChecksum, System.currentTimeMillis()));
+		}
+	}
+	
+	private final DataSource dataSource;
+	private final String     ownerId = UUID.randomUUID().toString();
+	
+	private String  historyTable      = DEFAULT_HISTORY_TABLE;
+	private String  lockTable         = DEFAULT_LOCK_TABLE;
+	private long    lockWaitMillis    = DEFAULT_LOCK_WAIT_MILLIS;
+	private long    staleLockMillis   = DEFAULT_STALE_LOCK_MILLIS;
+	private long    pollMillis        = DEFAULT_POLL_MILLIS;
+	private int     maxParallelism    = 1;
+	private boolean validateChecksums = true;
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source used to obtain connections
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public SchemaMigrator(DataSource dataSource) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null dataSource");
+		
+		this.dataSource = dataSource;
+	}
+	
+	/** Returns the name of the table which records applied migrations. */
+	public String getHistoryTable() {
+		return historyTable;
+	}
+	/** Sets the name of the table which records applied migrations. */
+	public void setHistoryTable(String historyTable) {
+		if (historyTable == null || historyTable.isEmpty())
+			throw new IllegalArgumentException("Null/Empty table name");
+		
+		this.historyTable = historyTable;
+	}
+
+	/** Returns the name of the table used to elect the node which applies migrations. */
+	public String getLockTable() {
+		return lockTable;
+	}
+	/** Sets the name of the table used to elect the node which applies migrations. */
+	public void setLockTable(String lockTable) {
+		if (lockTable == null || lockTable.isEmpty())
+			throw new IllegalArgumentException("Null/Empty table name");
+		
+		this.lockTable = lockTable;
+	}
+
+	/** Returns the maximum time (in milliseconds) a node waits for the migration lock. */
+	public long getLockWaitMillis() {
+		return lockWaitMillis;
+	}
+	/** Sets the maximum time (in milliseconds) a node waits for the migration lock. */
+	public void setLockWaitMillis(long lockWaitMillis) {
+		this.lockWaitMillis = lockWaitMillis;
+	}
+
+	/** Returns the time (in milliseconds) after which a lock held by a node is considered abandoned. */
+	public long getStaleLockMillis() {
+		return staleLockMillis;
+	}
+	/** 
+	 * Sets the time (in milliseconds) after which a lock held by a node is considered abandoned.
+	 * The node holding the lock refreshes it every third of this time (using a separate connection).
+	 */
+	public void setStaleLockMillis(long staleLockMillis) {
+		this.staleLockMillis = staleLockMillis;
+	}
+
+	/** Returns the interval (in milliseconds) between attempts to obtain the migration lock. */
+	public long getPollMillis() {
+		return pollMillis;
+	}
+	/** Sets the interval (in milliseconds) between attempts to obtain the migration lock. */
+	public void setPollMillis(long pollMillis) {
+		this.pollMillis = pollMillis;
+	}
+
+	/** Returns the maximum number of independent migrations applied at the same time. */
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+	/** Sets the maximum number of independent migrations applied at the same time (1 disables parallel application). */
+	public void setMaxParallelism(int maxParallelism) {
+		if (maxParallelism < 1)
+			throw new IllegalArgumentException("Invalid maxParallelism: " + maxParallelism);
+		
+		this.maxParallelism = maxParallelism;
+	}
+
+	/** 
+	 * Returns a boolean indicating if applied migrations are validated against recorded checksums.
+	 * Validation reads applied scripts on each startup, but they are only tokenized when their contents
+	 * differ from the ones recorded (e.g. changes in comments or whitespace) or when they were applied by previous versions.
+	 */
+	public boolean isValidateChecksums() {
+		return validateChecksums;
+	}
+	/** Defines if applied migrations shall be validated against recorded checksums (scripts are read but not executed). */
+	public void setValidateChecksums(boolean validateChecksums) {
+		this.validateChecksums = validateChecksums;
+	}
+	
+	private boolean tableExists(Connection connection, String tableName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		
+		for (String name : new String[] {tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+			try (ResultSet rs = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+				if (rs.next())
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/** Creates a table if it does not exist. Returns a boolean indicating if table was created by this call. */
+	private boolean createTable(Connection connection, String tableName, String columns) throws SQLException {
+		if (tableExists(connection, tableName))
+			return false;
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute(String.format("CREATE TABLE %s (%s)", tableName, columns));
+			return true;
+		} catch (SQLException ex) {
+			if (tableExists(connection, tableName))
+				return false; // <-- Table was created concurrently by another node
+			
+			throw ex;
+		}
+	}
+	
+	private boolean columnExists(Connection connection, String tableName, String column) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		
+		for (String name : new String[] {tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+			for (String columnName : new String[] {column, column.toUpperCase()}) {
+				try (ResultSet rs = metaData.getColumns(null, null, name, columnName)) {
+					if (rs.next())
+						return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private void createTables(Connection connection) throws SQLException {
+		if (!createTable(connection, historyTable, "version VARCHAR(50) NOT NULL PRIMARY KEY, description VARCHAR(255), checksum BIGINT NOT NULL, content_checksum BIGINT, installed_on BIGINT NOT NULL, execution_millis BIGINT NOT NULL") && !columnExists(connection, historyTable, "content_checksum")) {
+			// History tables created by previous versions have no content checksum...
+			try (Statement stmt = connection.createStatement()) {
+				stmt.execute(String.format("ALTER TABLE %s ADD content_checksum BIGINT", historyTable));
+			} catch (SQLException ex) {
+				if (!columnExists(connection, historyTable, "content_checksum"))
+					throw ex; // <-- Column was not added concurrently by another node
+			}
+		}
+		
+		createTable(connection, lockTable, "id INT NOT NULL PRIMARY KEY, locked_by VARCHAR(36), locked_at BIGINT NOT NULL");
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.executeUpdate(String.format("INSERT INTO %s (id, locked_by, locked_at) VALUES (1, NULL, 0)", lockTable));
+		} catch (SQLException ex) {
+			// Lock row already exists
+		}
+	}
+	
+	/** Returns applied versions and their checksums. */
+	private Map<String, HistoryEntry> getHistory(Connection connection) throws SQLException {
+		Map<String, HistoryEntry> history = new HashMap<>();
+		
+		// Tables created by previous versions may not have all columns...
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(String.format("SELECT * FROM %s", historyTable))) {
+			boolean hasContentChecksum = false;
+			ResultSetMetaData metaData = rs.getMetaData();
+			
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				if (metaData.getColumnName(i).equalsIgnoreCase("content_checksum")) {
+					hasContentChecksum = true;
+					break;
+				}
+			}
+			
+			while (rs.next()) {
+				long contentChecksum = hasContentChecksum ? rs.getLong("content_checksum") : ScriptCheckpoint.UNKNOWN_CHECKSUM;
+				if (hasContentChecksum && rs.wasNull())
+					contentChecksum = ScriptCheckpoint.UNKNOWN_CHECKSUM;
+				
+				history.put(rs.getString("version"), new HistoryEntry(rs.getLong("checksum"), contentChecksum));
+			}
+		}
+		
+		return history;
+	}
+	
+	/** Returns pending migrations (sorted by version) validating the applied ones. */
+	private List<Migration> getPending(List<Migration> migrations, Map<String, HistoryEntry> history, boolean backslashEscapes) throws IOException {
+		List<Migration> pending = new LinkedList<>();
+		
+		for (Migration migration : migrations) {
+			HistoryEntry entry = history.get(migration.getVersion());
+			
+			if (entry == null) {
+				pending.add(migration);
+			} else if (validateChecksums) {
+				// Unchanged contents skip the (more expensive) statement checksum...
+				if (entry.contentChecksum != ScriptCheckpoint.UNKNOWN_CHECKSUM && entry.contentChecksum == migration.getScript().getChecksum())
+					continue;
+				
+				if (entry.checksum != migration.getChecksum(backslashEscapes))
+					throw new MigrationException(String.format("Checksum mismatch for applied migration %s", migration));
+			}
+		}
+		
+		return pending;
+	}
+	
+	private boolean tryLock(Connection connection) throws SQLException {
+		long now = System.currentTimeMillis();
+		
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("UPDATE %s SET locked_by = ?, locked_at = ? WHERE id = 1 AND (locked_by IS NULL OR locked_at < ?)", lockTable))) {
+			stmt.setString(1, ownerId);
+			stmt.setLong(2, now);
+			stmt.setLong(3, now - staleLockMillis);
+			return stmt.executeUpdate() == 1;
+		}
+	}
+	
+	/** Refreshes the lock held by this node. Returns false if this node does not hold the lock. */
+	private boolean refreshLock(Connection connection) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("UPDATE %s SET locked_at = ? WHERE id = 1 AND locked_by = ?", lockTable))) {
+			stmt.setLong(1, System.currentTimeMillis());
+			stmt.setString(2, ownerId);
+			return stmt.executeUpdate() == 1;
+		}
+	}
+	
+	/** 
+	 * Ensures this node still holds the lock.
+	 * @throws MigrationException if the lock was considered stale and taken by another node
+	 */
+	private void checkLock(Connection connection) throws SQLException, MigrationException {
+		if (!refreshLock(connection))
+			throw new MigrationException("Migration lock is no longer held by this node");
+	}
+	
+	/** Starts the periodic refresh of the lock held by this node while migrations are applied. */
+	private ScheduledThreadPoolExecutor startHeartbeat() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, ConnectionPool.newThreadFactory("jdbc-migration-lock-"));
+		long intervalMillis = Math.max(1, staleLockMillis / 3);
+		
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try (Connection connection = dataSource.getConnection()) {
+					if (!connection.getAutoCommit())
+						connection.setAutoCommit(true);
+					
+					refreshLock(connection);
+				} catch (SQLException | RuntimeException ex) {
+					// Next refresh tries again (lock ownership is checked before each migration)
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		
+		return scheduler;
+	}
+	
+	private void unlock(Connection connection) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("UPDATE %s SET locked_by = NULL WHERE id = 1 AND locked_by = ?", lockTable))) {
+			stmt.setString(1, ownerId);
+			stmt.executeUpdate();
+		}
+	}
+	
+	private void record(Connection connection, Migration migration, long checksum, long contentChecksum, long executionMillis) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("INSERT INTO %s (version, description, checksum, content_checksum, installed_on, execution_millis) VALUES (?, ?, ?, ?, ?, ?)", historyTable))) {
+			stmt.setString(1, migration.getVersion());
+			stmt.setString(2, migration.getDescription());
+			stmt.setLong(3, checksum);
+			
+			if (contentChecksum == ScriptCheckpoint.UNKNOWN_CHECKSUM)
+				stmt.setNull(4, Types.BIGINT);
+			else
+				stmt.setLong(4, contentChecksum);
+			
+			stmt.setLong(5, System.currentTimeMillis());
+			stmt.setLong(6, executionMillis);
+			stmt.executeUpdate();
+		}
+	}
+	
+	/** Returns a work which records given migration (executed within migration transaction). */
+	private SqlWork<Void> newRecordWork(final Migration migration, final long checksum, final long contentChecksum, final long start) {
+		return new SqlWork<Void>() {
+			@Override
+			public Void execute(Connection connection) throws SQLException {
+				record(connection, migration, checksum, contentChecksum, System.currentTimeMillis() - start);
+				return null;
+			}
+		};
+	}
+	
+	/** 
+	 * Applies pending migrations. Consecutive independent migrations are applied in parallel.
+	 * Each migration is recorded in the history table within its own transaction.
+	 * Lock ownership is checked before each migration (or group of parallel migrations).
+	 */
+	private void apply(Connection connection, List<Migration> pending, boolean backslashEscapes) throws SQLException, IOException, InterruptedException {
+		int i = 0;
+		
+		while (i < pending.size()) {
+			Migration migration = pending.get(i);
+			checkLock(connection);
+			
+			if (maxParallelism > 1 && migration.isIndependent()) {
+				List<Migration> group = new ArrayList<>();
+				List<SqlScript> scripts = new ArrayList<>();
+				
+				while (i < pending.size() && pending.get(i).isIndependent()) {
+					group.add(pending.get(i));
+					scripts.add(new RecordingScript(pending.get(i), pending.get(i).getChecksum(backslashEscapes), pending.get(i).getScript().getChecksum()));
+					i++;
+				}
+				
+				List<ParallelSqlRunner.ScriptResult> results = ParallelSqlRunner.run(dataSource, scripts, maxParallelism, 1);
+				MigrationException error = null;
+				
+				for (int j = 0; j < results.size(); j++) {
+					ParallelSqlRunner.ScriptResult result = results.get(j);
+					
+					if (!result.isSuccessful() && error == null)
+						error = new MigrationException(String.format("Error applying migration %s", group.get(j)), result.getError());
+				}
+				
+				if (error != null)
+					throw error;
+			} else {
+				SqlWork<Void> recordWork = newRecordWork(migration, migration.getChecksum(backslashEscapes), migration.getScript().getChecksum(), System.currentTimeMillis());
+				
+				try {
+					SqlRunner.runBeforeCommit(connection, migration.getScript(), 1, recordWork);
+				} catch (SQLException | IOException | RuntimeException ex) {
+					if (!connection.getAutoCommit()) {
+						connection.rollback();
+						connection.setAutoCommit(true);
+					}
+					
+					throw new MigrationException(String.format("Error applying migration %s", migration), ex);
+				}
+				
+				i++;
+			}
+		}
+	}
+	
+	/**
+	 * Applies pending migrations.
+	 * @param migrations all known migrations
+	 * @return applied migrations (an empty list if schema was already up to date or if migrations were applied by another node)
+	 * @throws SQLException if there was a database error
+	 * @throws IOException if there was an I/O error while reading a script
+	 * @throws InterruptedException if current thread was interrupted while waiting for the migration lock
+	 * @throws MigrationException if a migration could not be applied, if an applied migration was modified or if the lock could not be obtained in time
+	 * @throws IllegalArgumentException if migrations == null or there are duplicate versions
+	 */
+	public List<Migration> migrate(Collection<Migration> migrations) throws SQLException, IOException, InterruptedException, MigrationException, IllegalArgumentException {
+		if (migrations == null)
+			throw new IllegalArgumentException("Null migrations");
+		
+		List<Migration> sorted = new ArrayList<>(migrations);
+		Collections.sort(sorted);
+		
+		for (int i = 1; i < sorted.size(); i++) {
+			if (sorted.get(i - 1).compareTo(sorted.get(i)) == 0)
+				throw new IllegalArgumentException(String.format("Duplicate migration version: %s", sorted.get(i).getVersion()));
+		}
+		
+		try (Connection connection = dataSource.getConnection()) {
+			if (!connection.getAutoCommit())
+				connection.setAutoCommit(true);
+			
+			boolean backslashEscapes = SqlRunner.usesBackslashEscapes(connection);
+			List<Migration> pending;
+			
+			// Fast path: single query when schema is up to date
+			try {
+				pending = getPending(sorted, getHistory(connection), backslashEscapes);
+			} catch (SQLException ex) {
+				if (tableExists(connection, historyTable))
+					throw ex;
+				
+				createTables(connection);
+				pending = sorted;
+			}
+			
+			if (pending.isEmpty())
+				return Collections.emptyList();
+			
+			createTables(connection);
+			
+			long deadline = System.currentTimeMillis() + lockWaitMillis;
+			while (!tryLock(connection)) {
+				if (System.currentTimeMillis() > deadline)
+					throw new MigrationException("Timeout waiting for migration lock");
+				
+				Thread.sleep(pollMillis);
+				
+				if (getPending(sorted, getHistory(connection), backslashEscapes).isEmpty())
+					return Collections.emptyList(); // <-- Another node has applied the migrations
+			}
+			
+			ScheduledThreadPoolExecutor heartbeat = startHeartbeat();
+			
+			try {
+				// Migrations may have been applied while waiting for the lock...
+				pending = getPending(sorted, getHistory(connection), backslashEscapes);
+				apply(connection, pending, backslashEscapes);
+				return pending;
+			} finally {
+				heartbeat.shutdownNow();
+				unlock(connection);
+			}
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import com.agapsys.jdbc.util.ResourceLoader;
+import com.agapsys.jdbc.util.ResourceLoader.ResourceNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of tokenized scripts embedded in application JAR/WAR.
+ * Repeated executions of a cached script do not read nor parse the resource.
+ * Cache is bounded by number of entries and by total number of cached
+ * characters. Least recently used entries are evicted first. Resources
+ * bigger than the cache capacity are never cached (they are streamed on
+ * each execution). Concurrent misses on the same script are coalesced: the
+ * resource is read and parsed once and shared by all callers.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ScriptCache {
+	// CLASS SCOPE =============================================================
+	public static final int  DEFAULT_MAX_ENTRIES = 128;
+	public static final long DEFAULT_MAX_CHARS   = 16 * 1024 * 1024;
+	
+	private static class Entry {
+		private final String[] statements;
+		private final long[]   endOffsets;
+		private final long     checksum;
+		private final long     chars;
+
+		public Entry(String[] statements, long[] endOffsets, long checksum, long chars) {
+			this.statements = statements;
+			this.endOffsets = endOffsets;
+			this.checksum = checksum;
+			this.chars = chars;
+		}
+	}
+	
+	private static long getChecksum(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+	
+	/**
+	 * Returns the maximum number of bytes of a resource whose decoded contents may have given number of characters.
+	 * Charsets encode a character with at most {@link java.nio.charset.CharsetEncoder#maxBytesPerChar()} bytes.
+	 */
+	private static long getMaxBytes(Charset charset, long maxChars) {
+		float maxBytesPerChar;
+		
+		try {
+			maxBytesPerChar = charset.newEncoder().maxBytesPerChar();
+		} catch (UnsupportedOperationException ex) {
+			maxBytesPerChar = 4; // <-- Decode-only charset
+		}
+		
+		return (long) Math.min((double) maxChars * Math.ceil(maxBytesPerChar), Integer.MAX_VALUE - 8);
+	}
+	
+	/**
+	 * Reads given stream into given buffer until the end of the stream or until the buffer exceeds given size.
+	 * @return false if the stream has more than maxBytes bytes (stream is left open)
+	 */
+	private static boolean read(InputStream in, ByteArrayOutputStream out, long maxBytes) throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+		
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+			
+			if (out.size() > maxBytes)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static SqlTokenizer openStreamingTokenizer(InputStream in, Charset charset, boolean backslashEscapes) {
+		SqlTokenizer tokenizer = SqlTokenizer.forReader(new InputStreamReader(in, charset));
+		tokenizer.setBackslashEscapes(backslashEscapes);
+		return tokenizer;
+	}
+	
+	private static SqlTokenizer openTokenizer(Entry entry) {
+		return SqlTokenizer.forStatements(entry.statements, entry.endOffsets);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final int     maxEntries;
+	private final long    maxChars;
+	private final boolean validateChecksums;
+	
+	private final Map<String, Entry>                      entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final ConcurrentMap<String, FutureTask<Entry>> loading = new ConcurrentHashMap<>();
+	
+	private long totalChars = 0;
+	private long hits       = 0;
+	private long misses     = 0;
+	
+	/** Creates a cache using default bounds and no checksum validation. */
+	public ScriptCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS, false);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param maxEntries maximum number of cached scripts
+	 * @param maxChars maximum number of cached characters (sum of all cached scripts)
+	 * @param validateChecksums defines if a cached script shall be validated against the resource contents on each use.
+	 * Validation reads the resource (but does not parse it) and is intended for environments where resources may change at runtime.
+	 * @throws IllegalArgumentException if maxEntries &lt; 1 || maxChars &lt; 1
+	 */
+	public ScriptCache(int maxEntries, long maxChars, boolean validateChecksums) throws IllegalArgumentException {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Invalid maxEntries: " + maxEntries);
+		
+		if (maxChars < 1)
+			throw new IllegalArgumentException("Invalid maxChars: " + maxChars);
+		
+		this.maxEntries = maxEntries;
+		this.maxChars = maxChars;
+		this.validateChecksums = validateChecksums;
+	}
+	
+	/** Returns the maximum number of cached scripts. */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+	
+	/** Returns the maximum number of cached characters. */
+	public long getMaxChars() {
+		return maxChars;
+	}
+	
+	/** Returns a boolean indicating if cached scripts are validated against resource contents on each use. */
+	public boolean isValidateChecksums() {
+		return validateChecksums;
+	}
+	
+	/** Returns the number of cached scripts. */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/** Returns the number of requests served by the cache. */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/** Returns the number of requests which required a resource to be parsed. */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/** Removes all cached scripts. */
+	public synchronized void clear() {
+		entries.clear();
+		totalChars = 0;
+	}
+	
+	private synchronized Entry get(String key) {
+		return entries.get(key);
+	}
+	
+	private synchronized void countRequest(boolean hit) {
+		if (hit)
+			hits++;
+		else
+			misses++;
+	}
+	
+	private synchronized void put(String key, Entry entry) {
+		Entry previous = entries.put(key, entry);
+		if (previous != null)
+			totalChars -= previous.chars;
+		
+		totalChars += entry.chars;
+		
+		Iterator<Entry> iterator = entries.values().iterator();
+		while ((entries.size() > maxEntries || totalChars > maxChars) && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			totalChars -= eldest.chars;
+			iterator.remove();
+		}
+	}
+	
+	private Entry parse(byte[] bytes, long checksum, Charset charset, boolean backslashEscapes) throws IOException {
+		String sql = new String(bytes, charset);
+		
+		List<String> statements = new ArrayList<>();
+		List<Long> endOffsets = new ArrayList<>();
+		
+		SqlTokenizer tokenizer = SqlTokenizer.forString(sql);
+		tokenizer.setBackslashEscapes(backslashEscapes);
+		
+		String statement;
+		while ((statement = tokenizer.next()) != null) {
+			statements.add(statement);
+			endOffsets.add(tokenizer.getOffset());
+		}
+		
+		long[] offsets = new long[endOffsets.size()];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = endOffsets.get(i);
+		
+		return new Entry(statements.toArray(new String[statements.size()]), offsets, checksum, sql.length());
+	}
+	
+	/** Reads and parses a resource which is not cached (or whose cached entry must be validated). */
+	private class Loader implements Callable<Entry> {
+		private final URL     url;
+		private final String  key;
+		private final Charset charset;
+		private final boolean backslashEscapes;
+		private final Entry   cached;
+		
+		/** Tokenizer over the partially read resource when it does not fit in the cache. */
+		private SqlTokenizer streamingTokenizer = null;
+
+		public Loader(URL url, String key, Charset charset, boolean backslashEscapes, Entry cached) {
+			this.url = url;
+			this.key = key;
+			this.charset = charset;
+			this.backslashEscapes = backslashEscapes;
+			this.cached = cached;
+		}
+		
+		/** Returns the loaded entry or null if the resource does not fit in the cache. */
+		@Override
+		public Entry call() throws IOException {
+			URLConnection urlConnection = url.openConnection();
+			long maxBytes = getMaxBytes(charset, maxChars);
+			InputStream in = urlConnection.getInputStream();
+			
+			if (urlConnection.getContentLengthLong() > maxBytes) {
+				streamingTokenizer = openStreamingTokenizer(in, charset, backslashEscapes);
+				return null;
+			}
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			
+			try {
+				if (!read(in, out, maxBytes)) {
+					streamingTokenizer = openStreamingTokenizer(new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), in), charset, backslashEscapes);
+					return null;
+				}
+			} finally {
+				if (streamingTokenizer == null)
+					in.close();
+			}
+			
+			byte[] bytes = out.toByteArray();
+			long checksum = getChecksum(bytes);
+			
+			if (cached != null && cached.checksum == checksum)
+				return cached;
+			
+			Entry entry = parse(bytes, checksum, charset, backslashEscapes);
+			if (entry.chars <= maxChars)
+				put(key, entry); // <-- Otherwise, entry is used only by current callers
+			
+			return entry;
+		}
+	}
+	
+	/**
+	 * Returns a tokenizer for an embedded script.
+	 * @param pkg package which contains the file
+	 * @param sqlFilename name of the embedded file
+	 * @param charset file charset
+	 * @param backslashEscapes defines if backslash escapes quotes inside string literals (see {@link SqlTokenizer#setBackslashEscapes(boolean)})
+	 * @throws IOException if there was an I/O error
+	 * @throws ResourceNotFoundException if given file was not found
+	 * @throws IllegalArgumentException if charset == null
+	 */
+	public SqlTokenizer openTokenizer(String pkg, String sqlFilename, Charset charset, boolean backslashEscapes) throws IOException, ResourceNotFoundException, IllegalArgumentException {
+		if (charset == null)
+			throw new IllegalArgumentException("Missing charset");
+		
+		URL url = ResourceLoader.getResourceURL(pkg, sqlFilename);
+		String key = String.format("%s|%s|%b", url.toExternalForm(), charset.name(), backslashEscapes);
+		
+		Entry cached = get(key);
+		
+		if (cached != null && !validateChecksums) {
+			countRequest(true);
+			return openTokenizer(cached);
+		}
+		
+		Loader loader = new Loader(url, key, charset, backslashEscapes, cached);
+		FutureTask<Entry> task = new FutureTask<>(loader);
+		FutureTask<Entry> pending = loading.putIfAbsent(key, task);
+		
+		if (pending == null) {
+			pending = task;
+			
+			try {
+				task.run();
+			} finally {
+				loading.remove(key, task);
+			}
+		}
+		
+		Entry entry;
+		
+		try {
+			entry = pending.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for script to be loaded", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			
+			if (cause instanceof Error)
+				throw (Error) cause;
+			
+			throw new IOException(cause);
+		}
+		
+		if (entry == null) {
+			// Resource does not fit in the cache: stream it...
+			countRequest(false);
+			
+			if (pending == task)
+				return loader.streamingTokenizer;
+			
+			return openStreamingTokenizer(url.openStream(), charset, backslashEscapes);
+		}
+		
+		countRequest(pending != task || entry == cached); // <-- Coalesced callers did not parse the resource
+		return openTokenizer(entry);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Position of a partially executed script.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ScriptCheckpoint {
+	// CLASS SCOPE =============================================================
+	/** Checksum of checkpoints which cannot be verified against their scripts. */
+	public static final long UNKNOWN_CHECKSUM = -1;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final long statementOrdinal;
+	private final long offset;
+	private final long scriptChecksum;
+
+	/**
+	 * Constructor. Created checkpoint has an {@link #UNKNOWN_CHECKSUM unknown} script checksum.
+	 * @param statementOrdinal number of statements already executed
+	 * @param offset character offset just after the last executed statement
+	 * @throws IllegalArgumentException if statementOrdinal &lt; 0 || offset &lt; 0
+	 */
+	public ScriptCheckpoint(long statementOrdinal, long offset) throws IllegalArgumentException {
+		this(statementOrdinal, offset, UNKNOWN_CHECKSUM);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param statementOrdinal number of statements already executed
+	 * @param offset character offset just after the last executed statement
+	 * @param scriptChecksum checksum of the script which produced the checkpoint (see {@link SqlScript#getChecksum()})
+	 * @throws IllegalArgumentException if statementOrdinal &lt; 0 || offset &lt; 0
+	 */
+	public ScriptCheckpoint(long statementOrdinal, long offset, long scriptChecksum) throws IllegalArgumentException {
+		if (statementOrdinal < 0)
+			throw new IllegalArgumentException("Invalid statement ordinal: " + statementOrdinal);
+		
+		if (offset < 0)
+			throw new IllegalArgumentException("Invalid offset: " + offset);
+		
+		this.statementOrdinal = statementOrdinal;
+		this.offset = offset;
+		this.scriptChecksum = scriptChecksum;
+	}
+
+	/** Returns the number of statements already executed. */
+	public long getStatementOrdinal() {
+		return statementOrdinal;
+	}
+
+	/** 
+	 * Returns the offset (in characters) just after the last executed statement. 
+	 * For single-byte charsets this is also the byte offset in the script file.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/** Returns the checksum of the script which produced this checkpoint ({@link #UNKNOWN_CHECKSUM} if unknown). */
+	public long getScriptChecksum() {
+		return scriptChecksum;
+	}
+	
+	/**
+	 * Returns a boolean indicating if this checkpoint may be used to resume a script with given checksum.
+	 * Checkpoints are accepted when either checksum is unknown.
+	 * @param scriptChecksum checksum of the script to be resumed
+	 */
+	public boolean matches(long scriptChecksum) {
+		return this.scriptChecksum == UNKNOWN_CHECKSUM || scriptChecksum == UNKNOWN_CHECKSUM || this.scriptChecksum == scriptChecksum;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("statement #%d (offset: %d)", statementOrdinal, offset);
+	}
+	// =========================================================================
+}
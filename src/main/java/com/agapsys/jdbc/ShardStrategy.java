@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Strategy which maps shard keys to shards of a {@link ShardedDataSource}.
+ * Implementations must be thread-safe.
+ * @see ConsistentHashShardStrategy
+ * @see RangeShardStrategy
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface ShardStrategy {
+	/**
+	 * Returns the index of the shard which holds given key.
+	 * @param key shard key (never null)
+	 * @param shardCount number of shards
+	 * @return shard index (between 0 and shardCount - 1)
+	 * @throws IllegalArgumentException if the key cannot be mapped to a shard
+	 */
+	public int getShard(Object key, int shardCount) throws IllegalArgumentException;
+}
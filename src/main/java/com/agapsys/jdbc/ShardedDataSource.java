@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source which spreads a dataset across several databases (shards).
+ * Each shard has its own connection pool and connections are obtained for
+ * a shard key, which is mapped to a shard by a {@link ShardStrategy}.
+ * Queries can also be executed on all shards in parallel through
+ * {@link #gather(String, RowMapper, Object...)}.
+ * <p>Shard data sources can be used with other components of this package
+ * (e.g. {@code new TransactionExecutor(sharded.getDataSource(key))}).</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ShardedDataSource implements DataSource, AutoCloseable {
+	// CLASS SCOPE =============================================================
+	public static final int DEFAULT_GATHER_BUFFER_SIZE = 1024;
+	
+	/** Default number of gather threads per shard (i.e. number of cursors which can run at full parallelism). */
+	public static final int DEFAULT_GATHER_THREADS_PER_SHARD = 4;
+	
+	/** Time after which idle gather threads are stopped. */
+	private static final long GATHER_THREAD_KEEP_ALIVE_SECONDS = 60;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final List<PooledDataSource> shards;
+	private final ShardStrategy          strategy;
+	private final ThreadPoolExecutor     gatherExecutor;
+	
+	private volatile int fetchSize        = StreamingQuery.DEFAULT_FETCH_SIZE;
+	private volatile int gatherBufferSize = DEFAULT_GATHER_BUFFER_SIZE;
+	
+	private PrintWriter logWriter;
+	
+	/**
+	 * Constructor.
+	 * @param shards shard data sources (shard indexes are given by list order)
+	 * @param strategy strategy which maps shard keys to shards
+	 */
+	ShardedDataSource(List<PooledDataSource> shards, ShardStrategy strategy) {
+		this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+		this.strategy = strategy;
+		
+		int gatherThreads = Math.max(1, this.shards.size() * DEFAULT_GATHER_THREADS_PER_SHARD);
+		this.gatherExecutor = new ThreadPoolExecutor(gatherThreads, gatherThreads, GATHER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), ConnectionPool.newThreadFactory("jdbc-gather-"));
+		this.gatherExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	/** Returns the strategy which maps shard keys to shards. */
+	public ShardStrategy getStrategy() {
+		return strategy;
+	}
+	
+	/** Returns the number of shards. */
+	public int getShardCount() {
+		return shards.size();
+	}
+	
+	/** Returns the data sources of all shards, in shard order. */
+	public List<PooledDataSource> getShards() {
+		return shards;
+	}
+	
+	/**
+	 * Returns the data source of a shard.
+	 * @param index shard index
+	 * @throws IndexOutOfBoundsException if index &lt; 0 || index &gt;= getShardCount()
+	 */
+	public PooledDataSource getShard(int index) throws IndexOutOfBoundsException {
+		return shards.get(index);
+	}
+	
+	/**
+	 * Returns the index of the shard which holds given key.
+	 * @throws IllegalArgumentException if key == null || key cannot be mapped to a shard
+	 * @throws IllegalStateException if the strategy returned an invalid shard index
+	 */
+	public int getShardIndex(Object key) throws IllegalArgumentException, IllegalStateException {
+		if (key == null)
+			throw new IllegalArgumentException("Null key");
+		
+		int index = strategy.getShard(key, shards.size());
+		if (index < 0 || index >= shards.size())
+			throw new IllegalStateException("Invalid shard index: " + index);
+		
+		return index;
+	}
+	
+	/**
+	 * Returns the data source of the shard which holds given key.
+	 * @throws IllegalArgumentException if key == null || key cannot be mapped to a shard
+	 */
+	public PooledDataSource getDataSource(Object key) throws IllegalArgumentException {
+		return shards.get(getShardIndex(key));
+	}
+	
+	/**
+	 * Borrows a connection from the shard which holds given key.
+	 * @throws SQLException if a connection could not be obtained
+	 * @throws IllegalArgumentException if key == null || key cannot be mapped to a shard
+	 */
+	public Connection getConnection(Object key) throws SQLException, IllegalArgumentException {
+		return getDataSource(key).getConnection();
+	}
+	
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException a shard key is required (see {@link #getConnection(Object)})
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		throw new SQLFeatureNotSupportedException("A shard key is required");
+	}
+	
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException pooled connections share the credentials of the pool
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Connections cannot be obtained with other credentials");
+	}
+	
+	/** Returns the number of rows fetched from each shard per round trip by {@link #gather(String, RowMapper, Object...)}. */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+	/**
+	 * Sets the number of rows fetched from each shard per round trip by {@link #gather(String, RowMapper, Object...)}.
+	 * @throws IllegalArgumentException if fetchSize &lt; 1
+	 */
+	public void setFetchSize(int fetchSize) throws IllegalArgumentException {
+		if (fetchSize < 1)
+			throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+		
+		this.fetchSize = fetchSize;
+	}
+	
+	/** Returns the maximum number of rows buffered by {@link #gather(String, RowMapper, Object...)} cursors. */
+	public int getGatherBufferSize() {
+		return gatherBufferSize;
+	}
+	/**
+	 * Sets the maximum number of rows buffered by {@link #gather(String, RowMapper, Object...)} cursors.
+	 * @throws IllegalArgumentException if bufferSize &lt; 1
+	 */
+	public void setGatherBufferSize(int bufferSize) throws IllegalArgumentException {
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		
+		this.gatherBufferSize = bufferSize;
+	}
+	
+	/** Returns the maximum number of threads used by {@link #gather(String, RowMapper, Object...)} cursors (one per shard of each open cursor). */
+	public int getMaxGatherThreads() {
+		return gatherExecutor.getMaximumPoolSize();
+	}
+	/**
+	 * Sets the maximum number of threads used by {@link #gather(String, RowMapper, Object...)} cursors.
+	 * When all threads are busy, shards of new cursors wait for a thread.
+	 * @throws IllegalArgumentException if maxThreads &lt; 1
+	 */
+	public synchronized void setMaxGatherThreads(int maxThreads) throws IllegalArgumentException {
+		if (maxThreads < 1)
+			throw new IllegalArgumentException("Invalid max threads: " + maxThreads);
+		
+		// Core size must not exceed maximum size at any time
+		if (maxThreads > gatherExecutor.getMaximumPoolSize()) {
+			gatherExecutor.setMaximumPoolSize(maxThreads);
+			gatherExecutor.setCorePoolSize(maxThreads);
+		} else {
+			gatherExecutor.setCorePoolSize(maxThreads);
+			gatherExecutor.setMaximumPoolSize(maxThreads);
+		}
+	}
+	
+	/** Returns the number of threads currently running {@link #gather(String, RowMapper, Object...)} producers. */
+	public int getActiveGatherThreads() {
+		return gatherExecutor.getActiveCount();
+	}
+	
+	/**
+	 * Executes a query on all shards in parallel and returns a cursor over the rows of all shards.
+	 * Each shard streams its rows as in {@link StreamingQuery} using a thread of this data source (see {@link #setMaxGatherThreads(int)}), so given mapper may be called concurrently.
+	 * <p>Returned cursor must be closed if it is not fully consumed, otherwise its shards keep holding a thread and a connection until the cursor is garbage collected.</p>
+	 * @param sql query
+	 * @param mapper row mapper (called by shard threads)
+	 * @param params query parameters
+	 * @return cursor over mapped rows (rows of different shards are interleaved)
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty() || mapper == null
+	 * @throws IllegalStateException if this data source is closed
+	 */
+	public <T> GatherCursor<T> gather(final String sql, final RowMapper<T> mapper, final Object...params) throws IllegalArgumentException, IllegalStateException {
+		if (sql == null || sql.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty sql");
+		
+		if (mapper == null)
+			throw new IllegalArgumentException("Null mapper");
+		
+		GatherCursor<T> cursor = new GatherCursor<>(shards.size(), gatherBufferSize);
+		
+		// Producers must not reference the cursor, so that an abandoned cursor can be garbage collected
+		final GatherCursor.Buffer<T> buffer = cursor.getBuffer();
+		
+		try {
+			for (PooledDataSource shard : shards) {
+				final StreamingQuery query = new StreamingQuery(shard);
+				query.setFetchSize(fetchSize);
+				
+				gatherExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (buffer.isClosed())
+							return; // <-- Cursor was closed while waiting for a thread
+						
+						try (RowCursor<T> rows = query.open(sql, mapper, params)) {
+							while (rows.hasNext()) {
+								if (!buffer.add(rows.next()))
+									return; // <-- Cursor was closed
+							}
+						} catch (Throwable ex) {
+							buffer.fail(ex); // <-- Errors must reach the consumer, otherwise it would wait forever
+							return;
+						}
+
+						buffer.finish();
+					}
+				});
+			}
+		} catch (RejectedExecutionException ex) {
+			cursor.close();
+			throw new IllegalStateException("Data source is closed");
+		}
+		
+		return cursor;
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	/**
+	 * Throws {@link SQLFeatureNotSupportedException}.
+	 * @throws SQLFeatureNotSupportedException login timeout is not supported
+	 */
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Login timeout is not supported.");
+	}
+
+	/** Returns 0 (login timeout is not supported). */
+	@Override
+	public int getLoginTimeout() {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+	
+	/**
+	 * Closes the pools of all shards and stops gather threads once they become idle.
+	 * Open cursors keep running until they are consumed or closed.
+	 */
+	@Override
+	public void close() {
+		gatherExecutor.shutdown();
+		
+		for (PooledDataSource shard : shards)
+			shard.close();
+	}
+	// =========================================================================
+}
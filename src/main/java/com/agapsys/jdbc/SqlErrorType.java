@@ -17,113 +17,176 @@
 package com.agapsys.jdbc;
 
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * SQL error types according to 
  * <a href="http://www.contrib.andrew.cmu.edu/~shadow/sql/sql1992.txt">SQL92 standard</a>
+ * (extended with classes defined by later revisions and by widely used vendors).
+ * Each type has a default transience which can be overridden by specific
+ * subclasses (see {@link #isTransient(String)}).
  * @author Leandro Oliveira (leandro@agapsys.com)
  */
 public enum SqlErrorType {	
-	NO_DATA                        (0x02),
-	CONNECTION_EXCEPTION           (0x08),
-	DYNAMIC_SQL_ERROR              (0x07),
-	FEATURE_NOT_SUPPORTED          (0x0A),
-	CARDINALITY_VIOLATION          (0x21),
-	DATA_EXCEPTION                 (0x22),
-	INTEGRITY_CONSTRAINT_VIOLATION (0x23),
-	INVALID_CURSOR_STATE           (0x24),
-	INVALID_TRANSACTION_STATE      (0x25),
-	INVALID_SQL_STATEMENT_NAME     (0x26),
-	INVALID_AUTHORIZATION_SPEC     (0x28),
-	DEPENDENT_PRIVILEGE_DESC_EXIST (0x2B),
-	INVALID_CHARSET                (0x2C),
-	INVALID_TRANSACTION_TERMINATION(0x2D),
-	INVALID_CONNECTION_NAME        (0x2E),
-	INVALID_SQL_DESCRIPTOR_NAME    (0x33),
-	INVALID_CURSOR_NAME            (0x34),
-	INVALID_CONDITION_NUMBER       (0x35),
-	INVALID_CATALOG_NAME           (0x3D),
-	AMBIGUOS_CURSOR_NAME           (0x3C),
-	INVALID_SCHEMA_NAME            (0x3F);
+	NO_DATA                           ("02", false),
+	CONNECTION_EXCEPTION              ("08", true),
+	DYNAMIC_SQL_ERROR                 ("07", false),
+	TRIGGERED_ACTION_EXCEPTION        ("09", false),
+	FEATURE_NOT_SUPPORTED             ("0A", false),
+	INVALID_TRANSACTION_INITIATION    ("0B", false),
+	LOCATOR_EXCEPTION                 ("0F", false),
+	INVALID_GRANTOR                   ("0L", false),
+	INVALID_ROLE_SPECIFICATION        ("0P", false),
+	DIAGNOSTICS_EXCEPTION             ("0Z", false),
+	CASE_NOT_FOUND                    ("20", false),
+	CARDINALITY_VIOLATION             ("21", false),
+	DATA_EXCEPTION                    ("22", false),
+	INTEGRITY_CONSTRAINT_VIOLATION    ("23", false),
+	INVALID_CURSOR_STATE              ("24", false),
+	INVALID_TRANSACTION_STATE         ("25", false),
+	INVALID_SQL_STATEMENT_NAME        ("26", false),
+	TRIGGERED_DATA_CHANGE_VIOLATION   ("27", false),
+	INVALID_AUTHORIZATION_SPEC        ("28", false),
+	DEPENDENT_PRIVILEGE_DESC_EXIST    ("2B", false),
+	INVALID_CHARSET                   ("2C", false),
+	INVALID_TRANSACTION_TERMINATION   ("2D", false),
+	INVALID_CONNECTION_NAME           ("2E", false),
+	SQL_ROUTINE_EXCEPTION             ("2F", false),
+	INVALID_SQL_DESCRIPTOR_NAME       ("33", false),
+	INVALID_CURSOR_NAME               ("34", false),
+	INVALID_CONDITION_NUMBER          ("35", false),
+	EXTERNAL_ROUTINE_EXCEPTION        ("38", false),
+	EXTERNAL_ROUTINE_INVOCATION       ("39", false),
+	SAVEPOINT_EXCEPTION               ("3B", false),
+	INVALID_CATALOG_NAME              ("3D", false),
+	AMBIGUOS_CURSOR_NAME              ("3C", false),
+	INVALID_SCHEMA_NAME               ("3F", false),
+	TRANSACTION_ROLLBACK              ("40", true),
+	SYNTAX_ERROR_OR_ACCESS_VIOLATION  ("42", false),
+	WITH_CHECK_OPTION_VIOLATION       ("44", false),
+	INSUFFICIENT_RESOURCES            ("53", true),
+	PROGRAM_LIMIT_EXCEEDED            ("54", false),
+	OBJECT_NOT_IN_PREREQUISITE_STATE  ("55", false),
+	OPERATOR_INTERVENTION             ("57", true),
+	SYSTEM_ERROR                      ("58", false),
+	CLI_SPECIFIC_CONDITION            ("HY", false),
+	REMOTE_DATABASE_ACCESS            ("HZ", false),
+	INTERNAL_ERROR                    ("XX", false);
 	
-	int val;
-	private SqlErrorType(int val) {
-		this.val = val;
-	}
+	// CLASS SCOPE =============================================================
+	private static final int RADIX = 36;
 	
-	/** Get error type from a SQLException. */
-	public static SqlErrorType getInstance(SQLException ex) {
-		if (ex == null)
-			return null;
+	/** Types indexed by SQL state class (two base-36 digits). */
+	private static final SqlErrorType[] CLASS_TABLE = new SqlErrorType[RADIX * RADIX];
+	
+	/** Subclasses whose transience differs from the default transience of their classes. */
+	private static final Map<String, Boolean> TRANSIENCE_OVERRIDES;
+	
+	static {
+		for (SqlErrorType type : values())
+			CLASS_TABLE[getClassIndex(type.classCode)] = type;
 		
-		int val = Integer.parseInt(ex.getSQLState().substring(0, 2), 16);
+		Map<String, Boolean> overrides = new HashMap<>();
 		
-		switch (val) {
-		case 0x02:
-			return NO_DATA;
-			
-		case 0x08:
-			return CONNECTION_EXCEPTION;
-			
-		case 0x07:
-			return DYNAMIC_SQL_ERROR;
-			
-		case 0x0A:
-			return FEATURE_NOT_SUPPORTED;
-			
-		case 0x21:
-			return CARDINALITY_VIOLATION;
-			
-		case 0x22:
-			return DATA_EXCEPTION;
-			
-		case 0x23:
-			return INTEGRITY_CONSTRAINT_VIOLATION;
-			
-		case 0x24:
-			return INVALID_CURSOR_STATE;
+		overrides.put("08007", false); // <-- Transaction resolution unknown: retrying may apply the transaction twice
+		overrides.put("40002", false); // <-- Transaction rollback: integrity constraint violation
+		overrides.put("40003", false); // <-- Transaction rollback: statement completion unknown
+		overrides.put("53100", false); // <-- Disk full
+		overrides.put("55006", true);  // <-- Object in use
+		overrides.put("55P03", true);  // <-- Lock not available
+		overrides.put("57014", false); // <-- Query canceled
+		overrides.put("HYT00", true);  // <-- Timeout expired
+		overrides.put("HYT01", true);  // <-- Connection timeout expired
 		
-		case 0x25:
-			return INVALID_TRANSACTION_STATE;
-			
-		case 0x26:
-			return INVALID_SQL_STATEMENT_NAME;
-			
-		case 0x28:
-			return INVALID_AUTHORIZATION_SPEC;
+		TRANSIENCE_OVERRIDES = Collections.unmodifiableMap(overrides);
+	}
+	
+	/** Returns the index of given SQL state class in the class table, or -1 if the class is invalid. */
+	private static int getClassIndex(String sqlState) {
+		if (sqlState == null || sqlState.length() < 2)
+			return -1;
 		
-		case 0x2B:
-			return DEPENDENT_PRIVILEGE_DESC_EXIST;
-			
-		case 0x2C:
-			return INVALID_CHARSET;
-			
-		case 0x2D:
-			return INVALID_TRANSACTION_TERMINATION;
-			
-		case 0x2E:
-			return INVALID_CONNECTION_NAME;
-			
-		case 0x33:
-			return INVALID_SQL_DESCRIPTOR_NAME;
-			
-		case 0x34:
-			return INVALID_CURSOR_NAME;
-			
-		case 0x35:
-			return INVALID_CONDITION_NUMBER;
-			
-		case 0x3D:
-			return INVALID_CATALOG_NAME;
-			
-		case 0x3C:
-			return AMBIGUOS_CURSOR_NAME;
+		int high = Character.digit(sqlState.charAt(0), RADIX);
+		int low  = Character.digit(sqlState.charAt(1), RADIX);
 		
-		case 0x3F:
-			return INVALID_SCHEMA_NAME;
-
-		default:
+		if (high < 0 || low < 0)
+			return -1;
+		
+		return high * RADIX + low;
+	}
+	
+	/** 
+	 * Get error type from a SQL state.
+	 * @return the error type, or null if sqlState == null or the class of given state is unknown
+	 */
+	public static SqlErrorType getInstance(String sqlState) {
+		int index = getClassIndex(sqlState);
+		return index < 0 ? null : CLASS_TABLE[index];
+	}
+	
+	/** 
+	 * Get error type from a SQLException.
+	 * @return the error type, or null if ex == null or its SQL state is missing or unknown
+	 */
+	public static SqlErrorType getInstance(SQLException ex) {
+		if (ex == null)
 			return null;
+		
+		return getInstance(ex.getSQLState());
+	}
+	
+	/**
+	 * Returns a boolean indicating if an error with given SQL state is transient (i.e. the same operation may succeed if retried).
+	 * Errors whose states are null or unknown are considered permanent.
+	 */
+	public static boolean isTransient(String sqlState) {
+		SqlErrorType type = getInstance(sqlState);
+		if (type == null)
+			return false;
+		
+		Boolean override = sqlState.length() == 5 ? TRANSIENCE_OVERRIDES.get(sqlState.toUpperCase()) : null;
+		return override != null ? override : type.isTransient();
+	}
+	
+	/**
+	 * Returns a boolean indicating if given error is transient (i.e. the same operation may succeed if retried).
+	 * An error is transient if it is a {@link SQLTransientException}, a {@link SQLRecoverableException}
+	 * or if it has a transient SQL state. Chained causes are also inspected.
+	 */
+	public static boolean isTransient(SQLException ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException)
+				return true;
+			
+			if (cause instanceof SQLException && isTransient(((SQLException) cause).getSQLState()))
+				return true;
 		}
+		
+		return false;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String  classCode;
+	private final boolean transientByDefault;
+	
+	private SqlErrorType(String classCode, boolean transientByDefault) {
+		this.classCode = classCode;
+		this.transientByDefault = transientByDefault;
+	}
+	
+	/** Returns the SQL state class (first two characters of SQL states) associated with this type. */
+	public String getClassCode() {
+		return classCode;
+	}
+	
+	/** Returns a boolean indicating if errors of this type are transient unless their subclasses state otherwise. */
+	public boolean isTransient() {
+		return transientByDefault;
 	}
-}
\ No newline at end of file
+	// =========================================================================
+}
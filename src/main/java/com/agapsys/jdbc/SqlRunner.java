@@ -16,30 +16,176 @@
 
 package com.agapsys.jdbc;
 
-import com.agapsys.jdbc.util.ResourceLoader;
 import com.agapsys.jdbc.util.ResourceLoader.ResourceNotFoundException;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * SQL script runner.
- * SQL statements shall be delimited by semicolons
- * Only '--' are supported for comments
+ * SQL statements shall be delimited by semicolons.
+ * Scripts are tokenized incrementally (see {@link SqlTokenizer}), so
+ * semicolons inside literals, comments and dollar-quoted bodies are
+ * handled properly and large scripts are processed in constant memory.
+ * By default, a script runs in a single transaction. Long scripts can commit
+ * periodically and be resumed after a failure (see {@link CommitPolicy}).
+ * Scripts can optionally be executed in batched mode: consecutive DML
+ * statements are sent to the database in batches of a given size
  * @author Leandro Oliveira (leandro@agapsys.com)
  */
 public class SqlRunner {
 	// CLASS SCOPE =============================================================
-	private static synchronized void run(Connection connection, InputStream sqlFileInputStream, Charset charset) throws SQLException, IOException {
+	private static volatile ScriptCache scriptCache = new ScriptCache();
+	
+	/** Verbs of the statements which can be sent in a batch. */
+	private static final Set<String> BATCHABLE_VERBS = new HashSet<>(Arrays.asList("INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE"));
+	
+	/** Verbs which may follow the common table expressions of a WITH clause. */
+	private static final Set<String> STATEMENT_VERBS = new HashSet<>(Arrays.asList("SELECT", "INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "VALUES", "TABLE"));
+	
+	/** Returns the cache used for scripts embedded in application JAR/WAR or null if cache is disabled. */
+	public static ScriptCache getScriptCache() {
+		return scriptCache;
+	}
+	
+	/** 
+	 * Sets the cache used for scripts embedded in application JAR/WAR. 
+	 * @param cache script cache (null disables cache)
+	 */
+	public static void setScriptCache(ScriptCache cache) {
+		scriptCache = cache;
+	}
+	
+	/**
+	 * Executes the statements of a script.
+	 * When batch size is greater than one, consecutive DML statements are
+	 * grouped through {@link Statement#addBatch(String)}. Any other statement
+	 * flushes the pending batch and is executed alone.
+	 */
+	private static class ScriptExecutor {
+		private final Statement stmt;
+		private final int batchSize;
+		private final List<int[]> batchResults = new LinkedList<>();
+		
+		private int pendingCount = 0;
+		
+		public ScriptExecutor(Statement stmt, int batchSize) {
+			this.stmt = stmt;
+			this.batchSize = batchSize;
+		}
+		
+		public void execute(String sql) throws SQLException {
+			if (batchSize > 1 && isBatchable(sql)) {
+				stmt.addBatch(sql);
+				pendingCount++;
+				
+				if (pendingCount >= batchSize)
+					flush();
+			} else {
+				flush();
+				stmt.execute(sql);
+			}
+		}
+		
+		public void flush() throws SQLException {
+			if (pendingCount == 0)
+				return;
+			
+			pendingCount = 0;
+			batchResults.add(stmt.executeBatch());
+		}
+		
+		/** Returns the update counts of each executed batch. */
+		public List<int[]> getBatchResults() {
+			return batchResults;
+		}
+	}
+	
+	/** 
+	 * Returns a boolean indicating if given statement can be sent in a batch.
+	 * Only DML statements which do not produce results are batchable. Comments and
+	 * literals are ignored, and statements starting with a WITH clause are classified
+	 * by the verb following their common table expressions.
+	 */
+	static boolean isBatchable(String sql) {
+		String shape = SqlShape.normalize(sql); // <-- Removes comments and replaces literals
+		int length = shape.length();
+		int depth = 0;
+		boolean withClause = false;
+		String verb = null;
+		int i = 0;
+		
+		while (i < length) {
+			char c = shape.charAt(i);
+			
+			if (c == '(') {
+				depth++;
+				i++;
+			} else if (c == ')') {
+				depth--;
+				i++;
+			} else if (c == '"' || c == '`') {
+				int end = shape.indexOf(c, i + 1);
+				i = end < 0 ? length : end + 1;
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = i;
+				while (i < length && (Character.isLetterOrDigit(shape.charAt(i)) || shape.charAt(i) == '_' || shape.charAt(i) == '$'))
+					i++;
+				
+				if (depth != 0)
+					continue;
+				
+				String word = shape.substring(start, i).toUpperCase(Locale.ENGLISH);
+				
+				if (start == 0) {
+					if (word.equals("WITH"))
+						withClause = true;
+					else
+						verb = word;
+				} else if (verb == null && withClause) {
+					if (STATEMENT_VERBS.contains(word))
+						verb = word;
+				} else if (word.equals("RETURNING")) {
+					return false;
+				}
+			} else {
+				i++;
+			}
+		}
+		
+		return verb != null && BATCHABLE_VERBS.contains(verb);
+	}
+	
+	private static boolean containsIgnoreCase(String str, String token) {
+		int last = str.length() - token.length();
+		for (int i = 0; i <= last; i++) {
+			if (str.regionMatches(true, i, token, 0, token.length()))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Runs the statements emitted by a tokenizer.
+	 * @param connection database connection
+	 * @param tokenizer script tokenizer
+	 * @param batchSize maximum number of statements per batch
+	 * @param commitPolicy commit policy (null for a single commit at the end of the script)
+	 * @param script executed script (its name is required only when commit policy uses a checkpoint store)
+	 * @param beforeLastCommit work executed within the last transaction of the script, just before its commit (may be null)
+	 */
+	private static List<int[]> run(Connection connection, SqlTokenizer tokenizer, int batchSize, CommitPolicy commitPolicy, SqlScript script, SqlWork<?> beforeLastCommit) throws SQLException, IOException {
 		// Check/adjust paramenters...
 		if (connection == null)
 			throw new IllegalArgumentException("Null connection");
@@ -47,49 +193,107 @@ public class SqlRunner {
 		if (connection.isClosed())
 			throw new SQLException("Connection is closed");
 		
-		if (charset == null)
-			throw new IllegalArgumentException("Missing charset");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+		
+		CheckpointStore checkpointStore = commitPolicy == null ? null : commitPolicy.getCheckpointStore();
+		String scriptName = script.getName();
+		
+		if (checkpointStore != null && (scriptName == null || scriptName.isEmpty()))
+			throw new IllegalArgumentException("Resumable executions require a script name");
+		
+		if (batchSize > 1 && !connection.getMetaData().supportsBatchUpdates())
+			batchSize = 1;
 		
 		boolean autoCommitWasEnabled = connection.getAutoCommit();
 		
 		if (autoCommitWasEnabled)
 			connection.setAutoCommit(false);
 		
+		long scriptChecksum = ScriptCheckpoint.UNKNOWN_CHECKSUM;
+		
+		if (checkpointStore != null) {
+			scriptChecksum = script.getChecksum();
+			ScriptCheckpoint checkpoint = checkpointStore.load(connection, scriptName);
+			
+			if (autoCommitWasEnabled)
+				connection.commit(); // <-- Otherwise, pending work of the caller would be committed
+			
+			if (checkpoint != null) {
+				if (!checkpoint.matches(scriptChecksum))
+					throw new IllegalStateException(String.format("Script '%s' has changed since its checkpoint was recorded (%s). Clear the checkpoint to run it again from the beginning", scriptName, checkpoint));
+				
+				tokenizer.seek(checkpoint.getOffset(), checkpoint.getStatementOrdinal());
+			}
+		}
+		
+		ScriptExecutor executor;
+		
 		// Let's go...
-		try (
-			Statement stmt = connection.createStatement(); 
-			BufferedReader reader = new BufferedReader(new InputStreamReader(sqlFileInputStream, charset));
-		) {
-			StringBuilder sb = new StringBuilder();
-			String line;
+		try (Statement stmt = connection.createStatement()) {
+			executor = new ScriptExecutor(stmt, batchSize);
+			long lastCommitCount  = tokenizer.getStatementCount();
+			long lastCommitOffset = tokenizer.getOffset();
+			String sql;
 			
-			while ((line = reader.readLine()) != null) {
-				line = line.trim();
-
-				if (line.startsWith("--") || line.length() == 0) {
-					// ignore
-				} else {
-					if (line.endsWith(";")) {
-						line = line.substring(0, line.length()- 1).trim();
-						sb.append(line); 
-						sb.append(" ");
-						stmt.execute(sb.toString().trim());
-						sb = new StringBuilder();
-					} else {
-						sb.append(line);
-						sb.append(" ");
-					}
+			while ((sql = tokenizer.next()) != null) {
+				executor.execute(sql);
+				
+				if (commitPolicy != null && commitPolicy.isCommitDue(tokenizer.getStatementCount() - lastCommitCount, tokenizer.getOffset() - lastCommitOffset)) {
+					executor.flush();
+					lastCommitCount  = tokenizer.getStatementCount();
+					lastCommitOffset = tokenizer.getOffset();
+					commit(connection, checkpointStore, scriptName, new ScriptCheckpoint(lastCommitCount, lastCommitOffset, scriptChecksum));
 				}
 			}
-
-			line = sb.toString().trim();
-			if (!line.isEmpty())
-				stmt.execute(line);
+			
+			executor.flush();
 		}
 		
-		connection.commit();
+		if (beforeLastCommit != null)
+			beforeLastCommit.execute(connection);
+		
+		commit(connection, checkpointStore, scriptName, null);
 		if (autoCommitWasEnabled)
 			connection.setAutoCommit(true);
+		
+		return executor.getBatchResults();
+	}
+	
+	/**
+	 * Commits current transaction recording given checkpoint.
+	 * @param checkpoint checkpoint to be recorded (null when script has finished)
+	 */
+	private static void commit(Connection connection, CheckpointStore checkpointStore, String scriptName, ScriptCheckpoint checkpoint) throws SQLException, IOException {
+		if (checkpointStore == null) {
+			connection.commit();
+			return;
+		}
+		
+		if (checkpointStore.isTransactional()) {
+			if (checkpoint == null)
+				checkpointStore.clear(connection, scriptName);
+			else
+				checkpointStore.save(connection, scriptName, checkpoint);
+			
+			connection.commit();
+		} else {
+			connection.commit();
+			
+			if (checkpoint == null)
+				checkpointStore.clear(connection, scriptName);
+			else
+				checkpointStore.save(connection, scriptName, checkpoint);
+		}
+	}
+	
+	/** Returns a boolean indicating if the database accepts backslash escapes inside string literals by default. */
+	static boolean usesBackslashEscapes(Connection connection) throws SQLException {
+		String product = connection.getMetaData().getDatabaseProductName();
+		if (product == null)
+			return false;
+		
+		return containsIgnoreCase(product, "MySQL") || containsIgnoreCase(product, "MariaDB");
 	}
 	
 	/**
@@ -103,11 +307,26 @@ public class SqlRunner {
 			throw new IllegalArgumentException("Null sql");
 		
 		
-		InputStream stream = new ByteArrayInputStream(sql.getBytes());
+		run(connection, sql, 1);
+	}
+	
+	/**
+	 * Runs a SQL script from a string sending consecutive DML statements in batches.
+	 * @param connection database connection
+	 * @param sql SQL script
+	 * @param batchSize maximum number of statements per batch
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 */
+	public static List<int[]> run(Connection connection, String sql, int batchSize) throws SQLException {
+		if (sql == null)
+			throw new IllegalArgumentException("Null sql");
+		
+		
 		try {
-			run(connection, stream, Charset.defaultCharset());
+			return run(connection, SqlScript.fromString(null, sql), batchSize, null);
 		} catch (IOException ex) {
-			throw new RuntimeException(ex);
+			throw new RuntimeException(ex); // <-- Never happens: script is read from memory
 		}
 	}
 	
@@ -122,9 +341,23 @@ public class SqlRunner {
 	 * @throws ResourceNotFoundException if given file was not found
 	 */
 	public static void run(Connection connection, String pkg, String sqlFilename, Charset charset) throws SQLException, IOException, ResourceNotFoundException {
-		try (InputStream in = ResourceLoader.getInputStream(pkg, sqlFilename)) {
-			run(connection, in, charset);
-		}
+		run(connection, pkg, sqlFilename, charset, 1);
+	}
+	
+	/**
+	 * Runs a SQL script from an embedded file sending consecutive DML statements in batches.
+	 * @param connection database connection
+	 * @param pkg package which contains the file
+	 * @param sqlFilename name of the embedded file
+	 * @param charset file charset
+	 * @param batchSize maximum number of statements per batch
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 * @throws IOException when there is an I/O error
+	 * @throws ResourceNotFoundException if given file was not found
+	 */
+	public static List<int[]> run(Connection connection, String pkg, String sqlFilename, Charset charset, int batchSize) throws SQLException, IOException, ResourceNotFoundException {
+		return run(connection, SqlScript.fromResource(pkg, sqlFilename, charset), batchSize, null);
 	}
 	
 	/**
@@ -137,12 +370,94 @@ public class SqlRunner {
 	 * @throws FileNotFoundException if given file was not found
 	 */
 	public static void run(Connection connection, File sqlFile, Charset charset) throws FileNotFoundException, SQLException, IOException {
+		run(connection, sqlFile, charset, 1);
+	}
+	
+	/**
+	 * Runs a SQL script from a disk file sending consecutive DML statements in batches.
+	 * @param connection database connection
+	 * @param sqlFile file to read
+	 * @param charset file charset
+	 * @param batchSize maximum number of statements per batch
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 * @throws IOException when there is an I/O error
+	 * @throws FileNotFoundException if given file was not found
+	 */
+	public static List<int[]> run(Connection connection, File sqlFile, Charset charset, int batchSize) throws FileNotFoundException, SQLException, IOException {
 		if (!sqlFile.exists())
 			throw new FileNotFoundException(String.format("File not found: %s", sqlFile.getAbsolutePath()));
 		
-		try (FileInputStream fis = new FileInputStream(sqlFile)) {
-			run(connection, fis, charset);
-		}	
+		return run(connection, SqlScript.fromFile(sqlFile, charset), batchSize, null);
+	}
+	
+	/**
+	 * Runs a SQL script committing its work according to given policy.
+	 * When the policy defines a checkpoint store, a checkpoint is recorded on each commit
+	 * and a new execution of a script which did not finish resumes from its last checkpoint.
+	 * If auto-commit is disabled, work left pending on the connection is committed along with the first commit of the script.
+	 * @param connection database connection
+	 * @param script script to be executed
+	 * @param batchSize maximum number of statements per batch (1 disables batching)
+	 * @param commitPolicy commit policy (null for a single commit at the end of the script)
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 * @throws IOException when there is an I/O error
+	 * @throws IllegalStateException if script contents do not match the checksum of its last checkpoint
+	 */
+	public static List<int[]> run(Connection connection, SqlScript script, int batchSize, CommitPolicy commitPolicy) throws SQLException, IOException {
+		return run(connection, script, batchSize, commitPolicy, null);
+	}
+	
+	/**
+	 * Runs a SQL script committing its work according to given policy and reporting the cost of each statement to given tracer.
+	 * Traces produced by the script are labeled with the script name.
+	 * @param connection database connection
+	 * @param script script to be executed
+	 * @param batchSize maximum number of statements per batch (1 disables batching)
+	 * @param commitPolicy commit policy (null for a single commit at the end of the script)
+	 * @param tracer statement tracer (null disables tracing). Execution time of a batch is split evenly among its statements.
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 * @throws IOException when there is an I/O error
+	 * @throws IllegalStateException if script contents do not match the checksum of its last checkpoint
+	 */
+	public static List<int[]> run(Connection connection, SqlScript script, int batchSize, CommitPolicy commitPolicy, StatementTracer tracer) throws SQLException, IOException {
+		if (script == null)
+			throw new IllegalArgumentException("Null script");
+		
+		if (connection == null)
+			throw new IllegalArgumentException("Null connection");
+		
+		if (tracer != null)
+			connection = tracer.wrap(connection, script.getName());
+		
+		try (SqlTokenizer tokenizer = script.openTokenizer(usesBackslashEscapes(connection))) {
+			return run(connection, tokenizer, batchSize, commitPolicy, script, null);
+		}
+	}
+	
+	/**
+	 * Runs a SQL script in a single transaction executing given work just before the commit.
+	 * Unless the database commits implicitly (e.g. on DDL statements), work and script are committed together.
+	 * @param connection database connection
+	 * @param script script to be executed
+	 * @param batchSize maximum number of statements per batch (1 disables batching)
+	 * @param beforeCommit work executed within script transaction
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script or executing the work
+	 * @throws IOException when there is an I/O error
+	 */
+	static List<int[]> runBeforeCommit(Connection connection, SqlScript script, int batchSize, SqlWork<?> beforeCommit) throws SQLException, IOException {
+		if (script == null)
+			throw new IllegalArgumentException("Null script");
+		
+		if (connection == null)
+			throw new IllegalArgumentException("Null connection");
+		
+		try (SqlTokenizer tokenizer = script.openTokenizer(usesBackslashEscapes(connection))) {
+			return run(connection, tokenizer, batchSize, null, script, beforeCommit);
+		}
 	}
 	// =========================================================================
 	
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import com.agapsys.jdbc.util.ResourceLoader;
+import com.agapsys.jdbc.util.ResourceLoader.ResourceNotFoundException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * SQL script which can be executed by {@link SqlRunner}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public abstract class SqlScript {
+	// CLASS SCOPE =============================================================
+	private static long getChecksum(InputStream in) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		
+		try (InputStream stream = in) {
+			int read;
+			while ((read = stream.read(buffer)) != -1)
+				crc.update(buffer, 0, read);
+		}
+		
+		return crc.getValue();
+	}
+	
+	/**
+	 * Returns a script defined by a string.
+	 * @param name script name (used for reporting and checkpoints)
+	 * @param sql SQL script
+	 * @throws IllegalArgumentException if sql == null
+	 */
+	public static SqlScript fromString(String name, final String sql) throws IllegalArgumentException {
+		if (sql == null)
+			throw new IllegalArgumentException("Null sql");
+		
+		return new SqlScript(name) {
+			@Override
+			public SqlTokenizer openTokenizer(boolean backslashEscapes) {
+				SqlTokenizer tokenizer = SqlTokenizer.forString(sql);
+				tokenizer.setBackslashEscapes(backslashEscapes);
+				return tokenizer;
+			}
+
+			@Override
+			public long getChecksum() {
+				CRC32 crc = new CRC32();
+				crc.update(sql.getBytes(StandardCharsets.UTF_8));
+				return crc.getValue();
+			}
+		};
+	}
+	
+	/**
+	 * Returns a script stored in an embedded file.
+	 * If {@link SqlRunner#getScriptCache() script cache} is enabled, tokenized script will be cached.
+	 * @param pkg package which contains the file
+	 * @param sqlFilename name of the embedded file
+	 * @param charset file charset
+	 * @throws IllegalArgumentException if charset == null
+	 */
+	public static SqlScript fromResource(final String pkg, final String sqlFilename, final Charset charset) throws IllegalArgumentException {
+		if (charset == null)
+			throw new IllegalArgumentException("Missing charset");
+		
+		String name = (pkg == null || pkg.isEmpty() ? "" : pkg + ".") + sqlFilename;
+		
+		return new SqlScript(name) {
+			@Override
+			public SqlTokenizer openTokenizer(boolean backslashEscapes) throws IOException, ResourceNotFoundException {
+				ScriptCache cache = SqlRunner.getScriptCache();
+				if (cache != null)
+					return cache.openTokenizer(pkg, sqlFilename, charset, backslashEscapes);
+				
+				SqlTokenizer tokenizer = SqlTokenizer.forReader(new InputStreamReader(ResourceLoader.getInputStream(pkg, sqlFilename), charset));
+				tokenizer.setBackslashEscapes(backslashEscapes);
+				return tokenizer;
+			}
+
+			@Override
+			public long getChecksum() throws IOException, ResourceNotFoundException {
+				return SqlScript.getChecksum(ResourceLoader.getInputStream(pkg, sqlFilename));
+			}
+		};
+	}
+	
+	/**
+	 * Returns a script stored in a disk file.
+	 * @param sqlFile script file
+	 * @param charset file charset
+	 * @throws IllegalArgumentException if sqlFile == null || charset == null
+	 */
+	public static SqlScript fromFile(final File sqlFile, final Charset charset) throws IllegalArgumentException {
+		if (sqlFile == null)
+			throw new IllegalArgumentException("Null sqlFile");
+		
+		if (charset == null)
+			throw new IllegalArgumentException("Missing charset");
+		
+		return new SqlScript(sqlFile.getPath()) {
+			@Override
+			public SqlTokenizer openTokenizer(boolean backslashEscapes) throws FileNotFoundException, IOException {
+				if (!sqlFile.exists())
+					throw new FileNotFoundException(String.format("File not found: %s", sqlFile.getAbsolutePath()));
+				
+				SqlTokenizer tokenizer = SqlTokenizer.forChannel(new FileInputStream(sqlFile).getChannel(), charset);
+				tokenizer.setBackslashEscapes(backslashEscapes);
+				return tokenizer;
+			}
+
+			@Override
+			public long getChecksum() throws FileNotFoundException, IOException {
+				return SqlScript.getChecksum(new FileInputStream(sqlFile));
+			}
+		};
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String name;
+	
+	protected SqlScript(String name) {
+		this.name = name;
+	}
+	
+	/** Returns script name. */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns a tokenizer positioned at the beginning of this script.
+	 * @param backslashEscapes defines if backslash escapes quotes inside string literals (see {@link SqlTokenizer#setBackslashEscapes(boolean)})
+	 * @throws IOException when there is an I/O error
+	 */
+	public abstract SqlTokenizer openTokenizer(boolean backslashEscapes) throws IOException;
+	
+	/**
+	 * Returns a checksum of script contents used to detect scripts changed between a
+	 * checkpoint and its resumption. Default implementation returns
+	 * {@link ScriptCheckpoint#UNKNOWN_CHECKSUM} (checkpoints are not verified).
+	 * @throws IOException when there is an I/O error
+	 */
+	public long getChecksum() throws IOException {
+		return ScriptCheckpoint.UNKNOWN_CHECKSUM;
+	}
+	
+	/**
+	 * Runs this script.
+	 * @param connection database connection
+	 * @param batchSize maximum number of statements per batch (1 disables batching)
+	 * @return update counts of each executed batch
+	 * @throws SQLException when there is error while processing script
+	 * @throws IOException when there is an I/O error
+	 */
+	public List<int[]> run(Connection connection, int batchSize) throws SQLException, IOException {
+		return SqlRunner.run(connection, this, batchSize, null);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+	// =========================================================================
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes SQL statements into shapes: literals are replaced by
+ * placeholders, comments are removed and whitespace is collapsed, so that
+ * executions of the same statement with different values are aggregated
+ * together.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class SqlShape {
+	// CLASS SCOPE =============================================================
+	private static final Pattern VALUE_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+	
+	private static boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+	
+	/**
+	 * Returns the shape of given statement.
+	 * Lists of placeholders (e.g. {@code IN (1, 2, 3)}) are collapsed into
+	 * {@code ?, ...}.
+	 */
+	public static String normalize(String sql) {
+		if (sql == null)
+			return null;
+		
+		int length = sql.length();
+		StringBuilder sb = new StringBuilder(length);
+		boolean pendingSpace = false;
+		int i = 0;
+		
+		while (i < length) {
+			char c = sql.charAt(i);
+			char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+			
+			if (Character.isWhitespace(c)) {
+				pendingSpace = sb.length() > 0;
+				i++;
+				continue;
+			}
+			
+			if (c == '-' && next == '-') {
+				while (i < length && sql.charAt(i) != '\n')
+					i++;
+				
+				pendingSpace = sb.length() > 0;
+				continue;
+			}
+			
+			if (c == '/' && next == '*') {
+				int end = sql.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+				pendingSpace = sb.length() > 0;
+				continue;
+			}
+			
+			if (pendingSpace) {
+				sb.append(' ');
+				pendingSpace = false;
+			}
+			
+			if (c == '\'') {
+				i++;
+				while (i < length) {
+					char d = sql.charAt(i++);
+					if (d == '\\') {
+						i++;
+					} else if (d == '\'') {
+						if (i < length && sql.charAt(i) == '\'') {
+							i++;
+						} else {
+							break;
+						}
+					}
+				}
+				
+				sb.append('?');
+				continue;
+			}
+			
+			if (c == '"' || c == '`') {
+				int end = sql.indexOf(c, i + 1);
+				end = end < 0 ? length : end + 1;
+				sb.append(sql, i, end);
+				i = end;
+				continue;
+			}
+			
+			if (Character.isDigit(c) && (sb.length() == 0 || !isIdentifierChar(sb.charAt(sb.length() - 1)))) {
+				while (i < length && (isIdentifierChar(sql.charAt(i)) || sql.charAt(i) == '.'))
+					i++;
+				
+				sb.append('?');
+				continue;
+			}
+			
+			sb.append(c);
+			i++;
+		}
+		
+		return VALUE_LIST.matcher(sb).replaceAll("?, ...");
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private SqlShape() {} // <-- Instances cannot be created outside class scope
+	// =========================================================================
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the names of the tables referenced by SQL statements.
+ * Names are unqualified (schema and catalog are dropped), unquoted and
+ * upper-cased (including quoted names). Extraction is lexical: it is meant for cache invalidation,
+ * where over-matching is harmless.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+class SqlTables {
+	// CLASS SCOPE =============================================================
+	private static final Pattern TOKEN = Pattern.compile("\"[^\"]*\"|`[^`]*`|\\[[^\\]]*\\]|[\\p{L}_$][\\p{L}\\p{N}_$]*|[(),.;]");
+	
+	/** Keywords which may follow a table reference (and therefore are not aliases). */
+	private static final Set<String> CLAUSE_KEYWORDS = new HashSet<>(Arrays.asList(
+		"WHERE", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "FOR", "UNION", "INTERSECT", "EXCEPT", "MINUS",
+		"JOIN", "INNER", "LEFT", "RIGHT", "FULL", "OUTER", "CROSS", "NATURAL", "ON", "USING", "WINDOW", "SET", "VALUES",
+		"SELECT", "WITH", "RETURNING", "AS"
+	));
+	
+	/** Modifiers which may precede the table written by a statement (e.g. MySQL's {@code INSERT IGNORE} and PostgreSQL's {@code UPDATE ONLY}). */
+	private static final Set<String> WRITE_MODIFIERS = new HashSet<>(Arrays.asList(
+		"LOW_PRIORITY", "HIGH_PRIORITY", "DELAYED", "IGNORE", "QUICK", "ONLY"
+	));
+	
+	/** Tokens which may follow the table (and its alias) of a single-table DELETE. */
+	private static final Set<String> DELETE_FOLLOWERS = new HashSet<>(Arrays.asList(
+		"WHERE", "USING", "RETURNING", "ORDER", "LIMIT", ";"
+	));
+	
+	private static List<String> tokenize(String sql) {
+		List<String> tokens = new ArrayList<>();
+		Matcher matcher = TOKEN.matcher(SqlShape.normalize(sql));
+		
+		while (matcher.find())
+			tokens.add(matcher.group());
+		
+		return tokens;
+	}
+	
+	private static boolean isIdentifier(String token) {
+		char c = token.charAt(0);
+		return c == '"' || c == '`' || c == '[' || Character.isLetter(c) || c == '_' || c == '$';
+	}
+	
+	private static String unquote(String identifier) {
+		char c = identifier.charAt(0);
+		
+		if (c == '"' || c == '`' || c == '[')
+			identifier = identifier.substring(1, identifier.length() - 1);
+		
+		return identifier.toUpperCase(Locale.ENGLISH); // <-- Quoted names are also upper-cased: over-matching is harmless
+	}
+	
+	/**
+	 * Reads a (possibly qualified) table name starting at given token index.
+	 * @return index of the first token after the name, or -1 if there is no name at given index
+	 */
+	private static int readName(List<String> tokens, int index, Set<String> names) {
+		if (index >= tokens.size() || !isIdentifier(tokens.get(index)))
+			return -1;
+		
+		String name = tokens.get(index++);
+		
+		while (index + 1 < tokens.size() && tokens.get(index).equals(".") && isIdentifier(tokens.get(index + 1))) {
+			name = tokens.get(index + 1);
+			index += 2;
+		}
+		
+		names.add(unquote(name));
+		return index;
+	}
+	
+	/** Returns the index of the first token after the alias (if any) starting at given index. */
+	private static int skipAlias(List<String> tokens, int index) {
+		if (index < tokens.size() && tokens.get(index).equalsIgnoreCase("AS"))
+			index++;
+		
+		if (index < tokens.size() && isIdentifier(tokens.get(index)) && !CLAUSE_KEYWORDS.contains(tokens.get(index).toUpperCase(Locale.ENGLISH)))
+			index++;
+		
+		return index;
+	}
+	
+	/** Returns the index of the first token after the write modifiers (if any) starting at given index. */
+	private static int skipModifiers(List<String> tokens, int index) {
+		while (index < tokens.size() && WRITE_MODIFIERS.contains(tokens.get(index).toUpperCase(Locale.ENGLISH)))
+			index++;
+		
+		return index;
+	}
+	
+	private static boolean isToken(List<String> tokens, int index, String keyword) {
+		return index < tokens.size() && tokens.get(index).equalsIgnoreCase(keyword);
+	}
+	
+	/** Returns the index of the first token after the parenthesized expression starting at given index. */
+	private static int skipParentheses(List<String> tokens, int index) {
+		int depth = 0;
+		
+		do {
+			String token = tokens.get(index++);
+			
+			if (token.equals("(")) {
+				depth++;
+			} else if (token.equals(")")) {
+				depth--;
+			}
+		} while (depth > 0 && index < tokens.size());
+		
+		return index;
+	}
+	
+	/** Returns the names of the tables read by given statement (referenced by FROM and JOIN clauses). */
+	public static Set<String> getReadTables(String sql) {
+		if (sql == null)
+			return Collections.emptySet();
+		
+		List<String> tokens = tokenize(sql);
+		Set<String> tables = new LinkedHashSet<>();
+		
+		for (int i = 0; i < tokens.size(); i++) {
+			String keyword = tokens.get(i).toUpperCase(Locale.ENGLISH);
+			
+			if (keyword.equals("JOIN")) {
+				readName(tokens, i + 1, tables);
+			} else if (keyword.equals("FROM")) {
+				int index = i + 1;
+				
+				while (index < tokens.size()) {
+					if (tokens.get(index).equals("(")) {
+						index = skipParentheses(tokens, index); // <-- Tables of subqueries are found by the outer loop
+					} else if ((index = readName(tokens, index, tables)) < 0) {
+						break;
+					}
+					
+					index = skipAlias(tokens, index);
+					
+					if (index >= tokens.size() || !tokens.get(index).equals(","))
+						break;
+					
+					index++;
+				}
+			}
+		}
+		
+		return tables;
+	}
+	
+	/** 
+	 * Returns the name of the table written by given statement (INSERT, UPDATE, DELETE, MERGE, REPLACE, UPSERT or TRUNCATE), or null if it could not be determined.
+	 * Statements which may write more than one table (e.g. multi-table UPDATE/DELETE and Oracle's {@code INSERT ALL}) and statements which are not understood also return null,
+	 * since callers shall treat null as "any table".
+	 */
+	public static String getWrittenTable(String sql) {
+		if (sql == null)
+			return null;
+		
+		List<String> tokens = tokenize(sql);
+		if (tokens.isEmpty())
+			return null;
+		
+		String verb = tokens.get(0).toUpperCase(Locale.ENGLISH);
+		int index = skipModifiers(tokens, 1);
+		
+		switch (verb) {
+		case "UPDATE":
+			break;
+			
+		case "INSERT":
+		case "REPLACE":
+			if (isToken(tokens, index, "ALL") || isToken(tokens, index, "FIRST"))
+				return null; // <-- Multi-table insert
+			
+			if (isToken(tokens, index, "INTO"))
+				index++;
+			
+			break;
+			
+		case "MERGE":
+		case "UPSERT":
+			if (isToken(tokens, index, "INTO"))
+				index++;
+			
+			break;
+			
+		case "DELETE":
+			if (!isToken(tokens, index, "FROM"))
+				return null; // <-- Multi-table delete (e.g. "DELETE t1, t2 FROM ...")
+			
+			index = skipModifiers(tokens, index + 1);
+			break;
+			
+		case "TRUNCATE":
+			if (isToken(tokens, index, "TABLE"))
+				index++;
+			
+			index = skipModifiers(tokens, index);
+			break;
+			
+		default:
+			return null;
+		}
+		
+		Set<String> names = new HashSet<>(1);
+		int end = readName(tokens, index, names);
+		if (end < 0)
+			return null;
+		
+		// Rejects statements which write other tables...
+		switch (verb) {
+		case "UPDATE":
+			end = skipAlias(tokens, end);
+			if (!isToken(tokens, end, "SET"))
+				return null; // <-- e.g. "UPDATE t1, t2 SET ..." or "UPDATE t1 JOIN t2 ..."
+			
+			break;
+			
+		case "DELETE":
+			end = skipAlias(tokens, end);
+			if (end < tokens.size() && !DELETE_FOLLOWERS.contains(tokens.get(end).toUpperCase(Locale.ENGLISH)))
+				return null; // <-- e.g. "DELETE FROM t1, t2 USING ..."
+			
+			break;
+			
+		case "TRUNCATE":
+			if (isToken(tokens, end, ","))
+				return null;
+			
+			break;
+		}
+		
+		return names.iterator().next();
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private SqlTables() {} // <-- Instances cannot be created outside class scope
+	// =========================================================================
+}
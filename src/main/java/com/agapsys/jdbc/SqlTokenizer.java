@@ -0,0 +1,602 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Streaming SQL script tokenizer.
+ * Statements are delimited by semicolons and are emitted one at a time, so
+ * memory usage does not depend on script size. Semicolons inside string
+ * literals, quoted identifiers, comments and dollar-quoted bodies do not
+ * terminate a statement. Line comments ('--') are removed from the emitted
+ * statements, block comments are kept (they may carry optimizer hints).
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public abstract class SqlTokenizer implements Closeable {
+	// CLASS SCOPE =============================================================
+	private static final int CHAR_BUFFER_SIZE   = 64 * 1024;
+	private static final int MAPPED_WINDOW_SIZE = 32 * 1024 * 1024;
+	
+	private static enum State {
+		NORMAL,
+		MAYBE_LINE_COMMENT,
+		LINE_COMMENT,
+		MAYBE_BLOCK_COMMENT,
+		BLOCK_COMMENT,
+		MAYBE_BLOCK_COMMENT_END,
+		SINGLE_QUOTE,
+		ESCAPE_QUOTE,
+		ESCAPED_CHAR,
+		DOUBLE_QUOTE,
+		BACK_QUOTE,
+		DOLLAR_TAG_OPEN,
+		DOLLAR_BODY,
+		DOLLAR_TAG_CLOSE
+	}
+	
+	/** Returns an empty buffer (in read mode) to be filled by the tokenizer. */
+	private static CharBuffer emptyBuffer() {
+		CharBuffer buffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/** Tokenizer which reads directly from a character sequence. */
+	private static class CharSequenceTokenizer extends SqlTokenizer {
+		public CharSequenceTokenizer(CharSequence sql) {
+			super(CharBuffer.wrap(sql));
+		}
+
+		@Override
+		protected boolean fill(CharBuffer buffer) {
+			return false;
+		}
+
+		@Override
+		public void close() {}
+	}
+	
+	/** Tokenizer which emits already tokenized statements. */
+	private static class StatementArrayTokenizer extends SqlTokenizer {
+		private final String[] statements;
+		private final long[]   endOffsets;
+		
+		private int index = 0;
+		
+		public StatementArrayTokenizer(String[] statements, long[] endOffsets) {
+			super(CharBuffer.allocate(0));
+			this.statements = statements;
+			this.endOffsets = endOffsets;
+		}
+
+		@Override
+		protected boolean fill(CharBuffer buffer) {
+			return false;
+		}
+
+		@Override
+		public String next() {
+			return index < statements.length ? statements[index++] : null;
+		}
+
+		@Override
+		public long getStatementCount() {
+			return index;
+		}
+
+		@Override
+		public long getOffset() {
+			return index == 0 ? 0 : endOffsets[index - 1];
+		}
+
+		@Override
+		public void seek(long offset, long statementCount) throws IllegalStateException, IllegalArgumentException {
+			if (index != 0)
+				throw new IllegalStateException("Statements were already read");
+			
+			if (statementCount < 0 || statementCount > statements.length || (statementCount > 0 && endOffsets[(int) statementCount - 1] != offset))
+				throw new IllegalArgumentException("Invalid position: " + offset + "/" + statementCount);
+			
+			index = (int) statementCount;
+		}
+
+		@Override
+		public void close() {}
+	}
+	
+	/** Tokenizer which reads from a {@linkplain Reader}. */
+	private static class ReaderTokenizer extends SqlTokenizer {
+		private final Reader reader;
+		
+		public ReaderTokenizer(Reader reader) {
+			super(emptyBuffer());
+			this.reader = reader;
+		}
+
+		@Override
+		protected boolean fill(CharBuffer buffer) throws IOException {
+			return reader.read(buffer) >= 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+	
+	/** 
+	 * Tokenizer which reads from a memory-mapped file.
+	 * File is mapped in successive windows, so files bigger than 2 GB are supported.
+	 */
+	private static class MappedFileTokenizer extends SqlTokenizer {
+		private final FileChannel    channel;
+		private final CharsetDecoder decoder;
+		private final long           size;
+		private final boolean        singleByte;
+		
+		private long       windowStart = 0;
+		private ByteBuffer window      = null;
+		
+		public MappedFileTokenizer(FileChannel channel, Charset charset) throws IOException {
+			super(emptyBuffer());
+			this.channel = channel;
+			this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.size = channel.size();
+			this.singleByte = charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f;
+		}
+
+		@Override
+		protected boolean seekDirect(long offset) {
+			if (!singleByte)
+				return false;
+			
+			windowStart = Math.min(offset, size);
+			window = null;
+			return true;
+		}
+
+		@Override
+		protected boolean fill(CharBuffer buffer) throws IOException {
+			if (windowStart >= size) {
+				if (size > 0)
+					decoder.flush(buffer);
+				
+				return buffer.position() > 0;
+			}
+			
+			while (buffer.hasRemaining() && windowStart < size) {
+				if (window == null)
+					window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAPPED_WINDOW_SIZE, size - windowStart));
+				
+				boolean lastWindow = windowStart + window.limit() >= size;
+				CoderResult result = decoder.decode(window, buffer, lastWindow);
+				
+				if (result.isError())
+					result.throwException();
+				
+				if (result.isOverflow())
+					break;
+				
+				// Window was consumed (except, maybe, a partial character at its end which will be remapped)
+				windowStart = lastWindow ? size : windowStart + window.position();
+				window = null;
+			}
+			
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Returns a tokenizer which reads statements directly from given string (no copies are made).
+	 * @param sql SQL script
+	 * @throws IllegalArgumentException if sql == null
+	 */
+	public static SqlTokenizer forString(CharSequence sql) throws IllegalArgumentException {
+		if (sql == null)
+			throw new IllegalArgumentException("Null sql");
+		
+		return new CharSequenceTokenizer(sql);
+	}
+	
+	/**
+	 * Returns a tokenizer which emits already tokenized statements.
+	 * @param statements statements
+	 * @param endOffsets character offset just after each statement in the original script
+	 */
+	static SqlTokenizer forStatements(String[] statements, long[] endOffsets) {
+		return new StatementArrayTokenizer(statements, endOffsets);
+	}
+	
+	/**
+	 * Returns a tokenizer which reads statements from given reader.
+	 * Closing the tokenizer closes the reader.
+	 * @param reader script reader
+	 * @throws IllegalArgumentException if reader == null
+	 */
+	public static SqlTokenizer forReader(Reader reader) throws IllegalArgumentException {
+		if (reader == null)
+			throw new IllegalArgumentException("Null reader");
+		
+		return new ReaderTokenizer(reader);
+	}
+	
+	/**
+	 * Returns a tokenizer which reads statements from a memory-mapped file.
+	 * Closing the tokenizer closes the channel.
+	 * @param channel file channel
+	 * @param charset file charset
+	 * @throws IOException if there was an I/O error
+	 * @throws IllegalArgumentException if channel == null || charset == null
+	 */
+	public static SqlTokenizer forChannel(FileChannel channel, Charset charset) throws IOException, IllegalArgumentException {
+		if (channel == null)
+			throw new IllegalArgumentException("Null channel");
+		
+		if (charset == null)
+			throw new IllegalArgumentException("Missing charset");
+		
+		return new MappedFileTokenizer(channel, charset);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final CharBuffer    buffer;
+	private final StringBuilder statement = new StringBuilder();
+	private final StringBuilder dollarTag = new StringBuilder();
+	
+	private State   state = State.NORMAL;
+	private int     dollarTagMatch;
+	private boolean backslashEscapes = false;
+	private boolean eof = false;
+	private long    statementCount = 0;
+	private long    chunkOffset = 0;
+	private long    offset = 0;
+	
+	/**
+	 * Constructor.
+	 * @param buffer buffer (in read mode) holding the initial contents of the script
+	 */
+	private SqlTokenizer(CharBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * Reads more characters into given buffer.
+	 * @param buffer buffer in write mode
+	 * @return false if end of input was reached.
+	 * @throws IOException if there was an I/O error
+	 */
+	protected abstract boolean fill(CharBuffer buffer) throws IOException;
+	
+	/**
+	 * Moves the underlying source to given character offset without reading it.
+	 * @param offset character offset
+	 * @return false if source does not support direct positioning.
+	 * @throws IOException if there was an I/O error
+	 */
+	protected boolean seekDirect(long offset) throws IOException {
+		return false;
+	}
+	
+	/**
+	 * Defines if backslash escapes quotes inside string literals (e.g. MySQL default behaviour).
+	 * Regardless of this setting, PostgreSQL escape strings (E'...') always accept backslash escapes.
+	 */
+	public void setBackslashEscapes(boolean backslashEscapes) {
+		this.backslashEscapes = backslashEscapes;
+	}
+	
+	/** Returns the number of statements emitted so far. */
+	public long getStatementCount() {
+		return statementCount;
+	}
+	
+	/** Returns the character offset just after the last emitted statement. */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Skips the beginning of the script, resuming the tokenization from a previously obtained position.
+	 * Skipped characters are not tokenized. This method must be called before any statement is read.
+	 * @param offset character offset (see {@link SqlTokenizer#getOffset()})
+	 * @param statementCount number of statements contained in skipped characters (see {@link SqlTokenizer#getStatementCount()})
+	 * @throws IOException if there was an I/O error
+	 * @throws IllegalStateException if statements were already read
+	 * @throws IllegalArgumentException if offset &lt; 0 || statementCount &lt; 0
+	 */
+	public void seek(long offset, long statementCount) throws IOException, IllegalStateException, IllegalArgumentException {
+		if (this.offset != 0 || this.statementCount != 0 || statement.length() > 0 || state != State.NORMAL)
+			throw new IllegalStateException("Statements were already read");
+		
+		if (offset < 0 || statementCount < 0)
+			throw new IllegalArgumentException("Invalid position: " + offset + "/" + statementCount);
+		
+		if (!buffer.hasRemaining() && chunkOffset == 0 && seekDirect(offset)) {
+			chunkOffset = offset;
+		} else {
+			long remaining = offset;
+			while (remaining > 0 && (buffer.hasRemaining() || nextChunk())) {
+				int skip = (int) Math.min(remaining, buffer.remaining());
+				buffer.position(buffer.position() + skip);
+				remaining -= skip;
+			}
+		}
+		
+		this.offset = offset;
+		this.statementCount = statementCount;
+	}
+	
+	private boolean nextChunk() throws IOException {
+		if (eof)
+			return false;
+		
+		chunkOffset += buffer.limit();
+		buffer.clear();
+		do {
+			if (!fill(buffer)) {
+				eof = true;
+				break;
+			}
+		} while (buffer.position() == 0);
+		buffer.flip();
+		
+		return buffer.hasRemaining();
+	}
+	
+	/** Returns a boolean indicating if a quote being opened starts a PostgreSQL escape string (E'...'). */
+	private boolean isEscapeStringStart() {
+		int len = statement.length();
+		if (len == 0)
+			return false;
+		
+		char prev = statement.charAt(len - 1);
+		if (prev != 'E' && prev != 'e')
+			return false;
+		
+		return len == 1 || !Character.isJavaIdentifierPart(statement.charAt(len - 2));
+	}
+	
+	private String emit() {
+		int len = statement.length();
+		while (len > 0 && Character.isWhitespace(statement.charAt(len - 1)))
+			len--;
+		
+		if (len == 0) {
+			statement.setLength(0);
+			return null;
+		}
+		
+		statement.setLength(len);
+		String sql = statement.toString();
+		statement.setLength(0);
+		statementCount++;
+		offset = chunkOffset + buffer.position();
+		return sql;
+	}
+	
+	/**
+	 * Returns next statement (without the trailing semicolon) or null if there are no more statements.
+	 * @throws IOException if there was an I/O error
+	 */
+	public String next() throws IOException {
+		while (true) {
+			if (!buffer.hasRemaining() && !nextChunk()) {
+				// End of input...
+				switch (state) {
+				case MAYBE_LINE_COMMENT:
+					statement.append('-');
+					break;
+					
+				case MAYBE_BLOCK_COMMENT:
+					statement.append('/');
+					break;
+					
+				case DOLLAR_TAG_OPEN:
+					statement.append('$').append(dollarTag);
+					break;
+					
+				default:
+					break;
+				}
+				
+				state = State.NORMAL;
+				return emit();
+			}
+			
+			char c = buffer.get();
+			
+			switch (state) {
+			case NORMAL:
+				switch (c) {
+				case ';':
+					String sql = emit();
+					if (sql != null)
+						return sql;
+					
+					break;
+					
+				case '-':
+					state = State.MAYBE_LINE_COMMENT;
+					break;
+					
+				case '/':
+					state = State.MAYBE_BLOCK_COMMENT;
+					break;
+					
+				case '\'':
+					state = (backslashEscapes || isEscapeStringStart()) ? State.ESCAPE_QUOTE : State.SINGLE_QUOTE;
+					statement.append(c);
+					break;
+					
+				case '"':
+					state = State.DOUBLE_QUOTE;
+					statement.append(c);
+					break;
+					
+				case '`':
+					state = State.BACK_QUOTE;
+					statement.append(c);
+					break;
+					
+				case '$':
+					int len = statement.length();
+					if (len > 0 && Character.isJavaIdentifierPart(statement.charAt(len - 1))) {
+						statement.append(c); // <-- '$' inside an identifier
+					} else {
+						dollarTag.setLength(0);
+						state = State.DOLLAR_TAG_OPEN;
+					}
+					break;
+					
+				default:
+					if (statement.length() > 0 || !Character.isWhitespace(c))
+						statement.append(c);
+				}
+				break;
+				
+			case MAYBE_LINE_COMMENT:
+				if (c == '-') {
+					state = State.LINE_COMMENT;
+				} else {
+					statement.append('-');
+					state = State.NORMAL;
+					buffer.position(buffer.position() - 1); // <-- reprocess current char
+				}
+				break;
+				
+			case LINE_COMMENT:
+				if (c == '\n') {
+					if (statement.length() > 0)
+						statement.append(c);
+					
+					state = State.NORMAL;
+				}
+				break;
+				
+			case MAYBE_BLOCK_COMMENT:
+				if (c == '*') {
+					statement.append("/*");
+					state = State.BLOCK_COMMENT;
+				} else {
+					statement.append('/');
+					state = State.NORMAL;
+					buffer.position(buffer.position() - 1); // <-- reprocess current char
+				}
+				break;
+				
+			case BLOCK_COMMENT:
+				statement.append(c);
+				if (c == '*')
+					state = State.MAYBE_BLOCK_COMMENT_END;
+				break;
+				
+			case MAYBE_BLOCK_COMMENT_END:
+				statement.append(c);
+				if (c == '/')
+					state = State.NORMAL;
+				else if (c != '*')
+					state = State.BLOCK_COMMENT;
+				break;
+				
+			case SINGLE_QUOTE:
+				statement.append(c);
+				if (c == '\'')
+					state = State.NORMAL; // <-- '' escapes are handled as two adjacent literals
+				break;
+				
+			case ESCAPE_QUOTE:
+				statement.append(c);
+				if (c == '\'')
+					state = State.NORMAL;
+				else if (c == '\\')
+					state = State.ESCAPED_CHAR;
+				break;
+				
+			case ESCAPED_CHAR:
+				statement.append(c);
+				state = State.ESCAPE_QUOTE;
+				break;
+				
+			case DOUBLE_QUOTE:
+				statement.append(c);
+				if (c == '"')
+					state = State.NORMAL;
+				break;
+				
+			case BACK_QUOTE:
+				statement.append(c);
+				if (c == '`')
+					state = State.NORMAL;
+				break;
+				
+			case DOLLAR_TAG_OPEN:
+				if (c == '$') {
+					statement.append('$').append(dollarTag).append('$');
+					state = State.DOLLAR_BODY;
+				} else if (Character.isLetter(c) || c == '_' || (dollarTag.length() > 0 && Character.isDigit(c))) {
+					dollarTag.append(c);
+				} else {
+					// Not a dollar quote (e.g. a positional parameter like '$1')
+					statement.append('$').append(dollarTag);
+					state = State.NORMAL;
+					buffer.position(buffer.position() - 1); // <-- reprocess current char
+				}
+				break;
+				
+			case DOLLAR_BODY:
+				statement.append(c);
+				if (c == '$') {
+					dollarTagMatch = 0;
+					state = State.DOLLAR_TAG_CLOSE;
+				}
+				break;
+				
+			case DOLLAR_TAG_CLOSE:
+				statement.append(c);
+				if (dollarTagMatch == dollarTag.length() && c == '$')
+					state = State.NORMAL;
+				else if (dollarTagMatch < dollarTag.length() && c == dollarTag.charAt(dollarTagMatch))
+					dollarTagMatch++;
+				else if (c == '$')
+					dollarTagMatch = 0; // <-- this '$' may start the closing tag
+				else
+					state = State.DOLLAR_BODY;
+				break;
+			}
+		}
+	}
+	// =========================================================================
+}
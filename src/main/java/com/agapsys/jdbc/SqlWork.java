@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Unit of work executed over a connection.
+ * @param <T> result type
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface SqlWork<T> {
+	/**
+	 * Executes the work.
+	 * The work may be executed more than once (e.g. when retried), so it shall not have side effects outside the database.
+	 * @param connection connection used by the work. Connection is managed by the caller and shall not be closed.
+	 * @return the result of the work
+	 * @throws SQLException if there is an error executing the work
+	 */
+	public T execute(Connection connection) throws SQLException;
+}
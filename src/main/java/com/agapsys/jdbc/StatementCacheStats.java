@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statement cache counters of a connection pool.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StatementCacheStats {
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong misses   = new AtomicLong();
+	
+	void countRequest() {
+		requests.incrementAndGet();
+	}
+	
+	void countMiss() {
+		misses.incrementAndGet();
+	}
+	
+	/** Returns the number of prepared statements served from the cache. */
+	public long getHits() {
+		return Math.max(0, requests.get() - misses.get());
+	}
+	
+	/** Returns the number of prepared statements which had to be prepared by the database. */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/** Returns the ratio of requests served from the cache (0 if there was no request). */
+	public double getHitRatio() {
+		long total = requests.get();
+		return total == 0 ? 0 : (double) getHits() / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits: %d, misses: %d", getHits(), getMisses());
+	}
+}
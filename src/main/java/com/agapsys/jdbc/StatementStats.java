@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregated statistics of the sampled executions of a SQL shape.
+ * @see StatementTracer#getStatistics()
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StatementStats {
+	// CLASS SCOPE =============================================================
+	private static double toMillis(long nanos) {
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String           shape;
+	private final LatencyHistogram histogram  = new LatencyHistogram();
+	private final AtomicLong       totalNanos = new AtomicLong();
+	private final AtomicLong       rows       = new AtomicLong();
+	private final AtomicLong       errors     = new AtomicLong();
+	
+	StatementStats(String shape) {
+		this.shape = shape;
+	}
+	
+	void record(long elapsedNanos, long rows, boolean error) {
+		histogram.record(elapsedNanos);
+		totalNanos.addAndGet(elapsedNanos);
+		
+		if (rows > 0)
+			this.rows.addAndGet(rows);
+		
+		if (error)
+			errors.incrementAndGet();
+	}
+	
+	void addRows(long rows) {
+		if (rows > 0)
+			this.rows.addAndGet(rows);
+	}
+	
+	/** Returns the normalized SQL. */
+	public String getShape() {
+		return shape;
+	}
+	
+	/** Returns the number of recorded executions. */
+	public long getCount() {
+		return histogram.getCount();
+	}
+	
+	/** Returns the number of recorded executions which failed. */
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	/** Returns the number of rows affected by updates and fetched from queries. */
+	public long getRows() {
+		return rows.get();
+	}
+	
+	/** Returns the total execution time (in milliseconds). */
+	public double getTotalMillis() {
+		return toMillis(totalNanos.get());
+	}
+	
+	/** Returns the mean execution time (in milliseconds). */
+	public double getMeanMillis() {
+		return toMillis((long) histogram.getMeanNanos());
+	}
+	
+	/** Returns the 99th percentile of execution time (in milliseconds). */
+	public double getP99Millis() {
+		return histogram.getPercentileMillis(99);
+	}
+	
+	/** Returns the highest execution time (in milliseconds). */
+	public double getMaxMillis() {
+		return toMillis(histogram.getMaxNanos());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count: %d, total: %.3f ms, p99: %.3f ms, rows: %d, errors: %d, sql: %s", getCount(), getTotalMillis(), getP99Millis(), getRows(), getErrors(), shape);
+	}
+	// =========================================================================
+}
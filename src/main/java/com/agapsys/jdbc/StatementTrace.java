@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of a traced statement.
+ * @see StatementTraceListener
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StatementTrace {
+	// INSTANCE SCOPE ==========================================================
+	private final String    label;
+	private final String    sql;
+	private final String    shape;
+	private final long      elapsedNanos;
+	private final long      rows;
+	private final Throwable error;
+
+	StatementTrace(String label, String sql, String shape, long elapsedNanos, long rows, Throwable error) {
+		this.label = label;
+		this.sql = sql;
+		this.shape = shape;
+		this.elapsedNanos = elapsedNanos;
+		this.rows = rows;
+		this.error = error;
+	}
+	
+	/** Returns the label of the traced connection (e.g. the name of a script run by {@link SqlRunner}), or null. */
+	public String getLabel() {
+		return label;
+	}
+
+	/** Returns executed SQL. */
+	public String getSql() {
+		return sql;
+	}
+
+	/** Returns normalized SQL. */
+	public String getShape() {
+		return shape;
+	}
+
+	/** Returns execution time (in nanoseconds). */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+	
+	/** Returns execution time (in milliseconds). */
+	public double getElapsedMillis() {
+		return (double) elapsedNanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/** Returns the number of affected rows, or -1 if unknown (e.g. queries). */
+	public long getRows() {
+		return rows;
+	}
+
+	/** Returns the error raised by the execution, or null if the execution was successful. */
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s%.3f ms, rows: %d, sql: %s", label == null ? "" : "[" + label + "] ", getElapsedMillis(), rows, sql);
+	}
+	// =========================================================================
+}
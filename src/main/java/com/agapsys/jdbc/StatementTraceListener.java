@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+/**
+ * Listener of traced statement executions.
+ * Listeners are notified about sampled and slow executions by the thread
+ * which executed the statement, so they shall return quickly.
+ * @see StatementTracer#addListener(StatementTraceListener)
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public interface StatementTraceListener {
+	/** Called after the execution of a traced statement. */
+	public void onStatement(StatementTrace trace);
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Statement tracer.
+ * Traced connections record execution time, affected/fetched rows and the
+ * normalized SQL of the statements they execute. A fraction of the
+ * executions is sampled into per-shape {@linkplain StatementStats statistics}
+ * and notified to {@linkplain StatementTraceListener listeners}; executions
+ * slower than a threshold are always logged (through
+ * {@code java.util.logging}, logger name is this class name) and notified.
+ * <p>When the tracer is disabled, {@link #wrap(Connection)} returns given
+ * connection itself, so untraced code paths have no overhead.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StatementTracer {
+	// CLASS SCOPE =============================================================
+	private static final Logger LOGGER = Logger.getLogger(StatementTracer.class.getName());
+	
+	public static final double DEFAULT_SAMPLE_RATE           = 1;
+	public static final long   DEFAULT_SLOW_THRESHOLD_MILLIS = 1000;
+	public static final int    DEFAULT_MAX_SHAPES            = 1024;
+	
+	/** Shape under which statements are aggregated when the maximum number of shapes is reached. */
+	public static final String OTHER_SHAPE = "<other>";
+	
+	private static final Comparator<StatementStats> TOTAL_TIME_DESC = new Comparator<StatementStats>() {
+		@Override
+		public int compare(StatementStats o1, StatementStats o2) {
+			return Double.compare(o2.getTotalMillis(), o1.getTotalMillis());
+		}
+	};
+	
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+	
+	/** Base handler of proxies of JDBC objects. */
+	private abstract static class TracingHandler implements InvocationHandler {
+		protected final StatementTracer tracer;
+		protected final Object          target;
+
+		public TracingHandler(StatementTracer tracer, Object target) {
+			this.tracer = tracer;
+			this.target = target;
+		}
+		
+		/** Handles JDBC wrapper and {@linkplain Object} methods. Returns {@code this} if given method is not handled. */
+		protected Object invokeCommon(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				if (method.getParameterTypes().length == 1)
+					return proxy == args[0];
+				break;
+				
+			case "hashCode":
+				if (method.getParameterTypes().length == 0)
+					return System.identityHashCode(proxy);
+				break;
+				
+			case "unwrap":
+				if (((Class<?>) args[0]).isInstance(proxy))
+					return proxy;
+				break;
+				
+			case "isWrapperFor":
+				if (((Class<?>) args[0]).isInstance(proxy))
+					return true;
+				break;
+			}
+			
+			return this;
+		}
+	}
+	
+	/** Handler of connection proxies. */
+	private static class ConnectionHandler extends TracingHandler {
+		private final String label;
+		
+		public ConnectionHandler(StatementTracer tracer, Connection target, String label) {
+			super(tracer, target);
+			this.label = label;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeCommon(proxy, method, args);
+			if (result != this)
+				return result;
+			
+			result = invokeTarget(target, method, args);
+			
+			switch (method.getName()) {
+			case "createStatement":
+				return tracer.newProxy(method.getReturnType(), new StatementHandler(tracer, result, (Connection) proxy, label, null));
+				
+			case "prepareStatement":
+			case "prepareCall":
+				return tracer.newProxy(method.getReturnType(), new StatementHandler(tracer, result, (Connection) proxy, label, (String) args[0]));
+			
+			default:
+				return result;
+			}
+		}
+	}
+	
+	/** Handler of statement proxies. */
+	private static class StatementHandler extends TracingHandler {
+		private final Connection connection;
+		private final String     label;
+		private final String     preparedSql;
+		
+		private String       preparedShape;
+		private List<String> batch;
+		private int          batchCount;
+		
+		public StatementHandler(StatementTracer tracer, Object target, Connection connection, String label, String preparedSql) {
+			super(tracer, target);
+			this.connection = connection;
+			this.label = label;
+			this.preparedSql = preparedSql;
+		}
+		
+		private String getShape(String sql) {
+			if (sql != preparedSql)
+				return tracer.getShape(sql);
+			
+			if (preparedShape == null)
+				preparedShape = tracer.getShape(preparedSql);
+			
+			return preparedShape;
+		}
+		
+		private Object execute(Object proxy, Method method, Object[] args) throws Throwable {
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+			boolean isBatch = method.getName().startsWith("executeBatch") || method.getName().startsWith("executeLargeBatch");
+			
+			long start = System.nanoTime();
+			Object result = null;
+			Throwable error = null;
+			
+			try {
+				result = invokeTarget(target, method, args);
+			} catch (Throwable t) {
+				error = t;
+			}
+			
+			long elapsed = System.nanoTime() - start;
+			boolean sampled = tracer.isSampled();
+			boolean slow = tracer.isSlow(elapsed);
+			
+			if (sampled || slow) {
+				if (isBatch) {
+					recordBatch(result, elapsed, sampled, slow, error);
+				} else {
+					tracer.record(label, sql, getShape(sql), elapsed, getRows(result), sampled, slow, error);
+				}
+			}
+			
+			if (isBatch) {
+				batch = null;
+				batchCount = 0;
+			}
+			
+			if (error != null)
+				throw error;
+			
+			if (result instanceof ResultSet && sampled) {
+				StatementStats stats = tracer.getStats(getShape(sql));
+				return tracer.newProxy(ResultSet.class, new ResultSetHandler(tracer, result, (Statement) proxy, stats));
+			}
+			
+			return result;
+		}
+		
+		/** Splits the execution time of a batch evenly among its statements. */
+		private void recordBatch(Object result, long elapsed, boolean sampled, boolean slow, Throwable error) {
+			int count = batch != null ? batch.size() : batchCount;
+			if (count == 0)
+				return;
+			
+			long[] rows = new long[count];
+			for (int i = 0; i < count; i++)
+				rows[i] = -1;
+			
+			if (result instanceof int[]) {
+				int[] updateCounts = (int[]) result;
+				for (int i = 0; i < count && i < updateCounts.length; i++)
+					rows[i] = updateCounts[i];
+			} else if (result instanceof long[]) {
+				long[] updateCounts = (long[]) result;
+				for (int i = 0; i < count && i < updateCounts.length; i++)
+					rows[i] = updateCounts[i];
+			}
+			
+			for (int i = 0; i < count; i++) {
+				String sql = batch != null ? batch.get(i) : preparedSql;
+				tracer.record(label, sql, getShape(sql), elapsed / count, rows[i], sampled, false, error);
+			}
+			
+			if (slow) { // <-- Slow batches are reported once
+				String sql = String.format("%s (batch of %d statements)", batch != null ? batch.get(0) : preparedSql, count);
+				tracer.record(label, sql, null, elapsed, -1, false, true, error);
+			}
+		}
+		
+		private static long getRows(Object result) {
+			if (result instanceof Integer || result instanceof Long)
+				return ((Number) result).longValue();
+			
+			return -1;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeCommon(proxy, method, args);
+			if (result != this)
+				return result;
+			
+			String name = method.getName();
+			
+			if (name.startsWith("execute"))
+				return execute(proxy, method, args);
+			
+			switch (name) {
+			case "addBatch":
+				result = invokeTarget(target, method, args);
+				
+				if (args != null && args.length == 1) {
+					if (batch == null)
+						batch = new ArrayList<>();
+					
+					batch.add((String) args[0]);
+				} else {
+					batchCount++;
+				}
+				
+				return result;
+				
+			case "clearBatch":
+				batch = null;
+				batchCount = 0;
+				return invokeTarget(target, method, args);
+				
+			case "getConnection":
+				return connection;
+				
+			default:
+				return invokeTarget(target, method, args);
+			}
+		}
+	}
+	
+	/** Handler of result set proxies, which counts fetched rows. */
+	private static class ResultSetHandler extends TracingHandler {
+		private final Statement      statement;
+		private final StatementStats stats;
+		
+		private long    rows;
+		private boolean closed;
+
+		public ResultSetHandler(StatementTracer tracer, Object target, Statement statement, StatementStats stats) {
+			super(tracer, target);
+			this.statement = statement;
+			this.stats = stats;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = invokeCommon(proxy, method, args);
+			if (result != this)
+				return result;
+			
+			switch (method.getName()) {
+			case "next":
+				result = invokeTarget(target, method, args);
+				if (Boolean.TRUE.equals(result))
+					rows++;
+				
+				return result;
+				
+			case "close":
+				result = invokeTarget(target, method, args);
+				if (!closed) {
+					closed = true;
+					stats.addRows(rows);
+				}
+				
+				return result;
+				
+			case "getStatement":
+				return statement;
+				
+			default:
+				return invokeTarget(target, method, args);
+			}
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final ConcurrentMap<String, StatementStats> statistics = new ConcurrentHashMap<>();
+	private final List<StatementTraceListener>          listeners  = new CopyOnWriteArrayList<>();
+	
+	private volatile boolean enabled             = true;
+	private volatile double  sampleRate          = DEFAULT_SAMPLE_RATE;
+	private volatile long    slowThresholdNanos  = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_THRESHOLD_MILLIS);
+	private volatile int     maxShapes           = DEFAULT_MAX_SHAPES;
+	
+	/** Returns a boolean indicating if connections are traced. */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	/** Defines if connections are traced. Connections wrapped while the tracer is disabled are never traced. */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/** Returns the fraction (between 0 and 1) of executions which are sampled. */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+	/**
+	 * Sets the fraction (between 0 and 1) of executions which are sampled.
+	 * @throws IllegalArgumentException if sampleRate &lt; 0 || sampleRate &gt; 1
+	 */
+	public void setSampleRate(double sampleRate) throws IllegalArgumentException {
+		if (sampleRate < 0 || sampleRate > 1)
+			throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+		
+		this.sampleRate = sampleRate;
+	}
+	
+	/** Returns the execution time (in milliseconds) from which statements are logged as slow (a negative value disables the slow-statement log). */
+	public long getSlowThresholdMillis() {
+		return slowThresholdNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+	}
+	/** Sets the execution time (in milliseconds) from which statements are logged as slow (a negative value disables the slow-statement log). */
+	public void setSlowThresholdMillis(long thresholdMillis) {
+		this.slowThresholdNanos = thresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+	}
+	
+	/** Returns the maximum number of distinct SQL shapes. Further shapes are aggregated under {@link #OTHER_SHAPE}. */
+	public int getMaxShapes() {
+		return maxShapes;
+	}
+	/**
+	 * Sets the maximum number of distinct SQL shapes.
+	 * @throws IllegalArgumentException if maxShapes &lt; 1
+	 */
+	public void setMaxShapes(int maxShapes) throws IllegalArgumentException {
+		if (maxShapes < 1)
+			throw new IllegalArgumentException("Invalid max shapes: " + maxShapes);
+		
+		this.maxShapes = maxShapes;
+	}
+	
+	/** Adds a listener of sampled and slow executions. */
+	public void addListener(StatementTraceListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("Null listener");
+		
+		listeners.add(listener);
+	}
+	/** Removes a listener. */
+	public void removeListener(StatementTraceListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Returns a traced view of given connection.
+	 * @param connection connection to be traced
+	 * @return traced connection, or given connection itself if tracer is disabled
+	 */
+	public Connection wrap(Connection connection) {
+		return wrap(connection, null);
+	}
+	
+	/**
+	 * Returns a traced view of given connection.
+	 * @param connection connection to be traced
+	 * @param label label of traces produced by returned connection (may be null)
+	 * @return traced connection, or given connection itself if tracer is disabled
+	 * @throws IllegalArgumentException if connection == null
+	 */
+	public Connection wrap(Connection connection, String label) throws IllegalArgumentException {
+		if (connection == null)
+			throw new IllegalArgumentException("Null connection");
+		
+		if (!enabled)
+			return connection;
+		
+		if (Proxy.isProxyClass(connection.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(connection);
+			
+			if (handler instanceof ConnectionHandler && ((ConnectionHandler) handler).tracer == this) // <-- Connection is already traced: only the label is replaced
+				connection = (Connection) ((ConnectionHandler) handler).target;
+		}
+		
+		return newProxy(Connection.class, new ConnectionHandler(this, connection, label));
+	}
+	
+	/** Returns the statistics of sampled executions, ordered by descending total time. */
+	public List<StatementStats> getStatistics() {
+		List<StatementStats> list = new ArrayList<>(statistics.values());
+		Collections.sort(list, TOTAL_TIME_DESC);
+		return list;
+	}
+	
+	/** Clears collected statistics. */
+	public void reset() {
+		statistics.clear();
+	}
+	
+	private <T> T newProxy(Class<T> iface, InvocationHandler handler) {
+		return iface.cast(Proxy.newProxyInstance(StatementTracer.class.getClassLoader(), new Class<?>[] {iface}, handler));
+	}
+	
+	private boolean isSampled() {
+		double rate = sampleRate;
+		return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+	}
+	
+	private boolean isSlow(long elapsedNanos) {
+		long threshold = slowThresholdNanos;
+		return threshold >= 0 && elapsedNanos >= threshold;
+	}
+	
+	private String getShape(String sql) {
+		return sql == null ? OTHER_SHAPE : SqlShape.normalize(sql);
+	}
+	
+	private StatementStats getStats(String shape) {
+		StatementStats stats = statistics.get(shape);
+		
+		if (stats == null) {
+			if (statistics.size() >= maxShapes)
+				shape = OTHER_SHAPE;
+			
+			stats = new StatementStats(shape);
+			StatementStats existing = statistics.putIfAbsent(shape, stats);
+			if (existing != null)
+				stats = existing;
+		}
+		
+		return stats;
+	}
+	
+	private void record(String label, String sql, String shape, long elapsedNanos, long rows, boolean sampled, boolean slow, Throwable error) {
+		if (!sampled && !slow)
+			return;
+		
+		if (sampled)
+			getStats(shape).record(elapsedNanos, rows, error != null);
+		
+		StatementTrace trace = null;
+		
+		if (slow && LOGGER.isLoggable(Level.WARNING)) {
+			trace = new StatementTrace(label, sql, shape, elapsedNanos, rows, error);
+			LOGGER.log(Level.WARNING, "Slow statement: " + trace);
+		}
+		
+		if (!listeners.isEmpty()) {
+			if (trace == null)
+				trace = new StatementTrace(label, sql, shape, elapsedNanos, rows, error);
+			
+			for (StatementTraceListener listener : listeners)
+				listener.onStatement(trace);
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Streaming query API.
+ * Queries are executed with forward-only, read-only cursors and a driver
+ * fetch size, and their rows are exposed through lazily evaluated
+ * {@link RowCursor cursors}, so that arbitrarily large results can be
+ * scanned in constant heap.
+ * <p>If a transaction is in progress in the current thread
+ * ({@link TransactionExecutor}), queries use its connection. Otherwise, each
+ * cursor borrows a connection which is released when the cursor is closed.
+ * Since some drivers (e.g. PostgreSQL) only honor the fetch size outside
+ * auto-commit mode, borrowed connections are switched to manual commit
+ * while the cursor is open.</p>
+ * <p>Constant heap usage depends on the driver honoring the fetch size. For
+ * instance, MySQL Connector/J ignores it (and reads the whole result into
+ * memory) unless the connection URL sets {@code useCursorFetch=true}.</p>
+ * <p>Closing a cursor before consuming all rows just closes its result set,
+ * which releases a server-side cursor without reading the remaining rows.
+ * Drivers which stream results over the connection instead (e.g. MySQL
+ * Connector/J streaming mode) read the remaining rows when the result set is
+ * closed; for them, cancellation of abandoned queries can be enabled through
+ * {@link #setCancelOnClose(boolean)}.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StreamingQuery {
+	// CLASS SCOPE =============================================================
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final DataSource dataSource;
+	
+	private volatile int     fetchSize           = DEFAULT_FETCH_SIZE;
+	private volatile int     queryTimeoutSeconds = 0;
+	private volatile boolean cancelOnClose       = false;
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source providing connections
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public StreamingQuery(DataSource dataSource) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null data source");
+		
+		this.dataSource = dataSource;
+	}
+	
+	/** Returns the number of rows fetched from the database per round trip. */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+	/**
+	 * Sets the number of rows fetched from the database per round trip (passed to the driver as a hint).
+	 * @throws IllegalArgumentException if fetchSize &lt; 1
+	 */
+	public void setFetchSize(int fetchSize) throws IllegalArgumentException {
+		if (fetchSize < 1)
+			throw new IllegalArgumentException("Invalid fetch size: " + fetchSize);
+		
+		this.fetchSize = fetchSize;
+	}
+	
+	/** Returns the query timeout (in seconds). Zero means there is no limit. */
+	public int getQueryTimeoutSeconds() {
+		return queryTimeoutSeconds;
+	}
+	/**
+	 * Sets the query timeout (in seconds). Zero means there is no limit.
+	 * @throws IllegalArgumentException if seconds &lt; 0
+	 */
+	public void setQueryTimeoutSeconds(int seconds) throws IllegalArgumentException {
+		if (seconds < 0)
+			throw new IllegalArgumentException("Invalid query timeout: " + seconds);
+		
+		this.queryTimeoutSeconds = seconds;
+	}
+	
+	/** Returns a boolean indicating if queries are cancelled when their cursors are closed before all rows are consumed. */
+	public boolean isCancelOnClose() {
+		return cancelOnClose;
+	}
+	/**
+	 * Defines if queries are cancelled ({@link java.sql.Statement#cancel()}) when their cursors are closed before all rows are consumed.
+	 * Cancellation is disabled by default and shall be enabled only for drivers which read the remaining rows of a streamed
+	 * result when it is closed. Cancelling requires an extra request to the database and, on a connection shared with a
+	 * transaction, may race with the statements which follow the query.
+	 */
+	public void setCancelOnClose(boolean cancelOnClose) {
+		this.cancelOnClose = cancelOnClose;
+	}
+	
+	/**
+	 * Executes a query and returns a cursor over its rows.
+	 * Returned cursor must be closed if it is not fully consumed (e.g. using a try-with-resources statement).
+	 * @param sql query
+	 * @param mapper row mapper
+	 * @param params query parameters
+	 * @return cursor over mapped rows
+	 * @throws SQLException if the query could not be executed
+	 * @throws IllegalArgumentException if sql == null || sql.trim().isEmpty() || mapper == null
+	 */
+	public <T> RowCursor<T> open(String sql, RowMapper<T> mapper, Object...params) throws SQLException, IllegalArgumentException {
+		if (sql == null || sql.trim().isEmpty())
+			throw new IllegalArgumentException("Null/Empty sql");
+		
+		if (mapper == null)
+			throw new IllegalArgumentException("Null mapper");
+		
+		Connection connection = TransactionExecutor.getCurrentConnection(dataSource);
+		boolean ownsConnection = connection == null;
+		
+		if (ownsConnection)
+			connection = dataSource.getConnection();
+		
+		PreparedStatement stmt = null;
+		
+		try {
+			if (ownsConnection && connection.getAutoCommit())
+				connection.setAutoCommit(false);
+			
+			stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(fetchSize);
+			stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+			
+			if (queryTimeoutSeconds > 0)
+				stmt.setQueryTimeout(queryTimeoutSeconds);
+			
+			if (params != null) {
+				for (int i = 0; i < params.length; i++)
+					stmt.setObject(i + 1, params[i]);
+			}
+			
+			ResultSet rs = stmt.executeQuery();
+			rs.setFetchSize(fetchSize);
+			
+			return new RowCursor<>(connection, ownsConnection, stmt, rs, mapper, cancelOnClose);
+		} catch (SQLException | RuntimeException ex) {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					ex.addSuppressed(e);
+				}
+			}
+			
+			if (ownsConnection) {
+				try {
+					if (!connection.getAutoCommit())
+						connection.rollback();
+					
+					connection.close();
+				} catch (SQLException e) {
+					ex.addSuppressed(e);
+				}
+			}
+			
+			throw ex;
+		}
+	}
+	// =========================================================================
+}
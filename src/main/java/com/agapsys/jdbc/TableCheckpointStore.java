@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Checkpoint store which keeps checkpoints in a database table.
+ * Checkpoints are written in the same transaction as the script statements,
+ * so a checkpoint always matches the committed work. The table is created
+ * on first use.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TableCheckpointStore implements CheckpointStore {
+	// CLASS SCOPE =============================================================
+	public static final String DEFAULT_TABLE_NAME = "sql_runner_checkpoint";
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final String tableName;
+	
+	public TableCheckpointStore() {
+		this(DEFAULT_TABLE_NAME);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param tableName name of the table used to store checkpoints
+	 * @throws IllegalArgumentException if tableName == null || tableName.isEmpty()
+	 */
+	public TableCheckpointStore(String tableName) throws IllegalArgumentException {
+		if (tableName == null || tableName.isEmpty())
+			throw new IllegalArgumentException("Null/Empty table name");
+		
+		this.tableName = tableName;
+	}
+	
+	/** Returns the name of the table used to store checkpoints. */
+	public String getTableName() {
+		return tableName;
+	}
+	
+	private boolean tableExists(Connection connection) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		
+		for (String name : new String[] {tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+			try (ResultSet rs = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+				if (rs.next())
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private boolean columnExists(Connection connection, String column) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		
+		for (String name : new String[] {tableName, tableName.toUpperCase(), tableName.toLowerCase()}) {
+			for (String columnName : new String[] {column, column.toUpperCase()}) {
+				try (ResultSet rs = metaData.getColumns(null, null, name, columnName)) {
+					if (rs.next())
+						return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private void createTableIfNecessary(Connection connection) throws SQLException {
+		if (tableExists(connection)) {
+			// Tables created by previous versions have no checksum column...
+			if (!columnExists(connection, "script_checksum")) {
+				try (Statement stmt = connection.createStatement()) {
+					stmt.execute(String.format("ALTER TABLE %s ADD script_checksum BIGINT", tableName));
+				}
+			}
+			
+			return;
+		}
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute(String.format("CREATE TABLE %s (script_name VARCHAR(255) NOT NULL PRIMARY KEY, statement_ordinal BIGINT NOT NULL, script_offset BIGINT NOT NULL, script_checksum BIGINT)", tableName));
+		}
+	}
+	
+	@Override
+	public ScriptCheckpoint load(Connection connection, String scriptName) throws SQLException {
+		createTableIfNecessary(connection);
+		
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("SELECT statement_ordinal, script_offset, script_checksum FROM %s WHERE script_name = ?", tableName))) {
+			stmt.setString(1, scriptName);
+			
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (!rs.next())
+					return null;
+				
+				long statementOrdinal = rs.getLong(1);
+				long offset = rs.getLong(2);
+				long scriptChecksum = rs.getLong(3);
+				
+				return new ScriptCheckpoint(statementOrdinal, offset, rs.wasNull() ? ScriptCheckpoint.UNKNOWN_CHECKSUM : scriptChecksum);
+			}
+		}
+	}
+
+	@Override
+	public void save(Connection connection, String scriptName, ScriptCheckpoint checkpoint) throws SQLException {
+		int updated;
+		
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("UPDATE %s SET statement_ordinal = ?, script_offset = ?, script_checksum = ? WHERE script_name = ?", tableName))) {
+			stmt.setLong(1, checkpoint.getStatementOrdinal());
+			stmt.setLong(2, checkpoint.getOffset());
+			stmt.setLong(3, checkpoint.getScriptChecksum());
+			stmt.setString(4, scriptName);
+			updated = stmt.executeUpdate();
+		}
+		
+		if (updated == 0) {
+			try (PreparedStatement stmt = connection.prepareStatement(String.format("INSERT INTO %s (script_name, statement_ordinal, script_offset, script_checksum) VALUES (?, ?, ?, ?)", tableName))) {
+				stmt.setString(1, scriptName);
+				stmt.setLong(2, checkpoint.getStatementOrdinal());
+				stmt.setLong(3, checkpoint.getOffset());
+				stmt.setLong(4, checkpoint.getScriptChecksum());
+				stmt.executeUpdate();
+			}
+		}
+	}
+
+	@Override
+	public void clear(Connection connection, String scriptName) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement(String.format("DELETE FROM %s WHERE script_name = ?", tableName))) {
+			stmt.setString(1, scriptName);
+			stmt.executeUpdate();
+		}
+	}
+
+	@Override
+	public boolean isTransactional() {
+		return true;
+	}
+	// =========================================================================
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source whose connections are traced by a {@link StatementTracer}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TracingDataSource implements DataSource, AutoCloseable {
+	// INSTANCE SCOPE ==========================================================
+	private final DataSource      delegate;
+	private final StatementTracer tracer;
+	
+	/**
+	 * Constructor.
+	 * @param delegate data source providing connections
+	 * @param tracer statement tracer
+	 * @throws IllegalArgumentException if delegate == null || tracer == null
+	 */
+	public TracingDataSource(DataSource delegate, StatementTracer tracer) throws IllegalArgumentException {
+		if (delegate == null)
+			throw new IllegalArgumentException("Null delegate");
+		
+		if (tracer == null)
+			throw new IllegalArgumentException("Null tracer");
+		
+		this.delegate = delegate;
+		this.tracer = tracer;
+	}
+	
+	/** Returns the data source providing connections. */
+	public DataSource getDelegate() {
+		return delegate;
+	}
+	
+	/** Returns the statement tracer. */
+	public StatementTracer getTracer() {
+		return tracer;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return tracer.wrap(delegate.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return tracer.wrap(delegate.getConnection(username, password));
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		
+		if (iface.isInstance(delegate))
+			return iface.cast(delegate);
+		
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+	}
+	
+	/** 
+	 * Closes the delegate data source if it is closeable.
+	 * @throws RuntimeException wrapping the checked exception thrown by the delegate (if any)
+	 */
+	@Override
+	public void close() {
+		if (delegate instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) delegate).close();
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+
+/**
+ * Executes units of work in a transaction bound to the current thread.
+ * The outermost call borrows a single connection from the data source and
+ * binds it to the current thread; nested calls (through any executor of the
+ * same data source) reuse that connection and join its transaction. The
+ * transaction is committed or rolled back exactly once, when the outermost
+ * call finishes, and the connection is then returned to the data source.
+ * <p>If a nested unit of work fails, the transaction is marked as
+ * rollback-only: it is rolled back even if the failure is handled by an
+ * enclosing unit of work.</p>
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TransactionExecutor {
+	// CLASS SCOPE =============================================================
+	/** Transaction bound to a thread. */
+	private static class Scope {
+		private final Connection     connection;
+		private final List<Runnable> completionCallbacks = new ArrayList<>();
+		private boolean rollbackOnly = false;
+
+		public Scope(Connection connection) {
+			this.connection = connection;
+		}
+	}
+	
+	/** Scopes of current thread indexed by data source. */
+	private static final ThreadLocal<Map<DataSource, Scope>> SCOPES = new ThreadLocal<>();
+	
+	private static Scope getScope(DataSource dataSource) {
+		Map<DataSource, Scope> scopes = SCOPES.get();
+		return scopes == null ? null : scopes.get(dataSource);
+	}
+	
+	/**
+	 * Returns the connection bound to the current thread for given data source.
+	 * @return the connection of the current transaction, or null if there is no transaction in progress
+	 */
+	public static Connection getCurrentConnection(DataSource dataSource) {
+		Scope scope = getScope(dataSource);
+		return scope == null ? null : scope.connection;
+	}
+	
+	/**
+	 * Registers a callback to be run when the transaction in progress in the current thread for given data source finishes (either committed or rolled back).
+	 * @return false if there is no transaction in progress (callback is not registered)
+	 */
+	static boolean runAfterCompletion(DataSource dataSource, Runnable callback) {
+		Scope scope = getScope(dataSource);
+		if (scope == null)
+			return false;
+		
+		scope.completionCallbacks.add(callback);
+		return true;
+	}
+	
+	private static void rollback(Connection connection, Throwable error) {
+		try {
+			connection.rollback();
+		} catch (SQLException ex) {
+			error.addSuppressed(ex);
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final DataSource dataSource;
+	
+	/**
+	 * Constructor.
+	 * @param dataSource data source providing connections
+	 * @throws IllegalArgumentException if dataSource == null
+	 */
+	public TransactionExecutor(DataSource dataSource) throws IllegalArgumentException {
+		if (dataSource == null)
+			throw new IllegalArgumentException("Null data source");
+		
+		this.dataSource = dataSource;
+	}
+	
+	/** Returns the data source providing connections. */
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+	
+	/** Returns the connection of the transaction in progress in the current thread, or null if there is no transaction in progress. */
+	public Connection getCurrentConnection() {
+		return getCurrentConnection(dataSource);
+	}
+	
+	/** Returns a boolean indicating if there is a transaction in progress in the current thread. */
+	public boolean isInTransaction() {
+		return getScope(dataSource) != null;
+	}
+	
+	/**
+	 * Executes given work in a transaction.
+	 * If there is a transaction in progress in the current thread, the work joins it.
+	 * Otherwise, a new transaction is started, and it is committed if the work succeeds or rolled back if the work fails.
+	 * The work shall neither commit, roll back nor close the connection.
+	 * @param work unit of work
+	 * @return the result of the work
+	 * @throws SQLException if the work fails, if a connection could not be obtained or if the transaction could not be committed.
+	 * If the work succeeds but a nested unit of work has failed, the transaction is rolled back and a SQLException is thrown.
+	 * @throws IllegalArgumentException if work == null
+	 */
+	public <T> T execute(SqlWork<T> work) throws SQLException, IllegalArgumentException {
+		if (work == null)
+			throw new IllegalArgumentException("Null work");
+		
+		Scope scope = getScope(dataSource);
+		
+		if (scope != null) {
+			try {
+				return work.execute(scope.connection);
+			} catch (SQLException | RuntimeException | Error ex) {
+				scope.rollbackOnly = true;
+				throw ex;
+			}
+		}
+		
+		Connection connection = dataSource.getConnection();
+		scope = new Scope(connection);
+		
+		Map<DataSource, Scope> scopes = SCOPES.get();
+		if (scopes == null) {
+			scopes = new IdentityHashMap<>();
+			SCOPES.set(scopes);
+		}
+		
+		scopes.put(dataSource, scope);
+		
+		try {
+			if (connection.getAutoCommit())
+				connection.setAutoCommit(false); // <-- Auto-commit is restored by the pool when the connection is returned
+			
+			T result = work.execute(connection);
+			
+			if (scope.rollbackOnly)
+				throw new SQLException("Transaction rolled back: a nested unit of work failed");
+			
+			connection.commit();
+			return result;
+		} catch (SQLException | RuntimeException | Error ex) {
+			rollback(connection, ex);
+			throw ex;
+		} finally {
+			scopes.remove(dataSource);
+			if (scopes.isEmpty())
+				SCOPES.remove();
+			
+			try {
+				connection.close();
+			} catch (SQLException ignore) {}
+			
+			for (Runnable callback : scope.completionCallbacks)
+				callback.run();
+		}
+	}
+	// =========================================================================
+}
@@ -37,9 +37,9 @@ public class ResourceLoader {
 	 * @param pkg package where resource is located
 	 * @param  filename resource file name
 	 * @throws ResourceNotFoundException if given resource was not found. 
-	 * @throws IllegalArgumentExceptionif filename == null || filename.isEmpty()
+	 * @throws IllegalArgumentException if filename == null || filename.isEmpty()
 	 */
-	private static URL getResourceURL(String pkg, String filename) throws IllegalArgumentException, ResourceNotFoundException {
+	public static URL getResourceURL(String pkg, String filename) throws IllegalArgumentException, ResourceNotFoundException {
 		if (pkg == null)
 			pkg = "";
 		
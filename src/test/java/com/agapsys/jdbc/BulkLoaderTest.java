@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link BulkLoader}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class BulkLoaderTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private JdbcDataSource dataSource;
+	private Connection     connection; // <-- Keeps the in-memory database alive
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:bulk" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE one (v VARCHAR(10))");
+			stmt.execute("CREATE TABLE two (a VARCHAR(10), b INT)");
+		}
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private File newFile(String content) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	/** Returns the number of rows and the number of non-null values of given column. */
+	private int[] count(String table, String column) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(String.format("SELECT COUNT(*), COUNT(%s) FROM %s", column, table))) {
+			rs.next();
+			return new int[] {rs.getInt(1), rs.getInt(2)};
+		}
+	}
+	
+	@Test
+	public void testLoad() throws Exception {
+		BulkLoader loader = new BulkLoader(dataSource, "two", "a", "b");
+		loader.setHeader(true);
+		
+		BulkLoader.Result result = loader.load(newFile("a,b\nx,1\n\"y,z\",2\n,3\n"));
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(3, result.getRows());
+		Assert.assertArrayEquals(new int[] {3, 2}, count("two", "a"));
+		Assert.assertArrayEquals(new int[] {3, 3}, count("two", "b"));
+	}
+	
+	@Test
+	public void testBlankLines() throws Exception {
+		new BulkLoader(dataSource, "two", "a", "b").load(newFile("a,1\n\n,\nc,2\n"));
+		Assert.assertArrayEquals(new int[] {3, 2}, count("two", "a"));
+	}
+	
+	@Test
+	public void testSingleColumnNullRows() throws Exception {
+		// Blank lines of single-column files are NULL values, quoted empty fields are empty strings...
+		BulkLoader.Result result = new BulkLoader(dataSource, "one", "v").load(newFile("a\r\n\r\n\"\"\r\nb\r\n"));
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(4, result.getRows());
+		Assert.assertArrayEquals(new int[] {4, 3}, count("one", "v"));
+	}
+	
+	@Test
+	public void testParallelLoad() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			sb.append("v").append(i).append('\t').append(i).append('\n');
+		
+		BulkLoader loader = new BulkLoader(dataSource, "two", "a", "b");
+		loader.setDelimiter('\t');
+		loader.setParallelism(4);
+		loader.setBatchSize(100);
+		loader.setBufferSize(8192); // <-- Files are split in partitions of at least one buffer
+		
+		BulkLoader.Result result = loader.load(newFile(sb.toString()));
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(10000, result.getRows());
+		Assert.assertEquals(4, result.getPartitionRows().length);
+		
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(DISTINCT a), SUM(b) FROM two")) {
+			rs.next();
+			Assert.assertEquals(10000, rs.getInt(1));
+			Assert.assertEquals(9999L * 10000 / 2, rs.getLong(2));
+		}
+	}
+	
+	@Test
+	public void testFailedPartition() throws Exception {
+		BulkLoader.Result result = new BulkLoader(dataSource, "two", "a", "b").load(newFile("x,1\ny,not-a-number\n"));
+		Assert.assertFalse(result.isSuccessful());
+		Assert.assertFalse(result.getErrors().isEmpty());
+	}
+	// =========================================================================
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CircuitBreaker}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class CircuitBreakerTest {
+	// INSTANCE SCOPE ==========================================================
+	@Test
+	public void testFailureThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+		
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess(); // <-- Failures must be consecutive
+		breaker.onFailure();
+		breaker.onFailure();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest());
+		
+		breaker.onFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest());
+	}
+	
+	@Test
+	public void testHalfOpen() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1, 50);
+		
+		breaker.onFailure();
+		Assert.assertFalse(breaker.allowRequest());
+		
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.allowRequest());
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest()); // <-- A single trial is allowed
+		
+		breaker.onFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest());
+		
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.allowRequest());
+		breaker.onSuccess();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest());
+		Assert.assertTrue(breaker.allowRequest());
+	}
+	
+	@Test
+	public void testUnreportedTrial() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1, 50);
+		
+		breaker.onFailure();
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.allowRequest());
+		
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.allowRequest()); // <-- Trial which did not report its outcome does not block the breaker
+	}
+	
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new CircuitBreaker(0, 1000);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			new CircuitBreaker(1, -1);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
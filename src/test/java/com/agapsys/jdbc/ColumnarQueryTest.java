@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ColumnarQuery}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ColumnarQueryTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static final String SELECT_ALL = "SELECT id, big, amount, qty, ratio, name, active, created FROM t ORDER BY id";
+	
+	private static final Timestamp CREATED = Timestamp.valueOf("2020-01-02 03:04:05");
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private Connection    connection; // <-- Keeps the in-memory database alive
+	private ColumnarQuery query;
+	
+	@Before
+	public void before() throws SQLException {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:columnar" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY, big BIGINT, amount DECIMAL(10,2), qty DECIMAL(10,0), ratio DOUBLE, name VARCHAR(20), active BOOLEAN, created TIMESTAMP)");
+			stmt.execute(
+				"INSERT INTO t SELECT X, X * 1000000000, X + 0.25, X * 10, X / 2.0, "
+				+ "CASE MOD(X, 3) WHEN 0 THEN NULL WHEN 1 THEN 'a' ELSE 'b' END, "
+				+ "MOD(X, 2) = 0, "
+				+ "CASE WHEN X = 1 THEN NULL ELSE TIMESTAMP '2020-01-02 03:04:05' END "
+				+ "FROM SYSTEM_RANGE(1, 200)"
+			);
+		}
+		
+		query = new ColumnarQuery(dataSource);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int getSessionCount() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	private void assertRow(ColumnBatch batch, int index, int id) {
+		Assert.assertEquals(id, batch.getColumn("id").getInt(index));
+		Assert.assertEquals(id * 1000000000L, batch.getColumn("big").getLong(index));
+		Assert.assertEquals(id + 0.25, batch.getColumn("amount").getDouble(index), 0.0);
+		Assert.assertEquals(id * 10L, batch.getColumn("qty").getLong(index));
+		Assert.assertEquals(id / 2.0, batch.getColumn("ratio").getDouble(index), 0.0);
+		Assert.assertEquals(id % 2 == 0 ? 1 : 0, batch.getColumn("active").getInt(index));
+		
+		ColumnVector name = batch.getColumn("name");
+		Assert.assertEquals(id % 3 == 0, name.isNull(index));
+		Assert.assertEquals(id % 3 == 0 ? null : (id % 3 == 1 ? "a" : "b"), name.getString(index));
+		
+		ColumnVector created = batch.getColumn("created");
+		Assert.assertEquals(id == 1, created.isNull(index));
+		
+		if (id != 1)
+			Assert.assertEquals(CREATED.getTime(), created.getLong(index));
+	}
+	
+	private void testFetch(boolean offHeap) throws SQLException {
+		query.setOffHeap(offHeap);
+		query.setBatchSize(10); // <-- Columns grow beyond their initial capacity
+		
+		ColumnBatch batch = query.fetch(SELECT_ALL);
+		
+		Assert.assertEquals(200, batch.getRowCount());
+		Assert.assertEquals(8, batch.getColumnCount());
+		Assert.assertSame(batch.getColumn(0), batch.getColumn("ID"));
+		Assert.assertNull(batch.getColumn("missing"));
+		
+		Assert.assertEquals(ColumnType.INT,    batch.getColumn("id").getType());
+		Assert.assertEquals(ColumnType.LONG,   batch.getColumn("big").getType());
+		Assert.assertEquals(ColumnType.DOUBLE, batch.getColumn("amount").getType());
+		Assert.assertEquals(ColumnType.LONG,   batch.getColumn("qty").getType());
+		Assert.assertEquals(ColumnType.DOUBLE, batch.getColumn("ratio").getType());
+		Assert.assertEquals(ColumnType.STRING, batch.getColumn("name").getType());
+		Assert.assertEquals(ColumnType.INT,    batch.getColumn("active").getType());
+		Assert.assertEquals(ColumnType.LONG,   batch.getColumn("created").getType());
+		
+		for (ColumnVector column : batch.getColumns()) {
+			Assert.assertEquals(offHeap, column.isOffHeap());
+			Assert.assertEquals(200, column.size());
+		}
+		
+		for (int i = 0; i < 200; i++)
+			assertRow(batch, i, i + 1);
+		
+		Assert.assertEquals(1, getSessionCount());
+	}
+	
+	@Test
+	public void testFetchOnHeap() throws SQLException {
+		testFetch(false);
+	}
+	
+	@Test
+	public void testFetchOffHeap() throws SQLException {
+		testFetch(true);
+	}
+	
+	@Test
+	public void testParameters() throws SQLException {
+		ColumnBatch batch = query.fetch("SELECT id FROM t WHERE id > ? AND id <= ? ORDER BY id", 10, 13);
+		
+		Assert.assertEquals(3, batch.getRowCount());
+		Assert.assertEquals(11, batch.getColumn(0).getInt(0));
+		Assert.assertEquals(13, batch.getColumn(0).getInt(2));
+	}
+	
+	@Test
+	public void testDictionary() throws SQLException {
+		ColumnVector name = query.fetch("SELECT name FROM t WHERE id <= 6 ORDER BY id").getColumn(0);
+		
+		Assert.assertEquals(Arrays.asList("a", "b"), name.getDictionary());
+		Assert.assertEquals(0, name.getCode(0));
+		Assert.assertEquals(1, name.getCode(1));
+		Assert.assertEquals(-1, name.getCode(2));
+		Assert.assertEquals(0, name.getCode(3));
+	}
+	
+	@Test
+	public void testBatches() throws SQLException {
+		query.setBatchSize(64);
+		
+		int expectedId = 1;
+		int batchCount = 0;
+		
+		try (ColumnBatchCursor cursor = query.open(SELECT_ALL)) {
+			Assert.assertEquals(2, getSessionCount());
+			
+			ColumnBatch previous = null;
+			
+			while (cursor.hasNext()) {
+				ColumnBatch batch = cursor.next();
+				
+				if (previous != null)
+					Assert.assertSame(previous, batch); // <-- Batch is reused
+				
+				previous = batch;
+				batchCount++;
+				
+				Assert.assertEquals(batchCount < 4 ? 64 : 8, batch.getRowCount());
+				Assert.assertTrue(batch.getColumn("name").getDictionary().size() <= 2); // <-- Dictionary is reset for each batch
+				
+				for (int i = 0; i < batch.getRowCount(); i++)
+					assertRow(batch, i, expectedId++);
+			}
+			
+			Assert.assertEquals(200, cursor.getRowCount());
+			
+			try {
+				cursor.next();
+				Assert.fail();
+			} catch (NoSuchElementException ex) {
+				// Expected...
+			}
+		}
+		
+		Assert.assertEquals(4, batchCount);
+		Assert.assertEquals(201, expectedId);
+		Assert.assertEquals(1, getSessionCount());
+	}
+	
+	@Test
+	public void testEarlyClose() throws SQLException {
+		query.setBatchSize(10);
+		
+		try (ColumnBatchCursor cursor = query.open(SELECT_ALL)) {
+			Assert.assertEquals(10, cursor.next().getRowCount());
+		}
+		
+		Assert.assertEquals(1, getSessionCount());
+	}
+	
+	@Test
+	public void testInvalidQuery() throws SQLException {
+		try {
+			query.fetch("SELECT * FROM missing");
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(1, getSessionCount());
+	}
+	
+	@Test
+	public void testUnsupportedAccessors() throws SQLException {
+		ColumnBatch batch = query.fetch(SELECT_ALL);
+		
+		ColumnVector big   = batch.getColumn("big");
+		ColumnVector ratio = batch.getColumn("ratio");
+		ColumnVector name  = batch.getColumn("name");
+		ColumnVector id    = batch.getColumn("id");
+		
+		Assert.assertEquals(1L, id.getLong(0)); // <-- INT values can be read as long
+		Assert.assertEquals(1.0, id.getDouble(0), 0.0);
+		
+		try {
+			big.getInt(0);
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+			// Expected...
+		}
+		
+		try {
+			ratio.getLong(0);
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+			// Expected...
+		}
+		
+		try {
+			name.getDouble(0);
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+			// Expected...
+		}
+		
+		try {
+			id.getString(0);
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+			// Expected...
+		}
+		
+		try {
+			id.getDictionary();
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+			// Expected...
+		}
+		
+		try {
+			id.getInt(200);
+			Assert.fail();
+		} catch (IndexOutOfBoundsException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testInvalidBatchSize() {
+		try {
+			query.setBatchSize(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConnectionFuture}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ConnectionFutureTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static class ResultCallback implements ConnectionCallback {
+		private final CountDownLatch                latch      = new CountDownLatch(1);
+		private final AtomicReference<Connection>   connection = new AtomicReference<>();
+		private final AtomicReference<SQLException> error      = new AtomicReference<>();
+
+		@Override
+		public void onConnection(Connection connection) {
+			this.connection.set(connection);
+			latch.countDown();
+		}
+
+		@Override
+		public void onError(SQLException error) {
+			this.error.set(error);
+			latch.countDown();
+		}
+		
+		public void await() throws InterruptedException {
+			Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private PooledDataSource dataSource;
+	
+	@After
+	public void after() {
+		if (dataSource != null)
+			dataSource.close();
+	}
+	
+	private PooledDataSource createDataSource(PoolEngine engine, int maxWaitMillis) throws ClassNotFoundException {
+		PoolSettings settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:async" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+		settings.setUsername("sa");
+		settings.setPassword("");
+		settings.setPoolEngine(engine);
+		settings.setMaxConnections(1);
+		settings.setMaxWaitMillis(maxWaitMillis);
+		
+		dataSource = DataSourceFactory.getDataSource(settings);
+		return dataSource;
+	}
+	
+	private void testAcquisition(PoolEngine engine) throws Exception {
+		createDataSource(engine, 5000);
+		
+		ResultCallback callback = new ResultCallback();
+		ConnectionFuture future = dataSource.getConnectionAsync().addCallback(callback);
+		
+		Connection connection = future.get(2, TimeUnit.SECONDS);
+		callback.await();
+		Assert.assertSame(connection, callback.connection.get());
+		Assert.assertEquals(1, dataSource.getMetrics().getActiveConnections());
+		
+		// Pending acquisition is completed when the connection is returned...
+		ResultCallback pendingCallback = new ResultCallback();
+		ConnectionFuture pending = dataSource.getConnectionAsync().addCallback(pendingCallback);
+		
+		Thread.sleep(50);
+		Assert.assertFalse(pending.isDone());
+		
+		connection.close();
+		pendingCallback.await();
+		Assert.assertNotNull(pendingCallback.connection.get());
+		Assert.assertTrue(pending.isDone());
+		
+		pending.get().close();
+		Assert.assertEquals(0, dataSource.getMetrics().getActiveConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getCreatedConnections());
+		Assert.assertEquals(2, dataSource.getMetrics().getBorrowCount());
+	}
+	
+	@Test
+	public void testDbcpAcquisition() throws Exception {
+		testAcquisition(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testNativeAcquisition() throws Exception {
+		testAcquisition(PoolEngine.NATIVE);
+	}
+	
+	private void testTimeout(PoolEngine engine) throws Exception {
+		createDataSource(engine, 100);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			ResultCallback callback = new ResultCallback();
+			ConnectionFuture future = dataSource.getConnectionAsync().addCallback(callback);
+			
+			callback.await();
+			Assert.assertNotNull(callback.error.get());
+			
+			try {
+				future.get();
+				Assert.fail();
+			} catch (ExecutionException ex) {
+				Assert.assertTrue(ex.getCause() instanceof SQLException);
+			}
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getBorrowFailures());
+	}
+	
+	@Test
+	public void testDbcpTimeout() throws Exception {
+		testTimeout(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testNativeTimeout() throws Exception {
+		testTimeout(PoolEngine.NATIVE);
+	}
+	
+	private void testCancel(PoolEngine engine) throws Exception {
+		createDataSource(engine, 5000);
+		
+		Connection connection = dataSource.getConnection();
+		ConnectionFuture future = dataSource.getConnectionAsync();
+		
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertTrue(future.isCancelled());
+		Assert.assertFalse(future.cancel(false));
+		
+		try {
+			future.get();
+			Assert.fail();
+		} catch (CancellationException ex) {
+			// Expected...
+		}
+		
+		connection.close();
+		
+		// Connection is not lent to the cancelled acquisition...
+		Connection other = dataSource.getConnectionAsync().get(2, TimeUnit.SECONDS);
+		other.close();
+		
+		Assert.assertEquals(0, dataSource.getMetrics().getActiveConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+	}
+	
+	@Test
+	public void testDbcpCancel() throws Exception {
+		testCancel(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testNativeCancel() throws Exception {
+		testCancel(PoolEngine.NATIVE);
+	}
+	
+	@Test
+	public void testCallbackAfterCompletion() throws Exception {
+		createDataSource(PoolEngine.NATIVE, 5000);
+		
+		ConnectionFuture future = dataSource.getConnectionAsync();
+		Connection connection = future.get(2, TimeUnit.SECONDS);
+		
+		ResultCallback callback = new ResultCallback();
+		future.addCallback(callback); // <-- Called by current thread
+		Assert.assertSame(connection, callback.connection.get());
+		
+		connection.close();
+	}
+	
+	@Test
+	public void testPendingAcquisitionFailsOnClose() throws Exception {
+		createDataSource(PoolEngine.NATIVE, -1);
+		
+		Connection connection = dataSource.getConnection();
+		ResultCallback callback = new ResultCallback();
+		dataSource.getConnectionAsync().addCallback(callback);
+		
+		dataSource.close();
+		callback.await();
+		Assert.assertNotNull(callback.error.get());
+		
+		connection.close();
+	}
+	// =========================================================================
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FailoverDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class FailoverDataSourceTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Returns the name of the database serving given connection. */
+	private static String getDatabase(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT name FROM node")) {
+			rs.next();
+			return rs.getString(1);
+		}
+	}
+	
+	private static void await(CircuitBreaker breaker, CircuitBreaker.State state) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		
+		while (breaker.getState() != state && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		
+		Assert.assertEquals(state, breaker.getState());
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private final List<Connection> keepAlive = new ArrayList<>(); // <-- Keep in-memory databases alive
+	
+	private String             firstName;
+	private String             secondName;
+	private FailoverDataSource dataSource;
+	
+	private String createDatabase() throws SQLException {
+		String name = "failover" + (databaseCount++);
+		Connection connection = TestDriver.getConnection(name);
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE node (name VARCHAR(32))");
+			stmt.execute("INSERT INTO node VALUES ('" + name + "')");
+		}
+		
+		keepAlive.add(connection);
+		return name;
+	}
+	
+	@Before
+	public void before() throws SQLException {
+		firstName = createDatabase();
+		secondName = createDatabase();
+	}
+	
+	@After
+	public void after() throws SQLException {
+		TestDriver.setDown(firstName, false);
+		TestDriver.setDown(secondName, false);
+		
+		if (dataSource != null)
+			dataSource.close();
+		
+		for (Connection connection : keepAlive)
+			connection.close();
+	}
+	
+	private FailoverDataSource createDataSource(long openMillis, long probeIntervalMillis) throws ClassNotFoundException {
+		PoolSettings firstSettings = TestDriver.getSettings(firstName);
+		firstSettings.setMaxConnections(1);
+		firstSettings.setMaxWaitMillis(50);
+		
+		dataSource = DataSourceFactory.getFailoverDataSource(Arrays.asList(firstSettings, TestDriver.getSettings(secondName)), 1, openMillis, probeIntervalMillis);
+		return dataSource;
+	}
+	
+	@Test
+	public void testFailover() throws Exception {
+		createDataSource(60000, 0);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(firstName, getDatabase(connection));
+		}
+		
+		TestDriver.setDown(firstName, true);
+		dataSource.getEndpoints().get(0).evictIdleConnections();
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(secondName, getDatabase(connection));
+		}
+		
+		Assert.assertEquals(CircuitBreaker.State.OPEN, dataSource.getCircuitBreaker(0).getState());
+		Assert.assertEquals(1, dataSource.getEndpoints().get(0).getMetrics().getCreateFailures());
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(secondName, getDatabase(connection));
+		}
+		
+		Assert.assertEquals(1, dataSource.getEndpoints().get(0).getMetrics().getCreateFailures()); // <-- Open endpoint was not tried
+	}
+	
+	@Test
+	public void testAllEndpointsDown() throws Exception {
+		createDataSource(60000, 0);
+		TestDriver.setDown(firstName, true);
+		TestDriver.setDown(secondName, true);
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			Assert.assertEquals("08001", ex.getSQLState());
+			Assert.assertNotNull(ex.getCause());
+		}
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			Assert.assertEquals("08001", ex.getSQLState());
+			Assert.assertNull(ex.getCause()); // <-- Fails fast: no endpoint was tried
+		}
+	}
+	
+	@Test
+	public void testRecovery() throws Exception {
+		createDataSource(50, 0);
+		TestDriver.setDown(firstName, true);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(secondName, getDatabase(connection));
+		}
+		
+		TestDriver.setDown(firstName, false);
+		Thread.sleep(60);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(firstName, getDatabase(connection)); // <-- Trial request
+		}
+		
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, dataSource.getCircuitBreaker(0).getState());
+	}
+	
+	@Test
+	public void testProbes() throws Exception {
+		createDataSource(60000, 20);
+		
+		TestDriver.setDown(firstName, true);
+		await(dataSource.getCircuitBreaker(0), CircuitBreaker.State.OPEN);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(secondName, getDatabase(connection));
+		}
+		
+		TestDriver.setDown(firstName, false);
+		await(dataSource.getCircuitBreaker(0), CircuitBreaker.State.CLOSED);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(firstName, getDatabase(connection));
+		}
+	}
+	
+	@Test
+	public void testExhaustedEndpoint() throws Exception {
+		createDataSource(60000, 0);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			try {
+				dataSource.getConnection();
+				Assert.fail();
+			} catch (SQLException ex) {
+				// Expected (pool is exhausted, but endpoint is reachable)...
+			}
+		}
+		
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, dataSource.getCircuitBreaker(0).getState());
+	}
+	// =========================================================================
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class LatencyHistogramTest {
+	// CLASS SCOPE =============================================================
+	/** Returns the upper bound of the bucket which records given value. */
+	private static long getUpperBound(long value) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(value);
+		histogram.record(Long.MAX_VALUE); // <-- Percentiles are limited by the maximum value
+		return histogram.getPercentileNanos(50);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentileNanos(99));
+		Assert.assertEquals(0, histogram.getMeanNanos(), 0);
+	}
+	
+	@Test
+	public void testSmallValuesAreExact() {
+		for (long value = 0; value < 8; value++)
+			Assert.assertEquals(value, getUpperBound(value));
+	}
+	
+	@Test
+	public void testBucketBounds() {
+		long previousUpperBound = -1;
+		
+		for (long value = 0; value < 1 << 16; value++) {
+			long upperBound = getUpperBound(value);
+			
+			Assert.assertTrue("value: " + value, upperBound >= value);
+			Assert.assertTrue("value: " + value, upperBound - value <= value / 8);
+			Assert.assertTrue("value: " + value, upperBound >= previousUpperBound);
+			
+			// A new bucket starts just after the upper bound of previous one...
+			if (upperBound != previousUpperBound)
+				Assert.assertEquals(previousUpperBound + 1, value);
+			
+			previousUpperBound = upperBound;
+		}
+	}
+	
+	@Test
+	public void testLargeValues() {
+		for (int bit = 16; bit < Long.SIZE - 1; bit++) {
+			long value = 1L << bit;
+			long upperBound = getUpperBound(value);
+			
+			Assert.assertTrue("value: " + value, upperBound >= value);
+			Assert.assertTrue("value: " + value, upperBound - value <= value / 8);
+			Assert.assertEquals(value - 1, getUpperBound(value - 1));
+		}
+		
+		Assert.assertEquals(Long.MAX_VALUE, getUpperBound(Long.MAX_VALUE));
+	}
+	
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++)
+			histogram.record(value * 1000);
+		
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMaxNanos());
+		Assert.assertEquals(500500, histogram.getMeanNanos(), 0.001);
+		Assert.assertEquals(1000000, histogram.getPercentileNanos(100));
+		Assert.assertEquals(1000, histogram.getPercentileNanos(0), 1000 / 8);
+		
+		long p50 = histogram.getPercentileNanos(50);
+		Assert.assertTrue("p50: " + p50, p50 >= 500000 && p50 <= 500000 * 9 / 8);
+		
+		long p99 = histogram.getPercentileNanos(99);
+		Assert.assertTrue("p99: " + p99, p99 >= 990000 && p99 <= 1000000);
+	}
+	
+	@Test
+	public void testNegativeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		Assert.assertEquals(1, histogram.getCount());
+		Assert.assertEquals(0, histogram.getPercentileNanos(100));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPercentile() {
+		new LatencyHistogram().getPercentileNanos(100.5);
+	}
+	// =========================================================================
+}
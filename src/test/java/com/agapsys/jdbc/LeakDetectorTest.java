@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LeakDetector}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class LeakDetectorTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Listener which queues detected leaks. */
+	private static class QueueingListener implements LeakListener {
+		private final BlockingQueue<ConnectionLeak> leaks = new LinkedBlockingQueue<>();
+
+		@Override
+		public void onLeak(ConnectionLeak leak) {
+			leaks.add(leak);
+		}
+		
+		public ConnectionLeak poll(long timeoutMillis) throws InterruptedException {
+			return leaks.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private static int selectOne(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT 1")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private PoolSettings     settings;
+	private PooledDataSource dataSource;
+	private QueueingListener listener;
+	
+	@Before
+	public void before() {
+		settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:leak" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+		settings.setUsername("sa");
+		settings.setPassword("");
+		settings.setMaxConnections(1);
+		settings.setMaxWaitMillis(5000);
+		
+		listener = new QueueingListener();
+	}
+	
+	@After
+	public void after() {
+		if (dataSource != null)
+			dataSource.close();
+	}
+	
+	private void open(PoolEngine engine) throws Exception {
+		settings.setPoolEngine(engine);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		dataSource.addLeakListener(listener);
+	}
+	
+	private void testLeakReport(PoolEngine engine) throws Exception {
+		settings.setLeakThresholdMillis(50);
+		settings.setLeakSampleRate(1);
+		open(engine);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			ConnectionLeak leak = listener.poll(5000);
+			
+			Assert.assertNotNull(leak);
+			Assert.assertFalse(leak.isReclaimed());
+			Assert.assertTrue(leak.getHoldMillis() >= 50);
+			Assert.assertEquals(Thread.currentThread().getName(), leak.getThreadName());
+			Assert.assertNotNull(leak.getBorrowSite());
+			Assert.assertTrue(leak.getHolderStackTrace().length > 0);
+			
+			Assert.assertNull(listener.poll(200)); // <-- Leaks are reported once
+			Assert.assertEquals(1, selectOne(connection)); // <-- Leaked connections are not reclaimed
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getLeakedConnections());
+		Assert.assertEquals(0, dataSource.getMetrics().getReclaimedConnections());
+	}
+	
+	@Test
+	public void testLeakReportDbcp() throws Exception {
+		testLeakReport(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testLeakReportNative() throws Exception {
+		testLeakReport(PoolEngine.NATIVE);
+	}
+	
+	private void testReturnedConnection(PoolEngine engine) throws Exception {
+		settings.setLeakThresholdMillis(50);
+		open(engine);
+		
+		for (int i = 0; i < 3; i++) {
+			try (Connection connection = dataSource.getConnection()) {
+				Assert.assertEquals(1, selectOne(connection));
+			}
+		}
+		
+		Assert.assertNull(listener.poll(200));
+		Assert.assertEquals(0, dataSource.getMetrics().getLeakedConnections());
+	}
+	
+	@Test
+	public void testReturnedConnectionDbcp() throws Exception {
+		testReturnedConnection(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testReturnedConnectionNative() throws Exception {
+		testReturnedConnection(PoolEngine.NATIVE);
+	}
+	
+	@Test
+	public void testUnsampledBorrow() throws Exception {
+		settings.setLeakThresholdMillis(50);
+		settings.setLeakSampleRate(0);
+		open(PoolEngine.NATIVE);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			ConnectionLeak leak = listener.poll(5000);
+			
+			Assert.assertNotNull(leak);
+			Assert.assertNull(leak.getBorrowSite()); // <-- Only the current stack of the holder is available
+			Assert.assertTrue(leak.getHolderStackTrace().length > 0);
+		}
+	}
+	
+	private void testAbandonedConnection(PoolEngine engine) throws Exception {
+		settings.setAbandonedTimeoutMillis(100);
+		open(engine);
+		
+		Connection abandoned = dataSource.getConnection();
+		ConnectionLeak leak = listener.poll(5000);
+		
+		Assert.assertNotNull(leak);
+		Assert.assertTrue(leak.isReclaimed());
+		Assert.assertTrue(leak.getHoldMillis() >= 100);
+		
+		try {
+			selectOne(abandoned);
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		try (Connection connection = dataSource.getConnection()) { // <-- Slot of the reclaimed connection was released
+			Assert.assertEquals(1, selectOne(connection));
+			
+			try {
+				abandoned.close(); // <-- Late close does not return the reclaimed connection
+			} catch (SQLException ignore) {}
+			
+			Assert.assertEquals(1, dataSource.getMetrics().getActiveConnections());
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getReclaimedConnections());
+		Assert.assertEquals(0, dataSource.getMetrics().getLeakedConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+	}
+	
+	@Test
+	public void testAbandonedConnectionDbcp() throws Exception {
+		testAbandonedConnection(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testAbandonedConnectionNative() throws Exception {
+		testAbandonedConnection(PoolEngine.NATIVE);
+	}
+	
+	@Test
+	public void testRemoveListener() throws Exception {
+		settings.setLeakThresholdMillis(50);
+		open(PoolEngine.DBCP);
+		dataSource.removeLeakListener(listener);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertNull(listener.poll(200));
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getLeakedConnections());
+	}
+	
+	@Test
+	public void testInvalidSampleRate() throws Exception {
+		settings.setLeakThresholdMillis(50);
+		settings.setLeakSampleRate(2);
+		
+		try {
+			DataSourceFactory.getDataSource(settings);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link NativeConnectionPool}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class NativeConnectionPoolTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Returns the identifier of the physical connection of given connection. */
+	private static int getSessionId(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT SESSION_ID()")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private PoolSettings     settings;
+	private PooledDataSource dataSource;
+	
+	@Before
+	public void before() {
+		settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:native" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+		settings.setUsername("sa");
+		settings.setPassword("");
+		settings.setPoolEngine(PoolEngine.NATIVE);
+		settings.setMaxConnections(3);
+		settings.setMaxWaitMillis(1000);
+	}
+	
+	@After
+	public void after() {
+		if (dataSource != null)
+			dataSource.close();
+	}
+	
+	@Test
+	public void testReuse() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		int sessionId;
+		try (Connection connection = dataSource.getConnection()) {
+			sessionId = getSessionId(connection);
+		}
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(sessionId, getSessionId(connection)); // <-- Connection returned by this thread is reused
+			
+			try (Connection other = dataSource.getConnection()) {
+				Assert.assertNotEquals(sessionId, getSessionId(other));
+			}
+		}
+		
+		Assert.assertEquals(2, dataSource.getMetrics().getCreatedConnections());
+		Assert.assertEquals(2, dataSource.getMetrics().getIdleConnections());
+	}
+	
+	@Test
+	public void testTimeout() throws Exception {
+		settings.setMaxWaitMillis(100);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			connections.add(dataSource.getConnection());
+		
+		long start = System.nanoTime();
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		
+		for (Connection connection : connections)
+			connection.close();
+		
+		Assert.assertEquals(3, dataSource.getMetrics().getIdleConnections());
+	}
+	
+	@Test
+	public void testHandoff() throws Exception {
+		settings.setMaxConnections(1);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		final Connection connection = dataSource.getConnection();
+		final int sessionId = getSessionId(connection);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			Future<Integer> future = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					try (Connection waiterConnection = dataSource.getConnection()) {
+						return getSessionId(waiterConnection);
+					}
+				}
+			});
+			
+			while (dataSource.getMetrics().getWaiters() == 0)
+				Thread.sleep(1);
+			
+			long start = System.nanoTime();
+			connection.close(); // <-- Returning thread does not wait for the borrower
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+			
+			Assert.assertEquals(sessionId, (int) future.get(1, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getCreatedConnections());
+	}
+	
+	@Test
+	public void testStateIsRestored() throws Exception {
+		settings.setMaxConnections(1);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		int isolation;
+		try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT)");
+			isolation = connection.getTransactionIsolation();
+			
+			connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			connection.setReadOnly(true);
+		}
+		
+		try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+			Assert.assertFalse(connection.isReadOnly());
+			Assert.assertEquals(isolation, connection.getTransactionIsolation());
+			
+			connection.setAutoCommit(false);
+			stmt.execute("INSERT INTO t VALUES (1)");
+		}
+		
+		try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			Assert.assertTrue(connection.getAutoCommit());
+			
+			rs.next();
+			Assert.assertEquals(0, rs.getInt(1)); // <-- Pending work was rolled back
+		}
+	}
+	
+	@Test
+	public void testMaxIdleConnections() throws Exception {
+		settings.setMaxIdleConnections(1);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+			connections.add(dataSource.getConnection());
+		
+		for (Connection connection : connections)
+			connection.close();
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+		Assert.assertEquals(2, dataSource.getMetrics().getDestroyedConnections());
+	}
+	
+	@Test
+	public void testMaxLifetime() throws Exception {
+		settings.setMaxConnectionLifetimeMillis(50);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		dataSource.getConnection().close();
+		Thread.sleep(100);
+		dataSource.getConnection().close();
+		
+		Assert.assertEquals(2, dataSource.getMetrics().getCreatedConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getDestroyedConnections());
+	}
+	
+	@Test
+	public void testConcurrentBorrows() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		final AtomicInteger borrowed = new AtomicInteger();
+		final AtomicInteger maxBorrowed = new AtomicInteger();
+		List<Callable<Void>> tasks = new ArrayList<>();
+		
+		for (int i = 0; i < 8; i++) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int j = 0; j < 200; j++) {
+						try (Connection connection = dataSource.getConnection()) {
+							int count = borrowed.incrementAndGet();
+							
+							int max;
+							while ((max = maxBorrowed.get()) < count && !maxBorrowed.compareAndSet(max, count)) {}
+							
+							getSessionId(connection);
+							borrowed.decrementAndGet();
+						}
+					}
+					
+					return null;
+				}
+			});
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks))
+				future.get();
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertTrue(maxBorrowed.get() <= 3);
+		Assert.assertTrue(dataSource.getMetrics().getCreatedConnections() <= 3);
+		Assert.assertEquals(0, dataSource.getMetrics().getActiveConnections());
+		Assert.assertEquals(0, dataSource.getMetrics().getBorrowFailures());
+		Assert.assertEquals(8 * 200, dataSource.getMetrics().getBorrowCount());
+	}
+	
+	@Test
+	public void testClose() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		Connection borrowed = dataSource.getConnection();
+		dataSource.getConnection().close();
+		dataSource.close();
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getDestroyedConnections()); // <-- Idle connection is closed
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		borrowed.close();
+		Assert.assertEquals(2, dataSource.getMetrics().getDestroyedConnections());
+		Assert.assertEquals(0, dataSource.getMetrics().getIdleConnections());
+	}
+	// =========================================================================
+}
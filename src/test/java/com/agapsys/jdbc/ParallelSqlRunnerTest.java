@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParallelSqlRunner}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ParallelSqlRunnerTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Data source which tracks the number of simultaneously borrowed connections. */
+	private static class CountingDataSource extends JdbcDataSource {
+		private final AtomicInteger active    = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+		
+		@Override
+		public Connection getConnection() throws SQLException {
+			final Connection connection = super.getConnection();
+			
+			int count = active.incrementAndGet();
+			int max;
+			while (count > (max = maxActive.get()) && !maxActive.compareAndSet(max, count));
+			
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+				private boolean closed = false;
+				
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("close") && !closed) {
+						closed = true;
+						active.decrementAndGet();
+					}
+					
+					try {
+						return method.invoke(connection, args);
+					} catch (InvocationTargetException ex) {
+						throw ex.getCause();
+					}
+				}
+			});
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private CountingDataSource dataSource;
+	private Connection         connection; // <-- Keeps the in-memory database alive
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new CountingDataSource();
+		dataSource.setURL("jdbc:h2:mem:parallel" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE ALIAS SLEEP FOR \"java.lang.Thread.sleep\"");
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+		}
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int count() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testRun() throws Exception {
+		List<SqlScript> scripts = new ArrayList<>();
+		for (int i = 0; i < 6; i++)
+			scripts.add(SqlScript.fromString("script" + i, String.format("INSERT INTO t VALUES (%d);\nCALL SLEEP(50);\nINSERT INTO t VALUES (%d);", i * 2, i * 2 + 1)));
+		
+		List<ParallelSqlRunner.ScriptResult> results = ParallelSqlRunner.run(dataSource, scripts, 2, 10);
+		
+		Assert.assertEquals(6, results.size());
+		for (int i = 0; i < 6; i++) {
+			Assert.assertSame(scripts.get(i), results.get(i).getScript());
+			Assert.assertTrue(results.get(i).isSuccessful());
+		}
+		
+		Assert.assertTrue(ParallelSqlRunner.getFailures(results).isEmpty());
+		Assert.assertEquals(12, count());
+		Assert.assertTrue(dataSource.maxActive.get() <= 3); // <-- Two scripts and the connection kept by the test
+		Assert.assertEquals(1, dataSource.active.get());
+	}
+	
+	@Test
+	public void testFailure() throws Exception {
+		List<SqlScript> scripts = new ArrayList<>();
+		scripts.add(SqlScript.fromString("ok1", "INSERT INTO t VALUES (1);"));
+		scripts.add(SqlScript.fromString("failing", "INSERT INTO t VALUES (2);\nINSERT INTO t VALUES (2);"));
+		scripts.add(SqlScript.fromString("ok2", "INSERT INTO t VALUES (3);"));
+		
+		List<ParallelSqlRunner.ScriptResult> results = ParallelSqlRunner.run(dataSource, scripts, 3, 1);
+		List<ParallelSqlRunner.ScriptResult> failures = ParallelSqlRunner.getFailures(results);
+		
+		Assert.assertEquals(1, failures.size());
+		Assert.assertSame(scripts.get(1), failures.get(0).getScript());
+		Assert.assertTrue(failures.get(0).getError() instanceof SQLException);
+		Assert.assertEquals(2, count()); // <-- Failed script was rolled back
+		Assert.assertEquals(1, dataSource.active.get());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxConnections() throws Exception {
+		ParallelSqlRunner.run(dataSource, new ArrayList<SqlScript>(), 0, 1);
+	}
+	// =========================================================================
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PoolMetrics}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PoolMetricsTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static class CountingListener implements PoolListener {
+		private final AtomicInteger borrows        = new AtomicInteger();
+		private final AtomicInteger returns        = new AtomicInteger();
+		private final AtomicInteger borrowFailures = new AtomicInteger();
+		private final AtomicInteger creates        = new AtomicInteger();
+		private final AtomicInteger createFailures = new AtomicInteger();
+		private final AtomicInteger destroys       = new AtomicInteger();
+
+		@Override
+		public void onBorrow(long waitNanos) {
+			borrows.incrementAndGet();
+		}
+
+		@Override
+		public void onReturn(long holdNanos) {
+			returns.incrementAndGet();
+		}
+
+		@Override
+		public void onBorrowFailure(Exception error) {
+			borrowFailures.incrementAndGet();
+		}
+
+		@Override
+		public void onCreate() {
+			creates.incrementAndGet();
+		}
+
+		@Override
+		public void onCreateFailure(Exception error) {
+			createFailures.incrementAndGet();
+		}
+
+		@Override
+		public void onDestroy() {
+			destroys.incrementAndGet();
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private PoolSettings     settings;
+	private PooledDataSource dataSource;
+	
+	@Before
+	public void before() {
+		settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:metrics" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+		settings.setUsername("sa");
+		settings.setPassword("");
+		settings.setMaxConnections(2);
+		settings.setMaxWaitMillis(100);
+	}
+	
+	@After
+	public void after() {
+		if (dataSource != null)
+			dataSource.close();
+	}
+	
+	private void testMetrics(PoolEngine engine) throws Exception {
+		settings.setPoolEngine(engine);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		CountingListener listener = new CountingListener();
+		dataSource.addListener(listener);
+		
+		PoolMetrics metrics = dataSource.getMetrics();
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		
+		Assert.assertEquals(2, metrics.getActiveConnections());
+		Assert.assertEquals(0, metrics.getIdleConnections());
+		Assert.assertEquals(2, metrics.getMaxConnections());
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Thread.sleep(5);
+		first.close();
+		second.close();
+		
+		Assert.assertEquals(0, metrics.getActiveConnections());
+		Assert.assertEquals(2, metrics.getIdleConnections());
+		Assert.assertEquals(2, metrics.getCreatedConnections());
+		Assert.assertEquals(1, metrics.getBorrowFailures());
+		Assert.assertEquals(2, metrics.getBorrowCount());
+		Assert.assertEquals(2, metrics.getHoldTimeHistogram().getCount());
+		Assert.assertTrue(metrics.getHoldTimeMaxMillis() >= 5);
+		
+		Assert.assertEquals(2, listener.borrows.get());
+		Assert.assertEquals(2, listener.returns.get());
+		Assert.assertEquals(1, listener.borrowFailures.get());
+		Assert.assertEquals(2, listener.creates.get());
+		Assert.assertEquals(0, listener.createFailures.get());
+		
+		dataSource.close();
+		
+		Assert.assertEquals(2, metrics.getDestroyedConnections());
+		Assert.assertEquals(2, listener.destroys.get());
+	}
+	
+	@Test
+	public void testDbcpMetrics() throws Exception {
+		testMetrics(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testNativeMetrics() throws Exception {
+		testMetrics(PoolEngine.NATIVE);
+	}
+	
+	@Test
+	public void testCreateFailure() throws Exception {
+		settings.setUri("jdbc:h2:mem:missing;IFEXISTS=TRUE");
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getCreateFailures());
+		Assert.assertEquals(0, dataSource.getMetrics().getCreatedConnections());
+	}
+	
+	@Test
+	public void testJmx() throws Exception {
+		settings.setPoolName("metrics-test");
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.agapsys.jdbc:type=PoolMetrics,name=" + ObjectName.quote("metrics-test"));
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(1, server.getAttribute(name, "ActiveConnections"));
+		}
+		
+		Assert.assertEquals(1L, server.getAttribute(name, "BorrowCount"));
+		
+		try {
+			DataSourceFactory.getDataSource(settings);
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+			// Expected (name already registered)...
+		}
+		
+		dataSource.close();
+		Assert.assertFalse(server.isRegistered(name));
+	}
+	// =========================================================================
+}
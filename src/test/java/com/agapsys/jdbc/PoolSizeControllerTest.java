@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PoolSizeController}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PoolSizeControllerTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private String           name;
+	private Connection       connection; // <-- Keeps the in-memory database alive
+	private PoolSettings     settings;
+	private PooledDataSource dataSource;
+	
+	@Before
+	public void before() throws SQLException {
+		name = "sizing" + (databaseCount++);
+		connection = TestDriver.getConnection(name);
+		
+		settings = TestDriver.getSettings(name);
+		settings.setMaxConnections(8);
+		settings.setMaxWaitMillis(50);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		TestDriver.setDown(name, false);
+		
+		if (dataSource != null)
+			dataSource.close();
+		
+		connection.close();
+	}
+	
+	private Connection[] borrow(int count) throws SQLException {
+		Connection[] connections = new Connection[count];
+		for (int i = 0; i < count; i++)
+			connections[i] = dataSource.getConnection();
+		
+		return connections;
+	}
+	
+	private void close(Connection[] connections) throws SQLException {
+		for (Connection conn : connections)
+			conn.close();
+	}
+	
+	@Test
+	public void testBounds() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(2, 5, 0);
+		Assert.assertEquals(5, dataSource.getMaxConnections());
+		Assert.assertSame(controller, dataSource.getSizeController());
+		
+		controller.close();
+		Assert.assertNull(dataSource.getSizeController());
+		
+		try {
+			dataSource.enableAdaptiveSizing(3, 2, 0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testGrowWhenFull() throws Exception {
+		settings.setMaxConnections(4);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(1, 8, 0);
+		
+		Connection[] connections = borrow(4);
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		controller.adjust();
+		Assert.assertEquals(5, dataSource.getMaxConnections());
+		
+		close(connections);
+	}
+	
+	@Test
+	public void testOpenIdleConnectionsWhenSlow() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(2, 8, 0);
+		controller.setTargetWaitMillis(0); // <-- Every borrow which opens a connection is slow
+		
+		close(borrow(1));
+		
+		controller.adjust();
+		Assert.assertEquals(8, dataSource.getMaxConnections());
+		Assert.assertEquals(1, dataSource.getMinIdleConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+	}
+	
+	@Test
+	public void testBackOffOnCreateFailures() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(2, 8, 0);
+		
+		TestDriver.setDown(name, true);
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		controller.adjust();
+		Assert.assertEquals(6, dataSource.getMaxConnections());
+	}
+	
+	@Test
+	public void testShrink() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(1, 8, 0);
+		controller.setShrinkIntervals(2);
+		
+		controller.adjust();
+		Assert.assertEquals(8, dataSource.getMaxConnections());
+		
+		controller.adjust();
+		Assert.assertEquals(7, dataSource.getMaxConnections());
+	}
+	
+	@Test
+	public void testPeakSampling() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(1, 8, 0);
+		controller.setShrinkIntervals(1);
+		
+		Connection[] connections = borrow(4);
+		controller.sample();
+		close(connections);
+		
+		controller.adjust(); // <-- Sampled peak (4 of 8 connections) is not underutilized
+		Assert.assertEquals(8, dataSource.getMaxConnections());
+		
+		controller.adjust(); // <-- Peak is reset on each interval
+		Assert.assertEquals(7, dataSource.getMaxConnections());
+	}
+	
+	@Test
+	public void testScheduledAdjustments() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(1, 8, 20);
+		controller.setShrinkIntervals(1);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dataSource.getMaxConnections() > 6 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		
+		Assert.assertTrue(dataSource.getMaxConnections() <= 6);
+		
+		controller.close();
+		int max = dataSource.getMaxConnections();
+		Thread.sleep(100);
+		Assert.assertEquals(max, dataSource.getMaxConnections());
+	}
+	
+	@Test
+	public void testInvalidArguments() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		PoolSizeController controller = dataSource.enableAdaptiveSizing(1, 8, 0);
+		
+		try {
+			controller.setTargetWaitMillis(-1);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			controller.setShrinkIntervals(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			controller.setMaxMinIdleConnections(-1);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
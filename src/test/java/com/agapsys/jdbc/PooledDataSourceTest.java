@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PooledDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class PooledDataSourceTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private PoolSettings     settings;
+	private PooledDataSource dataSource;
+	
+	@Before
+	public void before() {
+		settings = new PoolSettings() {};
+		settings.setDriverClass("org.h2.Driver");
+		settings.setUri("jdbc:h2:mem:pool" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+		settings.setUsername("sa");
+		settings.setPassword("");
+		settings.setMaxConnections(2);
+	}
+	
+	@After
+	public void after() {
+		if (dataSource != null)
+			dataSource.close();
+	}
+	
+	private int selectOne(Connection connection) throws SQLException {
+		try (PreparedStatement stmt = connection.prepareStatement("SELECT 1"); ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testStatementPooling() throws Exception {
+		settings.setPoolStatements(true);
+		settings.setMaxConnections(1);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		for (int i = 0; i < 3; i++) {
+			try (Connection connection = dataSource.getConnection()) {
+				Assert.assertEquals(1, selectOne(connection));
+			}
+		}
+		
+		StatementCacheStats stats = dataSource.getStatementCacheStats();
+		Assert.assertEquals(1, stats.getMisses());
+		Assert.assertEquals(2, stats.getHits());
+		Assert.assertEquals(1, dataSource.getMetrics().getCreatedConnections());
+	}
+	
+	@Test
+	public void testWithoutStatementPooling() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(1, selectOne(connection));
+			Assert.assertEquals(1, selectOne(connection));
+		}
+		
+		StatementCacheStats stats = dataSource.getStatementCacheStats();
+		Assert.assertEquals(0, stats.getMisses());
+		Assert.assertEquals(0, stats.getHits());
+	}
+	
+	@Test
+	public void testNativeEngineRejectsStatementPooling() throws Exception {
+		settings.setPoolStatements(true);
+		settings.setPoolEngine(PoolEngine.NATIVE);
+		
+		try {
+			DataSourceFactory.getDataSource(settings);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testOtherCredentials() throws Exception {
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		try {
+			dataSource.getConnection("sa", "");
+			Assert.fail();
+		} catch (SQLFeatureNotSupportedException ex) {
+			// Expected...
+		}
+		
+		try {
+			dataSource.setLoginTimeout(1);
+			Assert.fail();
+		} catch (SQLFeatureNotSupportedException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testMaxConnections() throws Exception {
+		settings.setMaxConnections(3);
+		settings.setMaxIdleConnections(1);
+		settings.setMaxWaitMillis(100);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		Connection[] connections = new Connection[3];
+		for (int i = 0; i < connections.length; i++)
+			connections[i] = dataSource.getConnection(); // <-- Max idle connections does not limit borrowed connections
+		
+		Assert.assertEquals(3, dataSource.getMetrics().getActiveConnections());
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		for (Connection connection : connections)
+			connection.close();
+		
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+		Assert.assertEquals(1, dataSource.getMetrics().getBorrowFailures());
+	}
+	
+	@Test
+	public void testWarmUp() throws Exception {
+		settings.setMaxConnections(5);
+		settings.setMinIdleConnections(3);
+		settings.setWarmUp(true);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		Assert.assertEquals(3, dataSource.getMetrics().getIdleConnections());
+		Assert.assertEquals(3, dataSource.getMetrics().getCreatedConnections());
+		Assert.assertEquals(0, dataSource.warmUp());
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(1, selectOne(connection));
+		}
+		
+		Assert.assertEquals(3, dataSource.getMetrics().getCreatedConnections());
+	}
+	
+	@Test
+	public void testEvictor() throws Exception {
+		settings.setMaxConnections(5);
+		settings.setMinIdleConnections(2);
+		settings.setEvictionIntervalMillis(20);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dataSource.getMetrics().getIdleConnections() < 2 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		
+		Assert.assertEquals(2, dataSource.getMetrics().getIdleConnections()); // <-- Evictor opens missing idle connections
+	}
+	
+	private void testReduceMaxConnections(PoolEngine engine) throws Exception {
+		settings.setPoolEngine(engine);
+		settings.setMaxConnections(4);
+		dataSource = DataSourceFactory.getDataSource(settings);
+		
+		Connection[] connections = new Connection[4];
+		for (int i = 0; i < connections.length; i++)
+			connections[i] = dataSource.getConnection();
+		
+		connections[3].close();
+		Assert.assertEquals(1, dataSource.getMetrics().getIdleConnections());
+		
+		dataSource.setMaxConnections(2);
+		Assert.assertEquals(0, dataSource.getMetrics().getIdleConnections()); // <-- Excess idle connections are closed immediately
+		Assert.assertEquals(3, dataSource.getMetrics().getActiveConnections());
+		
+		connections[2].close();
+		Assert.assertEquals(0, dataSource.getMetrics().getIdleConnections()); // <-- Excess borrowed connections are closed when returned
+		Assert.assertEquals(2, dataSource.getMetrics().getDestroyedConnections());
+		
+		connections[1].close();
+		connections[0].close();
+		Assert.assertEquals(2, dataSource.getMetrics().getIdleConnections());
+		Assert.assertEquals(2, dataSource.getMetrics().getDestroyedConnections());
+	}
+	
+	@Test
+	public void testReduceMaxConnectionsDbcp() throws Exception {
+		testReduceMaxConnections(PoolEngine.DBCP);
+	}
+	
+	@Test
+	public void testReduceMaxConnectionsNative() throws Exception {
+		testReduceMaxConnections(PoolEngine.NATIVE);
+	}
+	// =========================================================================
+}
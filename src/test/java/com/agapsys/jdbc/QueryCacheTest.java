@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link QueryCache}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class QueryCacheTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static final String COUNT_T = "SELECT COUNT(*) FROM t";
+	private static final String COUNT_U = "SELECT COUNT(*) FROM u";
+	
+	/** Data source which counts provided connections. */
+	private static class CountingDataSource extends JdbcDataSource {
+		private final AtomicInteger connections = new AtomicInteger();
+		
+		private volatile long delayMillis = 0;
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			connections.incrementAndGet();
+			
+			if (delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+			
+			return super.getConnection();
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private CountingDataSource dataSource;
+	private Connection         connection; // <-- Keeps the in-memory database alive
+	private QueryCache         cache;
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new CountingDataSource();
+		dataSource.setURL("jdbc:h2:mem:cache" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(20))");
+			stmt.execute("CREATE TABLE u (id INT PRIMARY KEY)");
+			stmt.execute("INSERT INTO t VALUES (1, 'a')");
+			stmt.execute("INSERT INTO u VALUES (1)");
+		}
+		
+		dataSource.connections.set(0);
+		cache = new QueryCache(dataSource);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	/** Returns the (possibly cached) number of rows of given query. */
+	private long count(String sql) throws SQLException {
+		return ((Number) cache.query(sql).getObject(0, 0)).longValue();
+	}
+	
+	@Test
+	public void testHits() throws SQLException {
+		CachedResult result = cache.query("SELECT id, name FROM t WHERE id = ?", 1);
+		
+		Assert.assertEquals(1, result.getRowCount());
+		Assert.assertEquals("a", result.getObject(0, "name"));
+		Assert.assertSame(result, cache.query("SELECT id, name FROM t WHERE id = ?", 1));
+		Assert.assertEquals(0, cache.query("SELECT id, name FROM t WHERE id = ?", 2).getRowCount()); // <-- Parameters are part of the key
+		
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(2, dataSource.connections.get());
+	}
+	
+	@Test
+	public void testCoalescing() throws Exception {
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<CachedResult>> futures = new ArrayList<>();
+		
+		dataSource.delayMillis = 200;
+		
+		try {
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<CachedResult>() {
+					@Override
+					public CachedResult call() throws Exception {
+						start.await();
+						return cache.query(COUNT_T);
+					}
+				}));
+			}
+			
+			start.countDown();
+			
+			CachedResult result = futures.get(0).get();
+			for (Future<CachedResult> future : futures)
+				Assert.assertSame(result, future.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertEquals(1, dataSource.connections.get());
+		Assert.assertEquals(threads, cache.getHits() + cache.getMisses());
+	}
+	
+	@Test
+	public void testTtl() throws Exception {
+		cache.setTtlMillis(50);
+		
+		count(COUNT_T);
+		Thread.sleep(100);
+		count(COUNT_T);
+		
+		Assert.assertEquals(2, dataSource.connections.get());
+		Assert.assertEquals(0, cache.getHits());
+	}
+	
+	@Test
+	public void testMaxRows() throws SQLException {
+		cache.setMaxRows(1);
+		
+		cache.query("SELECT * FROM t UNION ALL SELECT * FROM t");
+		Assert.assertEquals(0, cache.size());
+		
+		cache.query(COUNT_T);
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void testEviction() throws Exception {
+		cache.setMaxEntries(16);
+		
+		for (int i = 0; i < 16; i++) {
+			cache.query("SELECT ?", i);
+			Thread.sleep(2);
+		}
+		
+		cache.query("SELECT ?", 0); // <-- Key 0 becomes the most recently used one
+		Thread.sleep(2);
+		
+		cache.query("SELECT ?", 16);
+		Assert.assertEquals(15, cache.size()); // <-- Evicted below the limit
+		
+		long misses = cache.getMisses();
+		
+		cache.query("SELECT ?", 0);
+		Assert.assertEquals(misses, cache.getMisses());
+		
+		cache.query("SELECT ?", 1);
+		Assert.assertEquals(misses + 1, cache.getMisses());
+		
+		cache.setMaxEntries(4);
+		Assert.assertEquals(4, cache.size());
+	}
+	
+	@Test
+	public void testExecute() throws SQLException {
+		Assert.assertEquals(1, count(COUNT_T));
+		Assert.assertEquals(1, count(COUNT_U));
+		
+		Assert.assertEquals(1, cache.execute("INSERT INTO t VALUES (?, ?)", 2, "b"));
+		
+		Assert.assertEquals(2, count(COUNT_T));
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(1, count(COUNT_U)); // <-- Not invalidated
+		Assert.assertEquals(1, cache.getHits());
+	}
+	
+	@Test
+	public void testInvalidate() throws SQLException {
+		count(COUNT_T);
+		count(COUNT_U);
+		
+		cache.invalidate("T");
+		Assert.assertEquals(1, cache.size());
+		
+		cache.invalidateAll();
+		Assert.assertEquals(0, cache.size());
+		
+		try {
+			cache.invalidate(" ");
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testDataSource() throws SQLException {
+		Assert.assertEquals(1, count(COUNT_T));
+		Assert.assertEquals(1, count(COUNT_U));
+		
+		try (Connection conn = cache.getDataSource().getConnection(); Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery("SELECT * FROM t")) {}
+			Assert.assertTrue(stmt.execute("SELECT * FROM t"));
+			Assert.assertEquals(2, cache.size()); // <-- Reads do not invalidate the cache
+			
+			stmt.executeUpdate("INSERT INTO t VALUES (2, 'b')");
+			Assert.assertEquals(2, count(COUNT_T));
+			
+			try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO t VALUES (?, ?)")) {
+				pstmt.setInt(1, 3);
+				pstmt.setString(2, "c");
+				pstmt.addBatch();
+				pstmt.setInt(1, 4);
+				pstmt.setString(2, "d");
+				pstmt.addBatch();
+				pstmt.executeBatch();
+			}
+			
+			Assert.assertEquals(4, count(COUNT_T));
+			
+			stmt.addBatch("DELETE FROM t WHERE id = 4");
+			stmt.executeBatch();
+			Assert.assertEquals(3, count(COUNT_T));
+			
+			stmt.execute("CREATE TABLE v (id INT)"); // <-- Unknown written table: all results are invalidated
+			Assert.assertEquals(0, cache.size());
+		}
+		
+		Assert.assertEquals(1, count(COUNT_U));
+	}
+	
+	@Test
+	public void testLocalTransaction() throws SQLException {
+		Assert.assertEquals(1, count(COUNT_T));
+		
+		try (Connection conn = cache.getDataSource().getConnection()) {
+			conn.setAutoCommit(false);
+			
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate("INSERT INTO t VALUES (2, 'b')");
+			}
+			
+			Assert.assertEquals(1, count(COUNT_T)); // <-- Uncommitted row is not visible (and result is cached again)
+			
+			conn.commit();
+			Assert.assertEquals(2, count(COUNT_T));
+			
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate("DELETE FROM t");
+			}
+			
+			Assert.assertEquals(2, count(COUNT_T));
+			
+			conn.rollback();
+			Assert.assertEquals(2, count(COUNT_T));
+		}
+	}
+	
+	@Test
+	public void testSqlRunner() throws SQLException {
+		Assert.assertEquals(1, count(COUNT_T));
+		
+		try (Connection conn = cache.getDataSource().getConnection()) {
+			SqlRunner.run(conn, "INSERT INTO t VALUES (2, 'b');\nINSERT INTO t VALUES (3, 'c');");
+		}
+		
+		Assert.assertEquals(3, count(COUNT_T));
+	}
+	
+	@Test
+	public void testBulkLoader() throws Exception {
+		Assert.assertEquals(1, count(COUNT_T));
+		
+		File file = folder.newFile();
+		Files.write(file.toPath(), "2,b\n3,c\n".getBytes(StandardCharsets.UTF_8));
+		
+		BulkLoader.Result result = new BulkLoader(cache.getDataSource(), "t", "id", "name").load(file);
+		
+		Assert.assertTrue(result.isSuccessful());
+		Assert.assertEquals(3, count(COUNT_T));
+	}
+	
+	@Test
+	public void testTracingDataSource() throws SQLException {
+		Assert.assertEquals(1, count(COUNT_T));
+		
+		TracingDataSource tracingDataSource = new TracingDataSource(cache.getDataSource(), new StatementTracer());
+		
+		try (Connection conn = tracingDataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("INSERT INTO t VALUES (2, 'b')");
+		}
+		
+		Assert.assertEquals(2, count(COUNT_T));
+	}
+	
+	@Test
+	public void testTransactionExecutor() throws Exception {
+		Assert.assertEquals(1, count(COUNT_T));
+		
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			new TransactionExecutor(cache.getDataSource()).execute(new SqlWork<Void>() {
+				@Override
+				public Void execute(Connection connection) throws SQLException {
+					try (Statement stmt = connection.createStatement()) {
+						stmt.executeUpdate("INSERT INTO t VALUES (2, 'b')");
+					}
+					
+					Assert.assertEquals(2, count(COUNT_T)); // <-- Queries inside the transaction bypass the cache
+					
+					try {
+						long otherCount = executor.submit(new Callable<Long>() {
+							@Override
+							public Long call() throws SQLException {
+								return count(COUNT_T);
+							}
+						}).get();
+						
+						Assert.assertEquals(1, otherCount); // <-- Uncommitted row is not visible to other threads (and result is cached again)
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+					
+					cache.execute("INSERT INTO u VALUES (2)"); // <-- Joins the transaction
+					return null;
+				}
+			});
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertEquals(2, count(COUNT_T));
+		Assert.assertEquals(2, count(COUNT_U));
+	}
+	
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new QueryCache(null);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			cache.setMaxEntries(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			cache.setTtlMillis(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			cache.setMaxRows(-1);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
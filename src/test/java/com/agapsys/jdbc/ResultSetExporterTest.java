@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResultSetExporter}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ResultSetExporterTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static void assertRanges(long minKey, long maxKey, int parallelism, int expectedParts) {
+		long[] lowerBounds = ResultSetExporter.splitKeyRange(minKey, maxKey, parallelism);
+		
+		Assert.assertEquals(expectedParts, lowerBounds.length);
+		Assert.assertEquals(minKey, lowerBounds[0]);
+		
+		for (int i = 1; i < lowerBounds.length; i++)
+			Assert.assertTrue(lowerBounds[i] > lowerBounds[i - 1]); // <-- No empty ranges
+		
+		Assert.assertTrue(lowerBounds[lowerBounds.length - 1] <= maxKey);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private Connection        connection; // <-- Keeps the in-memory database alive
+	private ResultSetExporter exporter;
+	
+	@Before
+	public void before() throws SQLException {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:export" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id BIGINT, name VARCHAR(20))");
+			stmt.execute("INSERT INTO t SELECT X, 'n' || X FROM SYSTEM_RANGE(0, 10)");
+			stmt.execute("INSERT INTO t VALUES (NULL, 'null key')");
+			stmt.execute("INSERT INTO t VALUES (12, 'a,\"b\"')");
+		}
+		
+		exporter = new ResultSetExporter(dataSource);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private String export(String sql, Object...params) throws SQLException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		try (WritableByteChannel channel = Channels.newChannel(out)) {
+			exporter.export(sql, channel, params);
+		}
+		
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	private String exportParallel(String sql, int parallelism, Object...params) throws SQLException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		try (WritableByteChannel channel = Channels.newChannel(out)) {
+			exporter.exportParallel(sql, "id", parallelism, channel, params);
+		}
+		
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void testCsv() throws SQLException, IOException {
+		Assert.assertEquals("ID,NAME\r\n1,n1\r\n12,\"a,\"\"b\"\"\"\r\n,null key\r\n", export("SELECT * FROM t WHERE id IN (1, 12) OR id IS NULL ORDER BY id NULLS LAST"));
+		
+		exporter.setHeader(false);
+		exporter.setDelimiter(';');
+		Assert.assertEquals("2;n2\r\n", export("SELECT * FROM t WHERE id = ?", 2));
+	}
+	
+	@Test
+	public void testSplitKeyRange() {
+		assertRanges(0, 10, 10, 10);
+		assertRanges(0, 2, 10, 3);
+		assertRanges(5, 5, 4, 1);
+		assertRanges(0, 1000, 7, 7);
+		assertRanges(Long.MAX_VALUE - 2, Long.MAX_VALUE, 8, 3);
+		assertRanges(Long.MIN_VALUE, Long.MAX_VALUE, 4, 4);
+		
+		long[] lowerBounds = ResultSetExporter.splitKeyRange(Long.MIN_VALUE, Long.MAX_VALUE, 4);
+		Assert.assertEquals(-(1L << 62), lowerBounds[1]);
+		Assert.assertEquals(0, lowerBounds[2]);
+		Assert.assertEquals(1L << 62, lowerBounds[3]);
+	}
+	
+	@Test
+	public void testParallel() throws SQLException, IOException {
+		String expected = export("SELECT * FROM t WHERE id IS NOT NULL ORDER BY id");
+		
+		for (int parallelism = 1; parallelism <= 16; parallelism++)
+			Assert.assertEquals(expected, exportParallel("SELECT * FROM t", parallelism));
+		
+		Assert.assertEquals(expected, exportParallel("SELECT * FROM t ORDER BY id DESC", 3)); // <-- Rows are exported in key order
+		Assert.assertEquals("ID,NAME\r\n3,n3\r\n4,n4\r\n", exportParallel("SELECT * FROM t WHERE id BETWEEN ? AND ?", 4, 3, 4));
+	}
+	
+	@Test
+	public void testParallelExtremeKeys() throws SQLException, IOException {
+		try (PreparedStatement stmt = connection.prepareStatement("INSERT INTO t VALUES (?, ?)")) {
+			for (long key : new long[] {Long.MIN_VALUE, Long.MIN_VALUE + 1, -1, Long.MAX_VALUE - 1, Long.MAX_VALUE}) {
+				stmt.setLong(1, key);
+				stmt.setString(2, "x");
+				stmt.executeUpdate();
+			}
+		}
+		
+		String expected = export("SELECT * FROM t WHERE id IS NOT NULL ORDER BY id");
+		
+		Assert.assertEquals(expected, exportParallel("SELECT * FROM t", 4));
+		Assert.assertEquals(expected, exportParallel("SELECT * FROM t", 7));
+	}
+	
+	@Test
+	public void testParallelEmpty() throws SQLException, IOException {
+		Assert.assertEquals("ID,NAME\r\n", exportParallel("SELECT * FROM t WHERE id < 0", 4));
+		
+		exporter.setHeader(false);
+		Assert.assertEquals("", exportParallel("SELECT * FROM t WHERE id < 0", 4));
+	}
+	
+	@Test
+	public void testInvalidArguments() throws SQLException, IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(out);
+		
+		try {
+			exporter.exportParallel("SELECT * FROM t", "id; DROP TABLE t", 2, channel);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			exporter.exportParallel("SELECT * FROM t", "id", 0, channel);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			exporter.export("SELECT * FROM t", null);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(0, out.size());
+	}
+	// =========================================================================
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RetryExecutor}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RetryExecutorTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Data source which fails to provide the first connections. */
+	private static class UnreachableDataSource extends JdbcDataSource {
+		private final AtomicInteger failures;
+
+		public UnreachableDataSource(int failures) {
+			this.failures = new AtomicInteger(failures);
+		}
+		
+		@Override
+		public Connection getConnection() throws SQLException {
+			if (failures.getAndDecrement() > 0)
+				throw new SQLNonTransientConnectionException("Connection refused", "08001");
+			
+			return super.getConnection();
+		}
+	}
+	
+	/** Work which fails with given error in its first attempts. */
+	private static class FailingWork implements SqlWork<Integer> {
+		private final SQLException   error;
+		private final int           failures;
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		public FailingWork(SQLException error, int failures) {
+			this.error = error;
+			this.failures = failures;
+		}
+		
+		@Override
+		public Integer execute(Connection connection) throws SQLException {
+			int attempt = attempts.incrementAndGet();
+			
+			connection.setAutoCommit(false);
+			try (Statement stmt = connection.createStatement()) {
+				stmt.executeUpdate("INSERT INTO t VALUES (" + attempt + ")");
+			}
+			
+			if (attempt <= failures)
+				throw error;
+			
+			connection.commit();
+			return attempt;
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private UnreachableDataSource dataSource;
+	private Connection            connection; // <-- Keeps the in-memory database alive
+	private RetryExecutor         executor;
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new UnreachableDataSource(0);
+		dataSource.setURL("jdbc:h2:mem:retry" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+		}
+		
+		executor = new RetryExecutor();
+		executor.setInitialDelayMillis(1);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int countRows() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testTransientError() throws SQLException {
+		FailingWork work = new FailingWork(new SQLException("Deadlock", "40001"), 2);
+		
+		Assert.assertEquals(3, (int) executor.execute(dataSource, work));
+		Assert.assertEquals(2, executor.getRetries());
+		Assert.assertEquals(1, countRows()); // <-- Failed attempts were rolled back
+	}
+	
+	@Test
+	public void testPermanentError() throws SQLException {
+		SQLException error = new SQLException("Syntax error", "42000");
+		FailingWork work = new FailingWork(error, 1);
+		
+		try {
+			executor.execute(dataSource, work);
+			Assert.fail();
+		} catch (SQLException ex) {
+			Assert.assertSame(error, ex);
+		}
+		
+		Assert.assertEquals(1, work.attempts.get());
+		Assert.assertEquals(0, countRows());
+	}
+	
+	@Test
+	public void testMaxAttempts() throws SQLException {
+		executor.setMaxAttempts(3);
+		FailingWork work = new FailingWork(new SQLException("Deadlock", "40001"), 5);
+		
+		try {
+			executor.execute(dataSource, work);
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(3, work.attempts.get());
+		Assert.assertEquals(2, executor.getRetries());
+	}
+	
+	@Test
+	public void testConnectionErrorInWork() throws SQLException {
+		FailingWork work = new FailingWork(new SQLException("Connection lost", "08006"), 1);
+		
+		try {
+			executor.execute(dataSource, work);
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected (work may have been committed)...
+		}
+		
+		Assert.assertEquals(1, work.attempts.get());
+		
+		work = new FailingWork(new SQLRecoverableException("Connection lost"), 1);
+		
+		try {
+			executor.execute(dataSource, work);
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(1, work.attempts.get());
+		Assert.assertEquals(0, executor.getRetries());
+	}
+	
+	@Test
+	public void testConnectionErrorInIdempotentWork() throws SQLException {
+		FailingWork work = new FailingWork(new SQLRecoverableException("Connection lost"), 1);
+		
+		Assert.assertEquals(2, (int) executor.execute(dataSource, work, true));
+		Assert.assertEquals(1, executor.getRetries());
+	}
+	
+	@Test
+	public void testConnectionErrorInAcquisition() throws SQLException {
+		UnreachableDataSource unreachable = new UnreachableDataSource(2);
+		unreachable.setURL(dataSource.getURL());
+		FailingWork work = new FailingWork(null, 0);
+		
+		Assert.assertEquals(1, (int) executor.execute(unreachable, work)); // <-- Work was not executed by failed attempts
+		Assert.assertEquals(2, executor.getRetries());
+	}
+	
+	@Test
+	public void testBackoff() {
+		executor.setInitialDelayMillis(10);
+		executor.setMaxDelayMillis(50);
+		
+		for (int i = 0; i < 100; i++) {
+			Assert.assertTrue(executor.getBackoffMillis(1) <= 10);
+			Assert.assertTrue(executor.getBackoffMillis(2) <= 20);
+			Assert.assertTrue(executor.getBackoffMillis(3) <= 40);
+			Assert.assertTrue(executor.getBackoffMillis(10) <= 50);
+		}
+		
+		executor.setInitialDelayMillis(0);
+		Assert.assertEquals(0, executor.getBackoffMillis(5));
+	}
+	// =========================================================================
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RoutingDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class RoutingDataSourceTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Returns the name of the database serving given connection. */
+	private static String getDatabase(Connection connection) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT name FROM node")) {
+			rs.next();
+			return rs.getString(1);
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private String             primaryName;
+	private String             replicaName;
+	private PoolSettings       replicaSettings;
+	private RoutingDataSource  dataSource;
+	private final List<Connection> keepAlive = new ArrayList<>(); // <-- Keep in-memory databases alive
+	
+	private String createDatabase(String prefix) throws SQLException {
+		String name = prefix + (databaseCount++);
+		Connection connection = TestDriver.getConnection(name);
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE node (name VARCHAR(32))");
+			stmt.execute("INSERT INTO node VALUES ('" + name + "')");
+		}
+		
+		keepAlive.add(connection);
+		return name;
+	}
+	
+	@Before
+	public void before() throws Exception {
+		primaryName = createDatabase("primary");
+		replicaName = createDatabase("replica");
+		
+		replicaSettings = TestDriver.getSettings(replicaName);
+		replicaSettings.setMaxConnections(1);
+		replicaSettings.setMaxWaitMillis(50);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		TestDriver.setDown(replicaName, false);
+		
+		if (dataSource != null)
+			dataSource.close();
+		
+		for (Connection connection : keepAlive)
+			connection.close();
+	}
+	
+	private RoutingDataSource createDataSource(PoolSettings... replicas) throws ClassNotFoundException {
+		dataSource = DataSourceFactory.getRoutingDataSource(TestDriver.getSettings(primaryName), Arrays.asList(replicas));
+		return dataSource;
+	}
+	
+	@Test
+	public void testRouting() throws Exception {
+		createDataSource(replicaSettings);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			Assert.assertEquals(primaryName, getDatabase(connection));
+		}
+		
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setReadOnly(true); // <-- Before the first use: connection is served by a replica
+			Assert.assertEquals(replicaName, getDatabase(connection));
+			Assert.assertTrue(connection.isReadOnly());
+		}
+		
+		try (Connection connection = dataSource.getReadConnection()) {
+			Assert.assertEquals(replicaName, getDatabase(connection));
+		}
+		
+		try (Connection connection = dataSource.getReplicas().get(0).getConnection()) {
+			Assert.assertFalse(connection.isReadOnly()); // <-- Pooled connection was returned in its original state
+		}
+	}
+	
+	@Test
+	public void testDeferredState() throws Exception {
+		createDataSource(replicaSettings);
+		
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			
+			Assert.assertEquals(0, dataSource.getPrimary().getMetrics().getActiveConnections()); // <-- Not acquired yet
+			Assert.assertFalse(connection.getAutoCommit());
+			Assert.assertEquals(1, dataSource.getPrimary().getMetrics().getActiveConnections());
+			Assert.assertEquals(Connection.TRANSACTION_SERIALIZABLE, connection.getTransactionIsolation());
+		}
+		
+		try (Connection connection = dataSource.getPrimary().getConnection()) {
+			Assert.assertTrue(connection.getAutoCommit());
+		}
+	}
+	
+	@Test
+	public void testUnreachableReplica() throws Exception {
+		createDataSource(replicaSettings);
+		dataSource.setReplicaRetryMillis(200);
+		TestDriver.setDown(replicaName, true);
+		
+		try (Connection connection = dataSource.getReadConnection()) {
+			Assert.assertEquals(primaryName, getDatabase(connection));
+		}
+		
+		TestDriver.setDown(replicaName, false);
+		
+		try (Connection connection = dataSource.getReadConnection()) {
+			Assert.assertEquals(primaryName, getDatabase(connection)); // <-- Replica is skipped during the retry interval
+		}
+		
+		Thread.sleep(250);
+		
+		try (Connection connection = dataSource.getReadConnection()) {
+			Assert.assertEquals(replicaName, getDatabase(connection));
+		}
+	}
+	
+	@Test
+	public void testExhaustedReplica() throws Exception {
+		createDataSource(replicaSettings);
+		
+		try (Connection first = dataSource.getReadConnection()) {
+			Assert.assertEquals(replicaName, getDatabase(first));
+			
+			try (Connection second = dataSource.getReadConnection()) {
+				Assert.assertEquals(primaryName, getDatabase(second)); // <-- Replica pool is exhausted
+			}
+		}
+		
+		try (Connection connection = dataSource.getReadConnection()) {
+			Assert.assertEquals(replicaName, getDatabase(connection)); // <-- Exhausted replica was not marked as unavailable
+		}
+	}
+	
+	@Test
+	public void testLoadBalancing() throws Exception {
+		String otherName = createDatabase("replica");
+		PoolSettings otherSettings = TestDriver.getSettings(otherName);
+		otherSettings.setWeight(2);
+		
+		replicaSettings.setMaxConnections(5);
+		createDataSource(replicaSettings, otherSettings);
+		
+		List<Connection> connections = new ArrayList<>();
+		int otherCount = 0;
+		
+		for (int i = 0; i < 6; i++) {
+			Connection connection = dataSource.getReadConnection();
+			connections.add(connection);
+			
+			if (getDatabase(connection).equals(otherName))
+				otherCount++;
+		}
+		
+		Assert.assertEquals(4, otherCount); // <-- Outstanding connections are proportional to weights
+		
+		for (Connection connection : connections)
+			connection.close();
+	}
+	// =========================================================================
+}
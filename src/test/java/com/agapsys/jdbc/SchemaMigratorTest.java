@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SchemaMigrator}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SchemaMigratorTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static Migration migration(String version, String sql) {
+		return new Migration(version, "migration " + version, SqlScript.fromString("V" + version, sql), false);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private JdbcDataSource dataSource;
+	private Connection     connection; // <-- Keeps the in-memory database alive
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:migrator" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE ALIAS SLEEP FOR \"java.lang.Thread.sleep\"");
+		}
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int queryInt(String sql) throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testMigrate() throws Exception {
+		List<Migration> migrations = Arrays.asList(
+			migration("2", "INSERT INTO t VALUES (1);"),
+			migration("1", "CREATE TABLE t (id INT PRIMARY KEY);")
+		);
+		
+		SchemaMigrator migrator = new SchemaMigrator(dataSource);
+		List<Migration> applied = migrator.migrate(migrations);
+		
+		Assert.assertEquals(Arrays.asList(migrations.get(1), migrations.get(0)), applied);
+		Assert.assertEquals(1, queryInt("SELECT COUNT(*) FROM t"));
+		Assert.assertEquals(2, queryInt("SELECT COUNT(*) FROM " + SchemaMigrator.DEFAULT_HISTORY_TABLE));
+		
+		// Up-to-date schema...
+		Assert.assertTrue(new SchemaMigrator(dataSource).migrate(migrations).isEmpty());
+		
+		// Changes in whitespace and comments are accepted...
+		List<Migration> reformatted = Arrays.asList(migration("1", "-- Table\nCREATE TABLE t (id INT PRIMARY KEY)  ;\n"), migrations.get(0));
+		Assert.assertTrue(new SchemaMigrator(dataSource).migrate(reformatted).isEmpty());
+	}
+	
+	@Test(expected = SchemaMigrator.MigrationException.class)
+	public void testChangedMigration() throws Exception {
+		SchemaMigrator migrator = new SchemaMigrator(dataSource);
+		migrator.migrate(Collections.singletonList(migration("1", "CREATE TABLE t (id INT);")));
+		migrator.migrate(Collections.singletonList(migration("1", "CREATE TABLE t (id BIGINT);")));
+	}
+	
+	@Test
+	public void testFailedMigration() throws Exception {
+		List<Migration> migrations = Arrays.asList(
+			migration("1", "CREATE TABLE t (id INT PRIMARY KEY);"),
+			migration("2", "INSERT INTO t VALUES (1);\nINSERT INTO t VALUES (1);"),
+			migration("3", "INSERT INTO t VALUES (3);")
+		);
+		
+		try {
+			new SchemaMigrator(dataSource).migrate(migrations);
+			Assert.fail("Migration should fail");
+		} catch (SchemaMigrator.MigrationException ex) {
+			// Expected...
+		}
+		
+		// Failed migration was rolled back and was not recorded...
+		Assert.assertEquals(0, queryInt("SELECT COUNT(*) FROM t"));
+		Assert.assertEquals(1, queryInt("SELECT COUNT(*) FROM " + SchemaMigrator.DEFAULT_HISTORY_TABLE));
+		Assert.assertEquals(1, queryInt(String.format("SELECT COUNT(*) FROM %s WHERE locked_by IS NULL", SchemaMigrator.DEFAULT_LOCK_TABLE)));
+	}
+	
+	@Test
+	public void testParallelMigrations() throws Exception {
+		List<Migration> migrations = Arrays.asList(
+			new Migration("1", "a", SqlScript.fromString("V1", "CREATE TABLE a (id INT);"), true),
+			new Migration("2", "b", SqlScript.fromString("V2", "CREATE TABLE b (id INT);"), true),
+			new Migration("3", "c", SqlScript.fromString("V3", "INSERT INTO a SELECT * FROM b;"), false)
+		);
+		
+		SchemaMigrator migrator = new SchemaMigrator(dataSource);
+		migrator.setMaxParallelism(2);
+		
+		Assert.assertEquals(3, migrator.migrate(migrations).size());
+		Assert.assertEquals(3, queryInt("SELECT COUNT(*) FROM " + SchemaMigrator.DEFAULT_HISTORY_TABLE));
+	}
+	
+	@Test
+	public void testLockTimeout() throws Exception {
+		SchemaMigrator migrator = new SchemaMigrator(dataSource);
+		migrator.migrate(Collections.singletonList(migration("1", "CREATE TABLE t (id INT);")));
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.executeUpdate(String.format("UPDATE %s SET locked_by = 'other', locked_at = %d", SchemaMigrator.DEFAULT_LOCK_TABLE, System.currentTimeMillis()));
+		}
+		
+		migrator.setLockWaitMillis(200);
+		migrator.setPollMillis(50);
+		
+		try {
+			migrator.migrate(Arrays.asList(migration("1", "CREATE TABLE t (id INT);"), migration("2", "INSERT INTO t VALUES (1);")));
+			Assert.fail("Lock should not be obtained");
+		} catch (SchemaMigrator.MigrationException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(0, queryInt("SELECT COUNT(*) FROM t"));
+		
+		// Stale locks are taken over...
+		migrator.setStaleLockMillis(100);
+		Thread.sleep(150);
+		Assert.assertEquals(1, migrator.migrate(Arrays.asList(migration("1", "CREATE TABLE t (id INT);"), migration("2", "INSERT INTO t VALUES (1);"))).size());
+	}
+	
+	@Test
+	public void testLockIsRefreshed() throws Exception {
+		final List<Migration> migrations = Arrays.asList(migration("1", "CALL SLEEP(1200);\nCREATE TABLE t (id INT);"));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		
+		try {
+			Future<List<Migration>> first = executor.submit(new Callable<List<Migration>>() {
+				@Override
+				public List<Migration> call() throws Exception {
+					SchemaMigrator migrator = new SchemaMigrator(dataSource);
+					migrator.setStaleLockMillis(300);
+					return migrator.migrate(migrations);
+				}
+			});
+			
+			Thread.sleep(700); // <-- Lock would be stale if it was not refreshed
+			
+			SchemaMigrator second = new SchemaMigrator(dataSource);
+			second.setStaleLockMillis(300);
+			second.setLockWaitMillis(200);
+			second.setPollMillis(50);
+			
+			try {
+				second.migrate(migrations);
+				Assert.fail("Lock should be held by the first node");
+			} catch (SchemaMigrator.MigrationException ex) {
+				Assert.assertEquals("Timeout waiting for migration lock", ex.getMessage()); // <-- Migration was not applied twice
+			}
+			
+			Assert.assertEquals(1, first.get().size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testLostLock() throws Exception {
+		// First migration simulates another node taking over the lock...
+		List<Migration> migrations = Arrays.asList(
+			migration("1", String.format("CREATE TABLE t (id INT);\nUPDATE %s SET locked_by = 'other';", SchemaMigrator.DEFAULT_LOCK_TABLE)),
+			migration("2", "INSERT INTO t VALUES (1);")
+		);
+		
+		try {
+			new SchemaMigrator(dataSource).migrate(migrations);
+			Assert.fail("Lock loss should be detected");
+		} catch (SchemaMigrator.MigrationException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(0, queryInt("SELECT COUNT(*) FROM t"));
+		Assert.assertEquals(1, queryInt("SELECT COUNT(*) FROM " + SchemaMigrator.DEFAULT_HISTORY_TABLE));
+	}
+	// =========================================================================
+}
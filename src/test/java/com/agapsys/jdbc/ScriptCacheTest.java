@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ScriptCache}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ScriptCacheTest {
+	// CLASS SCOPE =============================================================
+	private static final String PKG    = "com.agapsys.jdbc";
+	private static final String SCRIPT = "script-cache.sql";       // <-- 64 characters
+	private static final String UTF8   = "script-cache-utf8.sql";  // <-- 19 characters, 27 bytes
+	
+	private static final List<String> SCRIPT_STATEMENTS = Arrays.asList("INSERT INTO t VALUES (1, 'a;b')", "INSERT INTO t VALUES (2, 'b')");
+	
+	private static List<String> tokenize(ScriptCache cache, String filename) throws IOException {
+		List<String> statements = new ArrayList<>();
+		
+		try (SqlTokenizer tokenizer = cache.openTokenizer(PKG, filename, StandardCharsets.UTF_8, false)) {
+			String sql;
+			while ((sql = tokenizer.next()) != null)
+				statements.add(sql);
+		}
+		
+		return statements;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Test
+	public void testHits() throws IOException {
+		ScriptCache cache = new ScriptCache();
+		
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(1, cache.getHits());
+	}
+	
+	@Test
+	public void testValidatedHits() throws IOException {
+		ScriptCache cache = new ScriptCache(10, 1000, true);
+		
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(1, cache.getHits());
+	}
+	
+	@Test
+	public void testCharacterBound() throws IOException {
+		// Resource has more bytes than cache capacity, but its characters fit...
+		ScriptCache cache = new ScriptCache(10, 20, false);
+		Assert.assertEquals(Arrays.asList("SELECT 'éééééééé'"), tokenize(cache, UTF8));
+		Assert.assertEquals(1, cache.size());
+		
+		// Resource which does not fit is streamed...
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(SCRIPT_STATEMENTS, tokenize(cache, SCRIPT));
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(3, cache.getMisses());
+	}
+	
+	@Test
+	public void testEviction() throws IOException {
+		ScriptCache cache = new ScriptCache(1, 1000, false);
+		tokenize(cache, SCRIPT);
+		tokenize(cache, UTF8);
+		Assert.assertEquals(1, cache.size());
+		
+		tokenize(cache, SCRIPT);
+		Assert.assertEquals(3, cache.getMisses());
+		
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testCoalescedMisses() throws Exception {
+		final ScriptCache cache = new ScriptCache();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		
+		try {
+			List<Future<List<String>>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						start.await();
+						return tokenize(cache, SCRIPT);
+					}
+				}));
+			}
+			
+			start.countDown();
+			
+			for (Future<List<String>> future : futures)
+				Assert.assertEquals(SCRIPT_STATEMENTS, future.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		Assert.assertEquals(1, cache.getMisses()); // <-- Resource was parsed once
+		Assert.assertEquals(7, cache.getHits());
+	}
+	// =========================================================================
+}
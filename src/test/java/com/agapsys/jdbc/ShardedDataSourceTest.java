@@ -0,0 +1,301 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ShardedDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class ShardedDataSourceTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static final RowMapper<Integer> ID_MAPPER = new RowMapper<Integer>() {
+		@Override
+		public Integer map(ResultSet rs, long rowNumber) throws SQLException {
+			return rs.getInt(1);
+		}
+	};
+	
+	private static void populate(PooledDataSource shard, int firstId, int lastId) throws SQLException {
+		try (Connection connection = shard.getConnection(); Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+			stmt.execute(String.format("INSERT INTO t SELECT X FROM SYSTEM_RANGE(%d, %d)", firstId, lastId));
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private ShardedDataSource dataSource;
+	
+	@Before
+	public void before() throws Exception {
+		List<PoolSettings> shardSettings = new ArrayList<>();
+		
+		for (int i = 0; i < 2; i++) {
+			PoolSettings settings = new PoolSettings() {};
+			settings.setDriverClass("org.h2.Driver");
+			settings.setUri("jdbc:h2:mem:sharded" + (databaseCount++) + ";DB_CLOSE_DELAY=-1");
+			settings.setUsername("sa");
+			settings.setPassword("");
+			shardSettings.add(settings);
+		}
+		
+		dataSource = DataSourceFactory.getShardedDataSource(shardSettings);
+		populate(dataSource.getShard(0), 1, 50);
+		populate(dataSource.getShard(1), 51, 120);
+	}
+	
+	@After
+	public void after() {
+		dataSource.close();
+	}
+	
+	private int getActiveConnections() {
+		int activeConnections = 0;
+		
+		for (PooledDataSource shard : dataSource.getShards())
+			activeConnections += shard.getMetrics().getActiveConnections();
+		
+		return activeConnections;
+	}
+	
+	/** Waits until shards return all connections and gather threads become idle. */
+	private void awaitIdle(long timeoutMillis, boolean collectGarbage) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		
+		while (getActiveConnections() > 0 || dataSource.getActiveGatherThreads() > 0) {
+			if (System.currentTimeMillis() > deadline)
+				Assert.fail("Shards are still running");
+			
+			if (collectGarbage)
+				System.gc();
+			
+			Thread.sleep(20);
+		}
+	}
+	
+	/** Starts a gather which is neither consumed nor closed. */
+	private void abandonCursor() {
+		GatherCursor<Integer> cursor = dataSource.gather("SELECT id FROM t", ID_MAPPER);
+		Assert.assertNotNull(cursor.next());
+	}
+	
+	private Set<Integer> gatherAll() {
+		Set<Integer> ids = new HashSet<>();
+		
+		try (GatherCursor<Integer> cursor = dataSource.gather("SELECT id FROM t WHERE id > ?", ID_MAPPER, 10)) {
+			while (cursor.hasNext())
+				ids.add(cursor.next());
+			
+			Assert.assertEquals(110, cursor.getRowCount());
+		}
+		
+		return ids;
+	}
+	
+	@Test
+	public void testGather() throws SQLException {
+		dataSource.setFetchSize(7);
+		dataSource.setGatherBufferSize(5);
+		
+		Set<Integer> ids = gatherAll();
+		
+		Assert.assertEquals(110, ids.size());
+		Assert.assertTrue(ids.contains(11));
+		Assert.assertTrue(ids.contains(51)); // <-- Rows of both shards
+		Assert.assertTrue(ids.contains(120));
+		Assert.assertEquals(0, getActiveConnections());
+	}
+	
+	@Test
+	public void testNullRows() {
+		try (GatherCursor<Integer> cursor = dataSource.gather("SELECT NULL FROM t WHERE id IN (1, 51)", new RowMapper<Integer>() {
+			@Override
+			public Integer map(ResultSet rs, long rowNumber) throws SQLException {
+				return null;
+			}
+		})) {
+			Assert.assertNull(cursor.next());
+			Assert.assertNull(cursor.next());
+			Assert.assertFalse(cursor.hasNext());
+			
+			try {
+				cursor.next();
+				Assert.fail();
+			} catch (NoSuchElementException ex) {
+				// Expected...
+			}
+		}
+	}
+	
+	@Test
+	public void testEarlyClose() throws InterruptedException {
+		dataSource.setFetchSize(1);
+		dataSource.setGatherBufferSize(1);
+		
+		try (GatherCursor<Integer> cursor = dataSource.gather("SELECT id FROM t", ID_MAPPER)) {
+			Assert.assertNotNull(cursor.next());
+			Assert.assertFalse(cursor.isClosed());
+		}
+		
+		awaitIdle(5000, false); // <-- Producers stop once they notice the cursor was closed
+	}
+	
+	@Test
+	public void testAbandonedCursor() throws InterruptedException {
+		dataSource.setFetchSize(1);
+		dataSource.setGatherBufferSize(1);
+		
+		abandonCursor();
+		Assert.assertTrue(getActiveConnections() > 0);
+		
+		awaitIdle(10000, true); // <-- Producers stop once the cursor is garbage collected
+	}
+	
+	@Test
+	public void testMaxGatherThreads() {
+		Assert.assertEquals(2 * ShardedDataSource.DEFAULT_GATHER_THREADS_PER_SHARD, dataSource.getMaxGatherThreads());
+		
+		dataSource.setMaxGatherThreads(1);
+		dataSource.setGatherBufferSize(1);
+		Assert.assertEquals(1, dataSource.getMaxGatherThreads());
+		
+		Assert.assertEquals(110, gatherAll().size()); // <-- Second shard waits for the thread of the first one
+		
+		dataSource.setMaxGatherThreads(3);
+		Assert.assertEquals(3, dataSource.getMaxGatherThreads());
+		
+		try {
+			dataSource.setMaxGatherThreads(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testMapperError() throws InterruptedException {
+		GatherCursor<Integer> cursor = dataSource.gather("SELECT id FROM t", new RowMapper<Integer>() {
+			@Override
+			public Integer map(ResultSet rs, long rowNumber) throws SQLException {
+				throw new LinkageError();
+			}
+		});
+		
+		try {
+			cursor.hasNext();
+			Assert.fail();
+		} catch (LinkageError ex) {
+			// Expected...
+		}
+		
+		Assert.assertTrue(cursor.isClosed());
+		awaitIdle(5000, false);
+	}
+	
+	@Test
+	public void testQueryError() {
+		try (GatherCursor<Integer> cursor = dataSource.gather("SELECT id FROM missing", ID_MAPPER)) {
+			cursor.hasNext();
+			Assert.fail();
+		} catch (JdbcException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testClose() {
+		dataSource.close();
+		
+		try {
+			dataSource.gather("SELECT id FROM t", ID_MAPPER);
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testGetConnection() throws SQLException {
+		try (Connection connection = dataSource.getConnection(42)) {
+			Assert.assertFalse(connection.isClosed());
+			Assert.assertEquals(1, dataSource.getDataSource(42).getMetrics().getActiveConnections());
+		}
+		
+		try {
+			dataSource.getConnection();
+			Assert.fail();
+		} catch (SQLFeatureNotSupportedException ex) {
+			// Expected...
+		}
+		
+		try {
+			dataSource.getConnection(null);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testInvalidArguments() {
+		try {
+			dataSource.gather(" ", ID_MAPPER);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			dataSource.gather("SELECT id FROM t", null);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			dataSource.setGatherBufferSize(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			dataSource.setFetchSize(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
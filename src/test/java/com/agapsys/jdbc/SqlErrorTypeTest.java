@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SqlErrorType}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SqlErrorTypeTest {
+	// INSTANCE SCOPE ==========================================================
+	@Test
+	public void testGetInstance() {
+		Assert.assertEquals(SqlErrorType.CONNECTION_EXCEPTION, SqlErrorType.getInstance("08001"));
+		Assert.assertEquals(SqlErrorType.TRANSACTION_ROLLBACK, SqlErrorType.getInstance("40001"));
+		Assert.assertEquals(SqlErrorType.FEATURE_NOT_SUPPORTED, SqlErrorType.getInstance("0a000"));
+		Assert.assertEquals(SqlErrorType.CLI_SPECIFIC_CONDITION, SqlErrorType.getInstance("HYT00"));
+		Assert.assertEquals(SqlErrorType.SYNTAX_ERROR_OR_ACCESS_VIOLATION, SqlErrorType.getInstance(new SQLException("error", "42S02")));
+		
+		Assert.assertNull(SqlErrorType.getInstance("99000"));
+		Assert.assertNull(SqlErrorType.getInstance("0"));
+		Assert.assertNull(SqlErrorType.getInstance("#1000"));
+		Assert.assertNull(SqlErrorType.getInstance((String) null));
+		Assert.assertNull(SqlErrorType.getInstance(new SQLException("error")));
+	}
+	
+	@Test
+	public void testTransientStates() {
+		Assert.assertTrue(SqlErrorType.isTransient("40001"));
+		Assert.assertTrue(SqlErrorType.isTransient("08006"));
+		Assert.assertTrue(SqlErrorType.isTransient("55P03"));
+		Assert.assertTrue(SqlErrorType.isTransient("hyt00"));
+		
+		Assert.assertFalse(SqlErrorType.isTransient("08007"));
+		Assert.assertFalse(SqlErrorType.isTransient("40002"));
+		Assert.assertFalse(SqlErrorType.isTransient("57014"));
+		Assert.assertFalse(SqlErrorType.isTransient("23505"));
+		Assert.assertFalse(SqlErrorType.isTransient("HY000"));
+		Assert.assertFalse(SqlErrorType.isTransient((String) null));
+	}
+	
+	@Test
+	public void testTransientExceptions() {
+		Assert.assertTrue(SqlErrorType.isTransient(new SQLTransactionRollbackException("deadlock")));
+		Assert.assertTrue(SqlErrorType.isTransient(new SQLRecoverableException("connection lost")));
+		Assert.assertTrue(SqlErrorType.isTransient(new SQLException("wrapper", new SQLException("deadlock", "40P01"))));
+		Assert.assertFalse(SqlErrorType.isTransient(new SQLException("wrapper", new SQLException("duplicate", "23505"))));
+	}
+	// =========================================================================
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for resumable executions of {@link SqlRunner}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SqlRunnerCheckpointTest {
+	// CLASS SCOPE =============================================================
+	private static final String SCRIPT_NAME = "script";
+	
+	/** Third statement fails while row 1 exists. */
+	private static final String SCRIPT = "INSERT INTO t VALUES (1);\nINSERT INTO t VALUES (2);\nINSERT INTO t VALUES (1);\nINSERT INTO t VALUES (3);\n";
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private Connection connection;
+	
+	@Before
+	public void before() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:");
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+		}
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int count() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	private void run(String sql, CheckpointStore store) throws SQLException, IOException {
+		connection.setAutoCommit(true);
+		SqlRunner.run(connection, SqlScript.fromString(SCRIPT_NAME, sql), 1, new CommitPolicy(1, 0, store));
+	}
+	
+	private void testResume(CheckpointStore store) throws SQLException, IOException {
+		try {
+			run(SCRIPT, store);
+			Assert.fail("Script should fail");
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		ScriptCheckpoint checkpoint = store.load(connection, SCRIPT_NAME);
+		Assert.assertNotNull(checkpoint);
+		Assert.assertEquals(2, checkpoint.getStatementOrdinal());
+		Assert.assertEquals(SCRIPT.indexOf("(2);") + 4, checkpoint.getOffset());
+		Assert.assertEquals(2, count());
+		
+		// Resumed execution starts at the failed statement...
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("DELETE FROM t WHERE id = 1");
+		}
+		
+		run(SCRIPT, store);
+		Assert.assertEquals(3, count());
+		Assert.assertNull(store.load(connection, SCRIPT_NAME));
+	}
+	
+	private void testChangedScript(CheckpointStore store) throws SQLException, IOException {
+		try {
+			run(SCRIPT, store);
+			Assert.fail("Script should fail");
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		try {
+			run(SCRIPT.replace("(1);", "(4);"), store);
+			Assert.fail("Changed script should be refused");
+		} catch (IllegalStateException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(2, count());
+		Assert.assertNotNull(store.load(connection, SCRIPT_NAME));
+	}
+	
+	@Test
+	public void testTableStoreResume() throws SQLException, IOException {
+		testResume(new TableCheckpointStore());
+	}
+	
+	@Test
+	public void testFileStoreResume() throws SQLException, IOException {
+		testResume(new FileCheckpointStore(folder.getRoot()));
+	}
+	
+	@Test
+	public void testTableStoreChangedScript() throws SQLException, IOException {
+		testChangedScript(new TableCheckpointStore());
+	}
+	
+	@Test
+	public void testFileStoreChangedScript() throws SQLException, IOException {
+		testChangedScript(new FileCheckpointStore(folder.getRoot()));
+	}
+	
+	@Test
+	public void testPendingWorkIsNotCommitted() throws SQLException, IOException {
+		TableCheckpointStore store = new TableCheckpointStore();
+		store.load(connection, SCRIPT_NAME); // <-- Creates the checkpoint table (DDL commits on H2)
+		
+		connection.setAutoCommit(false);
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("INSERT INTO t VALUES (10)");
+		}
+		
+		try {
+			SqlRunner.run(connection, SqlScript.fromString(SCRIPT_NAME, "INSERT INTO t VALUES (10);"), 1, new CommitPolicy(1, 0, store));
+			Assert.fail("Script should fail");
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		connection.rollback();
+		Assert.assertEquals(0, count());
+	}
+	
+	@Test
+	public void testUnknownChecksum() {
+		ScriptCheckpoint checkpoint = new ScriptCheckpoint(1, 10);
+		Assert.assertTrue(checkpoint.matches(123));
+		Assert.assertTrue(new ScriptCheckpoint(1, 10, 123).matches(ScriptCheckpoint.UNKNOWN_CHECKSUM));
+		Assert.assertFalse(new ScriptCheckpoint(1, 10, 123).matches(456));
+	}
+	// =========================================================================
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for batched executions of {@link SqlRunner}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SqlRunnerTest {
+	// INSTANCE SCOPE ==========================================================
+	private Connection connection;
+	
+	@Before
+	public void before() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:");
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY, v VARCHAR(20))");
+		}
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int count() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testBatchable() {
+		Assert.assertTrue(SqlRunner.isBatchable("INSERT INTO t VALUES (1, 'a')"));
+		Assert.assertTrue(SqlRunner.isBatchable("update t SET v = 'x'"));
+		Assert.assertTrue(SqlRunner.isBatchable("DELETE FROM t"));
+		Assert.assertTrue(SqlRunner.isBatchable("MERGE INTO t USING s ON (t.id = s.id) WHEN MATCHED THEN UPDATE SET v = s.v"));
+		Assert.assertTrue(SqlRunner.isBatchable("REPLACE INTO t VALUES (1, 'a')"));
+		
+		Assert.assertFalse(SqlRunner.isBatchable("SELECT * FROM t"));
+		Assert.assertFalse(SqlRunner.isBatchable("CREATE TABLE u (id INT)"));
+		Assert.assertFalse(SqlRunner.isBatchable("INSERTED"));
+		Assert.assertFalse(SqlRunner.isBatchable("(SELECT 1)"));
+	}
+	
+	@Test
+	public void testBatchableReturning() {
+		Assert.assertFalse(SqlRunner.isBatchable("INSERT INTO t VALUES (1, 'a') RETURNING id"));
+		Assert.assertFalse(SqlRunner.isBatchable("DELETE FROM t returning *"));
+		
+		// RETURNING inside literals, identifiers and comments...
+		Assert.assertTrue(SqlRunner.isBatchable("INSERT INTO t VALUES (1, 'RETURNING')"));
+		Assert.assertTrue(SqlRunner.isBatchable("INSERT INTO t (\"returning\") VALUES (1)"));
+		Assert.assertTrue(SqlRunner.isBatchable("UPDATE t SET returning_count = 1"));
+		Assert.assertTrue(SqlRunner.isBatchable("DELETE FROM t /* RETURNING */"));
+	}
+	
+	@Test
+	public void testBatchableLeadingComments() {
+		Assert.assertTrue(SqlRunner.isBatchable("/* load */ INSERT INTO t VALUES (1, 'a')"));
+		Assert.assertTrue(SqlRunner.isBatchable("-- load\nINSERT INTO t VALUES (1, 'a')"));
+		Assert.assertFalse(SqlRunner.isBatchable("/* INSERT */ SELECT 1"));
+	}
+	
+	@Test
+	public void testBatchableWithClause() {
+		Assert.assertTrue(SqlRunner.isBatchable("WITH x AS (SELECT 1 AS id) DELETE FROM t WHERE id IN (SELECT id FROM x)"));
+		Assert.assertTrue(SqlRunner.isBatchable("WITH RECURSIVE x (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM x WHERE n < 3) INSERT INTO t SELECT n, 'a' FROM x"));
+		Assert.assertTrue(SqlRunner.isBatchable("WITH d AS (DELETE FROM u RETURNING *) INSERT INTO t SELECT * FROM d"));
+		Assert.assertFalse(SqlRunner.isBatchable("WITH x AS (SELECT 1) SELECT * FROM x"));
+		Assert.assertFalse(SqlRunner.isBatchable("WITH x AS (SELECT 1) DELETE FROM t RETURNING *"));
+	}
+	
+	@Test
+	public void testBatchedRun() throws SQLException {
+		String sql = "INSERT INTO t VALUES (1, 'a;b');\nINSERT INTO t VALUES (2, 'b');\nINSERT INTO t VALUES (3, 'c');\nSELECT COUNT(*) FROM t;\n/* hint */ UPDATE t SET v = 'x';\nDELETE FROM t WHERE id = 3;\n";
+		List<int[]> results = SqlRunner.run(connection, sql, 2);
+		
+		Assert.assertEquals(3, results.size());
+		Assert.assertArrayEquals(new int[] {1, 1}, results.get(0));
+		Assert.assertArrayEquals(new int[] {1}, results.get(1));       // <-- Flushed by SELECT
+		Assert.assertArrayEquals(new int[] {3, 1}, results.get(2));
+		Assert.assertEquals(2, count());
+	}
+	
+	@Test
+	public void testUnbatchedRun() throws SQLException {
+		List<int[]> results = SqlRunner.run(connection, "INSERT INTO t VALUES (1, 'a');\nINSERT INTO t VALUES (2, 'b');\n", 1);
+		Assert.assertTrue(results.isEmpty());
+		Assert.assertEquals(2, count());
+	}
+	
+	@Test
+	public void testSingleTransaction() throws SQLException {
+		try {
+			SqlRunner.run(connection, "INSERT INTO t VALUES (1, 'a');\nINSERT INTO t VALUES (1, 'b');\n", 10);
+			Assert.fail("Script should fail");
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		connection.rollback(); // <-- Nothing was committed before the failure
+		Assert.assertEquals(0, count());
+	}
+	// =========================================================================
+}
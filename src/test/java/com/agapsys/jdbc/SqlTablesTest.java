@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SqlTables}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SqlTablesTest {
+	// INSTANCE SCOPE ==========================================================
+	@Test
+	public void testWrittenTable() {
+		String[] statements = new String[] {
+			"INSERT INTO t VALUES (1)",
+			"INSERT t VALUES (1)",
+			"INSERT IGNORE INTO t VALUES (1)",
+			"INSERT LOW_PRIORITY IGNORE INTO s.t (a) VALUES (1)",
+			"UPDATE t SET a = 1",
+			"UPDATE LOW_PRIORITY t SET a = 1",
+			"UPDATE ONLY t SET a = 1",
+			"UPDATE t x SET a = 1",
+			"UPDATE t AS x SET a = 1",
+			"REPLACE DELAYED INTO t VALUES (1)",
+			"REPLACE t VALUES (1)",
+			"DELETE FROM t",
+			"DELETE FROM t;",
+			"DELETE FROM ONLY t WHERE a = 1",
+			"DELETE FROM t x WHERE x.a = 1",
+			"DELETE QUICK IGNORE FROM t WHERE a = 1",
+			"DELETE FROM t USING u WHERE t.id = u.id",
+			"TRUNCATE TABLE t",
+			"TRUNCATE ONLY t",
+			"MERGE INTO t USING s ON (1 = 1)"
+		};
+		
+		for (String sql : statements)
+			Assert.assertEquals(sql, "T", SqlTables.getWrittenTable(sql));
+	}
+	
+	@Test
+	public void testUnknownWrittenTable() {
+		String[] statements = new String[] {
+			"UPDATE t1, t2 SET t1.a = t2.a",
+			"UPDATE t1 JOIN t2 ON t1.id = t2.id SET t1.a = 1",
+			"DELETE t1, t2 FROM t1 JOIN t2",
+			"DELETE FROM t1, t2 USING t1 JOIN t2",
+			"DELETE t WHERE a = 1",
+			"TRUNCATE TABLE a, b",
+			"INSERT ALL INTO a VALUES (1) INTO b VALUES (2) SELECT 1 FROM dual",
+			"SELECT 1"
+		};
+		
+		for (String sql : statements)
+			Assert.assertNull(sql, SqlTables.getWrittenTable(sql));
+		
+		Assert.assertNull(SqlTables.getWrittenTable(null));
+	}
+	
+	@Test
+	public void testReadTables() {
+		Assert.assertArrayEquals(new String[] {"A", "B", "C"}, SqlTables.getReadTables("SELECT * FROM a JOIN s.b ON a.id = b.id WHERE x IN (SELECT y FROM c)").toArray());
+		Assert.assertArrayEquals(new String[] {"QUOTED", "D"}, SqlTables.getReadTables("SELECT * FROM \"Quoted\" q, d").toArray());
+		Assert.assertArrayEquals(new String[] {"U"}, SqlTables.getReadTables("INSERT INTO t SELECT * FROM u").toArray());
+		Assert.assertTrue(SqlTables.getReadTables("SELECT 1").isEmpty());
+	}
+	// =========================================================================
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.agapsys.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link SqlTokenizer}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class SqlTokenizerTest {
+	// CLASS SCOPE =============================================================
+	private static final String SCRIPT = "SELECT 1;\nSELECT 'a;b';\nSELECT 3;";
+	
+	private static List<String> tokenize(SqlTokenizer tokenizer) throws IOException {
+		List<String> statements = new ArrayList<>();
+		
+		try (SqlTokenizer t = tokenizer) {
+			String sql;
+			while ((sql = t.next()) != null)
+				statements.add(sql);
+		}
+		
+		return statements;
+	}
+	
+	private static List<String> tokenize(String sql, boolean backslashEscapes) throws IOException {
+		SqlTokenizer tokenizer = SqlTokenizer.forString(sql);
+		tokenizer.setBackslashEscapes(backslashEscapes);
+		return tokenize(tokenizer);
+	}
+	
+	private static List<String> tokenize(String sql) throws IOException {
+		return tokenize(sql, false);
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testDelimiters() throws IOException {
+		Assert.assertEquals(Arrays.asList("SELECT 1", "SELECT 2"), tokenize("SELECT 1;\n  SELECT 2;\n;\n"));
+		Assert.assertEquals(Arrays.asList("SELECT 1", "SELECT 2"), tokenize("SELECT 1; SELECT 2"));
+		Assert.assertEquals(Collections.<String>emptyList(), tokenize(" ;\n;  "));
+		Assert.assertEquals(Arrays.asList("SELECT 1 - 2", "SELECT 4/2"), tokenize("SELECT 1 - 2; SELECT 4/2;"));
+	}
+	
+	@Test
+	public void testQuotes() throws IOException {
+		Assert.assertEquals(Arrays.asList("INSERT INTO t VALUES ('a;b', 'it''s;')", "SELECT 1"), tokenize("INSERT INTO t VALUES ('a;b', 'it''s;');SELECT 1;"));
+		Assert.assertEquals(Arrays.asList("SELECT \"a;b\" FROM `c;d`", "SELECT 1"), tokenize("SELECT \"a;b\" FROM `c;d`;SELECT 1;"));
+	}
+	
+	@Test
+	public void testBackslashEscapes() throws IOException {
+		String sql = "SELECT 'a\\';b';SELECT 1;";
+		
+		Assert.assertEquals(Arrays.asList("SELECT 'a\\'", "b';SELECT 1;"), tokenize(sql, false));
+		Assert.assertEquals(Arrays.asList("SELECT 'a\\';b'", "SELECT 1"), tokenize(sql, true));
+		
+		// PostgreSQL escape strings always accept backslash escapes...
+		Assert.assertEquals(Arrays.asList("SELECT E'a\\';b'", "SELECT 1"), tokenize("SELECT E'a\\';b';SELECT 1;", false));
+	}
+	
+	@Test
+	public void testDollarQuotes() throws IOException {
+		Assert.assertEquals(
+			Arrays.asList("CREATE FUNCTION f() AS $body$ BEGIN; END; $body$", "SELECT $$a;b$$", "SELECT 1"),
+			tokenize("CREATE FUNCTION f() AS $body$ BEGIN; END; $body$;SELECT $$a;b$$;SELECT 1;")
+		);
+		
+		// '$' inside an identifier does not open a dollar quote...
+		Assert.assertEquals(Arrays.asList("SELECT a$b FROM t", "SELECT 2"), tokenize("SELECT a$b FROM t;SELECT 2"));
+	}
+	
+	@Test
+	public void testComments() throws IOException {
+		Assert.assertEquals(
+			Arrays.asList("SELECT 1", "SELECT /* a;b */ 2", "/*+ hint */ SELECT 3"),
+			tokenize("-- c1;\nSELECT 1; -- c2; x\nSELECT /* a;b */ 2;/*+ hint */ SELECT 3;")
+		);
+	}
+	
+	@Test
+	public void testOffsets() throws IOException {
+		try (SqlTokenizer tokenizer = SqlTokenizer.forString(SCRIPT)) {
+			Assert.assertEquals("SELECT 1", tokenizer.next());
+			Assert.assertEquals(1, tokenizer.getStatementCount());
+			Assert.assertEquals(SCRIPT.indexOf(';') + 1, tokenizer.getOffset());
+		}
+	}
+	
+	@Test
+	public void testSeek() throws IOException {
+		long offset;
+		
+		try (SqlTokenizer tokenizer = SqlTokenizer.forString(SCRIPT)) {
+			tokenizer.next();
+			offset = tokenizer.getOffset();
+		}
+		
+		File file = folder.newFile("script.sql");
+		Files.write(file.toPath(), SCRIPT.getBytes(StandardCharsets.UTF_8));
+		
+		SqlTokenizer[] tokenizers = new SqlTokenizer[] {
+			SqlTokenizer.forString(SCRIPT),
+			SqlTokenizer.forReader(new StringReader(SCRIPT)),
+			SqlTokenizer.forChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ), StandardCharsets.UTF_8)
+		};
+		
+		for (SqlTokenizer tokenizer : tokenizers) {
+			try (SqlTokenizer t = tokenizer) {
+				t.seek(offset, 1);
+				Assert.assertEquals("SELECT 'a;b'", t.next());
+				Assert.assertEquals(2, t.getStatementCount());
+				Assert.assertEquals("SELECT 3", t.next());
+				Assert.assertNull(t.next());
+				Assert.assertEquals(3, t.getStatementCount());
+			}
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testSeekAfterRead() throws IOException {
+		try (SqlTokenizer tokenizer = SqlTokenizer.forString(SCRIPT)) {
+			tokenizer.next();
+			tokenizer.seek(0, 0);
+		}
+	}
+	// =========================================================================
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StreamingQuery}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class StreamingQueryTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static final RowMapper<Integer> ID_MAPPER = new RowMapper<Integer>() {
+		@Override
+		public Integer map(ResultSet rs, long rowNumber) throws SQLException {
+			return rs.getInt(1);
+		}
+	};
+	
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+	
+	/** Data source which counts open connections and statement cancellations. */
+	private static class CountingDataSource extends JdbcDataSource {
+		private final AtomicInteger openConnections = new AtomicInteger();
+		private final AtomicInteger cancellations   = new AtomicInteger();
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			final Connection connection = super.getConnection();
+			openConnections.incrementAndGet();
+			
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					switch (method.getName()) {
+					case "close":
+						if (!connection.isClosed())
+							openConnections.decrementAndGet();
+						
+						break;
+						
+					case "prepareStatement":
+						final PreparedStatement stmt = (PreparedStatement) StreamingQueryTest.invoke(connection, method, args);
+						
+						return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+							@Override
+							public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+								if (method.getName().equals("cancel"))
+									cancellations.incrementAndGet();
+								
+								return StreamingQueryTest.invoke(stmt, method, args);
+							}
+						});
+					}
+					
+					return StreamingQueryTest.invoke(connection, method, args);
+				}
+			});
+		}
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private CountingDataSource dataSource;
+	private Connection         connection; // <-- Keeps the in-memory database alive
+	private StreamingQuery     query;
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new CountingDataSource();
+		dataSource.setURL("jdbc:h2:mem:streaming" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+			stmt.execute("INSERT INTO t SELECT X FROM SYSTEM_RANGE(1, 100)");
+		}
+		
+		query = new StreamingQuery(dataSource);
+		query.setFetchSize(10);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	@Test
+	public void testFullScan() throws SQLException {
+		List<Integer> ids = new ArrayList<>();
+		
+		try (RowCursor<Integer> cursor = query.open("SELECT id FROM t WHERE id > ? ORDER BY id", ID_MAPPER, 50)) {
+			Assert.assertEquals(2, dataSource.openConnections.get());
+			
+			while (cursor.hasNext())
+				ids.add(cursor.next());
+			
+			Assert.assertTrue(cursor.isClosed()); // <-- Closed when the last row is consumed
+			Assert.assertEquals(50, cursor.getRowCount());
+		}
+		
+		Assert.assertEquals(50, ids.size());
+		Assert.assertEquals(51, (int) ids.get(0));
+		Assert.assertEquals(1, dataSource.openConnections.get());
+		Assert.assertEquals(0, dataSource.cancellations.get());
+	}
+	
+	@Test
+	public void testEarlyClose() throws SQLException {
+		try (RowCursor<Integer> cursor = query.open("SELECT id FROM t ORDER BY id", ID_MAPPER)) {
+			Assert.assertEquals(1, (int) cursor.next());
+		}
+		
+		Assert.assertEquals(1, dataSource.openConnections.get());
+		Assert.assertEquals(0, dataSource.cancellations.get()); // <-- Cancellation is disabled by default
+	}
+	
+	@Test
+	public void testCancelOnClose() throws SQLException {
+		query.setCancelOnClose(true);
+		
+		try (RowCursor<Integer> cursor = query.open("SELECT id FROM t ORDER BY id", ID_MAPPER)) {
+			Assert.assertEquals(1, (int) cursor.next());
+		}
+		
+		Assert.assertEquals(1, dataSource.cancellations.get());
+		
+		try (RowCursor<Integer> cursor = query.open("SELECT id FROM t WHERE id = 1", ID_MAPPER)) {
+			Assert.assertEquals(1, (int) cursor.next());
+			Assert.assertFalse(cursor.hasNext());
+		}
+		
+		Assert.assertEquals(1, dataSource.cancellations.get()); // <-- Fully consumed queries are not cancelled
+		Assert.assertEquals(1, dataSource.openConnections.get());
+	}
+	
+	@Test
+	public void testMapperError() throws SQLException {
+		RowCursor<Integer> cursor = query.open("SELECT id FROM t", new RowMapper<Integer>() {
+			@Override
+			public Integer map(ResultSet rs, long rowNumber) throws SQLException {
+				throw new IllegalStateException();
+			}
+		});
+		
+		try {
+			cursor.next();
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+			// Expected...
+		}
+		
+		Assert.assertTrue(cursor.isClosed());
+		Assert.assertEquals(1, dataSource.openConnections.get());
+	}
+	
+	@Test
+	public void testTransactionConnection() throws SQLException {
+		TransactionExecutor executor = new TransactionExecutor(dataSource);
+		
+		executor.execute(new SqlWork<Void>() {
+			@Override
+			public Void execute(Connection connection) throws SQLException {
+				try (Statement stmt = connection.createStatement()) {
+					stmt.executeUpdate("INSERT INTO t VALUES (101)");
+				}
+				
+				try (RowCursor<Integer> cursor = query.open("SELECT COUNT(*) FROM t", ID_MAPPER)) {
+					Assert.assertEquals(101, (int) cursor.next()); // <-- Query sees uncommitted work of the transaction
+				}
+				
+				Assert.assertFalse(connection.isClosed());
+				Assert.assertEquals(2, dataSource.openConnections.get());
+				return null;
+			}
+		});
+		
+		try (RowCursor<Integer> cursor = query.open("SELECT COUNT(*) FROM t", ID_MAPPER)) {
+			Assert.assertEquals(101, (int) cursor.next()); // <-- Cursor did not roll back the transaction
+		}
+	}
+	
+	@Test
+	public void testInvalidArguments() throws SQLException {
+		try {
+			query.open(" ", ID_MAPPER);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+		
+		try {
+			query.setFetchSize(0);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	// =========================================================================
+}
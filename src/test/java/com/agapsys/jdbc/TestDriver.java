@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver of in-memory databases which can be made unreachable.
+ * URLs have the form {@code jdbc:test:<name>} and are served by H2 in-memory
+ * databases. Connections to a database which is down fail with a connection
+ * exception (SQL state 08001).
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TestDriver implements Driver {
+	// CLASS SCOPE =============================================================
+	public static final String URL_PREFIX = "jdbc:test:";
+	
+	private static final Driver      H2_DRIVER = new org.h2.Driver();
+	private static final Set<String> DOWN      = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/** Defines if the database with given name is unreachable. */
+	public static void setDown(String name, boolean down) {
+		if (down) {
+			DOWN.add(name);
+		} else {
+			DOWN.remove(name);
+		}
+	}
+	
+	/** Opens a connection to the database with given name (even if it is down). */
+	public static Connection getConnection(String name) throws SQLException {
+		Properties info = new Properties();
+		info.put("user", "sa");
+		info.put("password", "");
+		return H2_DRIVER.connect("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", info);
+	}
+	
+	/** Returns settings of a pool of connections to the database with given name. */
+	public static PoolSettings getSettings(String name) {
+		PoolSettings settings = new PoolSettings() {};
+		settings.setDriverClass(TestDriver.class.getName());
+		settings.setUri(URL_PREFIX + name);
+		settings.setUsername("sa");
+		settings.setPassword("");
+		return settings;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url))
+			return null;
+		
+		String name = url.substring(URL_PREFIX.length());
+		if (DOWN.contains(name))
+			throw new SQLNonTransientConnectionException("Database is down: " + name, "08001");
+		
+		return H2_DRIVER.connect("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", info);
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+	// =========================================================================
+}
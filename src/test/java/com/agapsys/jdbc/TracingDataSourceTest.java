@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TracingDataSource}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TracingDataSourceTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	private static class TraceCollector implements StatementTraceListener {
+		private final List<StatementTrace> traces = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onStatement(StatementTrace trace) {
+			traces.add(trace);
+		}
+	}
+	
+	private static StatementStats getStats(StatementTracer tracer, String shape) {
+		for (StatementStats stats : tracer.getStatistics()) {
+			if (stats.getShape().equals(shape))
+				return stats;
+		}
+		
+		return null;
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private JdbcDataSource    h2DataSource;
+	private Connection        connection; // <-- Keeps the in-memory database alive
+	private StatementTracer   tracer;
+	private TracingDataSource dataSource;
+	private TraceCollector    collector;
+	
+	@Before
+	public void before() throws SQLException {
+		h2DataSource = new JdbcDataSource();
+		h2DataSource.setURL("jdbc:h2:mem:tracing" + (databaseCount++));
+		connection = h2DataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY, name VARCHAR(32))");
+			stmt.execute("CREATE ALIAS SLEEP FOR \"java.lang.Thread.sleep\"");
+		}
+		
+		tracer = new StatementTracer();
+		tracer.setSlowThresholdMillis(-1);
+		collector = new TraceCollector();
+		tracer.addListener(collector);
+		dataSource = new TracingDataSource(h2DataSource, tracer);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	@Test
+	public void testStatistics() throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			Assert.assertEquals(1, stmt.executeUpdate("INSERT INTO t VALUES (1, 'a')"));
+			Assert.assertEquals(1, stmt.executeUpdate("INSERT INTO t VALUES (2, 'b')"));
+			
+			try (PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM t WHERE id >= ?")) {
+				pstmt.setInt(1, 0);
+				
+				try (ResultSet rs = pstmt.executeQuery()) {
+					while (rs.next()) {}
+					Assert.assertSame(pstmt, rs.getStatement());
+				}
+				
+				Assert.assertSame(conn, pstmt.getConnection());
+			}
+		}
+		
+		StatementStats inserts = getStats(tracer, SqlShape.normalize("INSERT INTO t VALUES (1, 'a')"));
+		Assert.assertNotNull(inserts);
+		Assert.assertEquals(2, inserts.getCount());
+		Assert.assertEquals(2, inserts.getRows());
+		
+		StatementStats selects = getStats(tracer, SqlShape.normalize("SELECT * FROM t WHERE id >= ?"));
+		Assert.assertNotNull(selects);
+		Assert.assertEquals(1, selects.getCount());
+		Assert.assertEquals(2, selects.getRows()); // <-- Fetched rows
+		
+		Assert.assertEquals(3, collector.traces.size());
+		
+		tracer.reset();
+		Assert.assertTrue(tracer.getStatistics().isEmpty());
+	}
+	
+	@Test
+	public void testErrors() throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("INSERT INTO missing VALUES (1)");
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(1, tracer.getStatistics().get(0).getErrors());
+		Assert.assertNotNull(collector.traces.get(0).getError());
+	}
+	
+	@Test
+	public void testSampling() throws SQLException {
+		tracer.setSampleRate(0);
+		
+		try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("INSERT INTO t VALUES (1, 'a')");
+		}
+		
+		Assert.assertTrue(tracer.getStatistics().isEmpty());
+		Assert.assertTrue(collector.traces.isEmpty());
+		
+		try {
+			tracer.setSampleRate(1.5);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			// Expected...
+		}
+	}
+	
+	@Test
+	public void testSlowStatements() throws SQLException {
+		tracer.setSampleRate(0);
+		tracer.setSlowThresholdMillis(20);
+		
+		try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.execute("CALL SLEEP(1)");
+			stmt.execute("CALL SLEEP(50)");
+		}
+		
+		Assert.assertTrue(tracer.getStatistics().isEmpty()); // <-- Slow statements are logged even if not sampled
+		Assert.assertEquals(1, collector.traces.size());
+		Assert.assertEquals("CALL SLEEP(50)", collector.traces.get(0).getSql());
+		Assert.assertTrue(collector.traces.get(0).getElapsedMillis() >= 20);
+	}
+	
+	@Test
+	public void testBatch() throws SQLException {
+		try (Connection conn = dataSource.getConnection(); PreparedStatement pstmt = conn.prepareStatement("INSERT INTO t VALUES (?, ?)")) {
+			for (int i = 0; i < 3; i++) {
+				pstmt.setInt(1, i);
+				pstmt.setString(2, "name" + i);
+				pstmt.addBatch();
+			}
+			
+			pstmt.executeBatch();
+		}
+		
+		StatementStats stats = getStats(tracer, SqlShape.normalize("INSERT INTO t VALUES (?, ?)"));
+		Assert.assertEquals(3, stats.getCount());
+		Assert.assertEquals(3, stats.getRows());
+	}
+	
+	@Test
+	public void testMaxShapes() throws SQLException {
+		tracer.setMaxShapes(1);
+		
+		try (Connection conn = dataSource.getConnection(); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("INSERT INTO t VALUES (1, 'a')");
+			stmt.executeUpdate("UPDATE t SET name = 'b'");
+			stmt.executeUpdate("DELETE FROM t");
+		}
+		
+		Assert.assertEquals(2, tracer.getStatistics().size());
+		Assert.assertEquals(2, getStats(tracer, StatementTracer.OTHER_SHAPE).getCount());
+	}
+	
+	@Test
+	public void testDisabled() throws SQLException {
+		tracer.setEnabled(false);
+		
+		try (Connection conn = h2DataSource.getConnection()) {
+			Assert.assertSame(conn, tracer.wrap(conn));
+		}
+	}
+	
+	@Test
+	public void testSqlRunner() throws Exception {
+		SqlScript script = SqlScript.fromString("script", "INSERT INTO t VALUES (1, 'a'); INSERT INTO t VALUES (2, 'b'); UPDATE t SET name = 'c';");
+		
+		try (Connection conn = h2DataSource.getConnection()) {
+			SqlRunner.run(conn, script, 10, new CommitPolicy(0, 0, null), tracer);
+		}
+		
+		Assert.assertEquals(3, collector.traces.size());
+		
+		for (StatementTrace trace : collector.traces)
+			Assert.assertEquals("script", trace.getLabel());
+		
+		Assert.assertEquals(2, getStats(tracer, SqlShape.normalize("INSERT INTO t VALUES (1, 'a')")).getCount());
+		Assert.assertEquals(2, getStats(tracer, SqlShape.normalize("UPDATE t SET name = 'c'")).getRows());
+	}
+	// =========================================================================
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Agapsys Tecnologia Ltda-ME.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.agapsys.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TransactionExecutor}.
+ * @author Leandro Oliveira (leandro@agapsys.com)
+ */
+public class TransactionExecutorTest {
+	// CLASS SCOPE =============================================================
+	private static int databaseCount = 0;
+	
+	/** Data source which counts provided connections. */
+	private static class CountingDataSource extends JdbcDataSource {
+		private final AtomicInteger connections = new AtomicInteger();
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			connections.incrementAndGet();
+			return super.getConnection();
+		}
+	}
+	
+	private static SqlWork<Integer> insert(final int id) {
+		return new SqlWork<Integer>() {
+			@Override
+			public Integer execute(Connection connection) throws SQLException {
+				try (Statement stmt = connection.createStatement()) {
+					return stmt.executeUpdate("INSERT INTO t VALUES (" + id + ")");
+				}
+			}
+		};
+	}
+	// =========================================================================
+	
+	// INSTANCE SCOPE ==========================================================
+	private CountingDataSource  dataSource;
+	private Connection          connection; // <-- Keeps the in-memory database alive
+	private TransactionExecutor executor;
+	
+	@Before
+	public void before() throws SQLException {
+		dataSource = new CountingDataSource();
+		dataSource.setURL("jdbc:h2:mem:transaction" + (databaseCount++));
+		connection = dataSource.getConnection();
+		
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE t (id INT PRIMARY KEY)");
+		}
+		
+		dataSource.connections.set(0);
+		executor = new TransactionExecutor(dataSource);
+	}
+	
+	@After
+	public void after() throws SQLException {
+		connection.close();
+	}
+	
+	private int countRows() throws SQLException {
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM t")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+	
+	@Test
+	public void testCommit() throws SQLException {
+		Assert.assertEquals(1, (int) executor.execute(insert(1)));
+		Assert.assertEquals(1, countRows());
+		Assert.assertFalse(executor.isInTransaction());
+		Assert.assertNull(executor.getCurrentConnection());
+	}
+	
+	@Test
+	public void testRollback() throws SQLException {
+		try {
+			executor.execute(new SqlWork<Void>() {
+				@Override
+				public Void execute(Connection connection) throws SQLException {
+					insert(1).execute(connection);
+					insert(1).execute(connection);
+					return null;
+				}
+			});
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected (duplicate key)...
+		}
+		
+		Assert.assertEquals(0, countRows());
+		Assert.assertFalse(executor.isInTransaction());
+	}
+	
+	@Test
+	public void testRuntimeExceptionRollsBack() throws SQLException {
+		try {
+			executor.execute(new SqlWork<Void>() {
+				@Override
+				public Void execute(Connection connection) throws SQLException {
+					insert(1).execute(connection);
+					throw new IllegalStateException();
+				}
+			});
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+			// Expected...
+		}
+		
+		Assert.assertEquals(0, countRows());
+	}
+	
+	@Test
+	public void testNestedWork() throws SQLException {
+		final TransactionExecutor other = new TransactionExecutor(dataSource);
+		
+		executor.execute(new SqlWork<Void>() {
+			@Override
+			public Void execute(final Connection outer) throws SQLException {
+				insert(1).execute(outer);
+				
+				Assert.assertTrue(other.isInTransaction());
+				Assert.assertSame(outer, other.getCurrentConnection());
+				Assert.assertSame(outer, TransactionExecutor.getCurrentConnection(dataSource));
+				
+				other.execute(new SqlWork<Void>() {
+					@Override
+					public Void execute(Connection inner) throws SQLException {
+						Assert.assertSame(outer, inner);
+						insert(2).execute(inner);
+						return null;
+					}
+				});
+				
+				Assert.assertEquals(0, countRows()); // <-- Nested work is not committed
+				return null;
+			}
+		});
+		
+		Assert.assertEquals(2, countRows());
+		Assert.assertEquals(1, dataSource.connections.get());
+	}
+	
+	@Test
+	public void testFailedNestedWork() throws SQLException {
+		try {
+			executor.execute(new SqlWork<Void>() {
+				@Override
+				public Void execute(Connection connection) throws SQLException {
+					insert(1).execute(connection);
+					
+					try {
+						executor.execute(insert(1));
+						Assert.fail();
+					} catch (SQLException ex) {
+						// Handled by the enclosing work...
+					}
+					
+					return null;
+				}
+			});
+			Assert.fail();
+		} catch (SQLException ex) {
+			// Expected (transaction is rollback-only)...
+		}
+		
+		Assert.assertEquals(0, countRows());
+	}
+	
+	@Test
+	public void testIndependentDataSources() throws SQLException {
+		CountingDataSource otherDataSource = new CountingDataSource();
+		otherDataSource.setURL(dataSource.getURL());
+		final TransactionExecutor other = new TransactionExecutor(otherDataSource);
+		
+		executor.execute(new SqlWork<Void>() {
+			@Override
+			public Void execute(Connection connection) throws SQLException {
+				Assert.assertFalse(other.isInTransaction());
+				
+				other.execute(insert(1));
+				Assert.assertEquals(1, countRows()); // <-- Committed by its own transaction
+				return null;
+			}
+		});
+		
+		Assert.assertEquals(1, otherDataSource.connections.get());
+	}
+	
+	@Test
+	public void testCompletionCallbacks() throws SQLException {
+		final AtomicBoolean called = new AtomicBoolean();
+		
+		Assert.assertFalse(TransactionExecutor.runAfterCompletion(dataSource, new Runnable() {
+			@Override
+			public void run() {}
+		}));
+		
+		executor.execute(new SqlWork<Void>() {
+			@Override
+			public Void execute(Connection connection) throws SQLException {
+				Assert.assertTrue(TransactionExecutor.runAfterCompletion(dataSource, new Runnable() {
+					@Override
+					public void run() {
+						called.set(true);
+					}
+				}));
+				
+				Assert.assertFalse(called.get());
+				return null;
+			}
+		});
+		
+		Assert.assertTrue(called.get());
+	}
+	// =========================================================================
+}